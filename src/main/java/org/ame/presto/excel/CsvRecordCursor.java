@@ -0,0 +1,345 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.excel;
+
+import com.facebook.presto.common.type.Type;
+import com.facebook.presto.spi.RecordCursor;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.io.CountingInputStream;
+import io.airlift.slice.Slice;
+import org.ame.presto.excel.HighWaterMarks.HighWaterMark;
+import org.ame.presto.excel.csv.CsvReader;
+import org.ame.presto.excel.session.ISession;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import static com.facebook.presto.common.type.BigintType.BIGINT;
+import static com.facebook.presto.common.type.BooleanType.BOOLEAN;
+import static com.facebook.presto.common.type.DoubleType.DOUBLE;
+import static com.facebook.presto.common.type.VarcharType.createUnboundedVarcharType;
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+import static org.ame.presto.excel.FileTypeJudge.getCsvDelimiter;
+import static org.ame.presto.excel.FileTypeJudge.isCompressedFile;
+import static org.ame.presto.excel.csv.CsvValues.parseBoolean;
+import static org.ame.presto.excel.csv.CsvValues.parseDouble;
+import static org.ame.presto.excel.csv.CsvValues.parseLong;
+
+/**
+ * Reads a byte range of a CSV or TSV file. The range owns every row starting in it, so the
+ * partial row at its start belongs to the previous range, and the row crossing its end is read completely.
+ * Scans that need row numbers read a file as a single range, a range that does not start the file is only
+ * numbered by counting the rows before it, starting from the high-water mark of the file when there is one.
+ */
+public class CsvRecordCursor
+        implements RecordCursor
+{
+    private final List<ExcelColumnHandle> columnHandles;
+    private final int[] ordinals;
+    private final String schemaName;
+    private final String path;
+    private final ISession session;
+    private final CountingInputStream inputStream;
+    private final CsvReader reader;
+    private final long openPosition;
+    private final long end;
+    private final int rowNumberField;
+    // values of the file columns by field
+    private final Object[] fileValues;
+    private final long firstRowNumber;
+    private final long lastRowNumber;
+    // whether the row numbers are known, they are only counted when they are needed
+    private final boolean numbered;
+    private long rowNumber;
+    private final HighWaterMarks highWaterMarks;
+    private final SplitMemoryLimit memoryLimit;
+    private final String protocol;
+    private final ExcelStats stats;
+    private final long openNanos;
+    private long parseNanos;
+    private long rows;
+    // typed values parsed for the current row, valid when parsed[field] is set
+    private final boolean[] parsed;
+    private final boolean[] valid;
+    private final long[] longValues;
+    private final double[] doubleValues;
+    private final boolean[] booleanValues;
+
+    public CsvRecordCursor(
+            List<ExcelColumnHandle> columnHandles,
+            String schemaName,
+            String path,
+            long fileModifiedTime,
+            long start,
+            long length,
+            long firstRowNumber,
+            long lastRowNumber,
+            ISession session,
+            int bufferSize,
+            int maxBufferSize,
+            HighWaterMarks highWaterMarks,
+            SplitMemoryLimit memoryLimit,
+            String protocol,
+            ExcelStats stats)
+            throws Exception
+    {
+        this.columnHandles = ImmutableList.copyOf(requireNonNull(columnHandles, "columnHandles is null"));
+        this.ordinals = columnHandles.stream().mapToInt(ExcelColumnHandle::getOrdinalPosition).toArray();
+        this.schemaName = requireNonNull(schemaName, "schemaName is null");
+        this.path = requireNonNull(path, "path is null");
+        this.session = requireNonNull(session, "session is null");
+        this.highWaterMarks = requireNonNull(highWaterMarks, "highWaterMarks is null");
+        this.memoryLimit = requireNonNull(memoryLimit, "memoryLimit is null");
+        this.protocol = requireNonNull(protocol, "protocol is null");
+        this.stats = requireNonNull(stats, "stats is null");
+        // positions in a compressed file are positions in its decompressed content, which is read as a whole
+        this.end = isCompressedFile(path) ? Long.MAX_VALUE : start + length;
+        this.rowNumberField = Iterables.indexOf(columnHandles, ExcelColumnHandle::isRowNumber);
+        this.firstRowNumber = firstRowNumber;
+        this.lastRowNumber = lastRowNumber;
+        long openStart = System.nanoTime();
+        long position = start;
+        boolean atRowStart = false;
+        boolean needsRowNumbers = rowNumberField >= 0 || firstRowNumber > 1 || lastRowNumber < Long.MAX_VALUE;
+        if (needsRowNumbers) {
+            Optional<HighWaterMark> mark = highWaterMarks.get(session, schemaName, path);
+            if (mark.isPresent() && mark.get().getRowCount() < firstRowNumber && mark.get().getPosition() > start) {
+                // the rows of the range before the mark are all before the $row_number range
+                position = mark.get().getPosition();
+                rowNumber = mark.get().getRowCount();
+                atRowStart = true;
+            }
+            else if (start > 0) {
+                rowNumber = countRows(start, bufferSize, maxBufferSize, mark);
+            }
+        }
+        this.numbered = needsRowNumbers || start == 0;
+        this.openPosition = position;
+        inputStream = new CountingInputStream(session.getInputStream(schemaName, path, position));
+        reader = new CsvReader(inputStream, getCsvDelimiter(path), position, bufferSize, maxBufferSize, memoryLimit);
+        // the first row of the file is the header, other ranges start with the tail of a row of the previous range
+        if (position == 0) {
+            reader.next();
+        }
+        else if (!atRowStart) {
+            reader.skipLine();
+        }
+        fileValues = new Object[columnHandles.size()];
+        for (int field = 0; field < columnHandles.size(); field++) {
+            if (columnHandles.get(field).isFileColumn()) {
+                fileValues[field] = columnHandles.get(field).getFileValue(path, null, fileModifiedTime);
+            }
+        }
+        openNanos = System.nanoTime() - openStart;
+        parsed = new boolean[columnHandles.size()];
+        valid = new boolean[columnHandles.size()];
+        longValues = new long[columnHandles.size()];
+        doubleValues = new double[columnHandles.size()];
+        booleanValues = new boolean[columnHandles.size()];
+    }
+
+    @Override
+    public long getCompletedBytes()
+    {
+        return inputStream.getCount();
+    }
+
+    @Override
+    public long getReadTimeNanos()
+    {
+        return openNanos + parseNanos;
+    }
+
+    @Override
+    public Type getType(int field)
+    {
+        return columnHandles.get(field).getColumnType();
+    }
+
+    @Override
+    public boolean advanceNextPosition()
+    {
+        long start = System.nanoTime();
+        try {
+            while (reader.next()) {
+                if (reader.getRowPosition() > end) {
+                    return false;
+                }
+                rowNumber++;
+                if (rowNumber > lastRowNumber) {
+                    return false;
+                }
+                // rows before the $row_number range are not parsed
+                if (rowNumber >= firstRowNumber) {
+                    rows++;
+                    Arrays.fill(parsed, false);
+                    return true;
+                }
+            }
+            if (numbered) {
+                highWaterMarks.update(session, schemaName, path, rowNumber, openPosition + inputStream.getCount());
+            }
+            return false;
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        finally {
+            parseNanos += System.nanoTime() - start;
+        }
+    }
+
+    @Override
+    public boolean getBoolean(int field)
+    {
+        checkFieldType(field, BOOLEAN);
+        parse(field);
+        return booleanValues[field];
+    }
+
+    @Override
+    public long getLong(int field)
+    {
+        if (columnHandles.get(field).isFileColumn()) {
+            return (long) fileValues[field];
+        }
+        checkFieldType(field, BIGINT);
+        if (field == rowNumberField) {
+            return rowNumber;
+        }
+        parse(field);
+        return longValues[field];
+    }
+
+    @Override
+    public double getDouble(int field)
+    {
+        checkFieldType(field, DOUBLE);
+        parse(field);
+        return doubleValues[field];
+    }
+
+    @Override
+    public Slice getSlice(int field)
+    {
+        checkFieldType(field, createUnboundedVarcharType());
+        if (columnHandles.get(field).isFileColumn()) {
+            return (Slice) fileValues[field];
+        }
+        return reader.getSlice(ordinals[field]);
+    }
+
+    @Override
+    public Object getObject(int field)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean isNull(int field)
+    {
+        checkArgument(field < columnHandles.size(), "Invalid field index");
+        if (field == rowNumberField) {
+            return false;
+        }
+        if (columnHandles.get(field).isFileColumn()) {
+            return fileValues[field] == null;
+        }
+        if (reader.isEmpty(ordinals[field])) {
+            return true;
+        }
+        // values that do not match the inferred type are read as null
+        return !parse(field);
+    }
+
+    @Override
+    public long getSystemMemoryUsage()
+    {
+        return reader.getRetainedSizeInBytes();
+    }
+
+    @Override
+    public void close()
+    {
+        stats.addBytesRead(protocol, inputStream.getCount());
+        stats.addSplitRead(rows, rows * columnHandles.size(), openNanos, parseNanos, 0);
+        try {
+            reader.close();
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        finally {
+            session.close();
+        }
+    }
+
+    /**
+     * Counts the rows of the file that start before the position, which belong to the previous ranges.
+     */
+    private long countRows(long position, int bufferSize, int maxBufferSize, Optional<HighWaterMark> mark)
+            throws Exception
+    {
+        long resumePosition = 0;
+        long count = 0;
+        if (mark.isPresent() && mark.get().getPosition() <= position) {
+            resumePosition = mark.get().getPosition();
+            count = mark.get().getRowCount();
+        }
+        try (CsvReader counter = new CsvReader(session.getInputStream(schemaName, path, resumePosition), getCsvDelimiter(path), resumePosition, bufferSize, maxBufferSize, memoryLimit)) {
+            // skip the header
+            if (resumePosition == 0) {
+                counter.next();
+            }
+            while (counter.next() && counter.getRowPosition() <= position) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private boolean parse(int field)
+    {
+        if (parsed[field]) {
+            return valid[field];
+        }
+        Type type = getType(field);
+        int ordinal = ordinals[field];
+        if (type.equals(BIGINT)) {
+            valid[field] = parseLong(reader, ordinal, longValues, field);
+        }
+        else if (type.equals(DOUBLE)) {
+            valid[field] = parseDouble(reader, ordinal, doubleValues, field);
+        }
+        else if (type.equals(BOOLEAN)) {
+            valid[field] = parseBoolean(reader, ordinal, booleanValues, field);
+        }
+        else {
+            valid[field] = true;
+        }
+        parsed[field] = true;
+        return valid[field];
+    }
+
+    private void checkFieldType(int field, Type expected)
+    {
+        Type actual = getType(field);
+        checkArgument(actual.equals(expected), "Expected field %s to be type %s but is %s", field, expected, actual);
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.excel;
+
+import org.ame.presto.excel.session.ISession;
+import org.ame.presto.excel.xlsx.DeflateCheckpointIndex;
+
+import java.util.Optional;
+
+import static org.ame.presto.excel.FileTypeJudge.isCompressedFile;
+import static org.ame.presto.excel.FileTypeJudge.isXlsxFile;
+
+/**
+ * Keeps the checkpoint indexes of xlsx files in hidden files next to them. An index is built by the first split that
+ * reads a whole sheet, and lets later splits start inflating the sheet at a row, so that a large sheet can be read
+ * by several splits. Compressed files and archive entries are not indexed.
+ */
+public class DeflateCheckpoints
+{
+    private final SidecarFiles indexes = new SidecarFiles(".checkpoints", "checkpoint index");
+    private final boolean enabled;
+    private final long interval;
+
+    public DeflateCheckpoints(boolean enabled, long interval)
+    {
+        this.enabled = enabled;
+        this.interval = interval;
+    }
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    public boolean isEnabled(String path)
+    {
+        return enabled && isXlsxFile(path) && !isCompressedFile(path);
+    }
+
+    /**
+     * Returns the number of inflated bytes between the checkpoints of a new index.
+     */
+    public long getInterval()
+    {
+        return interval;
+    }
+
+    /**
+     * Returns the index of the file, if it was built from the file with this size and modification time.
+     * Without the windows, the index tells where the checkpoints are, but cannot open the sheet at them.
+     */
+    public Optional<DeflateCheckpointIndex> get(ISession session, String schemaName, String path, long fileSize, long modifiedTime, boolean readWindows)
+    {
+        if (!isEnabled(path)) {
+            return Optional.empty();
+        }
+        return indexes.read(session, schemaName, path, inputStream -> DeflateCheckpointIndex.read(inputStream, readWindows), index -> index.matches(fileSize, modifiedTime));
+    }
+
+    /**
+     * Writes the index next to the file, replacing an index of an older version of the file.
+     */
+    public void put(ISession session, String schemaName, String path, DeflateCheckpointIndex index)
+    {
+        if (!isEnabled(path)) {
+            return;
+        }
+        indexes.write(session, schemaName, path, index::write);
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.excel;
+
+import com.facebook.presto.common.predicate.Domain;
+import com.facebook.presto.common.type.Type;
+import com.facebook.presto.spi.RecordCursor;
+import io.airlift.slice.Slice;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Drops the rows of the delegate whose join keys are outside of the dynamic filter.
+ * The key columns are read first, so the delegate only converts the other columns of matching rows.
+ */
+public class DynamicFilterRecordCursor
+        implements RecordCursor
+{
+    private final RecordCursor delegate;
+    private final int[] fields;
+    private final Domain[] domains;
+    private final ExcelStats stats;
+    private long droppedRows;
+
+    public DynamicFilterRecordCursor(RecordCursor delegate, int[] fields, Domain[] domains, ExcelStats stats)
+    {
+        this.delegate = requireNonNull(delegate, "delegate is null");
+        this.fields = requireNonNull(fields, "fields is null");
+        this.domains = requireNonNull(domains, "domains is null");
+        this.stats = requireNonNull(stats, "stats is null");
+    }
+
+    @Override
+    public long getCompletedBytes()
+    {
+        return delegate.getCompletedBytes();
+    }
+
+    @Override
+    public long getReadTimeNanos()
+    {
+        return delegate.getReadTimeNanos();
+    }
+
+    @Override
+    public long getSystemMemoryUsage()
+    {
+        return delegate.getSystemMemoryUsage();
+    }
+
+    @Override
+    public Type getType(int field)
+    {
+        return delegate.getType(field);
+    }
+
+    @Override
+    public boolean advanceNextPosition()
+    {
+        while (delegate.advanceNextPosition()) {
+            if (matches()) {
+                return true;
+            }
+            droppedRows++;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean getBoolean(int field)
+    {
+        return delegate.getBoolean(field);
+    }
+
+    @Override
+    public long getLong(int field)
+    {
+        return delegate.getLong(field);
+    }
+
+    @Override
+    public double getDouble(int field)
+    {
+        return delegate.getDouble(field);
+    }
+
+    @Override
+    public Slice getSlice(int field)
+    {
+        return delegate.getSlice(field);
+    }
+
+    @Override
+    public Object getObject(int field)
+    {
+        return delegate.getObject(field);
+    }
+
+    @Override
+    public boolean isNull(int field)
+    {
+        return delegate.isNull(field);
+    }
+
+    @Override
+    public void close()
+    {
+        stats.addDynamicFilterRowsDropped(droppedRows);
+        delegate.close();
+    }
+
+    private boolean matches()
+    {
+        for (int i = 0; i < fields.length; i++) {
+            if (!includes(fields[i], domains[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean includes(int field, Domain domain)
+    {
+        if (delegate.isNull(field)) {
+            return domain.isNullAllowed();
+        }
+        Class<?> javaType = delegate.getType(field).getJavaType();
+        Object value;
+        if (javaType == boolean.class) {
+            value = delegate.getBoolean(field);
+        }
+        else if (javaType == long.class) {
+            value = delegate.getLong(field);
+        }
+        else if (javaType == double.class) {
+            value = delegate.getDouble(field);
+        }
+        else if (javaType == Slice.class) {
+            value = delegate.getSlice(field);
+        }
+        else {
+            return true;
+        }
+        return domain.includesNullableValue(value);
+    }
+}
@@ -15,68 +15,117 @@ package org.ame.presto.excel;
 
 import com.facebook.airlift.json.JsonCodec;
 import com.facebook.airlift.log.Logger;
+import com.facebook.presto.common.type.Type;
 import com.facebook.presto.common.type.VarcharType;
+import com.facebook.presto.spi.PrestoException;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
 import com.google.inject.Inject;
 import com.monitorjbl.xlsx.StreamingReader;
+import io.airlift.slice.Slice;
+import org.ame.presto.excel.csv.CsvReader;
 import org.ame.presto.excel.session.ISession;
+import org.ame.presto.excel.session.RangeSource;
+import org.ame.presto.excel.session.SessionFile;
 import org.ame.presto.excel.session.SessionProvider;
+import org.ame.presto.excel.xlsx.SheetReader;
+import org.ame.presto.excel.xlsx.XlsxWorkbook;
+import org.apache.poi.ss.SpreadsheetVersion;
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
 import org.apache.poi.ss.usermodel.WorkbookFactory;
 
+import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Properties;
 import java.util.Set;
+import java.util.function.Consumer;
 
 import static java.util.Objects.requireNonNull;
+import static org.ame.presto.excel.ExcelErrorCode.EXCEL_WRITER_ERROR;
+import static org.ame.presto.excel.FileTypeJudge.getCsvDelimiter;
+import static org.ame.presto.excel.FileTypeJudge.isCsvFile;
+import static org.ame.presto.excel.FileTypeJudge.isXlsbFile;
 import static org.ame.presto.excel.FileTypeJudge.isXlsxFile;
+import static org.ame.presto.excel.csv.CsvValues.inferType;
+import static org.ame.presto.excel.session.ProtocolType.isHttp;
 
 public class ExcelClient
 {
     private final Logger logger = Logger.get(ExcelClient.class);
     private final ExcelConfig config;
-    private static Integer rowCacheSize = 100;
-    private static Integer bufferSize = 4096;
+    private final ExcelStats stats;
+    private final Map<String, String> workbookPasswords;
+    private final HighWaterMarks highWaterMarks;
+    private final SplitMemoryLimit splitMemoryLimit;
+    private final DeflateCheckpoints deflateCheckpoints;
+    private final ZoneMaps zoneMaps;
+    private static final int CSV_TYPE_INFERENCE_ROWS = 1000;
 
     @Inject
-    public ExcelClient(ExcelConfig config, JsonCodec<Map<String, List<ExcelTable>>> catalogCodec)
+    public ExcelClient(ExcelConfig config, ExcelStats stats, JsonCodec<Map<String, List<ExcelTable>>> catalogCodec)
     {
         requireNonNull(config, "config is null");
         requireNonNull(catalogCodec, "catalogCodec is null");
         this.config = config;
-        if (config.getRowCacheSize() != null) {
-            rowCacheSize = config.getRowCacheSize();
-        }
-        if (config.getBufferSize() != null) {
-            bufferSize = config.getBufferSize();
-        }
+        this.stats = requireNonNull(stats, "stats is null");
+        this.workbookPasswords = loadWorkbookPasswords(config.getWorkbookPasswordFile());
+        this.highWaterMarks = new HighWaterMarks(config.isHighWaterMarksEnabled());
+        this.splitMemoryLimit = new SplitMemoryLimit(config.getMaxSplitMemory().toBytes());
+        this.deflateCheckpoints = new DeflateCheckpoints(config.isDeflateCheckpointsEnabled(), config.getDeflateCheckpointInterval().toBytes());
+        this.zoneMaps = new ZoneMaps(config.isZoneMapsEnabled(), config.getZoneMapBlockRows());
     }
 
-    public Optional<ExcelTable> getTable(String schemaName, String tableName)
+    /**
+     * Reads the header of a table, and with csvTypeInferenceEnabled infers the column types of a text file from its first rows.
+     */
+    public Optional<ExcelTable> getTable(String schemaName, String tableName, boolean csvTypeInferenceEnabled)
     {
-        ImmutableList.Builder<ExcelColumn> columns = ImmutableList.builder();
         // Assume the first row is always the header
         List<Object> header = new ArrayList<>();
-        Set<String> columnNames = new HashSet<>();
+        List<Type> types = new ArrayList<>();
+        long start = System.nanoTime();
         try {
             ISession session = getSession();
-            InputStream inputStream = session.getInputStream(schemaName, tableName);
+            // the header of a directory table is taken from its first file
+            List<SessionFile> files = session.getFiles(schemaName, tableName);
+            if (files.isEmpty()) {
+                session.close();
+                throw new IllegalStateException("No Excel file found in " + tableName);
+            }
+            String path = files.get(0).getPath();
+            if (isCsvFile(path)) {
+                readCsvHeader(session, schemaName, path, csvTypeInferenceEnabled, header, types);
+                session.close();
+                return Optional.of(buildTable(tableName, header, types, start));
+            }
+            String password = getWorkbookPassword(schemaName, tableName);
+            if (isXlsbFile(path)) {
+                readXlsbHeader(session, schemaName, path, password, header);
+                session.close();
+                return Optional.of(buildTable(tableName, header, types, start));
+            }
+            InputStream inputStream = session.getInputStream(schemaName, path);
             Workbook workbook;
             // use streaming reader for xlsx files
-            if (isXlsxFile(tableName)) {
-                workbook = StreamingReader.builder().bufferSize(bufferSize).open(inputStream);
+            if (isXlsxFile(path)) {
+                workbook = StreamingReader.builder().bufferSize(config.getBufferSize()).password(password).open(inputStream);
             }
             else {
-                workbook = WorkbookFactory.create(inputStream);
+                workbook = WorkbookFactory.create(inputStream, password);
             }
             Sheet sheet = workbook.getSheetAt(0);
             // sheet.getRow() is not supported in excel-streaming-reader
@@ -93,9 +142,18 @@ public class ExcelClient
             session.close();
         }
         catch (Exception e) {
+            stats.addHeaderProbe(System.nanoTime() - start, false);
             logger.warn(e, "Error while reading excel file %s", tableName);
             return Optional.empty();
         }
+        return Optional.of(buildTable(tableName, header, types, start));
+    }
+
+    private ExcelTable buildTable(String tableName, List<Object> header, List<Type> types, long start)
+    {
+        stats.addHeaderProbe(System.nanoTime() - start, true);
+        ImmutableList.Builder<ExcelColumn> columns = ImmutableList.builder();
+        Set<String> columnNames = new HashSet<>();
         for (int i = 0; i < header.size(); i++) {
             String columnName = header.get(i).toString().toLowerCase(Locale.ENGLISH);
             // when empty or repeated column header, adding a placeholder column name
@@ -103,9 +161,66 @@ public class ExcelClient
                 columnName = "column_" + i;
             }
             columnNames.add(columnName);
-            columns.add(new ExcelColumn(columnName, VarcharType.VARCHAR));
+            columns.add(new ExcelColumn(columnName, i < types.size() ? types.get(i) : VarcharType.VARCHAR));
+        }
+        return new ExcelTable(tableName, columns.build());
+    }
+
+    private void readXlsbHeader(ISession session, String schemaName, String path, String password, List<Object> header)
+            throws Exception
+    {
+        boolean[] projected = new boolean[SpreadsheetVersion.EXCEL2007.getMaxColumns()];
+        Arrays.fill(projected, true);
+        Optional<RangeSource> rangeSource = session.getRangeSource(schemaName, path);
+        try (XlsxWorkbook workbook = rangeSource.isPresent()
+                ? XlsxWorkbook.open(rangeSource.get(), config.getBufferSize(), config.getBufferSize(), true, password, SplitMemoryLimit.UNLIMITED, null)
+                : XlsxWorkbook.open(session.getInputStream(schemaName, path), config.getBufferSize(), config.getBufferSize(), true, password, SplitMemoryLimit.UNLIMITED, null);
+                SheetReader reader = workbook.openSheetReader(projected, false)) {
+            if (!reader.nextRow()) {
+                return;
+            }
+            for (int cell = 0; cell < reader.getCellCount(); cell++) {
+                String value = reader.getValue(cell);
+                if (reader.getType(cell) == SheetReader.SHARED_STRING) {
+                    Slice sharedString = workbook.getSharedString(Integer.parseInt(value));
+                    value = sharedString == null ? null : sharedString.toStringUtf8();
+                }
+                // skip empty cells
+                if (reader.getType(cell) == SheetReader.BLANK || value == null || value.isEmpty()) {
+                    continue;
+                }
+                header.add(value);
+            }
+        }
+    }
+
+    private void readCsvHeader(ISession session, String schemaName, String path, boolean typeInferenceEnabled, List<Object> header, List<Type> types)
+            throws Exception
+    {
+        try (CsvReader reader = new CsvReader(session.getInputStream(schemaName, path), getCsvDelimiter(path))) {
+            if (!reader.next()) {
+                return;
+            }
+            for (int i = 0; i < reader.getFieldCount(); i++) {
+                header.add(reader.getString(i));
+            }
+            if (!typeInferenceEnabled) {
+                return;
+            }
+            // infer the column types from the first rows
+            List<List<String>> samples = new ArrayList<>();
+            for (int i = 0; i < header.size(); i++) {
+                samples.add(new ArrayList<>());
+            }
+            for (int row = 0; row < CSV_TYPE_INFERENCE_ROWS && reader.next(); row++) {
+                for (int i = 0; i < header.size(); i++) {
+                    samples.get(i).add(reader.getString(i));
+                }
+            }
+            for (List<String> values : samples) {
+                types.add(inferType(values));
+            }
         }
-        return Optional.of(new ExcelTable(tableName, columns.build()));
     }
 
     public List<String> getSchemaNames()
@@ -134,6 +249,113 @@ public class ExcelClient
         }
     }
 
+    /**
+     * Lists the files of a table on the calling thread, passing each one to the consumer as soon as it is found.
+     */
+    public void listFiles(String schemaName, String tableName, Consumer<SessionFile> consumer)
+            throws Exception
+    {
+        ISession session = getSession();
+        try {
+            session.listFiles(schemaName, tableName, consumer);
+        }
+        finally {
+            session.close();
+        }
+    }
+
+    /**
+     * Returns whether tables cannot be written through the sessions of the connector, e.g. over HTTP.
+     */
+    public boolean isReadOnly()
+    {
+        ISession session = getSession();
+        try {
+            return session.isReadOnly();
+        }
+        finally {
+            session.close();
+        }
+    }
+
+    public void createDirectoryTable(String schemaName, String tableName)
+    {
+        ISession session = getSession();
+        try {
+            session.createDirectory(schemaName, tableName);
+        }
+        catch (Exception e) {
+            throw new PrestoException(EXCEL_WRITER_ERROR, "Failed to create table directory " + tableName, e);
+        }
+        finally {
+            session.close();
+        }
+    }
+
+    /**
+     * Renames the hidden directory that a query wrote a new table into to the name of the table.
+     */
+    public void publishDirectoryTable(String schemaName, String directory, String tableName)
+    {
+        ISession session = getSession();
+        try {
+            session.rename(schemaName, directory, tableName);
+        }
+        catch (Exception e) {
+            throw new PrestoException(EXCEL_WRITER_ERROR, "Failed to create table " + tableName, e);
+        }
+        finally {
+            session.close();
+        }
+    }
+
+    /**
+     * Makes the files written by the page sinks visible by dropping the leading dot of their names.
+     */
+    public void commitFiles(String schemaName, Collection<String> paths)
+    {
+        ISession session = getSession();
+        try {
+            for (String path : paths) {
+                int index = path.lastIndexOf('/') + 1;
+                session.rename(schemaName, path, path.substring(0, index) + path.substring(index + 1));
+            }
+        }
+        catch (Exception e) {
+            throw new PrestoException(EXCEL_WRITER_ERROR, "Failed to commit written files", e);
+        }
+        finally {
+            session.close();
+        }
+    }
+
+    /**
+     * Returns the password of an encrypted workbook, configured for the table or for its schema, or null.
+     */
+    public String getWorkbookPassword(String schemaName, String tableName)
+    {
+        String password = workbookPasswords.get(schemaName + "." + tableName);
+        if (password == null) {
+            password = workbookPasswords.get(schemaName);
+        }
+        return password;
+    }
+
+    private static Map<String, String> loadWorkbookPasswords(String file)
+    {
+        if (file == null) {
+            return ImmutableMap.of();
+        }
+        Properties properties = new Properties();
+        try (InputStream inputStream = new FileInputStream(file)) {
+            properties.load(inputStream);
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Failed to load workbook passwords from " + file, e);
+        }
+        return Maps.fromProperties(properties);
+    }
+
     public ISession getSession()
     {
         Map<String, String> sessionInfo = new HashMap<>();
@@ -143,18 +365,78 @@ public class ExcelClient
         sessionInfo.put("port", config.getPort().toString());
         sessionInfo.put("username", config.getUsername());
         sessionInfo.put("password", config.getPassword());
-        sessionInfo.put("rowCacheSize", rowCacheSize.toString());
-        sessionInfo.put("bufferSize", bufferSize.toString());
-        return new SessionProvider(sessionInfo).getSession();
+        if (isHttp(config.getProtocol())) {
+            sessionInfo.put("indexPath", config.getHttpIndexPath());
+            sessionInfo.put("downloadParallelism", String.valueOf(config.getHttpDownloadParallelism()));
+            sessionInfo.put("downloadChunkSize", String.valueOf(config.getHttpDownloadChunkSize().toBytes()));
+        }
+        else {
+            sessionInfo.put("downloadParallelism", String.valueOf(config.getSftpDownloadParallelism()));
+            sessionInfo.put("downloadChunkSize", String.valueOf(config.getSftpDownloadChunkSize().toBytes()));
+        }
+        long start = System.nanoTime();
+        ISession session = new SessionProvider(sessionInfo).getSession();
+        stats.addSessionOpened(System.nanoTime() - start);
+        return session;
+    }
+
+    public String getProtocol()
+    {
+        return config.getProtocol();
+    }
+
+    public boolean isFormulaEvaluationEnabled()
+    {
+        return config.isFormulaEvaluationEnabled();
+    }
+
+    public int getFormulaEvaluationBudget()
+    {
+        return config.getFormulaEvaluationBudget();
+    }
+
+    public int getWriterRowWindow()
+    {
+        return config.getWriterRowWindow();
+    }
+
+    public boolean isCsvSplitEnabled()
+    {
+        return config.isCsvSplitEnabled();
+    }
+
+    public long getCsvSplitSize()
+    {
+        return config.getCsvSplitSize().toBytes();
+    }
+
+    public boolean isSizeBasedSplitWeightsEnabled()
+    {
+        return config.isSizeBasedSplitWeightsEnabled();
+    }
+
+    public double getMinimumSplitWeight()
+    {
+        return config.getMinimumSplitWeight();
+    }
+
+    public HighWaterMarks getHighWaterMarks()
+    {
+        return highWaterMarks;
+    }
+
+    public SplitMemoryLimit getSplitMemoryLimit()
+    {
+        return splitMemoryLimit;
     }
 
-    public Integer getRowCacheSize()
+    public DeflateCheckpoints getDeflateCheckpoints()
     {
-        return rowCacheSize;
+        return deflateCheckpoints;
     }
 
-    public Integer getBufferSize()
+    public ZoneMaps getZoneMaps()
     {
-        return bufferSize;
+        return zoneMaps;
     }
 }
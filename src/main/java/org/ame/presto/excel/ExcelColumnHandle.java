@@ -18,14 +18,42 @@ import com.facebook.presto.spi.ColumnHandle;
 import com.facebook.presto.spi.ColumnMetadata;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.collect.ImmutableList;
 
+import java.util.List;
 import java.util.Objects;
 
+import static com.facebook.presto.common.type.BigintType.BIGINT;
+import static com.facebook.presto.common.type.DateTimeEncoding.packDateTimeWithZone;
+import static com.facebook.presto.common.type.TimeZoneKey.UTC_KEY;
+import static com.facebook.presto.common.type.TimestampWithTimeZoneType.TIMESTAMP_WITH_TIME_ZONE;
+import static com.facebook.presto.common.type.VarcharType.VARCHAR;
 import static com.google.common.base.MoreObjects.toStringHelper;
+import static io.airlift.slice.Slices.utf8Slice;
 
 public class ExcelColumnHandle
         implements ColumnHandle
 {
+    /**
+     * Hidden column with the position of a row in its file, starting at 1 for the first row after the header.
+     */
+    public static final String ROW_NUMBER_COLUMN_NAME = "$row_number";
+    /**
+     * Hidden column with the path of the file of a row, relative to the schema directory.
+     */
+    public static final String FILE_PATH_COLUMN_NAME = "$file_path";
+    /**
+     * Hidden column with the name of the sheet of a row, null for CSV and TSV files.
+     */
+    public static final String SHEET_COLUMN_NAME = "$sheet";
+    public static final String FILE_MODIFIED_TIME_COLUMN_NAME = "$file_modified_time";
+
+    // hidden columns have no column in the sheet
+    private static final int ROW_NUMBER_ORDINAL_POSITION = -1;
+    private static final int FILE_PATH_ORDINAL_POSITION = -2;
+    private static final int SHEET_ORDINAL_POSITION = -3;
+    private static final int FILE_MODIFIED_TIME_ORDINAL_POSITION = -4;
+
     private final String columnName;
     private final Type columnType;
     private final int ordinalPosition;
@@ -59,9 +87,72 @@ public class ExcelColumnHandle
         return ordinalPosition;
     }
 
+    public boolean isHidden()
+    {
+        return ordinalPosition < 0;
+    }
+
+    public boolean isRowNumber()
+    {
+        return ordinalPosition == ROW_NUMBER_ORDINAL_POSITION;
+    }
+
+    /**
+     * Returns whether the column has the same value in all rows of a file.
+     */
+    public boolean isFileColumn()
+    {
+        return isHidden() && !isRowNumber();
+    }
+
+    /**
+     * Returns whether the value of the column is known before the file is opened, so files can be pruned on it.
+     */
+    public boolean isFileAttribute()
+    {
+        return ordinalPosition == FILE_PATH_ORDINAL_POSITION || ordinalPosition == FILE_MODIFIED_TIME_ORDINAL_POSITION;
+    }
+
+    /**
+     * Returns the native value of a file column.
+     *
+     * @param sheetName the name of the sheet, or null when it is not known
+     */
+    public Object getFileValue(String path, String sheetName, long fileModifiedTime)
+    {
+        switch (ordinalPosition) {
+            case FILE_PATH_ORDINAL_POSITION:
+                return utf8Slice(path);
+            case SHEET_ORDINAL_POSITION:
+                return sheetName == null ? null : utf8Slice(sheetName);
+            case FILE_MODIFIED_TIME_ORDINAL_POSITION:
+                return packDateTimeWithZone(fileModifiedTime, UTC_KEY);
+            default:
+                throw new IllegalArgumentException("Not a file column: " + columnName);
+        }
+    }
+
     public ColumnMetadata getColumnMetadata()
     {
-        return new ColumnMetadata(columnName, columnType);
+        return ColumnMetadata.builder()
+                .setName(columnName)
+                .setType(columnType)
+                .setHidden(isHidden())
+                .build();
+    }
+
+    public static ExcelColumnHandle rowNumberColumnHandle()
+    {
+        return new ExcelColumnHandle(ROW_NUMBER_COLUMN_NAME, BIGINT, ROW_NUMBER_ORDINAL_POSITION);
+    }
+
+    public static List<ExcelColumnHandle> hiddenColumnHandles()
+    {
+        return ImmutableList.of(
+                rowNumberColumnHandle(),
+                new ExcelColumnHandle(FILE_PATH_COLUMN_NAME, VARCHAR, FILE_PATH_ORDINAL_POSITION),
+                new ExcelColumnHandle(SHEET_COLUMN_NAME, VARCHAR, SHEET_ORDINAL_POSITION),
+                new ExcelColumnHandle(FILE_MODIFIED_TIME_COLUMN_NAME, TIMESTAMP_WITH_TIME_ZONE, FILE_MODIFIED_TIME_ORDINAL_POSITION));
     }
 
     @Override
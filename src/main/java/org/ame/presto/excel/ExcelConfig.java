@@ -14,9 +14,17 @@
 package org.ame.presto.excel;
 
 import com.facebook.airlift.configuration.Config;
+import io.airlift.units.DataSize;
+import io.airlift.units.MinDataSize;
 
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 
+import static io.airlift.units.DataSize.Unit.GIGABYTE;
+import static io.airlift.units.DataSize.Unit.MEGABYTE;
+
 public class ExcelConfig
 {
     private String protocol;
@@ -25,8 +33,31 @@ public class ExcelConfig
     private String password;
     private String host;
     private Integer port;
-    private Integer rowCacheSize;
-    private Integer bufferSize;
+    private int rowCacheSize = 100;
+    private int bufferSize = 4096;
+    private boolean adaptiveBufferEnabled;
+    private boolean xlsxByteParserEnabled;
+    private boolean concurrentSharedStringsEnabled;
+    private boolean formulaEvaluationEnabled;
+    private int formulaEvaluationBudget = 10000;
+    private int writerRowWindow = 100;
+    private boolean csvSplitEnabled;
+    private DataSize csvSplitSize = new DataSize(64, MEGABYTE);
+    private boolean csvTypeInferenceEnabled = true;
+    private String workbookPasswordFile;
+    private boolean highWaterMarksEnabled;
+    private boolean sizeBasedSplitWeightsEnabled = true;
+    private double minimumSplitWeight = 0.05;
+    private DataSize maxSplitMemory = new DataSize(1, GIGABYTE);
+    private boolean deflateCheckpointsEnabled;
+    private DataSize deflateCheckpointInterval = new DataSize(16, MEGABYTE);
+    private boolean zoneMapsEnabled;
+    private int zoneMapBlockRows = 8192;
+    private int sftpDownloadParallelism = 1;
+    private DataSize sftpDownloadChunkSize = new DataSize(8, MEGABYTE);
+    private String httpIndexPath = "";
+    private int httpDownloadParallelism = 4;
+    private DataSize httpDownloadChunkSize = new DataSize(8, MEGABYTE);
 
     @NotNull
     public String getProtocol()
@@ -60,16 +91,146 @@ public class ExcelConfig
         return port;
     }
 
-    public Integer getRowCacheSize()
+    public int getRowCacheSize()
     {
         return rowCacheSize;
     }
 
-    public Integer getBufferSize()
+    public int getBufferSize()
     {
         return bufferSize;
     }
 
+    public boolean isAdaptiveBufferEnabled()
+    {
+        return adaptiveBufferEnabled;
+    }
+
+    public boolean isXlsxByteParserEnabled()
+    {
+        return xlsxByteParserEnabled;
+    }
+
+    public boolean isConcurrentSharedStringsEnabled()
+    {
+        return concurrentSharedStringsEnabled;
+    }
+
+    public boolean isFormulaEvaluationEnabled()
+    {
+        return formulaEvaluationEnabled;
+    }
+
+    @Min(0)
+    public int getFormulaEvaluationBudget()
+    {
+        return formulaEvaluationBudget;
+    }
+
+    public int getWriterRowWindow()
+    {
+        return writerRowWindow;
+    }
+
+    public boolean isCsvSplitEnabled()
+    {
+        return csvSplitEnabled;
+    }
+
+    @NotNull
+    public DataSize getCsvSplitSize()
+    {
+        return csvSplitSize;
+    }
+
+    public boolean isCsvTypeInferenceEnabled()
+    {
+        return csvTypeInferenceEnabled;
+    }
+
+    public String getWorkbookPasswordFile()
+    {
+        return workbookPasswordFile;
+    }
+
+    public boolean isHighWaterMarksEnabled()
+    {
+        return highWaterMarksEnabled;
+    }
+
+    public boolean isSizeBasedSplitWeightsEnabled()
+    {
+        return sizeBasedSplitWeightsEnabled;
+    }
+
+    @DecimalMin(value = "0", inclusive = false)
+    @DecimalMax("1")
+    public double getMinimumSplitWeight()
+    {
+        return minimumSplitWeight;
+    }
+
+    @NotNull
+    public DataSize getMaxSplitMemory()
+    {
+        return maxSplitMemory;
+    }
+
+    public boolean isDeflateCheckpointsEnabled()
+    {
+        return deflateCheckpointsEnabled;
+    }
+
+    @NotNull
+    @MinDataSize("1MB")
+    public DataSize getDeflateCheckpointInterval()
+    {
+        return deflateCheckpointInterval;
+    }
+
+    public boolean isZoneMapsEnabled()
+    {
+        return zoneMapsEnabled;
+    }
+
+    @Min(1)
+    public int getZoneMapBlockRows()
+    {
+        return zoneMapBlockRows;
+    }
+
+    @Min(1)
+    public int getSftpDownloadParallelism()
+    {
+        return sftpDownloadParallelism;
+    }
+
+    @NotNull
+    @MinDataSize("64kB")
+    public DataSize getSftpDownloadChunkSize()
+    {
+        return sftpDownloadChunkSize;
+    }
+
+    @NotNull
+    public String getHttpIndexPath()
+    {
+        return httpIndexPath;
+    }
+
+    @Min(1)
+    public int getHttpDownloadParallelism()
+    {
+        return httpDownloadParallelism;
+    }
+
+    @NotNull
+    @MinDataSize("64kB")
+    public DataSize getHttpDownloadChunkSize()
+    {
+        return httpDownloadChunkSize;
+    }
+
     @Config("excel.protocol")
     public ExcelConfig setProtocol(String protocol)
     {
@@ -125,4 +286,165 @@ public class ExcelConfig
         this.bufferSize = bufferSize;
         return this;
     }
+
+    @Config("excel.adaptive-buffer-enabled")
+    public ExcelConfig setAdaptiveBufferEnabled(boolean adaptiveBufferEnabled)
+    {
+        this.adaptiveBufferEnabled = adaptiveBufferEnabled;
+        return this;
+    }
+
+    @Config("excel.xlsx-byte-parser-enabled")
+    public ExcelConfig setXlsxByteParserEnabled(boolean xlsxByteParserEnabled)
+    {
+        this.xlsxByteParserEnabled = xlsxByteParserEnabled;
+        return this;
+    }
+
+    @Config("excel.concurrent-shared-strings-enabled")
+    public ExcelConfig setConcurrentSharedStringsEnabled(boolean concurrentSharedStringsEnabled)
+    {
+        this.concurrentSharedStringsEnabled = concurrentSharedStringsEnabled;
+        return this;
+    }
+
+    @Config("excel.formula-evaluation-enabled")
+    public ExcelConfig setFormulaEvaluationEnabled(boolean formulaEvaluationEnabled)
+    {
+        this.formulaEvaluationEnabled = formulaEvaluationEnabled;
+        return this;
+    }
+
+    @Config("excel.formula-evaluation-budget")
+    public ExcelConfig setFormulaEvaluationBudget(int formulaEvaluationBudget)
+    {
+        this.formulaEvaluationBudget = formulaEvaluationBudget;
+        return this;
+    }
+
+    @Config("excel.writer-row-window")
+    public ExcelConfig setWriterRowWindow(int writerRowWindow)
+    {
+        this.writerRowWindow = writerRowWindow;
+        return this;
+    }
+
+    @Config("excel.csv-split-enabled")
+    public ExcelConfig setCsvSplitEnabled(boolean csvSplitEnabled)
+    {
+        this.csvSplitEnabled = csvSplitEnabled;
+        return this;
+    }
+
+    @Config("excel.csv-split-size")
+    public ExcelConfig setCsvSplitSize(DataSize csvSplitSize)
+    {
+        this.csvSplitSize = csvSplitSize;
+        return this;
+    }
+
+    @Config("excel.csv-type-inference-enabled")
+    public ExcelConfig setCsvTypeInferenceEnabled(boolean csvTypeInferenceEnabled)
+    {
+        this.csvTypeInferenceEnabled = csvTypeInferenceEnabled;
+        return this;
+    }
+
+    @Config("excel.workbook-password-file")
+    public ExcelConfig setWorkbookPasswordFile(String workbookPasswordFile)
+    {
+        this.workbookPasswordFile = workbookPasswordFile;
+        return this;
+    }
+
+    @Config("excel.high-water-marks-enabled")
+    public ExcelConfig setHighWaterMarksEnabled(boolean highWaterMarksEnabled)
+    {
+        this.highWaterMarksEnabled = highWaterMarksEnabled;
+        return this;
+    }
+
+    @Config("excel.size-based-split-weights-enabled")
+    public ExcelConfig setSizeBasedSplitWeightsEnabled(boolean sizeBasedSplitWeightsEnabled)
+    {
+        this.sizeBasedSplitWeightsEnabled = sizeBasedSplitWeightsEnabled;
+        return this;
+    }
+
+    @Config("excel.minimum-split-weight")
+    public ExcelConfig setMinimumSplitWeight(double minimumSplitWeight)
+    {
+        this.minimumSplitWeight = minimumSplitWeight;
+        return this;
+    }
+
+    @Config("excel.max-split-memory")
+    public ExcelConfig setMaxSplitMemory(DataSize maxSplitMemory)
+    {
+        this.maxSplitMemory = maxSplitMemory;
+        return this;
+    }
+
+    @Config("excel.deflate-checkpoints-enabled")
+    public ExcelConfig setDeflateCheckpointsEnabled(boolean deflateCheckpointsEnabled)
+    {
+        this.deflateCheckpointsEnabled = deflateCheckpointsEnabled;
+        return this;
+    }
+
+    @Config("excel.deflate-checkpoint-interval")
+    public ExcelConfig setDeflateCheckpointInterval(DataSize deflateCheckpointInterval)
+    {
+        this.deflateCheckpointInterval = deflateCheckpointInterval;
+        return this;
+    }
+
+    @Config("excel.zone-maps-enabled")
+    public ExcelConfig setZoneMapsEnabled(boolean zoneMapsEnabled)
+    {
+        this.zoneMapsEnabled = zoneMapsEnabled;
+        return this;
+    }
+
+    @Config("excel.zone-map-block-rows")
+    public ExcelConfig setZoneMapBlockRows(int zoneMapBlockRows)
+    {
+        this.zoneMapBlockRows = zoneMapBlockRows;
+        return this;
+    }
+
+    @Config("excel.sftp-download-parallelism")
+    public ExcelConfig setSftpDownloadParallelism(int sftpDownloadParallelism)
+    {
+        this.sftpDownloadParallelism = sftpDownloadParallelism;
+        return this;
+    }
+
+    @Config("excel.sftp-download-chunk-size")
+    public ExcelConfig setSftpDownloadChunkSize(DataSize sftpDownloadChunkSize)
+    {
+        this.sftpDownloadChunkSize = sftpDownloadChunkSize;
+        return this;
+    }
+
+    @Config("excel.http-index-path")
+    public ExcelConfig setHttpIndexPath(String httpIndexPath)
+    {
+        this.httpIndexPath = httpIndexPath;
+        return this;
+    }
+
+    @Config("excel.http-download-parallelism")
+    public ExcelConfig setHttpDownloadParallelism(int httpDownloadParallelism)
+    {
+        this.httpDownloadParallelism = httpDownloadParallelism;
+        return this;
+    }
+
+    @Config("excel.http-download-chunk-size")
+    public ExcelConfig setHttpDownloadChunkSize(DataSize httpDownloadChunkSize)
+    {
+        this.httpDownloadChunkSize = httpDownloadChunkSize;
+        return this;
+    }
 }
@@ -15,12 +15,16 @@ package org.ame.presto.excel;
 
 import com.facebook.presto.spi.connector.Connector;
 import com.facebook.presto.spi.connector.ConnectorMetadata;
-import com.facebook.presto.spi.connector.ConnectorRecordSetProvider;
+import com.facebook.presto.spi.connector.ConnectorPageSinkProvider;
+import com.facebook.presto.spi.connector.ConnectorPageSourceProvider;
 import com.facebook.presto.spi.connector.ConnectorSplitManager;
 import com.facebook.presto.spi.connector.ConnectorTransactionHandle;
+import com.facebook.presto.spi.session.PropertyMetadata;
 import com.facebook.presto.spi.transaction.IsolationLevel;
 import com.google.inject.Inject;
 
+import java.util.List;
+
 import static org.ame.presto.excel.ExcelTransactionHandle.INSTANCE;
 
 public class ExcelConnector
@@ -28,17 +32,23 @@ public class ExcelConnector
 {
     private final ExcelMetadata metadata;
     private final ExcelSplitManager splitManager;
-    private final ExcelRecordSetProvider recordSetProvider;
+    private final ExcelPageSourceProvider pageSourceProvider;
+    private final ExcelPageSinkProvider pageSinkProvider;
+    private final ExcelSessionProperties sessionProperties;
 
     @Inject
     public ExcelConnector(
             ExcelMetadata metadata,
             ExcelSplitManager splitManager,
-            ExcelRecordSetProvider recordSetProvider)
+            ExcelPageSourceProvider pageSourceProvider,
+            ExcelPageSinkProvider pageSinkProvider,
+            ExcelSessionProperties sessionProperties)
     {
         this.metadata = metadata;
         this.splitManager = splitManager;
-        this.recordSetProvider = recordSetProvider;
+        this.pageSourceProvider = pageSourceProvider;
+        this.pageSinkProvider = pageSinkProvider;
+        this.sessionProperties = sessionProperties;
     }
 
     @Override
@@ -60,8 +70,33 @@ public class ExcelConnector
     }
 
     @Override
-    public ConnectorRecordSetProvider getRecordSetProvider()
+    public ConnectorPageSourceProvider getPageSourceProvider()
+    {
+        return pageSourceProvider;
+    }
+
+    @Override
+    public ConnectorPageSinkProvider getPageSinkProvider()
+    {
+        return pageSinkProvider;
+    }
+
+    @Override
+    public List<PropertyMetadata<?>> getSessionProperties()
+    {
+        return sessionProperties.getSessionProperties();
+    }
+
+    @Override
+    public boolean isSingleStatementWritesOnly()
+    {
+        return true;
+    }
+
+    @Override
+    public void shutdown()
     {
-        return recordSetProvider;
+        splitManager.shutdown();
+        pageSourceProvider.shutdown();
     }
 }
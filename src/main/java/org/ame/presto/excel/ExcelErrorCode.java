@@ -0,0 +1,42 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.excel;
+
+import com.facebook.presto.common.ErrorCode;
+import com.facebook.presto.common.ErrorType;
+import com.facebook.presto.spi.ErrorCodeSupplier;
+
+import static com.facebook.presto.common.ErrorType.EXTERNAL;
+import static com.facebook.presto.common.ErrorType.INSUFFICIENT_RESOURCES;
+
+public enum ExcelErrorCode
+        implements ErrorCodeSupplier
+{
+    EXCEL_WRITER_ERROR(0, EXTERNAL),
+    EXCEL_READER_ERROR(1, EXTERNAL),
+    EXCEL_SPLIT_MEMORY_LIMIT_EXCEEDED(2, INSUFFICIENT_RESOURCES);
+
+    private final ErrorCode errorCode;
+
+    ExcelErrorCode(int code, ErrorType type)
+    {
+        errorCode = new ErrorCode(code + 0x0510_0000, name(), type);
+    }
+
+    @Override
+    public ErrorCode toErrorCode()
+    {
+        return errorCode;
+    }
+}
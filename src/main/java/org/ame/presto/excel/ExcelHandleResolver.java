@@ -15,6 +15,8 @@ package org.ame.presto.excel;
 
 import com.facebook.presto.spi.ColumnHandle;
 import com.facebook.presto.spi.ConnectorHandleResolver;
+import com.facebook.presto.spi.ConnectorInsertTableHandle;
+import com.facebook.presto.spi.ConnectorOutputTableHandle;
 import com.facebook.presto.spi.ConnectorSplit;
 import com.facebook.presto.spi.ConnectorTableHandle;
 import com.facebook.presto.spi.ConnectorTableLayoutHandle;
@@ -47,6 +49,18 @@ public class ExcelHandleResolver
         return ExcelSplit.class;
     }
 
+    @Override
+    public Class<? extends ConnectorOutputTableHandle> getOutputTableHandleClass()
+    {
+        return ExcelOutputTableHandle.class;
+    }
+
+    @Override
+    public Class<? extends ConnectorInsertTableHandle> getInsertTableHandleClass()
+    {
+        return ExcelOutputTableHandle.class;
+    }
+
     @Override
     public Class<? extends ConnectorTransactionHandle> getTransactionHandleClass()
     {
@@ -13,8 +13,15 @@
  */
 package org.ame.presto.excel;
 
+import com.facebook.presto.common.predicate.Domain;
+import com.facebook.presto.common.predicate.Range;
+import com.facebook.presto.common.predicate.TupleDomain;
+import com.facebook.presto.common.type.Type;
 import com.facebook.presto.spi.ColumnHandle;
 import com.facebook.presto.spi.ColumnMetadata;
+import com.facebook.presto.spi.ConnectorInsertTableHandle;
+import com.facebook.presto.spi.ConnectorNewTableLayout;
+import com.facebook.presto.spi.ConnectorOutputTableHandle;
 import com.facebook.presto.spi.ConnectorSession;
 import com.facebook.presto.spi.ConnectorTableHandle;
 import com.facebook.presto.spi.ConnectorTableLayout;
@@ -22,21 +29,37 @@ import com.facebook.presto.spi.ConnectorTableLayoutHandle;
 import com.facebook.presto.spi.ConnectorTableLayoutResult;
 import com.facebook.presto.spi.ConnectorTableMetadata;
 import com.facebook.presto.spi.Constraint;
+import com.facebook.presto.spi.PrestoException;
+import com.facebook.presto.spi.SchemaNotFoundException;
 import com.facebook.presto.spi.SchemaTableName;
 import com.facebook.presto.spi.SchemaTablePrefix;
 import com.facebook.presto.spi.TableNotFoundException;
 import com.facebook.presto.spi.connector.ConnectorMetadata;
+import com.facebook.presto.spi.connector.ConnectorOutputMetadata;
+import com.facebook.presto.spi.statistics.ComputedStatistics;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
 import com.google.inject.Inject;
+import io.airlift.slice.Slice;
 
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 
+import static com.facebook.presto.spi.StandardErrorCode.ALREADY_EXISTS;
+import static com.facebook.presto.spi.StandardErrorCode.NOT_SUPPORTED;
 import static com.google.common.collect.ImmutableList.toImmutableList;
 import static java.util.Objects.requireNonNull;
+import static org.ame.presto.excel.ExcelColumnHandle.hiddenColumnHandles;
+import static org.ame.presto.excel.ExcelColumnHandle.rowNumberColumnHandle;
+import static org.ame.presto.excel.ExcelPageSink.isSupportedType;
+import static org.ame.presto.excel.ExcelSessionProperties.getMaxRowsPerFile;
+import static org.ame.presto.excel.ExcelSessionProperties.isCsvTypeInferenceEnabled;
+import static org.ame.presto.excel.FileTypeJudge.isSupportedFile;
 
 public class ExcelMetadata
         implements ConnectorMetadata
@@ -76,8 +99,48 @@ public class ExcelMetadata
             Optional<Set<ColumnHandle>> desiredColumns)
     {
         ExcelTableHandle tableHandle = (ExcelTableHandle) table;
-        ConnectorTableLayout layout = new ConnectorTableLayout(new ExcelTableLayoutHandle(tableHandle));
-        return ImmutableList.of(new ConnectorTableLayoutResult(layout, constraint.getSummary()));
+        TupleDomain<ColumnHandle> summary = constraint.getSummary();
+        TupleDomain<ColumnHandle> fileConstraint = summary.getDomains()
+                .map(domains -> TupleDomain.withColumnDomains(Maps.filterKeys(domains, column -> ((ExcelColumnHandle) column).isFileAttribute())))
+                .orElse(TupleDomain.none());
+        TupleDomain<ColumnHandle> columnConstraint = summary.getDomains()
+                .map(domains -> TupleDomain.withColumnDomains(Maps.filterKeys(domains, column -> !((ExcelColumnHandle) column).isHidden())))
+                .orElse(TupleDomain.none());
+        long firstRowNumber = 1;
+        long lastRowNumber = Long.MAX_VALUE;
+        Domain domain = summary.getDomains().orElse(ImmutableMap.of()).get(rowNumberColumnHandle());
+        if (domain != null && domain.getValues().isNone()) {
+            lastRowNumber = 0;
+        }
+        else if (domain != null && !domain.getValues().isAll()) {
+            // rows between the ranges of the predicate are still read and filtered by the engine
+            // exclusive bounds are compared before they are moved by one, so that they cannot overflow
+            Range span = domain.getValues().getRanges().getSpan();
+            if (!span.isLowUnbounded()) {
+                long low = (long) span.getLowBoundedValue();
+                if (span.isLowInclusive() || low < firstRowNumber) {
+                    firstRowNumber = Math.max(firstRowNumber, low);
+                }
+                else if (low < Long.MAX_VALUE) {
+                    firstRowNumber = low + 1;
+                }
+                else {
+                    lastRowNumber = 0;
+                }
+            }
+            if (!span.isHighUnbounded()) {
+                long high = (long) span.getHighBoundedValue();
+                lastRowNumber = Math.min(lastRowNumber, span.isHighInclusive() || high < firstRowNumber ? high : high - 1);
+            }
+        }
+        Optional<Long> maxRowsPerFile = getMaxRowsPerFile(session);
+        if (maxRowsPerFile.isPresent()) {
+            lastRowNumber = Math.min(lastRowNumber, maxRowsPerFile.get());
+        }
+        boolean rowNumbersNeeded = firstRowNumber > 1 || lastRowNumber < Long.MAX_VALUE
+                || desiredColumns.map(columns -> columns.contains(rowNumberColumnHandle())).orElse(true);
+        ConnectorTableLayout layout = new ConnectorTableLayout(new ExcelTableLayoutHandle(tableHandle, firstRowNumber, lastRowNumber, rowNumbersNeeded, fileConstraint, columnConstraint));
+        return ImmutableList.of(new ConnectorTableLayoutResult(layout, summary));
     }
 
     @Override
@@ -101,7 +164,7 @@ public class ExcelMetadata
         if (!listSchemaNames(session).contains(schemaTableName.getSchemaName())) {
             return Optional.empty();
         }
-        Optional<ExcelTable> table = excelClient.getTable(schemaTableName.getSchemaName(), schemaTableName.getTableName());
+        Optional<ExcelTable> table = excelClient.getTable(schemaTableName.getSchemaName(), schemaTableName.getTableName(), isCsvTypeInferenceEnabled(session));
         return table.map(excelTable -> new ConnectorTableMetadata(schemaTableName, excelTable.getColumnsMetadata()));
     }
 
@@ -109,14 +172,22 @@ public class ExcelMetadata
     public Map<String, ColumnHandle> getColumnHandles(ConnectorSession session, ConnectorTableHandle tableHandle)
     {
         ExcelTableHandle excelTableHandle = (ExcelTableHandle) tableHandle;
-        Optional<ExcelTable> table = excelClient.getTable(excelTableHandle.getSchemaName(), excelTableHandle.getTableName());
+        Optional<ExcelTable> table = excelClient.getTable(excelTableHandle.getSchemaName(), excelTableHandle.getTableName(), isCsvTypeInferenceEnabled(session));
         if (!table.isPresent()) {
             throw new TableNotFoundException(excelTableHandle.getSchemaTableName());
         }
         ImmutableMap.Builder<String, ColumnHandle> columnHandles = ImmutableMap.builder();
+        Set<String> columnNames = new HashSet<>();
         int i = 0;
         for (ColumnMetadata column : table.get().getColumnsMetadata()) {
             columnHandles.put(column.getName(), new ExcelColumnHandle(column.getName(), column.getType(), i++));
+            columnNames.add(column.getName());
+        }
+        // a column of the sheet hides the hidden column of the same name
+        for (ExcelColumnHandle column : hiddenColumnHandles()) {
+            if (!columnNames.contains(column.getColumnName())) {
+                columnHandles.put(column.getColumnName(), column);
+            }
         }
         return columnHandles.build();
     }
@@ -158,6 +229,92 @@ public class ExcelMetadata
         return tableListBuilder.build();
     }
 
+    @Override
+    public ConnectorOutputTableHandle beginCreateTable(ConnectorSession session, ConnectorTableMetadata tableMetadata, Optional<ConnectorNewTableLayout> layout)
+    {
+        checkWritable();
+        SchemaTableName schemaTableName = tableMetadata.getTable();
+        if (!excelClient.getSchemaNames().contains(schemaTableName.getSchemaName())) {
+            throw new SchemaNotFoundException(schemaTableName.getSchemaName());
+        }
+        if (excelClient.getTableNames(schemaTableName.getSchemaName()).contains(schemaTableName.getTableName())) {
+            throw new PrestoException(ALREADY_EXISTS, "Table already exists: " + schemaTableName);
+        }
+        // every writer produces its own file, so written tables are directories
+        if (isSupportedFile(schemaTableName.getTableName())) {
+            throw new PrestoException(NOT_SUPPORTED, "Created tables are directories and cannot be named like a file: " + schemaTableName);
+        }
+        ImmutableList.Builder<String> columnNames = ImmutableList.builder();
+        ImmutableList.Builder<Type> columnTypes = ImmutableList.builder();
+        for (ColumnMetadata column : tableMetadata.getColumns()) {
+            if (!isSupportedType(column.getType())) {
+                throw new PrestoException(NOT_SUPPORTED, "Unsupported column type: " + column.getType());
+            }
+            columnNames.add(column.getName());
+            columnTypes.add(column.getType());
+        }
+        // the files are written into a hidden directory, so that a failed query leaves no table behind
+        String directory = "." + schemaTableName.getTableName() + "_" + session.getQueryId();
+        excelClient.createDirectoryTable(schemaTableName.getSchemaName(), directory);
+        return new ExcelOutputTableHandle(
+                schemaTableName.getSchemaName(),
+                schemaTableName.getTableName(),
+                directory,
+                columnNames.build(),
+                columnTypes.build(),
+                session.getQueryId());
+    }
+
+    @Override
+    public Optional<ConnectorOutputMetadata> finishCreateTable(ConnectorSession session, ConnectorOutputTableHandle tableHandle, Collection<Slice> fragments, Collection<ComputedStatistics> computedStatistics)
+    {
+        ExcelOutputTableHandle handle = (ExcelOutputTableHandle) tableHandle;
+        commitFiles(handle.getSchemaName(), fragments);
+        excelClient.publishDirectoryTable(handle.getSchemaName(), handle.getDirectory(), handle.getTableName());
+        return Optional.empty();
+    }
+
+    @Override
+    public ConnectorInsertTableHandle beginInsert(ConnectorSession session, ConnectorTableHandle tableHandle)
+    {
+        checkWritable();
+        ExcelTableHandle excelTableHandle = (ExcelTableHandle) tableHandle;
+        if (isSupportedFile(excelTableHandle.getTableName())) {
+            throw new PrestoException(NOT_SUPPORTED, "Inserts are only supported for directory tables: " + excelTableHandle);
+        }
+        Optional<ExcelTable> table = excelClient.getTable(excelTableHandle.getSchemaName(), excelTableHandle.getTableName(), isCsvTypeInferenceEnabled(session));
+        if (!table.isPresent()) {
+            throw new TableNotFoundException(excelTableHandle.getSchemaTableName());
+        }
+        List<ColumnMetadata> columns = table.get().getColumnsMetadata();
+        return new ExcelOutputTableHandle(
+                excelTableHandle.getSchemaName(),
+                excelTableHandle.getTableName(),
+                excelTableHandle.getTableName(),
+                columns.stream().map(ColumnMetadata::getName).collect(toImmutableList()),
+                columns.stream().map(ColumnMetadata::getType).collect(toImmutableList()),
+                session.getQueryId());
+    }
+
+    @Override
+    public Optional<ConnectorOutputMetadata> finishInsert(ConnectorSession session, ConnectorInsertTableHandle insertHandle, Collection<Slice> fragments, Collection<ComputedStatistics> computedStatistics)
+    {
+        commitFiles(((ExcelOutputTableHandle) insertHandle).getSchemaName(), fragments);
+        return Optional.empty();
+    }
+
+    private void checkWritable()
+    {
+        if (excelClient.isReadOnly()) {
+            throw new PrestoException(NOT_SUPPORTED, "Tables cannot be written over " + excelClient.getProtocol());
+        }
+    }
+
+    private void commitFiles(String schemaName, Collection<Slice> fragments)
+    {
+        excelClient.commitFiles(schemaName, fragments.stream().map(Slice::toStringUtf8).collect(toImmutableList()));
+    }
+
     private List<SchemaTableName> listTables(String schemaName)
     {
         return excelClient.getTableNames(schemaName).stream()
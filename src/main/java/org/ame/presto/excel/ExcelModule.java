@@ -29,14 +29,18 @@ import static com.facebook.airlift.json.JsonCodec.listJsonCodec;
 import static com.facebook.airlift.json.JsonCodecBinder.jsonCodecBinder;
 import static com.facebook.presto.common.type.TypeSignature.parseTypeSignature;
 import static java.util.Objects.requireNonNull;
+import static org.weakref.jmx.ObjectNames.generatedNameOf;
+import static org.weakref.jmx.guice.ExportBinder.newExporter;
 
 public class ExcelModule
         implements Module
 {
+    private final String catalogName;
     private final TypeManager typeManager;
 
-    public ExcelModule(TypeManager typeManager)
+    public ExcelModule(String catalogName, TypeManager typeManager)
     {
+        this.catalogName = catalogName;
         this.typeManager = typeManager;
     }
 
@@ -48,8 +52,12 @@ public class ExcelModule
         binder.bind(ExcelMetadata.class).in(Scopes.SINGLETON);
         binder.bind(ExcelClient.class).in(Scopes.SINGLETON);
         binder.bind(ExcelSplitManager.class).in(Scopes.SINGLETON);
-        binder.bind(ExcelRecordSetProvider.class).in(Scopes.SINGLETON);
+        binder.bind(ExcelPageSourceProvider.class).in(Scopes.SINGLETON);
+        binder.bind(ExcelPageSinkProvider.class).in(Scopes.SINGLETON);
         binder.bind(ExcelHandleResolver.class).in(Scopes.SINGLETON);
+        binder.bind(ExcelSessionProperties.class).in(Scopes.SINGLETON);
+        binder.bind(ExcelStats.class).in(Scopes.SINGLETON);
+        newExporter(binder).export(ExcelStats.class).as(generatedNameOf(ExcelStats.class, catalogName));
 
         configBinder(binder).bindConfig(ExcelConfig.class);
 
@@ -0,0 +1,112 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.excel;
+
+import com.facebook.presto.common.type.Type;
+import com.facebook.presto.spi.ConnectorInsertTableHandle;
+import com.facebook.presto.spi.ConnectorOutputTableHandle;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+import static com.google.common.base.MoreObjects.toStringHelper;
+import static java.util.Objects.requireNonNull;
+
+public class ExcelOutputTableHandle
+        implements ConnectorOutputTableHandle, ConnectorInsertTableHandle
+{
+    private final String schemaName;
+    private final String tableName;
+    // the directory the page sinks write into: the table directory for inserts, and a hidden directory for a created table,
+    // which becomes the table when the query commits
+    private final String directory;
+    private final List<String> columnNames;
+    private final List<Type> columnTypes;
+    private final String filePrefix;
+
+    @JsonCreator
+    public ExcelOutputTableHandle(
+            @JsonProperty("schemaName") String schemaName,
+            @JsonProperty("tableName") String tableName,
+            @JsonProperty("directory") String directory,
+            @JsonProperty("columnNames") List<String> columnNames,
+            @JsonProperty("columnTypes") List<Type> columnTypes,
+            @JsonProperty("filePrefix") String filePrefix)
+    {
+        this.schemaName = requireNonNull(schemaName, "schemaName is null");
+        this.tableName = requireNonNull(tableName, "tableName is null");
+        this.directory = requireNonNull(directory, "directory is null");
+        this.columnNames = ImmutableList.copyOf(requireNonNull(columnNames, "columnNames is null"));
+        this.columnTypes = ImmutableList.copyOf(requireNonNull(columnTypes, "columnTypes is null"));
+        this.filePrefix = requireNonNull(filePrefix, "filePrefix is null");
+    }
+
+    @JsonProperty
+    public String getSchemaName()
+    {
+        return schemaName;
+    }
+
+    @JsonProperty
+    public String getTableName()
+    {
+        return tableName;
+    }
+
+    @JsonProperty
+    public String getDirectory()
+    {
+        return directory;
+    }
+
+    /**
+     * Returns whether the page sinks write into a hidden directory, which the query creates the table from.
+     */
+    public boolean isNewTable()
+    {
+        return !directory.equals(tableName);
+    }
+
+    @JsonProperty
+    public List<String> getColumnNames()
+    {
+        return columnNames;
+    }
+
+    @JsonProperty
+    public List<Type> getColumnTypes()
+    {
+        return columnTypes;
+    }
+
+    @JsonProperty
+    public String getFilePrefix()
+    {
+        return filePrefix;
+    }
+
+    @Override
+    public String toString()
+    {
+        return toStringHelper(this)
+                .add("schemaName", schemaName)
+                .add("tableName", tableName)
+                .add("directory", directory)
+                .add("columnNames", columnNames)
+                .add("columnTypes", columnTypes)
+                .toString();
+    }
+}
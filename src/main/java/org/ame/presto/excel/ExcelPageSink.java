@@ -0,0 +1,274 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.excel;
+
+import com.facebook.presto.common.Page;
+import com.facebook.presto.common.block.Block;
+import com.facebook.presto.common.type.Type;
+import com.facebook.presto.spi.ConnectorPageSink;
+import com.facebook.presto.spi.PrestoException;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.CountingOutputStream;
+import io.airlift.slice.Slice;
+import io.airlift.slice.Slices;
+import org.ame.presto.excel.session.ISession;
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static com.facebook.presto.common.type.BigintType.BIGINT;
+import static com.facebook.presto.common.type.BooleanType.BOOLEAN;
+import static com.facebook.presto.common.type.DateType.DATE;
+import static com.facebook.presto.common.type.DoubleType.DOUBLE;
+import static com.facebook.presto.common.type.IntegerType.INTEGER;
+import static com.facebook.presto.common.type.RealType.REAL;
+import static com.facebook.presto.common.type.SmallintType.SMALLINT;
+import static com.facebook.presto.common.type.TinyintType.TINYINT;
+import static com.facebook.presto.common.type.Varchars.isVarcharType;
+import static com.facebook.presto.spi.StandardErrorCode.NOT_SUPPORTED;
+import static java.lang.String.format;
+import static java.lang.Float.intBitsToFloat;
+import static java.util.Objects.requireNonNull;
+import static java.util.UUID.randomUUID;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static org.ame.presto.excel.ExcelErrorCode.EXCEL_WRITER_ERROR;
+
+public class ExcelPageSink
+        implements ConnectorPageSink
+{
+    // the header takes one of the rows available in a sheet
+    private static final int MAX_ROWS_PER_FILE = SpreadsheetVersion.EXCEL2007.getMaxRows();
+    // Excel serial number of 1970-01-01
+    private static final int EPOCH_SERIAL_NUMBER = 25569;
+    private static final int MAX_TEXT_LENGTH = SpreadsheetVersion.EXCEL2007.getMaxTextLength();
+    // numeric cells are doubles, which hold integers up to 2^53 exactly
+    private static final long MAX_EXACT_NUMBER = 1L << 53;
+
+    private final ISession session;
+    private final String schemaName;
+    private final String tableName;
+    private final String directory;
+    private final boolean newTable;
+    private final String filePrefix;
+    private final List<String> columnNames;
+    private final List<Type> columnTypes;
+    private final int rowWindow;
+    private final List<String> writtenFiles = new ArrayList<>();
+    private SXSSFWorkbook workbook;
+    private Sheet sheet;
+    private CellStyle dateStyle;
+    private int rowIndex;
+    private long completedBytes;
+
+    public ExcelPageSink(ExcelOutputTableHandle handle, ISession session, int rowWindow)
+    {
+        requireNonNull(handle, "handle is null");
+        this.session = requireNonNull(session, "session is null");
+        this.schemaName = handle.getSchemaName();
+        this.tableName = handle.getTableName();
+        this.directory = handle.getDirectory();
+        this.newTable = handle.isNewTable();
+        this.filePrefix = handle.getFilePrefix() + "_" + randomUUID().toString().replace("-", "");
+        this.columnNames = handle.getColumnNames();
+        this.columnTypes = handle.getColumnTypes();
+        this.rowWindow = rowWindow;
+    }
+
+    public static boolean isSupportedType(Type type)
+    {
+        return type.equals(BOOLEAN) ||
+                type.equals(BIGINT) ||
+                type.equals(INTEGER) ||
+                type.equals(SMALLINT) ||
+                type.equals(TINYINT) ||
+                type.equals(DOUBLE) ||
+                type.equals(REAL) ||
+                type.equals(DATE) ||
+                isVarcharType(type);
+    }
+
+    @Override
+    public long getCompletedBytes()
+    {
+        return completedBytes;
+    }
+
+    @Override
+    public CompletableFuture<?> appendPage(Page page)
+    {
+        for (int position = 0; position < page.getPositionCount(); position++) {
+            // roll over to a new file when the sheet is full
+            if (workbook == null || rowIndex >= MAX_ROWS_PER_FILE) {
+                flushFile();
+                startFile();
+            }
+            Row row = sheet.createRow(rowIndex++);
+            for (int channel = 0; channel < page.getChannelCount(); channel++) {
+                Block block = page.getBlock(channel);
+                if (block.isNull(position)) {
+                    continue;
+                }
+                writeCell(row.createCell(channel), columnTypes.get(channel), block, position);
+            }
+        }
+        return NOT_BLOCKED;
+    }
+
+    @Override
+    public CompletableFuture<Collection<Slice>> finish()
+    {
+        // keep the header of empty results, so that the table schema survives
+        if (workbook == null && writtenFiles.isEmpty()) {
+            startFile();
+        }
+        flushFile();
+        session.close();
+        ImmutableList.Builder<Slice> fragments = ImmutableList.builder();
+        for (String file : writtenFiles) {
+            fragments.add(Slices.utf8Slice(file));
+        }
+        return completedFuture(fragments.build());
+    }
+
+    @Override
+    public void abort()
+    {
+        try {
+            if (workbook != null) {
+                workbook.dispose();
+                workbook.close();
+            }
+            for (String file : writtenFiles) {
+                session.delete(schemaName, file);
+            }
+            if (newTable) {
+                deleteDirectory();
+            }
+        }
+        catch (Exception e) {
+            throw new PrestoException(EXCEL_WRITER_ERROR, "Failed to clean up written files of " + tableName, e);
+        }
+        finally {
+            session.close();
+        }
+    }
+
+    /**
+     * Removes the hidden directory of a new table once the last writer cleaned up its files.
+     */
+    private void deleteDirectory()
+    {
+        try {
+            session.delete(schemaName, directory);
+        }
+        catch (Exception e) {
+            // other writers still have files in it
+        }
+    }
+
+    private void startFile()
+    {
+        workbook = new SXSSFWorkbook(rowWindow);
+        workbook.setCompressTempFiles(true);
+        dateStyle = workbook.createCellStyle();
+        dateStyle.setDataFormat(workbook.getCreationHelper().createDataFormat().getFormat("yyyy-mm-dd"));
+        sheet = workbook.createSheet();
+        Row header = sheet.createRow(0);
+        for (int i = 0; i < columnNames.size(); i++) {
+            header.createCell(i).setCellValue(columnNames.get(i));
+        }
+        rowIndex = 1;
+    }
+
+    private void flushFile()
+    {
+        if (workbook == null) {
+            return;
+        }
+        // files stay hidden until the query commits
+        String file = directory + "/." + filePrefix + "_" + writtenFiles.size() + ".xlsx";
+        try (CountingOutputStream outputStream = new CountingOutputStream(session.getOutputStream(schemaName, file))) {
+            writtenFiles.add(file);
+            workbook.write(outputStream);
+            completedBytes += outputStream.getCount();
+        }
+        catch (Exception e) {
+            throw new PrestoException(EXCEL_WRITER_ERROR, "Failed to write " + file, e);
+        }
+        finally {
+            workbook.dispose();
+            closeWorkbook();
+        }
+    }
+
+    private void closeWorkbook()
+    {
+        try {
+            workbook.close();
+        }
+        catch (IOException e) {
+            throw new PrestoException(EXCEL_WRITER_ERROR, "Failed to close workbook", e);
+        }
+        finally {
+            workbook = null;
+            sheet = null;
+        }
+    }
+
+    private void writeCell(Cell cell, Type type, Block block, int position)
+    {
+        if (type.equals(BOOLEAN)) {
+            cell.setCellValue(type.getBoolean(block, position));
+        }
+        else if (type.equals(BIGINT)) {
+            long value = type.getLong(block, position);
+            // larger values are written as text, so that no digits are lost
+            if (value > MAX_EXACT_NUMBER || value < -MAX_EXACT_NUMBER) {
+                cell.setCellValue(Long.toString(value));
+            }
+            else {
+                cell.setCellValue(value);
+            }
+        }
+        else if (type.equals(INTEGER) || type.equals(SMALLINT) || type.equals(TINYINT)) {
+            cell.setCellValue(type.getLong(block, position));
+        }
+        else if (type.equals(DOUBLE)) {
+            cell.setCellValue(type.getDouble(block, position));
+        }
+        else if (type.equals(REAL)) {
+            cell.setCellValue(intBitsToFloat((int) type.getLong(block, position)));
+        }
+        else if (type.equals(DATE)) {
+            cell.setCellValue(type.getLong(block, position) + EPOCH_SERIAL_NUMBER);
+            cell.setCellStyle(dateStyle);
+        }
+        else {
+            String value = type.getSlice(block, position).toStringUtf8();
+            if (value.length() > MAX_TEXT_LENGTH) {
+                throw new PrestoException(NOT_SUPPORTED, format("Excel cells hold up to %s characters, a value of %s characters cannot be written to %s", MAX_TEXT_LENGTH, value.length(), tableName));
+            }
+            cell.setCellValue(value);
+        }
+    }
+}
@@ -0,0 +1,681 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.excel;
+
+import com.facebook.presto.common.Page;
+import com.facebook.presto.common.block.Block;
+import com.facebook.presto.common.block.BlockBuilder;
+import com.facebook.presto.common.block.DictionaryBlock;
+import com.facebook.presto.common.block.DictionaryId;
+import com.facebook.presto.common.block.LazyBlock;
+import com.facebook.presto.common.block.LongArrayBlock;
+import com.facebook.presto.common.block.RunLengthEncodedBlock;
+import com.facebook.presto.common.predicate.Domain;
+import com.facebook.presto.common.predicate.TupleDomain;
+import com.facebook.presto.common.type.Type;
+import com.facebook.presto.common.type.VarcharType;
+import com.facebook.presto.spi.ColumnHandle;
+import com.facebook.presto.spi.ConnectorPageSource;
+import com.facebook.presto.spi.PrestoException;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.io.ByteStreams;
+import io.airlift.slice.Slice;
+import org.ame.presto.excel.session.ISession;
+import org.ame.presto.excel.session.RangeSource;
+import org.ame.presto.excel.xlsx.CheckpointingInflaterInputStream;
+import org.ame.presto.excel.xlsx.DeflateCheckpointIndex;
+import org.ame.presto.excel.xlsx.DeflateCheckpointIndex.Checkpoint;
+import org.ame.presto.excel.xlsx.SheetReader;
+import org.ame.presto.excel.xlsx.XlsxRowCounter;
+import org.ame.presto.excel.xlsx.XlsxWorkbook;
+import org.apache.poi.ss.usermodel.DateUtil;
+
+import javax.xml.stream.XMLStreamException;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.stream.IntStream;
+
+import static com.facebook.presto.common.block.DictionaryId.randomDictionaryId;
+import static com.facebook.presto.common.type.BigintType.BIGINT;
+import static com.facebook.presto.common.type.BooleanType.BOOLEAN;
+import static com.facebook.presto.common.type.DoubleType.DOUBLE;
+import static com.facebook.presto.common.type.TypeUtils.readNativeValue;
+import static io.airlift.slice.Slices.utf8Slice;
+import static java.util.Objects.requireNonNull;
+import static org.ame.presto.excel.ExcelErrorCode.EXCEL_READER_ERROR;
+import static org.ame.presto.excel.ExcelRecordCursor.formatDate;
+import static org.ame.presto.excel.ExcelRecordCursor.formatNumber;
+
+/**
+ * Reads xlsx and xlsb files into pages of lazy blocks. A page only keeps the raw cells of its rows,
+ * and a column is converted when the engine loads its block, so columns of rows that are
+ * filtered out are never converted. Columns of the dynamic filter are converted first.
+ * Columns that only contain shared strings become dictionary blocks over the shared string table.
+ * Scans without columns, like {@code count(*)}, only count the row elements of the sheet.
+ * Rows before the range of a {@code $row_number} predicate are skipped without reading their cells,
+ * and the reading stops after the range. With a checkpoint index, the sheet is inflated from the last checkpoint
+ * before the range instead. Columns with the same value for the whole file are run length encoded.
+ * With a zone map, the blocks of rows that cannot match the constraint are skipped like the rows before the range,
+ * or by inflating the sheet from a later checkpoint.
+ */
+public class ExcelPageSource
+        implements ConnectorPageSource
+{
+    private static final int MAX_ROWS_PER_PAGE = 1024;
+
+    private final List<ExcelColumnHandle> columnHandles;
+    private final List<Type> types;
+    // index of the projected field by column of the sheet, or -1
+    private final int[] fieldsByColumn;
+    private final int[] filterFields;
+    private final Domain[] filterDomains;
+    private final int rowNumberField;
+    // values of the file columns by field
+    private final Object[] fileValues;
+    private final long firstRowNumber;
+    private final long lastRowNumber;
+    private long rowNumber;
+    private final ISession session;
+    private final String schemaName;
+    private final String path;
+    private final long fileModifiedTime;
+    private final XlsxWorkbook workbook;
+    private final int bufferSize;
+    private final boolean byteParserEnabled;
+    private final boolean[] projected;
+    private SheetReader reader;
+    // set instead of the reader when no column is read
+    private final XlsxRowCounter rowCounter;
+    private final DeflateCheckpoints deflateCheckpoints;
+    private final DeflateCheckpointIndex checkpointIndex;
+    // set when the whole sheet is read and the file has no checkpoint index yet
+    private final CheckpointingInflaterInputStream indexingSheet;
+    private final ZoneMaps zoneMaps;
+    // set when the file has a zone map and the query has a constraint
+    private final ZoneMap.BlockFilter blockFilter;
+    // set when the whole sheet is read and the file has no zone map of the columns yet
+    private final ZoneMap.Builder zoneMapBuilder;
+    private final int[] zoneMapFields;
+    // pages of a split share the shared string table as dictionary
+    private final DictionaryId sharedStringsId = randomDictionaryId();
+    private final String protocol;
+    private final ExcelStats stats;
+    private final long openNanos;
+    private long parseNanos;
+    private long convertNanos;
+    private long rows;
+    private long cells;
+    private long droppedRows;
+    private long skippedRows;
+    private boolean finished;
+
+    public ExcelPageSource(
+            List<ExcelColumnHandle> columnHandles,
+            String schemaName,
+            String path,
+            long fileModifiedTime,
+            long firstRowNumber,
+            long lastRowNumber,
+            TupleDomain<ColumnHandle> constraint,
+            TupleDomain<ColumnHandle> dynamicFilter,
+            ISession session,
+            int bufferSize,
+            int maxBufferSize,
+            boolean byteParserEnabled,
+            Executor sharedStringsExecutor,
+            String password,
+            SplitMemoryLimit memoryLimit,
+            DeflateCheckpoints deflateCheckpoints,
+            ZoneMaps zoneMaps,
+            String protocol,
+            ExcelStats stats)
+            throws Exception
+    {
+        this.columnHandles = ImmutableList.copyOf(requireNonNull(columnHandles, "columnHandles is null"));
+        this.types = columnHandles.stream().map(ExcelColumnHandle::getColumnType).collect(ImmutableList.toImmutableList());
+        this.session = requireNonNull(session, "session is null");
+        this.schemaName = requireNonNull(schemaName, "schemaName is null");
+        this.path = requireNonNull(path, "path is null");
+        this.fileModifiedTime = fileModifiedTime;
+        this.deflateCheckpoints = requireNonNull(deflateCheckpoints, "deflateCheckpoints is null");
+        this.zoneMaps = requireNonNull(zoneMaps, "zoneMaps is null");
+        this.bufferSize = bufferSize;
+        this.byteParserEnabled = byteParserEnabled;
+        this.protocol = requireNonNull(protocol, "protocol is null");
+        this.stats = requireNonNull(stats, "stats is null");
+        this.rowNumberField = Iterables.indexOf(columnHandles, ExcelColumnHandle::isRowNumber);
+        this.firstRowNumber = firstRowNumber;
+        this.lastRowNumber = lastRowNumber;
+
+        int columnCount = columnHandles.stream().mapToInt(ExcelColumnHandle::getOrdinalPosition).max().orElse(-1) + 1;
+        fieldsByColumn = new int[columnCount];
+        Arrays.fill(fieldsByColumn, -1);
+        projected = new boolean[columnCount];
+        for (int field = 0; field < columnHandles.size(); field++) {
+            if (columnHandles.get(field).isHidden()) {
+                continue;
+            }
+            int column = columnHandles.get(field).getOrdinalPosition();
+            fieldsByColumn[column] = field;
+            projected[column] = true;
+        }
+
+        Map<ColumnHandle, Domain> domains = dynamicFilter.getDomains().get();
+        // filter columns that are not projected cannot be checked without reading them
+        filterFields = domains.keySet().stream().mapToInt(this.columnHandles::indexOf).filter(field -> field >= 0).toArray();
+        filterDomains = new Domain[filterFields.length];
+        for (int i = 0; i < filterFields.length; i++) {
+            filterDomains[i] = domains.get(columnHandles.get(filterFields[i]));
+        }
+
+        long start = System.nanoTime();
+        // a range source fetches only the parts of the workbook that are read
+        Optional<RangeSource> rangeSource = session.getRangeSource(schemaName, path);
+        if (rangeSource.isPresent()) {
+            workbook = XlsxWorkbook.open(rangeSource.get(), bufferSize, maxBufferSize, !columnHandles.isEmpty(), password, memoryLimit, sharedStringsExecutor);
+        }
+        else {
+            workbook = XlsxWorkbook.open(session.getInputStream(schemaName, path), bufferSize, maxBufferSize, !columnHandles.isEmpty(), password, memoryLimit, sharedStringsExecutor);
+        }
+        CheckpointingInflaterInputStream indexing = null;
+        try {
+            Optional<DeflateCheckpointIndex> index = Optional.empty();
+            if (!workbook.isBinary() && deflateCheckpoints.isEnabled(path)) {
+                index = deflateCheckpoints.get(session, schemaName, path, workbook.getSize(), fileModifiedTime, true)
+                        .filter(candidate -> workbook.isIndexed(candidate, fileModifiedTime));
+            }
+            Checkpoint checkpoint = index.map(candidate -> candidate.findCheckpoint(firstRowNumber)).orElse(null);
+            boolean wholeSheet = firstRowNumber == 1 && lastRowNumber == Long.MAX_VALUE;
+            if (wholeSheet && !index.isPresent() && deflateCheckpoints.isEnabled(path)) {
+                indexing = workbook.openIndexingSheet(deflateCheckpoints.getInterval(), bufferSize);
+            }
+            indexingSheet = indexing;
+            checkpointIndex = index.orElse(null);
+            // Assume the first row is always the header
+            if (columnHandles.isEmpty() && !workbook.isBinary() && wholeSheet) {
+                reader = null;
+                rowCounter = new XlsxRowCounter(indexingSheet != null ? indexingSheet : workbook.openSheet(), 1);
+            }
+            else if (checkpoint != null) {
+                // the rows before the checkpoint, the header included, are not inflated
+                reader = workbook.openSheetReader(workbook.openSheetAt(index.get(), checkpoint, bufferSize), projected, byteParserEnabled);
+                rowCounter = null;
+                rowNumber = checkpoint.getRowNumber() - 1;
+            }
+            else {
+                reader = indexingSheet != null
+                        ? workbook.openSheetReader(indexingSheet, projected, byteParserEnabled)
+                        : workbook.openSheetReader(projected, byteParserEnabled);
+                rowCounter = null;
+                reader.nextRow();
+            }
+        }
+        catch (IOException | XMLStreamException | RuntimeException e) {
+            if (indexing != null) {
+                indexing.close();
+            }
+            workbook.close();
+            throw e;
+        }
+        fileValues = new Object[columnHandles.size()];
+        for (int field = 0; field < columnHandles.size(); field++) {
+            if (columnHandles.get(field).isFileColumn()) {
+                fileValues[field] = columnHandles.get(field).getFileValue(path, workbook.getSheetName(), fileModifiedTime);
+            }
+        }
+
+        zoneMapFields = IntStream.range(0, columnHandles.size())
+                .filter(field -> !columnHandles.get(field).isHidden() && ZoneMap.Builder.isSupported(types.get(field)))
+                .toArray();
+        Optional<ZoneMap> zoneMap = Optional.empty();
+        if (reader != null && zoneMaps.isEnabled(path)) {
+            zoneMap = zoneMaps.get(session, schemaName, path, workbook.getSize(), fileModifiedTime, false);
+        }
+        boolean covered = zoneMap.map(candidate -> candidate.covers(this.columnHandles)).orElse(false);
+        // the dynamic filter drops rows before they are converted, so the map is only built without one
+        if (reader != null && zoneMaps.isEnabled(path) && !covered && zoneMapFields.length > 0
+                && firstRowNumber == 1 && lastRowNumber == Long.MAX_VALUE && filterFields.length == 0) {
+            zoneMapBuilder = new ZoneMap.Builder(
+                    workbook.getSize(),
+                    fileModifiedTime,
+                    false,
+                    zoneMaps.getBlockRows(),
+                    Arrays.stream(zoneMapFields).mapToObj(this.columnHandles::get).collect(ImmutableList.toImmutableList()));
+            blockFilter = null;
+        }
+        else {
+            TupleDomain<ColumnHandle> predicate = constraint.intersect(dynamicFilter);
+            zoneMapBuilder = null;
+            blockFilter = predicate.isAll() ? null : zoneMap.map(candidate -> candidate.createFilter(predicate)).orElse(null);
+        }
+        openNanos = System.nanoTime() - start;
+    }
+
+    @Override
+    public long getCompletedBytes()
+    {
+        // a spooled workbook was read whole, a range source only the parts fetched so far
+        return workbook.getBytesRead();
+    }
+
+    @Override
+    public long getCompletedPositions()
+    {
+        return rows;
+    }
+
+    @Override
+    public long getReadTimeNanos()
+    {
+        return openNanos + parseNanos + convertNanos;
+    }
+
+    @Override
+    public boolean isFinished()
+    {
+        return finished;
+    }
+
+    @Override
+    public Page getNextPage()
+    {
+        if (finished) {
+            return null;
+        }
+        if (rowCounter != null) {
+            return countRows();
+        }
+        long start = System.nanoTime();
+        RawCells[] page = new RawCells[columnHandles.size()];
+        for (int field = 0; field < page.length; field++) {
+            page[field] = new RawCells(MAX_ROWS_PER_PAGE);
+        }
+        long[] rowNumbers = new long[MAX_ROWS_PER_PAGE];
+        int positionCount = 0;
+        try {
+            while (positionCount < MAX_ROWS_PER_PAGE) {
+                if (rowNumber + 1 < firstRowNumber) {
+                    if (!reader.skipRow()) {
+                        finished = true;
+                        break;
+                    }
+                    rowNumber++;
+                    continue;
+                }
+                if (blockFilter != null) {
+                    long nextRowNumber = blockFilter.getNextRow(rowNumber + 1);
+                    if (nextRowNumber > lastRowNumber || (nextRowNumber > rowNumber + 1 && !skipTo(nextRowNumber))) {
+                        finished = true;
+                        break;
+                    }
+                }
+                if (rowNumber >= lastRowNumber || !reader.nextRow()) {
+                    finished = true;
+                    break;
+                }
+                rowNumber++;
+                rowNumbers[positionCount] = rowNumber;
+                for (int cell = 0; cell < reader.getCellCount(); cell++) {
+                    int field = fieldsByColumn[reader.getColumn(cell)];
+                    page[field].set(positionCount, reader, cell);
+                }
+                positionCount++;
+            }
+        }
+        catch (IOException | XMLStreamException e) {
+            throw new PrestoException(EXCEL_READER_ERROR, "Error reading sheet", e);
+        }
+        finally {
+            parseNanos += System.nanoTime() - start;
+        }
+        rows += positionCount;
+        if (positionCount == 0) {
+            return null;
+        }
+
+        Block[] blocks = new Block[columnHandles.size()];
+        int[] positions = null;
+        if (filterFields.length > 0) {
+            positions = filter(page, rowNumbers, positionCount, blocks);
+            droppedRows += positionCount - positions.length;
+            for (int field : filterFields) {
+                blocks[field] = blocks[field].getPositions(positions, 0, positions.length);
+            }
+            positionCount = positions.length;
+        }
+        for (int field = 0; field < blocks.length; field++) {
+            if (columnHandles.get(field).isHidden() && blocks[field] == null) {
+                blocks[field] = createHiddenBlock(field, rowNumbers, positions, positionCount);
+            }
+            else if (blocks[field] == null) {
+                blocks[field] = createLazyBlock(field, page[field], positions, positionCount);
+            }
+        }
+        if (zoneMapBuilder != null) {
+            addToZoneMap(blocks, rowNumbers, positionCount);
+        }
+        return new Page(positionCount, blocks);
+    }
+
+    @Override
+    public long getSystemMemoryUsage()
+    {
+        return workbook.getRetainedSizeInBytes();
+    }
+
+    @Override
+    public void close()
+            throws IOException
+    {
+        stats.addBytesRead(protocol, workbook.getBytesRead());
+        stats.addSplitRead(rows, cells, openNanos, parseNanos, convertNanos);
+        stats.addDynamicFilterRowsDropped(droppedRows);
+        stats.addZoneMapRowsSkipped(skippedRows);
+        try {
+            if (indexingSheet != null && finished) {
+                writeCheckpointIndex();
+            }
+            if (zoneMapBuilder != null && finished) {
+                zoneMaps.put(session, schemaName, path, zoneMapBuilder.build());
+            }
+            if (reader != null) {
+                reader.close();
+            }
+            if (rowCounter != null) {
+                rowCounter.close();
+            }
+            workbook.close();
+        }
+        finally {
+            session.close();
+        }
+    }
+
+    private void writeCheckpointIndex()
+    {
+        try {
+            // the parser may stop before the end of the part, after the end of the root element
+            ByteStreams.exhaust(indexingSheet);
+        }
+        catch (IOException e) {
+            return;
+        }
+        indexingSheet.getIndex(workbook.getSize(), fileModifiedTime)
+                .ifPresent(index -> deflateCheckpoints.put(session, schemaName, path, index));
+    }
+
+    /**
+     * Skips the rows before the row, inflating the sheet from the last checkpoint before the row when it is ahead.
+     * Returns false at the end of the sheet.
+     */
+    private boolean skipTo(long nextRowNumber)
+            throws IOException, XMLStreamException
+    {
+        long skippedFrom = rowNumber;
+        Checkpoint checkpoint = checkpointIndex == null ? null : checkpointIndex.findCheckpoint(nextRowNumber);
+        if (checkpoint != null && checkpoint.getRowNumber() > rowNumber + 1) {
+            SheetReader skippedReader = reader;
+            reader = workbook.openSheetReader(workbook.openSheetAt(checkpointIndex, checkpoint, bufferSize), projected, byteParserEnabled);
+            skippedReader.close();
+            rowNumber = checkpoint.getRowNumber() - 1;
+        }
+        while (rowNumber + 1 < nextRowNumber) {
+            if (!reader.skipRow()) {
+                return false;
+            }
+            rowNumber++;
+        }
+        skippedRows += rowNumber - skippedFrom;
+        return true;
+    }
+
+    /**
+     * Converts the tracked columns of the page, which the zone map needs for every row.
+     */
+    private void addToZoneMap(Block[] blocks, long[] rowNumbers, int positionCount)
+    {
+        for (int column = 0; column < zoneMapFields.length; column++) {
+            int field = zoneMapFields[column];
+            Block block = blocks[field].getLoadedBlock();
+            blocks[field] = block;
+            for (int position = 0; position < positionCount; position++) {
+                zoneMapBuilder.add(column, rowNumbers[position], readNativeValue(types.get(field), block, position));
+            }
+        }
+    }
+
+    private Page countRows()
+    {
+        long start = System.nanoTime();
+        try {
+            int positionCount = rowCounter.next();
+            if (positionCount < 0) {
+                finished = true;
+                return null;
+            }
+            rows += positionCount;
+            return new Page(positionCount);
+        }
+        catch (IOException e) {
+            throw new PrestoException(EXCEL_READER_ERROR, "Error reading sheet", e);
+        }
+        finally {
+            parseNanos += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Converts the dynamic filter columns into blocks and returns the positions of the rows that match the filter.
+     */
+    private int[] filter(RawCells[] page, long[] rowNumbers, int positionCount, Block[] blocks)
+    {
+        for (int field : filterFields) {
+            if (columnHandles.get(field).isHidden()) {
+                blocks[field] = createHiddenBlock(field, rowNumbers, null, positionCount);
+            }
+            else {
+                blocks[field] = convert(field, page[field], null, positionCount);
+            }
+        }
+        int[] positions = new int[positionCount];
+        int count = 0;
+        for (int position = 0; position < positionCount; position++) {
+            boolean matches = true;
+            for (int i = 0; i < filterFields.length && matches; i++) {
+                int field = filterFields[i];
+                matches = filterDomains[i].includesNullableValue(readNativeValue(types.get(field), blocks[field], position));
+            }
+            if (matches) {
+                positions[count++] = position;
+            }
+        }
+        return Arrays.copyOf(positions, count);
+    }
+
+    private Block createHiddenBlock(int field, long[] rowNumbers, int[] positions, int positionCount)
+    {
+        if (field != rowNumberField) {
+            return RunLengthEncodedBlock.create(types.get(field), fileValues[field], positionCount);
+        }
+        long[] values = new long[positionCount];
+        for (int i = 0; i < positionCount; i++) {
+            values[i] = rowNumbers[positions == null ? i : positions[i]];
+        }
+        return new LongArrayBlock(positionCount, Optional.empty(), values);
+    }
+
+    private Block createLazyBlock(int field, RawCells cells, int[] positions, int positionCount)
+    {
+        return new LazyBlock(positionCount, lazyBlock -> lazyBlock.setBlock(convert(field, cells, positions, positionCount)));
+    }
+
+    private Block convert(int field, RawCells raw, int[] positions, int positionCount)
+    {
+        long start = System.nanoTime();
+        Type type = types.get(field);
+        Block block;
+        // the dictionary is the whole table, which is only built when all shared strings were read
+        if (type instanceof VarcharType && workbook.areSharedStringsLoaded() && isSharedStrings(raw, positions, positionCount)) {
+            block = createDictionaryBlock(raw, positions, positionCount);
+        }
+        else {
+            BlockBuilder builder = type.createBlockBuilder(null, positionCount);
+            for (int i = 0; i < positionCount; i++) {
+                write(type, builder, raw, positions == null ? i : positions[i]);
+            }
+            block = builder.build();
+        }
+        convertNanos += System.nanoTime() - start;
+        return block;
+    }
+
+    private static boolean isSharedStrings(RawCells raw, int[] positions, int positionCount)
+    {
+        boolean shared = false;
+        for (int i = 0; i < positionCount; i++) {
+            byte type = raw.types[positions == null ? i : positions[i]];
+            if (type == SheetReader.SHARED_STRING) {
+                shared = true;
+            }
+            else if (type != SheetReader.BLANK) {
+                return false;
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * Returns the shared string indexes of the column as ids into the shared string table of the workbook.
+     */
+    private Block createDictionaryBlock(RawCells raw, int[] positions, int positionCount)
+    {
+        int nullId = workbook.getSharedStringCount();
+        int[] ids = new int[positionCount];
+        for (int i = 0; i < positionCount; i++) {
+            int position = positions == null ? i : positions[i];
+            if (raw.types[position] == SheetReader.BLANK) {
+                ids[i] = nullId;
+            }
+            else {
+                cells++;
+                ids[i] = raw.references[position];
+            }
+        }
+        return new DictionaryBlock(positionCount, workbook.getSharedStrings(), ids, sharedStringsId);
+    }
+
+    private void write(Type type, BlockBuilder builder, RawCells raw, int position)
+    {
+        if (raw.types[position] == SheetReader.SHARED_STRING && type instanceof VarcharType) {
+            cells++;
+            Slice value = workbook.getSharedString(raw.references[position]);
+            if (value == null) {
+                builder.appendNull();
+            }
+            else {
+                type.writeSlice(builder, value);
+            }
+            return;
+        }
+        String value = getText(raw, position);
+        if (value == null || value.isEmpty()) {
+            builder.appendNull();
+        }
+        else if (type.equals(BIGINT)) {
+            BIGINT.writeLong(builder, Long.parseLong(value));
+        }
+        else if (type.equals(DOUBLE)) {
+            DOUBLE.writeDouble(builder, Double.parseDouble(value));
+        }
+        else if (type.equals(BOOLEAN)) {
+            BOOLEAN.writeBoolean(builder, Boolean.parseBoolean(value));
+        }
+        else {
+            type.writeSlice(builder, utf8Slice(value));
+        }
+    }
+
+    private String getText(RawCells raw, int position)
+    {
+        String value = raw.values[position];
+        switch (raw.types[position]) {
+            case SheetReader.BLANK:
+                return null;
+            case SheetReader.NUMBER:
+                cells++;
+                double number = raw.numbers[position];
+                if (workbook.isDateStyle(raw.references[position]) && DateUtil.isValidExcelDate(number)) {
+                    return formatDate(DateUtil.getJavaDate(number, workbook.isDate1904()));
+                }
+                return formatNumber(number);
+            case SheetReader.SHARED_STRING:
+                cells++;
+                Slice sharedString = workbook.getSharedString(raw.references[position]);
+                return sharedString == null ? null : sharedString.toStringUtf8();
+            case SheetReader.STRING:
+                cells++;
+                return value;
+            case SheetReader.BOOLEAN:
+                cells++;
+                return Boolean.toString("1".equals(value));
+            default:
+                // error cells
+                cells++;
+                return null;
+        }
+    }
+
+    /**
+     * The raw cells of one column of a page.
+     */
+    private static class RawCells
+    {
+        private final byte[] types;
+        // the style of a number, or the index of a shared string
+        private final int[] references;
+        private final double[] numbers;
+        private final String[] values;
+
+        RawCells(int capacity)
+        {
+            types = new byte[capacity];
+            references = new int[capacity];
+            numbers = new double[capacity];
+            values = new String[capacity];
+        }
+
+        void set(int position, SheetReader reader, int cell)
+        {
+            byte type = reader.getType(cell);
+            types[position] = type;
+            if (type == SheetReader.SHARED_STRING) {
+                references[position] = reader.getSharedStringIndex(cell);
+            }
+            else if (type == SheetReader.NUMBER) {
+                references[position] = reader.getStyle(cell);
+                numbers[position] = reader.getNumber(cell);
+            }
+            else {
+                references[position] = reader.getStyle(cell);
+                values[position] = reader.getValue(cell);
+            }
+        }
+    }
+}
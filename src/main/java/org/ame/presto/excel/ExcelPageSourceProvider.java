@@ -0,0 +1,140 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.excel;
+
+import com.facebook.presto.common.predicate.TupleDomain;
+import com.facebook.presto.spi.ColumnHandle;
+import com.facebook.presto.spi.ConnectorPageSource;
+import com.facebook.presto.spi.ConnectorSession;
+import com.facebook.presto.spi.ConnectorSplit;
+import com.facebook.presto.spi.ConnectorTableLayoutHandle;
+import com.facebook.presto.spi.FixedPageSource;
+import com.facebook.presto.spi.PrestoException;
+import com.facebook.presto.spi.RecordPageSource;
+import com.facebook.presto.spi.SplitContext;
+import com.facebook.presto.spi.connector.ConnectorPageSourceProvider;
+import com.facebook.presto.spi.connector.ConnectorTransactionHandle;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.ame.presto.excel.session.ISession;
+
+import javax.inject.Inject;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import static java.util.Objects.requireNonNull;
+import static org.ame.presto.excel.ExcelErrorCode.EXCEL_READER_ERROR;
+import static org.ame.presto.excel.ExcelSessionProperties.getBufferSize;
+import static org.ame.presto.excel.ExcelSessionProperties.getMaxBufferSize;
+import static org.ame.presto.excel.ExcelSessionProperties.getRowCacheSize;
+import static org.ame.presto.excel.ExcelSessionProperties.isConcurrentSharedStringsEnabled;
+import static org.ame.presto.excel.ExcelSessionProperties.isXlsxByteParserEnabled;
+import static org.ame.presto.excel.FileTypeJudge.isXlsbFile;
+import static org.ame.presto.excel.FileTypeJudge.isXlsxFile;
+
+public class ExcelPageSourceProvider
+        implements ConnectorPageSourceProvider
+{
+    private final ExcelClient excelClient;
+    private final ExcelStats stats;
+    // reads the shared strings of workbooks while their sheets are read
+    private final ExecutorService sharedStringsExecutor = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("excel-shared-strings-%s").setDaemon(true).build());
+
+    @Inject
+    public ExcelPageSourceProvider(ExcelClient excelClient, ExcelStats stats)
+    {
+        this.excelClient = requireNonNull(excelClient, "excelClient is null");
+        this.stats = requireNonNull(stats, "stats is null");
+    }
+
+    @Override
+    public ConnectorPageSource createPageSource(
+            ConnectorTransactionHandle transactionHandle,
+            ConnectorSession session,
+            ConnectorSplit split,
+            ConnectorTableLayoutHandle layout,
+            List<ColumnHandle> columns,
+            SplitContext splitContext)
+    {
+        requireNonNull(split, "split is null");
+        ExcelSplit excelSplit = (ExcelSplit) split;
+        List<ExcelColumnHandle> handles = columns.stream().map(c -> (ExcelColumnHandle) c).collect(Collectors.toList());
+        // the engine collects the build side of the join before the probe splits are started
+        TupleDomain<ColumnHandle> dynamicFilter = splitContext.getDynamicFilterPredicate().orElse(TupleDomain.all());
+        if (dynamicFilter.isNone() || excelSplit.getFirstRowNumber() > excelSplit.getLastRowNumber()) {
+            return new FixedPageSource(ImmutableList.of());
+        }
+        String password = excelClient.getWorkbookPassword(excelSplit.getSchemaName(), excelSplit.getTableName());
+        // xlsx files are read as raw cells, unless formulas have to be evaluated on the whole workbook,
+        // POI cannot read xlsb files at all
+        if (isXlsbFile(excelSplit.getPath()) || (isXlsxFile(excelSplit.getPath()) && !excelClient.isFormulaEvaluationEnabled())) {
+            ISession excelSession = excelClient.getSession();
+            try {
+                return new ExcelPageSource(
+                        handles,
+                        excelSplit.getSchemaName(),
+                        excelSplit.getPath(),
+                        excelSplit.getFileModifiedTime(),
+                        excelSplit.getFirstRowNumber(),
+                        excelSplit.getLastRowNumber(),
+                        excelSplit.getConstraint(),
+                        dynamicFilter,
+                        excelSession,
+                        getBufferSize(session),
+                        getMaxBufferSize(session),
+                        isXlsxByteParserEnabled(session),
+                        isConcurrentSharedStringsEnabled(session) ? sharedStringsExecutor : null,
+                        password,
+                        excelClient.getSplitMemoryLimit(),
+                        excelClient.getDeflateCheckpoints(),
+                        excelClient.getZoneMaps(),
+                        excelClient.getProtocol(),
+                        stats);
+            }
+            catch (PrestoException e) {
+                excelSession.close();
+                throw e;
+            }
+            catch (Exception e) {
+                excelSession.close();
+                throw new PrestoException(EXCEL_READER_ERROR, "Error opening " + excelSplit.getPath(), e);
+            }
+        }
+        return new RecordPageSource(new ExcelRecordSet(
+                excelSplit,
+                handles,
+                dynamicFilter,
+                excelClient.getSession(),
+                getRowCacheSize(session),
+                getBufferSize(session),
+                getMaxBufferSize(session),
+                excelClient.isFormulaEvaluationEnabled(),
+                excelClient.getFormulaEvaluationBudget(),
+                password,
+                excelClient.getHighWaterMarks(),
+                excelClient.getSplitMemoryLimit(),
+                excelClient.getZoneMaps(),
+                excelClient.getProtocol(),
+                stats));
+    }
+
+    public void shutdown()
+    {
+        sharedStringsExecutor.shutdownNow();
+    }
+}
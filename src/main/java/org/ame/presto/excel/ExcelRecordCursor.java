@@ -13,29 +13,40 @@
  */
 package org.ame.presto.excel;
 
+import com.facebook.airlift.log.Logger;
+import com.facebook.presto.common.predicate.TupleDomain;
 import com.facebook.presto.common.type.Type;
+import com.facebook.presto.spi.ColumnHandle;
 import com.facebook.presto.spi.RecordCursor;
-import com.facebook.presto.spi.SchemaTableName;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.io.CountingInputStream;
 import com.monitorjbl.xlsx.StreamingReader;
 import io.airlift.slice.Slice;
 import io.airlift.slice.Slices;
 import org.ame.presto.excel.session.ISession;
 import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.CellValue;
 import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.usermodel.FormulaEvaluator;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
 import org.apache.poi.ss.usermodel.WorkbookFactory;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.math.BigDecimal;
-import java.text.SimpleDateFormat;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.Arrays;
+import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.IntStream;
 
 import static com.facebook.presto.common.type.BigintType.BIGINT;
 import static com.facebook.presto.common.type.BooleanType.BOOLEAN;
@@ -44,57 +55,164 @@ import static com.facebook.presto.common.type.VarcharType.createUnboundedVarchar
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
 import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static org.ame.presto.excel.FileTypeJudge.isXlsxFile;
 
 public class ExcelRecordCursor
         implements RecordCursor
 {
+    // POI keeps the whole workbook in memory, which takes many times the size of the file
+    private static final int IN_MEMORY_WORKBOOK_EXPANSION = 10;
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final byte DATE_STYLE = 1;
+    private static final byte NUMBER_STYLE = 2;
+
+    private final Logger logger = Logger.get(ExcelRecordCursor.class);
     private final List<ExcelColumnHandle> columnHandles;
-    private final Long totalBytes;
     private final ISession session;
-    private List<String> fields;
-    private InputStream inputStream;
+    private final String schemaName;
+    private final String path;
+    private final int[] ordinals;
+    // whether the number format of a cell style is a date format, by style index, or 0 when the style was not seen yet
+    private byte[] dateStyles = new byte[64];
+    private final int rowNumberField;
+    // values of the file columns by field
+    private final Object[] fileValues;
+    private final long firstRowNumber;
+    private final long lastRowNumber;
+    private long rowNumber;
+    private final ZoneMaps zoneMaps;
+    // set when the file has a zone map and the query has a constraint
+    private final ZoneMap.BlockFilter blockFilter;
+    // set when the whole sheet is read and the file has no zone map of the columns yet
+    private final ZoneMap.Builder zoneMapBuilder;
+    private final int[] zoneMapFields;
+    private boolean finished;
+    // cells are converted when read, so rows dropped by a filter skip the conversion
+    private final String[] fields;
+    private final boolean[] converted;
+    private Row row;
+    private CountingInputStream inputStream;
     private Workbook workbook;
     private Sheet sheet;
     private Iterator<Row> iterator;
+    private final FormulaEvaluator evaluator;
+    private final int formulaEvaluationBudget;
+    private int formulaEvaluations;
+    private int formulaEvaluationFallbacks;
+    private long formulaEvaluationNanos;
+    private final String protocol;
+    private final ExcelStats stats;
+    private final long retainedBytes;
+    private final long openNanos;
+    private long parseNanos;
+    private long convertNanos;
+    private long rows;
+    private long cells;
+    private long skippedRows;
 
     public ExcelRecordCursor(
             List<ExcelColumnHandle> columnHandles,
-            SchemaTableName schemaTableName,
+            String schemaName,
+            String path,
+            long fileModifiedTime,
+            long fileSize,
+            long firstRowNumber,
+            long lastRowNumber,
+            TupleDomain<ColumnHandle> constraint,
             ISession session,
-            Integer rowCacheSize,
-            Integer bufferSize)
+            int rowCacheSize,
+            int bufferSize,
+            boolean formulaEvaluationEnabled,
+            int formulaEvaluationBudget,
+            String password,
+            SplitMemoryLimit memoryLimit,
+            ZoneMaps zoneMaps,
+            String protocol,
+            ExcelStats stats)
             throws Exception
     {
         this.columnHandles = ImmutableList.copyOf(requireNonNull(columnHandles, "columnHandles is null"));
+        this.ordinals = columnHandles.stream().mapToInt(ExcelColumnHandle::getOrdinalPosition).toArray();
+        this.rowNumberField = Iterables.indexOf(columnHandles, ExcelColumnHandle::isRowNumber);
+        this.firstRowNumber = firstRowNumber;
+        this.lastRowNumber = lastRowNumber;
+        this.fields = new String[columnHandles.size()];
+        this.converted = new boolean[columnHandles.size()];
         this.session = session;
-        inputStream = this.session.getInputStream(schemaTableName.getSchemaName(), schemaTableName.getTableName());
-        totalBytes = (long) inputStream.available();
-        // use streaming reader for xlsx files
-        if (isXlsxFile(schemaTableName.getTableName())) {
-            workbook = StreamingReader.builder().rowCacheSize(rowCacheSize).bufferSize(bufferSize).open(inputStream);
+        this.schemaName = requireNonNull(schemaName, "schemaName is null");
+        this.path = requireNonNull(path, "path is null");
+        this.zoneMaps = requireNonNull(zoneMaps, "zoneMaps is null");
+        this.protocol = requireNonNull(protocol, "protocol is null");
+        this.stats = requireNonNull(stats, "stats is null");
+        // use streaming reader for xlsx files, unless formulas have to be evaluated on the whole workbook
+        boolean streaming = isXlsxFile(path) && !formulaEvaluationEnabled;
+        // the memory of the POI structures cannot be measured, it is estimated from the size of the file before they are loaded,
+        // the streaming reader keeps the shared strings and the row cache
+        this.retainedBytes = streaming ? fileSize : fileSize * IN_MEMORY_WORKBOOK_EXPANSION;
+        memoryLimit.check(retainedBytes, "Loading " + path);
+        long start = System.nanoTime();
+        inputStream = new CountingInputStream(this.session.getInputStream(schemaName, path));
+        if (streaming) {
+            workbook = StreamingReader.builder().rowCacheSize(rowCacheSize).bufferSize(bufferSize).password(password).open(inputStream);
         }
         else {
-            workbook = WorkbookFactory.create(inputStream);
+            workbook = WorkbookFactory.create(inputStream, password);
         }
+        evaluator = formulaEvaluationEnabled ? workbook.getCreationHelper().createFormulaEvaluator() : null;
+        this.formulaEvaluationBudget = formulaEvaluationBudget;
         sheet = workbook.getSheetAt(0);
         iterator = sheet.rowIterator();
         // Assume the first row is always the header
         if (iterator.hasNext()) {
             iterator.next();
         }
+        fileValues = new Object[columnHandles.size()];
+        for (int field = 0; field < columnHandles.size(); field++) {
+            if (columnHandles.get(field).isFileColumn()) {
+                fileValues[field] = columnHandles.get(field).getFileValue(path, sheet.getSheetName(), fileModifiedTime);
+            }
+        }
+
+        zoneMapFields = IntStream.range(0, columnHandles.size())
+                .filter(field -> !columnHandles.get(field).isHidden() && ZoneMap.Builder.isSupported(getType(field)))
+                .toArray();
+        // evaluated formulas may differ from the results cached in the file, so the map of one does not fit the other
+        boolean formulasEvaluated = evaluator != null;
+        Optional<ZoneMap> zoneMap = zoneMaps.get(session, schemaName, path, fileSize, fileModifiedTime, formulasEvaluated);
+        boolean covered = zoneMap.map(candidate -> candidate.covers(this.columnHandles)).orElse(false);
+        if (zoneMaps.isEnabled(path) && !covered && zoneMapFields.length > 0 && firstRowNumber == 1 && lastRowNumber == Long.MAX_VALUE) {
+            zoneMapBuilder = new ZoneMap.Builder(
+                    fileSize,
+                    fileModifiedTime,
+                    formulasEvaluated,
+                    zoneMaps.getBlockRows(),
+                    Arrays.stream(zoneMapFields).mapToObj(this.columnHandles::get).collect(ImmutableList.toImmutableList()));
+            blockFilter = null;
+        }
+        else {
+            zoneMapBuilder = null;
+            blockFilter = constraint.isAll() ? null : zoneMap.map(candidate -> candidate.createFilter(constraint)).orElse(null);
+        }
+        openNanos = System.nanoTime() - start;
     }
 
     @Override
     public long getCompletedBytes()
     {
-        return totalBytes;
+        return inputStream.getCount();
     }
 
     @Override
     public long getReadTimeNanos()
     {
-        return 0;
+        return openNanos + parseNanos + convertNanos;
+    }
+
+    @Override
+    public long getSystemMemoryUsage()
+    {
+        return retainedBytes;
     }
 
     @Override
@@ -106,62 +224,45 @@ public class ExcelRecordCursor
     @Override
     public boolean advanceNextPosition()
     {
-        if (!iterator.hasNext()) {
-            return false;
-        }
-        Row row = iterator.next();
-        // skip empty rows
-        if (row == null) {
-            return true;
-        }
-        String[] allFields = new String[columnHandles.size()];
-        for (int i = 0; i < columnHandles.size(); i++) {
-            int ordinalPosition = columnHandles.get(i).getOrdinalPosition();
-            Cell cell = row.getCell(ordinalPosition);
-            // populate incomplete columns with null
-            if (cell == null) {
-                allFields[i] = null;
-                continue;
-            }
-            // convert cell to string
-            switch (cell.getCellType()) {
-                case STRING:
-                    allFields[i] = cell.getStringCellValue();
-                    break;
-                case NUMERIC:
-                    if (DateUtil.isCellDateFormatted(cell)) {
-                        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-                        allFields[i] = format.format(cell.getDateCellValue());
+        long start = System.nanoTime();
+        try {
+            while (iterator.hasNext()) {
+                row = iterator.next();
+                // skip empty rows
+                if (row == null) {
+                    continue;
+                }
+                rowNumber++;
+                if (rowNumber > lastRowNumber) {
+                    return false;
+                }
+                // rows before the $row_number range, and rows of blocks that cannot match, are not converted
+                if (rowNumber < firstRowNumber) {
+                    continue;
+                }
+                if (blockFilter != null) {
+                    long nextRowNumber = blockFilter.getNextRow(rowNumber);
+                    if (nextRowNumber > lastRowNumber) {
+                        return false;
                     }
-                    else {
-                        // prevent integer from being converted to double
-                        Long longValue = Math.round(cell.getNumericCellValue());
-                        Double doubleValue = cell.getNumericCellValue();
-                        if (Double.parseDouble(longValue + ".0") == doubleValue) {
-                            allFields[i] = longValue.toString();
-                        }
-                        else {
-                            // avoid scientific notation
-                            BigDecimal bigDecimal = BigDecimal.valueOf(cell.getNumericCellValue());
-                            allFields[i] = bigDecimal.toPlainString();
-                        }
+                    if (nextRowNumber > rowNumber) {
+                        skippedRows++;
+                        continue;
                     }
-                    break;
-                case BOOLEAN:
-                    allFields[i] = Boolean.toString(cell.getBooleanCellValue());
-                    break;
-                case BLANK:
-                    allFields[i] = null;
-                    break;
-                case FORMULA:
-                    allFields[i] = cell.getCellFormula();
-                    break;
-                default:
-                    break;
+                }
+                rows++;
+                Arrays.fill(converted, false);
+                if (zoneMapBuilder != null) {
+                    addToZoneMap();
+                }
+                return true;
             }
+            finished = true;
+            return false;
+        }
+        finally {
+            parseNanos += System.nanoTime() - start;
         }
-        fields = Arrays.asList(allFields);
-        return true;
     }
 
     @Override
@@ -174,7 +275,13 @@ public class ExcelRecordCursor
     @Override
     public long getLong(int field)
     {
+        if (columnHandles.get(field).isFileColumn()) {
+            return (long) fileValues[field];
+        }
         checkFieldType(field, BIGINT);
+        if (field == rowNumberField) {
+            return rowNumber;
+        }
         return Long.parseLong(getFieldValue(field));
     }
 
@@ -189,7 +296,10 @@ public class ExcelRecordCursor
     public Slice getSlice(int field)
     {
         checkFieldType(field, createUnboundedVarcharType());
-        return Slices.utf8Slice(fields.get(field));
+        if (columnHandles.get(field).isFileColumn()) {
+            return (Slice) fileValues[field];
+        }
+        return Slices.utf8Slice(getFieldValue(field));
     }
 
     @Override
@@ -202,12 +312,28 @@ public class ExcelRecordCursor
     public boolean isNull(int field)
     {
         checkArgument(field < columnHandles.size(), "Invalid field index");
+        if (field == rowNumberField) {
+            return false;
+        }
+        if (columnHandles.get(field).isFileColumn()) {
+            return fileValues[field] == null;
+        }
         return Strings.isNullOrEmpty(getFieldValue(field));
     }
 
     @Override
     public void close()
     {
+        if (formulaEvaluations > 0) {
+            logger.debug("Evaluated %s formula cells in %sms, %s fell back to cached results", formulaEvaluations, NANOSECONDS.toMillis(formulaEvaluationNanos), formulaEvaluationFallbacks);
+            stats.addFormulaEvaluation(formulaEvaluations, formulaEvaluationFallbacks, formulaEvaluationNanos);
+        }
+        stats.addBytesRead(protocol, inputStream.getCount());
+        stats.addSplitRead(rows, cells, openNanos, parseNanos, convertNanos);
+        stats.addZoneMapRowsSkipped(skippedRows);
+        if (zoneMapBuilder != null && finished) {
+            zoneMaps.put(session, schemaName, path, zoneMapBuilder.build());
+        }
         try {
             workbook.close();
             inputStream.close();
@@ -218,6 +344,124 @@ public class ExcelRecordCursor
         }
     }
 
+    private void addToZoneMap()
+    {
+        for (int column = 0; column < zoneMapFields.length; column++) {
+            int field = zoneMapFields[column];
+            Object value = null;
+            if (!isNull(field)) {
+                Type type = getType(field);
+                if (type.equals(BOOLEAN)) {
+                    value = getBoolean(field);
+                }
+                else if (type.equals(BIGINT)) {
+                    value = getLong(field);
+                }
+                else if (type.equals(DOUBLE)) {
+                    value = getDouble(field);
+                }
+                else {
+                    value = getSlice(field);
+                }
+            }
+            zoneMapBuilder.add(column, rowNumber, value);
+        }
+    }
+
+    private String getFormulaValue(Cell cell)
+    {
+        if (evaluator == null || formulaEvaluations >= formulaEvaluationBudget) {
+            // the result cached in the file is free to read, also in streaming mode
+            return getCellValue(cell, cell.getCachedFormulaResultType());
+        }
+        long start = System.nanoTime();
+        CellValue value;
+        try {
+            value = evaluator.evaluate(cell);
+        }
+        catch (RuntimeException e) {
+            // functions unknown to POI, formulas it cannot parse and references to other workbooks keep the result cached in the file
+            formulaEvaluationFallbacks++;
+            return getCellValue(cell, cell.getCachedFormulaResultType());
+        }
+        finally {
+            formulaEvaluationNanos += System.nanoTime() - start;
+            formulaEvaluations++;
+        }
+        if (value == null) {
+            return null;
+        }
+        switch (value.getCellType()) {
+            case STRING:
+                return value.getStringValue();
+            case NUMERIC:
+                if (isDateFormatted(cell, value.getNumberValue())) {
+                    return formatDate(DateUtil.getJavaDate(value.getNumberValue()));
+                }
+                return formatNumber(value.getNumberValue());
+            case BOOLEAN:
+                return Boolean.toString(value.getBooleanValue());
+            default:
+                return null;
+        }
+    }
+
+    private String getCellValue(Cell cell, CellType cellType)
+    {
+        // convert cell to string
+        switch (cellType) {
+            case STRING:
+                return cell.getStringCellValue();
+            case NUMERIC:
+                double value = cell.getNumericCellValue();
+                if (isDateFormatted(cell, value)) {
+                    return formatDate(cell.getDateCellValue());
+                }
+                return formatNumber(value);
+            case BOOLEAN:
+                return Boolean.toString(cell.getBooleanCellValue());
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Same as {@link DateUtil#isCellDateFormatted(Cell)}, but the format string of a style is only analyzed
+     * for the first cell with the style.
+     */
+    private boolean isDateFormatted(Cell cell, double value)
+    {
+        CellStyle style = cell.getCellStyle();
+        if (style == null) {
+            return false;
+        }
+        int index = style.getIndex() & 0xFFFF;
+        if (index >= dateStyles.length) {
+            dateStyles = Arrays.copyOf(dateStyles, Math.max(index + 1, dateStyles.length * 2));
+        }
+        if (dateStyles[index] == 0) {
+            dateStyles[index] = DateUtil.isADateFormat(style.getDataFormat(), style.getDataFormatString()) ? DATE_STYLE : NUMBER_STYLE;
+        }
+        return dateStyles[index] == DATE_STYLE && DateUtil.isValidExcelDate(value);
+    }
+
+    static String formatDate(Date date)
+    {
+        return DATE_FORMATTER.format(date.toInstant().atZone(ZoneId.systemDefault()));
+    }
+
+    static String formatNumber(double value)
+    {
+        // prevent integer from being converted to double
+        Long longValue = Math.round(value);
+        if (Double.parseDouble(longValue + ".0") == value) {
+            return longValue.toString();
+        }
+        // avoid scientific notation
+        BigDecimal bigDecimal = BigDecimal.valueOf(value);
+        return bigDecimal.toPlainString();
+    }
+
     private void checkFieldType(int field, Type expected)
     {
         Type actual = getType(field);
@@ -226,7 +470,26 @@ public class ExcelRecordCursor
 
     private String getFieldValue(int field)
     {
-        checkState(fields != null, "Cursor has not been advanced yet");
-        return fields.get(field);
+        checkState(row != null, "Cursor has not been advanced yet");
+        if (!converted[field]) {
+            long start = System.nanoTime();
+            fields[field] = convertCell(row.getCell(ordinals[field]));
+            converted[field] = true;
+            convertNanos += System.nanoTime() - start;
+        }
+        return fields[field];
+    }
+
+    private String convertCell(Cell cell)
+    {
+        // populate incomplete columns with null
+        if (cell == null) {
+            return null;
+        }
+        cells++;
+        if (cell.getCellType() == CellType.FORMULA) {
+            return getFormulaValue(cell);
+        }
+        return getCellValue(cell, cell.getCellType());
     }
 }
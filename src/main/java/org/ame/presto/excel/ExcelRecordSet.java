@@ -14,16 +14,21 @@
 package org.ame.presto.excel;
 
 import com.facebook.airlift.log.Logger;
+import com.facebook.presto.common.predicate.Domain;
+import com.facebook.presto.common.predicate.TupleDomain;
 import com.facebook.presto.common.type.Type;
+import com.facebook.presto.spi.ColumnHandle;
+import com.facebook.presto.spi.PrestoException;
 import com.facebook.presto.spi.RecordCursor;
 import com.facebook.presto.spi.RecordSet;
-import com.facebook.presto.spi.SchemaTableName;
 import org.ame.presto.excel.session.ISession;
 
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 import static java.util.Objects.requireNonNull;
+import static org.ame.presto.excel.FileTypeJudge.isCsvFile;
 
 public class ExcelRecordSet
         implements RecordSet
@@ -31,21 +36,69 @@ public class ExcelRecordSet
     private final Logger logger = Logger.get(ExcelRecordSet.class);
     private final List<ExcelColumnHandle> columnHandles;
     private final List<Type> columnTypes;
-    private final SchemaTableName schemaTableName;
+    private final String schemaName;
+    private final String path;
+    private final long start;
+    private final long length;
+    private final long fileModifiedTime;
+    private final long firstRowNumber;
+    private final long lastRowNumber;
+    private final TupleDomain<ColumnHandle> constraint;
+    private final TupleDomain<ColumnHandle> dynamicFilter;
     private ISession session;
-    private Integer rowCacheSize;
+    private final int rowCacheSize;
+    private final int bufferSize;
+    private final int maxBufferSize;
+    private final boolean formulaEvaluationEnabled;
+    private final int formulaEvaluationBudget;
+    private final String password;
+    private final HighWaterMarks highWaterMarks;
+    private final SplitMemoryLimit memoryLimit;
+    private final ZoneMaps zoneMaps;
+    private final String protocol;
+    private final ExcelStats stats;
 
-    private Integer bufferSize;
-
-    public ExcelRecordSet(ExcelSplit split, List<ExcelColumnHandle> columnHandles, ISession session, Integer rowCacheSize, Integer bufferSize)
+    public ExcelRecordSet(
+            ExcelSplit split,
+            List<ExcelColumnHandle> columnHandles,
+            TupleDomain<ColumnHandle> dynamicFilter,
+            ISession session,
+            int rowCacheSize,
+            int bufferSize,
+            int maxBufferSize,
+            boolean formulaEvaluationEnabled,
+            int formulaEvaluationBudget,
+            String password,
+            HighWaterMarks highWaterMarks,
+            SplitMemoryLimit memoryLimit,
+            ZoneMaps zoneMaps,
+            String protocol,
+            ExcelStats stats)
     {
         this.columnHandles = requireNonNull(columnHandles, "columnHandles is null");
         this.columnTypes = columnHandles.stream().map(ExcelColumnHandle::getColumnType).collect(Collectors.toList());
         requireNonNull(split, "split is null");
-        this.schemaTableName = new SchemaTableName(split.getSchemaName(), split.getTableName());
+        this.schemaName = split.getSchemaName();
+        this.path = split.getPath();
+        this.start = split.getStart();
+        this.length = split.getLength();
+        this.fileModifiedTime = split.getFileModifiedTime();
+        this.firstRowNumber = split.getFirstRowNumber();
+        this.lastRowNumber = split.getLastRowNumber();
+        this.constraint = split.getConstraint();
+        this.dynamicFilter = requireNonNull(dynamicFilter, "dynamicFilter is null");
         this.session = session;
         this.rowCacheSize = rowCacheSize;
         this.bufferSize = bufferSize;
+        this.maxBufferSize = maxBufferSize;
+        this.formulaEvaluationEnabled = formulaEvaluationEnabled;
+        this.formulaEvaluationBudget = formulaEvaluationBudget;
+        this.password = password;
+        this.highWaterMarks = requireNonNull(highWaterMarks, "highWaterMarks is null");
+        this.memoryLimit = requireNonNull(memoryLimit, "memoryLimit is null");
+        this.zoneMaps = requireNonNull(zoneMaps, "zoneMaps is null");
+        this.protocol = protocol;
+        this.stats = stats;
     }
 
     @Override
@@ -56,9 +109,64 @@ public class ExcelRecordSet
 
     @Override
     public RecordCursor cursor()
+    {
+        RecordCursor cursor = createCursor();
+        Map<ColumnHandle, Domain> domains = dynamicFilter.getDomains().get();
+        // filter columns that are not projected cannot be checked without reading them
+        int[] fields = domains.keySet().stream().mapToInt(columnHandles::indexOf).filter(field -> field >= 0).toArray();
+        if (fields.length == 0) {
+            return cursor;
+        }
+        Domain[] filterDomains = new Domain[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            filterDomains[i] = domains.get(columnHandles.get(fields[i]));
+        }
+        return new DynamicFilterRecordCursor(cursor, fields, filterDomains, stats);
+    }
+
+    private RecordCursor createCursor()
     {
         try {
-            return new ExcelRecordCursor(columnHandles, schemaTableName, session, rowCacheSize, bufferSize);
+            if (isCsvFile(path)) {
+                return new CsvRecordCursor(
+                        columnHandles,
+                        schemaName,
+                        path,
+                        fileModifiedTime,
+                        start,
+                        length,
+                        firstRowNumber,
+                        lastRowNumber,
+                        session,
+                        bufferSize,
+                        maxBufferSize,
+                        highWaterMarks,
+                        memoryLimit,
+                        protocol,
+                        stats);
+            }
+            return new ExcelRecordCursor(
+                    columnHandles,
+                    schemaName,
+                    path,
+                    fileModifiedTime,
+                    length,
+                    firstRowNumber,
+                    lastRowNumber,
+                    constraint.intersect(dynamicFilter),
+                    session,
+                    rowCacheSize,
+                    bufferSize,
+                    formulaEvaluationEnabled,
+                    formulaEvaluationBudget,
+                    password,
+                    memoryLimit,
+                    zoneMaps,
+                    protocol,
+                    stats);
+        }
+        catch (PrestoException e) {
+            throw e;
         }
         catch (Exception e) {
             logger.error(e, "Error creating ExcelRecordCursor");
@@ -0,0 +1,133 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.excel;
+
+import com.facebook.presto.spi.ConnectorSession;
+import com.facebook.presto.spi.session.PropertyMetadata;
+import com.google.common.collect.ImmutableList;
+import com.google.inject.Inject;
+
+import java.util.List;
+import java.util.Optional;
+
+import static com.facebook.presto.spi.session.PropertyMetadata.booleanProperty;
+import static com.facebook.presto.spi.session.PropertyMetadata.integerProperty;
+import static com.facebook.presto.spi.session.PropertyMetadata.longProperty;
+
+/**
+ * Reader settings that a query can change for itself with {@code set session}, the catalog configuration
+ * provides their defaults.
+ */
+public final class ExcelSessionProperties
+{
+    private static final String XLSX_ROW_CACHE_SIZE = "xlsx_row_cache_size";
+    private static final String BUFFER_SIZE = "buffer_size";
+    private static final String ADAPTIVE_BUFFER_ENABLED = "adaptive_buffer_enabled";
+    private static final String XLSX_BYTE_PARSER_ENABLED = "xlsx_byte_parser_enabled";
+    private static final String CONCURRENT_SHARED_STRINGS_ENABLED = "concurrent_shared_strings_enabled";
+    private static final String CSV_TYPE_INFERENCE_ENABLED = "csv_type_inference_enabled";
+    private static final String MAX_ROWS_PER_FILE = "max_rows_per_file";
+    // adaptive buffers grow up to this size while the source keeps filling them
+    private static final int MAX_ADAPTIVE_BUFFER_SIZE = 1024 * 1024;
+
+    private final List<PropertyMetadata<?>> sessionProperties;
+
+    @Inject
+    public ExcelSessionProperties(ExcelConfig config)
+    {
+        sessionProperties = ImmutableList.of(
+                integerProperty(
+                        XLSX_ROW_CACHE_SIZE,
+                        "Number of rows the streaming reader keeps in memory",
+                        config.getRowCacheSize(),
+                        false),
+                integerProperty(
+                        BUFFER_SIZE,
+                        "Buffer size to use when reading files",
+                        config.getBufferSize(),
+                        false),
+                booleanProperty(
+                        ADAPTIVE_BUFFER_ENABLED,
+                        "Grow the read buffers while the source fills them",
+                        config.isAdaptiveBufferEnabled(),
+                        false),
+                booleanProperty(
+                        XLSX_BYTE_PARSER_ENABLED,
+                        "Scan the cells of xlsx sheets from their bytes instead of parsing the XML with StAX",
+                        config.isXlsxByteParserEnabled(),
+                        false),
+                booleanProperty(
+                        CONCURRENT_SHARED_STRINGS_ENABLED,
+                        "Read the shared strings of xlsx and xlsb files while the sheet is read",
+                        config.isConcurrentSharedStringsEnabled(),
+                        false),
+                booleanProperty(
+                        CSV_TYPE_INFERENCE_ENABLED,
+                        "Infer the column types of CSV and TSV files instead of reading all columns as varchar",
+                        config.isCsvTypeInferenceEnabled(),
+                        false),
+                longProperty(
+                        MAX_ROWS_PER_FILE,
+                        "Maximum number of rows read from each file",
+                        null,
+                        false));
+    }
+
+    public List<PropertyMetadata<?>> getSessionProperties()
+    {
+        return sessionProperties;
+    }
+
+    public static int getRowCacheSize(ConnectorSession session)
+    {
+        return session.getProperty(XLSX_ROW_CACHE_SIZE, Integer.class);
+    }
+
+    public static int getBufferSize(ConnectorSession session)
+    {
+        return session.getProperty(BUFFER_SIZE, Integer.class);
+    }
+
+    /**
+     * Returns the size the read buffers may grow to, which is the buffer size unless adaptive buffers are enabled.
+     */
+    public static int getMaxBufferSize(ConnectorSession session)
+    {
+        int bufferSize = getBufferSize(session);
+        if (!session.getProperty(ADAPTIVE_BUFFER_ENABLED, Boolean.class)) {
+            return bufferSize;
+        }
+        return Math.max(bufferSize, MAX_ADAPTIVE_BUFFER_SIZE);
+    }
+
+    public static boolean isXlsxByteParserEnabled(ConnectorSession session)
+    {
+        return session.getProperty(XLSX_BYTE_PARSER_ENABLED, Boolean.class);
+    }
+
+    public static boolean isConcurrentSharedStringsEnabled(ConnectorSession session)
+    {
+        return session.getProperty(CONCURRENT_SHARED_STRINGS_ENABLED, Boolean.class);
+    }
+
+    public static boolean isCsvTypeInferenceEnabled(ConnectorSession session)
+    {
+        return session.getProperty(CSV_TYPE_INFERENCE_ENABLED, Boolean.class);
+    }
+
+    public static Optional<Long> getMaxRowsPerFile(ConnectorSession session)
+    {
+        return Optional.ofNullable(session.getProperty(MAX_ROWS_PER_FILE, Long.class));
+    }
+}
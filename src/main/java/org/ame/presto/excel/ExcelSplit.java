@@ -13,9 +13,12 @@
  */
 package org.ame.presto.excel;
 
+import com.facebook.presto.common.predicate.TupleDomain;
+import com.facebook.presto.spi.ColumnHandle;
 import com.facebook.presto.spi.ConnectorSplit;
 import com.facebook.presto.spi.HostAddress;
 import com.facebook.presto.spi.NodeProvider;
+import com.facebook.presto.spi.SplitWeight;
 import com.facebook.presto.spi.schedule.NodeSelectionStrategy;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
@@ -23,6 +26,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 
 import java.util.List;
+import java.util.OptionalLong;
 
 import static com.facebook.presto.spi.schedule.NodeSelectionStrategy.SOFT_AFFINITY;
 import static java.util.Objects.requireNonNull;
@@ -32,15 +36,39 @@ public class ExcelSplit
 {
     private final String schemaName;
     private final String tableName;
+    private final String path;
+    private final long start;
+    private final long length;
+    private final long firstRowNumber;
+    private final long lastRowNumber;
+    private final long fileModifiedTime;
+    private final SplitWeight splitWeight;
+    private final TupleDomain<ColumnHandle> constraint;
     private final List<HostAddress> addresses;
 
     @JsonCreator
     public ExcelSplit(
             @JsonProperty("schemaName") String schemaName,
-            @JsonProperty("tableName") String tableName)
+            @JsonProperty("tableName") String tableName,
+            @JsonProperty("path") String path,
+            @JsonProperty("start") long start,
+            @JsonProperty("length") long length,
+            @JsonProperty("firstRowNumber") long firstRowNumber,
+            @JsonProperty("lastRowNumber") long lastRowNumber,
+            @JsonProperty("fileModifiedTime") long fileModifiedTime,
+            @JsonProperty("splitWeight") SplitWeight splitWeight,
+            @JsonProperty("constraint") TupleDomain<ColumnHandle> constraint)
     {
         this.schemaName = requireNonNull(schemaName, "schemaName is null");
         this.tableName = requireNonNull(tableName, "tableName is null");
+        this.path = requireNonNull(path, "path is null");
+        this.start = start;
+        this.length = length;
+        this.firstRowNumber = firstRowNumber;
+        this.lastRowNumber = lastRowNumber;
+        this.fileModifiedTime = fileModifiedTime;
+        this.splitWeight = requireNonNull(splitWeight, "splitWeight is null");
+        this.constraint = requireNonNull(constraint, "constraint is null");
         this.addresses = ImmutableList.of();
     }
 
@@ -56,6 +84,64 @@ public class ExcelSplit
         return tableName;
     }
 
+    @JsonProperty
+    public String getPath()
+    {
+        return path;
+    }
+
+    @JsonProperty
+    public long getStart()
+    {
+        return start;
+    }
+
+    @JsonProperty
+    public long getLength()
+    {
+        return length;
+    }
+
+    @JsonProperty
+    public long getFirstRowNumber()
+    {
+        return firstRowNumber;
+    }
+
+    @JsonProperty
+    public long getLastRowNumber()
+    {
+        return lastRowNumber;
+    }
+
+    @JsonProperty
+    public long getFileModifiedTime()
+    {
+        return fileModifiedTime;
+    }
+
+    @JsonProperty
+    @Override
+    public SplitWeight getSplitWeight()
+    {
+        return splitWeight;
+    }
+
+    /**
+     * Returns the predicate on the sheet columns, which lets a reader skip the blocks of rows that a zone map rules out.
+     */
+    @JsonProperty
+    public TupleDomain<ColumnHandle> getConstraint()
+    {
+        return constraint;
+    }
+
+    @Override
+    public OptionalLong getSplitSizeInBytes()
+    {
+        return OptionalLong.of(length);
+    }
+
     @Override
     public NodeSelectionStrategy getNodeSelectionStrategy()
     {
@@ -74,6 +160,13 @@ public class ExcelSplit
         return ImmutableMap.builder()
                 .put("schemaName", schemaName)
                 .put("tableName", tableName)
+                .put("path", path)
+                .put("start", start)
+                .put("length", length)
+                .put("firstRowNumber", firstRowNumber)
+                .put("lastRowNumber", lastRowNumber)
+                .put("fileModifiedTime", fileModifiedTime)
+                .put("splitWeight", splitWeight.getRawValue())
                 .put("addresses", addresses)
                 .build();
     }
@@ -13,25 +13,42 @@
  */
 package org.ame.presto.excel;
 
+import com.facebook.presto.common.predicate.Domain;
+import com.facebook.presto.common.predicate.TupleDomain;
+import com.facebook.presto.spi.ColumnHandle;
 import com.facebook.presto.spi.ConnectorSession;
-import com.facebook.presto.spi.ConnectorSplit;
 import com.facebook.presto.spi.ConnectorSplitSource;
 import com.facebook.presto.spi.ConnectorTableLayoutHandle;
-import com.facebook.presto.spi.FixedSplitSource;
-import com.facebook.presto.spi.TableNotFoundException;
+import com.facebook.presto.spi.SplitWeight;
 import com.facebook.presto.spi.connector.ConnectorSplitManager;
 import com.facebook.presto.spi.connector.ConnectorTransactionHandle;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
+import org.ame.presto.excel.session.ISession;
+import org.ame.presto.excel.session.SessionFile;
+import org.ame.presto.excel.xlsx.DeflateCheckpointIndex;
+import org.ame.presto.excel.xlsx.DeflateCheckpointIndex.Checkpoint;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.ame.presto.excel.FileTypeJudge.isCompressedFile;
+import static org.ame.presto.excel.FileTypeJudge.isCsvFile;
 
 public class ExcelSplitManager
         implements ConnectorSplitManager
 {
+    // workbooks and compressed files expand while they are read, a byte of them costs about as much as this many bytes of text
+    private static final int COMPRESSION_RATIO = 4;
+
     private final ExcelClient client;
+    // directories are listed in the background, the scheduler takes the splits of the first files meanwhile
+    private final ExecutorService listingExecutor = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("excel-split-listing-%s").setDaemon(true).build());
 
     @Inject
     public ExcelSplitManager(ExcelClient client)
@@ -46,17 +63,143 @@ public class ExcelSplitManager
             ConnectorTableLayoutHandle layout,
             SplitSchedulingContext splitSchedulingContext)
     {
-        ExcelTableHandle tableHandle = ((ExcelTableLayoutHandle) layout).getTableHandle();
-        Optional<ExcelTable> table = client.getTable(tableHandle.getSchemaName(), tableHandle.getTableName());
+        ExcelTableLayoutHandle layoutHandle = (ExcelTableLayoutHandle) layout;
+        ExcelSplitSource splitSource = new ExcelSplitSource();
+        splitSource.setListing(listingExecutor.submit(() -> {
+            try {
+                listSplits(layoutHandle, splitSource);
+                splitSource.noMoreSplits();
+            }
+            catch (Throwable t) {
+                splitSource.fail(t);
+            }
+        }));
+        return splitSource;
+    }
+
+    public void shutdown()
+    {
+        listingExecutor.shutdownNow();
+    }
+
+    private void listSplits(ExcelTableLayoutHandle layout, ExcelSplitSource splitSource)
+            throws Exception
+    {
+        ExcelTableHandle tableHandle = layout.getTableHandle();
+        boolean csvSplitEnabled = client.isCsvSplitEnabled();
+        long csvSplitSize = client.getCsvSplitSize();
+        DeflateCheckpoints deflateCheckpoints = client.getDeflateCheckpoints();
+        ZoneMaps zoneMaps = client.getZoneMaps();
+        // only sheets that are read as raw cells can start at a checkpoint
+        boolean checkpointsUsable = deflateCheckpoints.isEnabled() && !client.isFormulaEvaluationEnabled();
+        ISession session = client.getSession();
+        try {
+            client.listFiles(tableHandle.getSchemaName(), tableHandle.getTableName(), file -> {
+                // stop listing once the query is done with the split source
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new CancellationException();
+                }
+                if (!matches(layout.getFileConstraint(), file)) {
+                    return;
+                }
+                if (checkpointsUsable) {
+                    Optional<DeflateCheckpointIndex> index = deflateCheckpoints.get(session, tableHandle.getSchemaName(), file.getPath(), file.getSize(), file.getModifiedTime(), false);
+                    // a zone map is built by a split that reads the whole sheet, so the first scan with zone maps does not split it
+                    boolean zoneMapMissing = zoneMaps.isEnabled(file.getPath())
+                            && !zoneMaps.get(session, tableHandle.getSchemaName(), file.getPath(), file.getSize(), file.getModifiedTime(), false).isPresent();
+                    if (index.isPresent() && !index.get().getCheckpoints().isEmpty() && !zoneMapMissing) {
+                        addRowRangeSplits(layout, file, index.get(), splitSource);
+                        return;
+                    }
+                }
+                // text files may be split into byte ranges, workbooks and compressed files are read as a whole.
+                // A range starts after its first line feed, so splitting relies on the files having no quoted line breaks,
+                // and row numbers would have to be counted from the start of the file by every range
+                if (!csvSplitEnabled || !isCsvFile(file.getPath()) || isCompressedFile(file.getPath()) || file.getSize() <= csvSplitSize || layout.isRowNumbersNeeded()) {
+                    splitSource.addSplit(createSplit(layout, file, 0, file.getSize()));
+                    return;
+                }
+                for (long start = 0; start < file.getSize(); start += csvSplitSize) {
+                    long length = Math.min(csvSplitSize, file.getSize() - start);
+                    splitSource.addSplit(createSplit(layout, file, start, length));
+                }
+            });
+        }
+        finally {
+            session.close();
+        }
+    }
+
+    /**
+     * Splits an indexed sheet into ranges of rows that start at its checkpoints, which each split inflates the sheet from.
+     * The ranges are weighed by their share of the rows.
+     */
+    private void addRowRangeSplits(ExcelTableLayoutHandle layout, SessionFile file, DeflateCheckpointIndex index, ExcelSplitSource splitSource)
+    {
+        List<Checkpoint> checkpoints = index.getCheckpoints();
+        long rowCount = Math.max(index.getRowCount(), 1);
+        for (int i = 0; i <= checkpoints.size(); i++) {
+            long first = i == 0 ? 1 : checkpoints.get(i - 1).getRowNumber();
+            long last = i == checkpoints.size() ? Long.MAX_VALUE : checkpoints.get(i).getRowNumber() - 1;
+            long firstRowNumber = Math.max(first, layout.getFirstRowNumber());
+            long lastRowNumber = Math.min(last, layout.getLastRowNumber());
+            if (firstRowNumber > lastRowNumber) {
+                continue;
+            }
+            long rows = Math.min(last, rowCount) - first + 1;
+            splitSource.addSplit(createSplit(layout, file, 0, file.getSize(), firstRowNumber, lastRowNumber, file.getSize() * rows / rowCount));
+        }
+    }
 
-        // this can happen if table is removed during a query
-        if (!table.isPresent()) {
-            throw new TableNotFoundException(tableHandle.getSchemaTableName());
+    /**
+     * Checks the $file_path and $file_modified_time predicates on a file before it is opened.
+     */
+    private static boolean matches(TupleDomain<ColumnHandle> fileConstraint, SessionFile file)
+    {
+        if (fileConstraint.isNone()) {
+            return false;
+        }
+        for (Map.Entry<ColumnHandle, Domain> entry : fileConstraint.getDomains().get().entrySet()) {
+            Object value = ((ExcelColumnHandle) entry.getKey()).getFileValue(file.getPath(), null, file.getModifiedTime());
+            if (!entry.getValue().includesNullableValue(value)) {
+                return false;
+            }
         }
+        return true;
+    }
 
-        List<ConnectorSplit> splits = new ArrayList<>();
-        splits.add(new ExcelSplit(tableHandle.getSchemaName(), tableHandle.getTableName()));
-        Collections.shuffle(splits);
-        return new FixedSplitSource(splits);
+    private ExcelSplit createSplit(ExcelTableLayoutHandle layout, SessionFile file, long start, long length)
+    {
+        return createSplit(layout, file, start, length, layout.getFirstRowNumber(), layout.getLastRowNumber(), length);
+    }
+
+    private ExcelSplit createSplit(ExcelTableLayoutHandle layout, SessionFile file, long start, long length, long firstRowNumber, long lastRowNumber, long weighedBytes)
+    {
+        ExcelTableHandle table = layout.getTableHandle();
+        return new ExcelSplit(
+                table.getSchemaName(),
+                table.getTableName(),
+                file.getPath(),
+                start,
+                length,
+                firstRowNumber,
+                lastRowNumber,
+                file.getModifiedTime(),
+                getSplitWeight(file.getPath(), weighedBytes),
+                layout.getColumnConstraint());
+    }
+
+    /**
+     * Weighs a split by its size, relative to a CSV split of the configured split size, so that the
+     * scheduler hands fewer large workbooks to a worker than small ones.
+     */
+    private SplitWeight getSplitWeight(String path, long length)
+    {
+        if (!client.isSizeBasedSplitWeightsEnabled()) {
+            return SplitWeight.standard();
+        }
+        long bytes = isCsvFile(path) && !isCompressedFile(path) ? length : length * COMPRESSION_RATIO;
+        double proportion = (double) bytes / client.getCsvSplitSize();
+        return SplitWeight.fromProportion(Math.min(Math.max(proportion, client.getMinimumSplitWeight()), 1.0));
     }
 }
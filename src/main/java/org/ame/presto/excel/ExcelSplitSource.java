@@ -0,0 +1,136 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.excel;
+
+import com.facebook.presto.spi.ConnectorSplit;
+import com.facebook.presto.spi.ConnectorSplitSource;
+import com.facebook.presto.spi.PrestoException;
+import com.facebook.presto.spi.connector.ConnectorPartitionHandle;
+import com.google.common.collect.ImmutableList;
+
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+import static java.util.Comparator.comparingLong;
+import static java.util.Objects.requireNonNull;
+import static org.ame.presto.excel.ExcelErrorCode.EXCEL_READER_ERROR;
+
+/**
+ * Hands out the splits of a table while its files are still being listed in the background.
+ * Of the splits listed so far, the heaviest are handed out first, so large files do not start last and hold up the query.
+ */
+public class ExcelSplitSource
+        implements ConnectorSplitSource
+{
+    private final Queue<ExcelSplit> splits = new PriorityQueue<>(comparingLong((ExcelSplit split) -> split.getSplitWeight().getRawValue())
+            .thenComparingLong(ExcelSplit::getLength)
+            .reversed());
+    private CompletableFuture<Void> splitsAvailable = new CompletableFuture<>();
+    private boolean listingFinished;
+    private Throwable failure;
+    private Future<?> listing;
+
+    public synchronized void setListing(Future<?> listing)
+    {
+        this.listing = requireNonNull(listing, "listing is null");
+    }
+
+    public void addSplit(ExcelSplit split)
+    {
+        requireNonNull(split, "split is null");
+        CompletableFuture<Void> available;
+        synchronized (this) {
+            if (listingFinished) {
+                return;
+            }
+            splits.add(split);
+            available = splitsAvailable;
+        }
+        // waiters are completed outside of the lock, they may fetch the next batch right away
+        available.complete(null);
+    }
+
+    public void noMoreSplits()
+    {
+        finish(null);
+    }
+
+    public void fail(Throwable throwable)
+    {
+        finish(requireNonNull(throwable, "throwable is null"));
+    }
+
+    @Override
+    public CompletableFuture<ConnectorSplitBatch> getNextBatch(ConnectorPartitionHandle partitionHandle, int maxSize)
+    {
+        CompletableFuture<Void> available;
+        synchronized (this) {
+            if (failure != null) {
+                CompletableFuture<ConnectorSplitBatch> failed = new CompletableFuture<>();
+                failed.completeExceptionally(failure);
+                return failed;
+            }
+            if (!splits.isEmpty() || listingFinished) {
+                ImmutableList.Builder<ConnectorSplit> batch = ImmutableList.builder();
+                for (int i = 0; i < maxSize && !splits.isEmpty(); i++) {
+                    batch.add(splits.poll());
+                }
+                if (splits.isEmpty() && !listingFinished) {
+                    splitsAvailable = new CompletableFuture<>();
+                }
+                return CompletableFuture.completedFuture(new ConnectorSplitBatch(batch.build(), listingFinished && splits.isEmpty()));
+            }
+            available = splitsAvailable;
+        }
+        return available.thenCompose(ignored -> getNextBatch(partitionHandle, maxSize));
+    }
+
+    @Override
+    public synchronized boolean isFinished()
+    {
+        return failure == null && listingFinished && splits.isEmpty();
+    }
+
+    @Override
+    public void close()
+    {
+        Future<?> listing;
+        synchronized (this) {
+            listing = this.listing;
+        }
+        finish(null);
+        if (listing != null) {
+            listing.cancel(true);
+        }
+    }
+
+    private void finish(Throwable throwable)
+    {
+        CompletableFuture<Void> available;
+        synchronized (this) {
+            if (listingFinished) {
+                return;
+            }
+            listingFinished = true;
+            if (throwable != null) {
+                splits.clear();
+                failure = throwable instanceof PrestoException ? throwable : new PrestoException(EXCEL_READER_ERROR, "Failed to list the files of the table", throwable);
+            }
+            available = splitsAvailable;
+        }
+        available.complete(null);
+    }
+}
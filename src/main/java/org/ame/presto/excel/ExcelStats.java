@@ -0,0 +1,245 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.excel;
+
+import com.facebook.airlift.stats.CounterStat;
+import com.facebook.airlift.stats.DistributionStat;
+import com.facebook.airlift.stats.TimeStat;
+import org.ame.presto.excel.session.ProtocolType;
+import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
+
+import java.util.Locale;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+public class ExcelStats
+{
+    private final CounterStat sessionsOpened = new CounterStat();
+    private final TimeStat sessionConnectTime = new TimeStat(MILLISECONDS);
+    private final CounterStat fileBytesRead = new CounterStat();
+    private final CounterStat sftpBytesRead = new CounterStat();
+    private final CounterStat httpBytesRead = new CounterStat();
+    private final DistributionStat bytesReadPerSplit = new DistributionStat();
+    private final CounterStat rowsDecoded = new CounterStat();
+    private final CounterStat cellsDecoded = new CounterStat();
+    private final DistributionStat rowsPerSplit = new DistributionStat();
+    private final TimeStat openTime = new TimeStat(MILLISECONDS);
+    private final TimeStat parseTime = new TimeStat(MILLISECONDS);
+    private final TimeStat convertTime = new TimeStat(MILLISECONDS);
+    private final CounterStat formulaCellsEvaluated = new CounterStat();
+    private final CounterStat formulaEvaluationFallbacks = new CounterStat();
+    private final TimeStat formulaEvaluationTime = new TimeStat(MILLISECONDS);
+    private final TimeStat headerProbeTime = new TimeStat(MILLISECONDS);
+    private final CounterStat headerProbeFailures = new CounterStat();
+    private final CounterStat dynamicFilterRowsDropped = new CounterStat();
+    private final CounterStat zoneMapRowsSkipped = new CounterStat();
+
+    public void addSessionOpened(long connectNanos)
+    {
+        sessionsOpened.update(1);
+        sessionConnectTime.add(connectNanos, NANOSECONDS);
+    }
+
+    public void addBytesRead(String protocol, long bytes)
+    {
+        if (ProtocolType.SFTP.toString().equals(protocol.toLowerCase(Locale.ENGLISH))) {
+            sftpBytesRead.update(bytes);
+        }
+        else if (ProtocolType.isHttp(protocol)) {
+            httpBytesRead.update(bytes);
+        }
+        else {
+            fileBytesRead.update(bytes);
+        }
+        bytesReadPerSplit.add(bytes);
+    }
+
+    /**
+     * Records the work of one split. Open time covers unpacking the workbook and loading the
+     * shared strings, parse time the row iteration of the reader, convert time the cell to value conversion.
+     */
+    public void addSplitRead(long rows, long cells, long openNanos, long parseNanos, long convertNanos)
+    {
+        rowsDecoded.update(rows);
+        cellsDecoded.update(cells);
+        rowsPerSplit.add(rows);
+        openTime.add(openNanos, NANOSECONDS);
+        parseTime.add(parseNanos, NANOSECONDS);
+        convertTime.add(convertNanos, NANOSECONDS);
+    }
+
+    /**
+     * Records the formula cells evaluated by one split, and how many of them fell back to the result cached in the file
+     * because the evaluator failed.
+     */
+    public void addFormulaEvaluation(long cells, long fallbacks, long nanos)
+    {
+        formulaCellsEvaluated.update(cells);
+        formulaEvaluationFallbacks.update(fallbacks);
+        formulaEvaluationTime.add(nanos, NANOSECONDS);
+    }
+
+    public void addDynamicFilterRowsDropped(long rows)
+    {
+        dynamicFilterRowsDropped.update(rows);
+    }
+
+    public void addZoneMapRowsSkipped(long rows)
+    {
+        zoneMapRowsSkipped.update(rows);
+    }
+
+    public void addHeaderProbe(long nanos, boolean succeeded)
+    {
+        headerProbeTime.add(nanos, NANOSECONDS);
+        if (!succeeded) {
+            headerProbeFailures.update(1);
+        }
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getSessionsOpened()
+    {
+        return sessionsOpened;
+    }
+
+    @Managed
+    @Nested
+    public TimeStat getSessionConnectTime()
+    {
+        return sessionConnectTime;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getFileBytesRead()
+    {
+        return fileBytesRead;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getSftpBytesRead()
+    {
+        return sftpBytesRead;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getHttpBytesRead()
+    {
+        return httpBytesRead;
+    }
+
+    @Managed
+    @Nested
+    public DistributionStat getBytesReadPerSplit()
+    {
+        return bytesReadPerSplit;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getRowsDecoded()
+    {
+        return rowsDecoded;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getCellsDecoded()
+    {
+        return cellsDecoded;
+    }
+
+    @Managed
+    @Nested
+    public DistributionStat getRowsPerSplit()
+    {
+        return rowsPerSplit;
+    }
+
+    @Managed
+    @Nested
+    public TimeStat getOpenTime()
+    {
+        return openTime;
+    }
+
+    @Managed
+    @Nested
+    public TimeStat getParseTime()
+    {
+        return parseTime;
+    }
+
+    @Managed
+    @Nested
+    public TimeStat getConvertTime()
+    {
+        return convertTime;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getFormulaCellsEvaluated()
+    {
+        return formulaCellsEvaluated;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getFormulaEvaluationFallbacks()
+    {
+        return formulaEvaluationFallbacks;
+    }
+
+    @Managed
+    @Nested
+    public TimeStat getFormulaEvaluationTime()
+    {
+        return formulaEvaluationTime;
+    }
+
+    @Managed
+    @Nested
+    public TimeStat getHeaderProbeTime()
+    {
+        return headerProbeTime;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getHeaderProbeFailures()
+    {
+        return headerProbeFailures;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getDynamicFilterRowsDropped()
+    {
+        return dynamicFilterRowsDropped;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getZoneMapRowsSkipped()
+    {
+        return zoneMapRowsSkipped;
+    }
+}
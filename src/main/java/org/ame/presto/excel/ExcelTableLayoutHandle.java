@@ -13,21 +13,45 @@
  */
 package org.ame.presto.excel;
 
+import com.facebook.presto.common.predicate.TupleDomain;
+import com.facebook.presto.spi.ColumnHandle;
 import com.facebook.presto.spi.ConnectorTableLayoutHandle;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import java.util.Objects;
 
+import static java.util.Objects.requireNonNull;
+
 public class ExcelTableLayoutHandle
         implements ConnectorTableLayoutHandle
 {
     private final ExcelTableHandle table;
+    // bounds of the $row_number predicate, rows outside of them are skipped without being read
+    private final long firstRowNumber;
+    private final long lastRowNumber;
+    // whether $row_number is projected or bounded, text files are then read as one split instead of counting the rows before each range
+    private final boolean rowNumbersNeeded;
+    // predicate on $file_path and $file_modified_time, files that do not match it are not read
+    private final TupleDomain<ColumnHandle> fileConstraint;
+    // predicate on the sheet columns, checked against the zone maps of the files
+    private final TupleDomain<ColumnHandle> columnConstraint;
 
     @JsonCreator
-    public ExcelTableLayoutHandle(@JsonProperty("table") ExcelTableHandle table)
+    public ExcelTableLayoutHandle(
+            @JsonProperty("table") ExcelTableHandle table,
+            @JsonProperty("firstRowNumber") long firstRowNumber,
+            @JsonProperty("lastRowNumber") long lastRowNumber,
+            @JsonProperty("rowNumbersNeeded") boolean rowNumbersNeeded,
+            @JsonProperty("fileConstraint") TupleDomain<ColumnHandle> fileConstraint,
+            @JsonProperty("columnConstraint") TupleDomain<ColumnHandle> columnConstraint)
     {
         this.table = table;
+        this.firstRowNumber = firstRowNumber;
+        this.lastRowNumber = lastRowNumber;
+        this.rowNumbersNeeded = rowNumbersNeeded;
+        this.fileConstraint = requireNonNull(fileConstraint, "fileConstraint is null");
+        this.columnConstraint = requireNonNull(columnConstraint, "columnConstraint is null");
     }
 
     @JsonProperty
@@ -36,10 +60,40 @@ public class ExcelTableLayoutHandle
         return table;
     }
 
+    @JsonProperty
+    public long getFirstRowNumber()
+    {
+        return firstRowNumber;
+    }
+
+    @JsonProperty
+    public long getLastRowNumber()
+    {
+        return lastRowNumber;
+    }
+
+    @JsonProperty
+    public boolean isRowNumbersNeeded()
+    {
+        return rowNumbersNeeded;
+    }
+
+    @JsonProperty
+    public TupleDomain<ColumnHandle> getFileConstraint()
+    {
+        return fileConstraint;
+    }
+
+    @JsonProperty
+    public TupleDomain<ColumnHandle> getColumnConstraint()
+    {
+        return columnConstraint;
+    }
+
     @Override
     public int hashCode()
     {
-        return Objects.hash(table);
+        return Objects.hash(table, firstRowNumber, lastRowNumber, rowNumbersNeeded, fileConstraint, columnConstraint);
     }
 
     @Override
@@ -53,7 +107,12 @@ public class ExcelTableLayoutHandle
         }
 
         ExcelTableLayoutHandle that = (ExcelTableLayoutHandle) o;
-        return Objects.equals(table, that.table);
+        return Objects.equals(table, that.table) &&
+                firstRowNumber == that.firstRowNumber &&
+                lastRowNumber == that.lastRowNumber &&
+                rowNumbersNeeded == that.rowNumbersNeeded &&
+                Objects.equals(fileConstraint, that.fileConstraint) &&
+                Objects.equals(columnConstraint, that.columnConstraint);
     }
 
     @Override
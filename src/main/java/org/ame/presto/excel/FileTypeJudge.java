@@ -15,6 +15,11 @@ package org.ame.presto.excel;
 
 public class FileTypeJudge
 {
+    /**
+     * Separates the path of a zip archive from the name of an entry inside it, as in {@code reports.zip!q1.xlsx}.
+     */
+    public static final String ARCHIVE_ENTRY_SEPARATOR = "!";
+
     private FileTypeJudge()
     {
         throw new IllegalStateException("Utility class");
@@ -22,11 +27,74 @@ public class FileTypeJudge
 
     public static boolean isExcelFile(String fileName)
     {
-        return fileName.endsWith(".xlsx") || fileName.endsWith(".xls");
+        return isXlsxFile(fileName) || getFileName(fileName).endsWith(".xls") || isXlsbFile(fileName);
     }
 
     public static boolean isXlsxFile(String fileName)
     {
-        return fileName.endsWith(".xlsx");
+        return getFileName(fileName).endsWith(".xlsx");
+    }
+
+    public static boolean isXlsbFile(String fileName)
+    {
+        return getFileName(fileName).endsWith(".xlsb");
+    }
+
+    public static boolean isCsvFile(String fileName)
+    {
+        return getFileName(fileName).endsWith(".csv") || isTsvFile(fileName);
+    }
+
+    public static boolean isTsvFile(String fileName)
+    {
+        return getFileName(fileName).endsWith(".tsv");
+    }
+
+    public static byte getCsvDelimiter(String fileName)
+    {
+        return isTsvFile(fileName) ? (byte) '\t' : (byte) ',';
+    }
+
+    public static boolean isSupportedFile(String fileName)
+    {
+        return isExcelFile(fileName) || isCsvFile(fileName) || isZipFile(fileName);
+    }
+
+    public static boolean isGzipFile(String fileName)
+    {
+        return fileName.endsWith(".gz");
+    }
+
+    public static boolean isZipFile(String fileName)
+    {
+        return fileName.endsWith(".zip");
+    }
+
+    public static boolean isArchiveEntry(String fileName)
+    {
+        return fileName.contains(ARCHIVE_ENTRY_SEPARATOR);
+    }
+
+    /**
+     * Compressed files are decompressed while they are read, so they cannot be read from an offset.
+     */
+    public static boolean isCompressedFile(String fileName)
+    {
+        return isGzipFile(fileName) || isArchiveEntry(fileName);
+    }
+
+    public static boolean isHiddenFile(String fileName)
+    {
+        // also covers the "." and ".." entries listed by SFTP servers
+        return fileName.startsWith(".");
+    }
+
+    private static String getFileName(String fileName)
+    {
+        // the type of a gzip file is the type of the file it compresses
+        if (isGzipFile(fileName)) {
+            return fileName.substring(0, fileName.length() - ".gz".length());
+        }
+        return fileName;
     }
 }
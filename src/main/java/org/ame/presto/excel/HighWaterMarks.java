@@ -0,0 +1,138 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.excel;
+
+import com.facebook.airlift.log.Logger;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import org.ame.presto.excel.session.ISession;
+
+import java.io.InputStream;
+import java.util.Optional;
+
+import static org.ame.presto.excel.FileTypeJudge.isCompressedFile;
+
+/**
+ * Remembers how many rows a CSV or TSV file had when it was last read to its end, with a hash of
+ * the bytes before that position. As long as the file still has those bytes, it has only been appended to,
+ * and the rows up to the mark can be skipped or counted without reading them again.
+ * Marks are kept in memory by every node, compressed files have no marks.
+ */
+public class HighWaterMarks
+{
+    private static final int HASHED_BYTES = 4096;
+    private static final int MAX_MARKS = 10_000;
+
+    private final Logger logger = Logger.get(HighWaterMarks.class);
+    private final boolean enabled;
+    private final Cache<String, HighWaterMark> marks = CacheBuilder.newBuilder().maximumSize(MAX_MARKS).build();
+
+    public HighWaterMarks(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Returns the mark of the file, if the file still has the content the mark was taken from.
+     */
+    public Optional<HighWaterMark> get(ISession session, String schemaName, String path)
+    {
+        if (!enabled || isCompressedFile(path)) {
+            return Optional.empty();
+        }
+        String key = schemaName + "/" + path;
+        HighWaterMark mark = marks.getIfPresent(key);
+        if (mark == null) {
+            return Optional.empty();
+        }
+        Long hash = hashTail(session, schemaName, path, mark.getPosition());
+        if (hash == null || hash != mark.getHash()) {
+            marks.invalidate(key);
+            return Optional.empty();
+        }
+        return Optional.of(mark);
+    }
+
+    /**
+     * Records that the file has the given number of rows before the position, where it ends.
+     */
+    public void update(ISession session, String schemaName, String path, long rowCount, long position)
+    {
+        if (!enabled || isCompressedFile(path) || position == 0) {
+            return;
+        }
+        Long hash = hashTail(session, schemaName, path, position);
+        if (hash != null) {
+            marks.put(schemaName + "/" + path, new HighWaterMark(rowCount, position, hash));
+        }
+    }
+
+    private Long hashTail(ISession session, String schemaName, String path, long position)
+    {
+        int length = (int) Math.min(position, HASHED_BYTES);
+        byte[] bytes = new byte[length];
+        try (InputStream inputStream = session.getInputStream(schemaName, path, position - length)) {
+            if (ByteStreams.read(inputStream, bytes, 0, length) < length) {
+                // the file has been truncated
+                return null;
+            }
+        }
+        catch (Exception e) {
+            logger.warn(e, "Failed to read the high-water mark of %s", path);
+            return null;
+        }
+        // a file without a final line break may continue its last row when appended to
+        if (bytes[length - 1] != '\n') {
+            return null;
+        }
+        return Hashing.murmur3_128().hashBytes(bytes).asLong();
+    }
+
+    public static final class HighWaterMark
+    {
+        private final long rowCount;
+        private final long position;
+        private final long hash;
+
+        public HighWaterMark(long rowCount, long position, long hash)
+        {
+            this.rowCount = rowCount;
+            this.position = position;
+            this.hash = hash;
+        }
+
+        /**
+         * Returns the number of rows before the mark, without the header.
+         */
+        public long getRowCount()
+        {
+            return rowCount;
+        }
+
+        /**
+         * Returns the position of the first byte after the mark, where the next row starts.
+         */
+        public long getPosition()
+        {
+            return position;
+        }
+
+        public long getHash()
+        {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.excel;
+
+import com.facebook.airlift.log.Logger;
+import org.ame.presto.excel.session.ISession;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.Predicate;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Reads and writes one kind of hidden file that is kept next to the file it was built from, such as a checkpoint index
+ * or a zone map. The hidden file is named after the file with a leading dot, which hides it from listings, and is
+ * replaced as a whole. Readers check that it still matches the file, and treat a missing or unreadable one as absent.
+ */
+public class SidecarFiles
+{
+    private final Logger logger = Logger.get(SidecarFiles.class);
+    private final String suffix;
+    private final String description;
+
+    /**
+     * @param description what the hidden files hold, for log messages
+     */
+    public SidecarFiles(String suffix, String description)
+    {
+        this.suffix = requireNonNull(suffix, "suffix is null");
+        this.description = requireNonNull(description, "description is null");
+    }
+
+    /**
+     * Returns the contents of the hidden file of a file, if there is one that the predicate accepts.
+     */
+    public <T> Optional<T> read(ISession session, String schemaName, String path, SidecarReader<T> reader, Predicate<? super T> matches)
+    {
+        try (InputStream inputStream = session.getInputStream(schemaName, getPath(path))) {
+            T contents = reader.read(inputStream);
+            return matches.test(contents) ? Optional.of(contents) : Optional.empty();
+        }
+        catch (Exception e) {
+            // most files have none
+            logger.debug(e, "No %s of %s", description, path);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Writes the hidden file of a file, replacing the one of an older version of the file.
+     * Nothing is written through a read-only session.
+     */
+    public void write(ISession session, String schemaName, String path, SidecarWriter writer)
+    {
+        if (session.isReadOnly()) {
+            return;
+        }
+        // readers never see a partly written file
+        String sidecarPath = getPath(path);
+        String temporaryPath = sidecarPath + "." + UUID.randomUUID();
+        try {
+            try (OutputStream outputStream = session.getOutputStream(schemaName, temporaryPath)) {
+                writer.write(outputStream);
+            }
+            try {
+                session.delete(schemaName, sidecarPath);
+            }
+            catch (Exception e) {
+                // there was none
+            }
+            session.rename(schemaName, temporaryPath, sidecarPath);
+        }
+        catch (Exception e) {
+            logger.warn(e, "Failed to write the %s of %s", description, path);
+            try {
+                session.delete(schemaName, temporaryPath);
+            }
+            catch (Exception deleteException) {
+                // the temporary file was not created
+            }
+        }
+    }
+
+    /**
+     * Returns the path of the hidden file of a file: the name of the file with a leading dot and the suffix.
+     */
+    public String getPath(String path)
+    {
+        int index = path.lastIndexOf('/') + 1;
+        return path.substring(0, index) + "." + path.substring(index) + suffix;
+    }
+
+    public interface SidecarReader<T>
+    {
+        T read(InputStream inputStream)
+                throws IOException;
+    }
+
+    public interface SidecarWriter
+    {
+        void write(OutputStream outputStream)
+                throws IOException;
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.excel;
+
+import com.facebook.presto.spi.PrestoException;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static io.airlift.units.DataSize.succinctBytes;
+import static java.lang.String.format;
+import static org.ame.presto.excel.ExcelErrorCode.EXCEL_SPLIT_MEMORY_LIMIT_EXCEEDED;
+
+/**
+ * Caps the memory held by the reader structures of a split, like the shared string table of a workbook
+ * or the row buffer of a text file, so that an oversized file fails its query with a clear error
+ * instead of running the worker out of memory.
+ */
+public class SplitMemoryLimit
+{
+    public static final SplitMemoryLimit UNLIMITED = new SplitMemoryLimit(Long.MAX_VALUE);
+
+    private final long maxBytes;
+
+    public SplitMemoryLimit(long maxBytes)
+    {
+        checkArgument(maxBytes > 0, "maxBytes must be positive");
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @param structure the structure holding the memory, for the error message
+     */
+    public void check(long retainedBytes, String structure)
+    {
+        if (retainedBytes > maxBytes) {
+            throw new PrestoException(EXCEL_SPLIT_MEMORY_LIMIT_EXCEEDED, format(
+                    "%s needs %s, more than the split memory limit of %s",
+                    structure,
+                    succinctBytes(retainedBytes),
+                    succinctBytes(maxBytes)));
+        }
+    }
+}
@@ -0,0 +1,460 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.excel;
+
+import com.facebook.presto.common.predicate.Domain;
+import com.facebook.presto.common.predicate.Range;
+import com.facebook.presto.common.predicate.TupleDomain;
+import com.facebook.presto.common.predicate.ValueSet;
+import com.facebook.presto.common.type.Type;
+import com.facebook.presto.common.type.VarcharType;
+import com.facebook.presto.spi.ColumnHandle;
+import io.airlift.slice.Slice;
+import io.airlift.slice.Slices;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static com.facebook.presto.common.type.BigintType.BIGINT;
+import static com.facebook.presto.common.type.BooleanType.BOOLEAN;
+import static com.facebook.presto.common.type.DoubleType.DOUBLE;
+import static java.lang.Math.toIntExact;
+
+/**
+ * The minimum, the maximum and the number of nulls of every column in every block of rows of a file. A reader
+ * skips the blocks whose values cannot match the predicate of the query. Only boolean, bigint, double and
+ * varchar columns are tracked; a block with a NaN or a string longer than {@link #MAX_STRING_LENGTH}
+ * bytes in a column has no range for that column, and always matches.
+ */
+public class ZoneMap
+{
+    public static final int MAX_STRING_LENGTH = 256;
+    private static final int MAGIC = 0x585A4D50;
+    private static final int VERSION = 1;
+    private static final byte BOOLEAN_VALUE = 'B';
+    private static final byte LONG_VALUE = 'L';
+    private static final byte DOUBLE_VALUE = 'D';
+    private static final byte SLICE_VALUE = 'S';
+
+    private final long fileSize;
+    private final long modifiedTime;
+    // values of formula cells were evaluated instead of taken from the results cached in the file
+    private final boolean formulasEvaluated;
+    private final int blockRows;
+    private final long rowCount;
+    // ordinal, type and kind of value of the tracked columns
+    private final int[] ordinals;
+    private final String[] types;
+    private final byte[] kinds;
+    // by column, then by block; a block without a minimum has only nulls, or no range
+    private final long[][] nullCounts;
+    private final Object[][] minimums;
+    private final Object[][] maximums;
+
+    private ZoneMap(long fileSize, long modifiedTime, boolean formulasEvaluated, int blockRows, long rowCount, int[] ordinals, String[] types, byte[] kinds, long[][] nullCounts, Object[][] minimums, Object[][] maximums)
+    {
+        this.fileSize = fileSize;
+        this.modifiedTime = modifiedTime;
+        this.formulasEvaluated = formulasEvaluated;
+        this.blockRows = blockRows;
+        this.rowCount = rowCount;
+        this.ordinals = ordinals;
+        this.types = types;
+        this.kinds = kinds;
+        this.nullCounts = nullCounts;
+        this.minimums = minimums;
+        this.maximums = maximums;
+    }
+
+    public boolean matches(long fileSize, long modifiedTime, boolean formulasEvaluated)
+    {
+        return this.fileSize == fileSize && this.modifiedTime == modifiedTime && this.formulasEvaluated == formulasEvaluated;
+    }
+
+    public long getRowCount()
+    {
+        return rowCount;
+    }
+
+    /**
+     * Returns whether the map tracks all the columns that are read as sheet columns.
+     */
+    public boolean covers(List<ExcelColumnHandle> columns)
+    {
+        return columns.stream()
+                .filter(column -> !column.isHidden() && getKind(column.getColumnType()) != 0)
+                .allMatch(column -> findColumn(column) >= 0);
+    }
+
+    /**
+     * Returns a filter of the blocks that may have rows matching the constraint on the sheet columns.
+     */
+    public BlockFilter createFilter(TupleDomain<ColumnHandle> constraint)
+    {
+        if (!constraint.getDomains().isPresent()) {
+            return new BlockFilter(null);
+        }
+        Domain[] domains = new Domain[ordinals.length];
+        for (Map.Entry<ColumnHandle, Domain> entry : constraint.getDomains().get().entrySet()) {
+            ExcelColumnHandle handle = (ExcelColumnHandle) entry.getKey();
+            int column = handle.isHidden() ? -1 : findColumn(handle);
+            if (column >= 0) {
+                domains[column] = entry.getValue();
+            }
+        }
+        return new BlockFilter(domains);
+    }
+
+    /**
+     * Returns the first row at or after the row in a block that may match the domains, or {@link Long#MAX_VALUE}
+     * when no later block matches.
+     */
+    private long findMatchingRow(long rowNumber, Domain[] domains)
+    {
+        if (domains == null) {
+            return Long.MAX_VALUE;
+        }
+        for (long block = (rowNumber - 1) / blockRows; block * blockRows < rowCount; block++) {
+            if (mayMatch(toIntExact(block), domains)) {
+                return Math.max(rowNumber, block * blockRows + 1);
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    private boolean mayMatch(int block, Domain[] domains)
+    {
+        long rows = Math.min(blockRows, rowCount - (long) block * blockRows);
+        for (int column = 0; column < domains.length; column++) {
+            Domain domain = domains[column];
+            if (domain == null) {
+                continue;
+            }
+            Type type = domain.getType();
+            boolean hasNulls = nullCounts[column][block] > 0;
+            Domain values;
+            if (minimums[column][block] != null) {
+                values = Domain.create(ValueSet.ofRanges(Range.range(type, minimums[column][block], true, maximums[column][block], true)), hasNulls);
+            }
+            else if (nullCounts[column][block] == rows) {
+                values = Domain.onlyNull(type);
+            }
+            else {
+                continue;
+            }
+            if (domain.intersect(values).isNone()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int findColumn(ExcelColumnHandle column)
+    {
+        for (int i = 0; i < ordinals.length; i++) {
+            if (ordinals[i] == column.getOrdinalPosition() && types[i].equals(column.getColumnType().getTypeSignature().toString())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static byte getKind(Type type)
+    {
+        if (type.equals(BOOLEAN)) {
+            return BOOLEAN_VALUE;
+        }
+        if (type.equals(BIGINT)) {
+            return LONG_VALUE;
+        }
+        if (type.equals(DOUBLE)) {
+            return DOUBLE_VALUE;
+        }
+        if (type instanceof VarcharType) {
+            return SLICE_VALUE;
+        }
+        return 0;
+    }
+
+    public void write(OutputStream outputStream)
+            throws IOException
+    {
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(outputStream));
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeLong(fileSize);
+        output.writeLong(modifiedTime);
+        output.writeBoolean(formulasEvaluated);
+        output.writeInt(blockRows);
+        output.writeLong(rowCount);
+        output.writeInt(ordinals.length);
+        for (int column = 0; column < ordinals.length; column++) {
+            output.writeInt(ordinals[column]);
+            output.writeUTF(types[column]);
+            output.writeByte(kinds[column]);
+        }
+        int blockCount = nullCounts.length == 0 ? 0 : nullCounts[0].length;
+        output.writeInt(blockCount);
+        for (int column = 0; column < ordinals.length; column++) {
+            for (int block = 0; block < blockCount; block++) {
+                output.writeLong(nullCounts[column][block]);
+                output.writeBoolean(minimums[column][block] != null);
+                if (minimums[column][block] != null) {
+                    writeValue(output, kinds[column], minimums[column][block]);
+                    writeValue(output, kinds[column], maximums[column][block]);
+                }
+            }
+        }
+        output.flush();
+    }
+
+    public static ZoneMap read(InputStream inputStream)
+            throws IOException
+    {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(inputStream));
+        if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+            throw new IOException("Not a zone map");
+        }
+        long fileSize = input.readLong();
+        long modifiedTime = input.readLong();
+        boolean formulasEvaluated = input.readBoolean();
+        int blockRows = input.readInt();
+        long rowCount = input.readLong();
+        int columnCount = input.readInt();
+        int[] ordinals = new int[columnCount];
+        String[] types = new String[columnCount];
+        byte[] kinds = new byte[columnCount];
+        for (int column = 0; column < columnCount; column++) {
+            ordinals[column] = input.readInt();
+            types[column] = input.readUTF();
+            kinds[column] = input.readByte();
+        }
+        int blockCount = input.readInt();
+        if (blockRows <= 0 || blockCount < 0 || (long) blockCount * blockRows < rowCount) {
+            throw new IOException("Invalid zone map");
+        }
+        long[][] nullCounts = new long[columnCount][blockCount];
+        Object[][] minimums = new Object[columnCount][blockCount];
+        Object[][] maximums = new Object[columnCount][blockCount];
+        for (int column = 0; column < columnCount; column++) {
+            for (int block = 0; block < blockCount; block++) {
+                nullCounts[column][block] = input.readLong();
+                if (input.readBoolean()) {
+                    minimums[column][block] = readValue(input, kinds[column]);
+                    maximums[column][block] = readValue(input, kinds[column]);
+                }
+            }
+        }
+        return new ZoneMap(fileSize, modifiedTime, formulasEvaluated, blockRows, rowCount, ordinals, types, kinds, nullCounts, minimums, maximums);
+    }
+
+    private static void writeValue(DataOutputStream output, byte kind, Object value)
+            throws IOException
+    {
+        switch (kind) {
+            case BOOLEAN_VALUE:
+                output.writeBoolean((boolean) value);
+                break;
+            case LONG_VALUE:
+                output.writeLong((long) value);
+                break;
+            case DOUBLE_VALUE:
+                output.writeDouble((double) value);
+                break;
+            default:
+                Slice slice = (Slice) value;
+                output.writeShort(slice.length());
+                output.write(slice.getBytes());
+        }
+    }
+
+    private static Object readValue(DataInputStream input, byte kind)
+            throws IOException
+    {
+        switch (kind) {
+            case BOOLEAN_VALUE:
+                return input.readBoolean();
+            case LONG_VALUE:
+                return input.readLong();
+            case DOUBLE_VALUE:
+                return input.readDouble();
+            case SLICE_VALUE:
+                byte[] bytes = new byte[input.readUnsignedShort()];
+                input.readFully(bytes);
+                return Slices.wrappedBuffer(bytes);
+            default:
+                throw new IOException("Invalid zone map value");
+        }
+    }
+
+    /**
+     * Collects the zone map of a file while it is read from its first row to its last, with every row of the sheet.
+     */
+    public static class Builder
+    {
+        private final long fileSize;
+        private final long modifiedTime;
+        private final boolean formulasEvaluated;
+        private final int blockRows;
+        private final int[] ordinals;
+        private final String[] types;
+        private final byte[] kinds;
+        private long[][] nullCounts;
+        private Object[][] minimums;
+        private Object[][] maximums;
+        // blocks whose range was given up, by column
+        private boolean[][] unbounded;
+        private int blockCount;
+        private long rowCount;
+
+        /**
+         * @param columns the columns of the sheet that the reader converts, in the order of {@link #add}
+         */
+        public Builder(long fileSize, long modifiedTime, boolean formulasEvaluated, int blockRows, List<ExcelColumnHandle> columns)
+        {
+            this.fileSize = fileSize;
+            this.modifiedTime = modifiedTime;
+            this.formulasEvaluated = formulasEvaluated;
+            this.blockRows = blockRows;
+            this.ordinals = columns.stream().mapToInt(ExcelColumnHandle::getOrdinalPosition).toArray();
+            this.types = columns.stream().map(column -> column.getColumnType().getTypeSignature().toString()).toArray(String[]::new);
+            this.kinds = new byte[columns.size()];
+            for (int column = 0; column < kinds.length; column++) {
+                kinds[column] = getKind(columns.get(column).getColumnType());
+            }
+            this.nullCounts = new long[columns.size()][16];
+            this.minimums = new Object[columns.size()][16];
+            this.maximums = new Object[columns.size()][16];
+            this.unbounded = new boolean[columns.size()][16];
+        }
+
+        /**
+         * Returns whether a column of the type can be tracked.
+         */
+        public static boolean isSupported(Type type)
+        {
+            return getKind(type) != 0;
+        }
+
+        /**
+         * Adds the value of a column in a row, as a native value of the column type, or null.
+         */
+        public void add(int column, long rowNumber, Object value)
+        {
+            int block = toIntExact((rowNumber - 1) / blockRows);
+            if (block >= blockCount) {
+                grow(block + 1);
+            }
+            rowCount = Math.max(rowCount, rowNumber);
+            if (value == null) {
+                nullCounts[column][block]++;
+                return;
+            }
+            if (unbounded[column][block]) {
+                return;
+            }
+            if ((value instanceof Double && ((Double) value).isNaN()) || (value instanceof Slice && ((Slice) value).length() > MAX_STRING_LENGTH)) {
+                unbounded[column][block] = true;
+                minimums[column][block] = null;
+                maximums[column][block] = null;
+                return;
+            }
+            if (minimums[column][block] == null || compare(value, minimums[column][block]) < 0) {
+                minimums[column][block] = copy(value);
+            }
+            if (maximums[column][block] == null || compare(value, maximums[column][block]) > 0) {
+                maximums[column][block] = copy(value);
+            }
+        }
+
+        /**
+         * Returns the zone map, after the last row of the file was added.
+         */
+        public ZoneMap build()
+        {
+            long[][] nulls = new long[ordinals.length][];
+            Object[][] mins = new Object[ordinals.length][];
+            Object[][] maxs = new Object[ordinals.length][];
+            for (int column = 0; column < ordinals.length; column++) {
+                nulls[column] = Arrays.copyOf(nullCounts[column], blockCount);
+                mins[column] = Arrays.copyOf(minimums[column], blockCount);
+                maxs[column] = Arrays.copyOf(maximums[column], blockCount);
+            }
+            return new ZoneMap(fileSize, modifiedTime, formulasEvaluated, blockRows, rowCount, ordinals, types, kinds, nulls, mins, maxs);
+        }
+
+        private void grow(int blocks)
+        {
+            if (ordinals.length > 0 && blocks > nullCounts[0].length) {
+                int capacity = Math.max(blocks, blockCount * 2);
+                for (int column = 0; column < ordinals.length; column++) {
+                    nullCounts[column] = Arrays.copyOf(nullCounts[column], capacity);
+                    minimums[column] = Arrays.copyOf(minimums[column], capacity);
+                    maximums[column] = Arrays.copyOf(maximums[column], capacity);
+                    unbounded[column] = Arrays.copyOf(unbounded[column], capacity);
+                }
+            }
+            blockCount = blocks;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static int compare(Object left, Object right)
+        {
+            return ((Comparable<Object>) left).compareTo(right);
+        }
+
+        private static Object copy(Object value)
+        {
+            // slices of a page may share the memory of the whole page
+            return value instanceof Slice ? Slices.copyOf((Slice) value) : value;
+        }
+    }
+
+    /**
+     * Finds the rows to read next for one constraint. Rows are asked for in ascending order.
+     */
+    public class BlockFilter
+    {
+        private final Domain[] domains;
+        private long matchingRow;
+        // last row of the block of the matching row
+        private long blockEnd;
+
+        private BlockFilter(Domain[] domains)
+        {
+            this.domains = domains;
+        }
+
+        /**
+         * Returns the row itself when its block may match, the first row of the next block that may match,
+         * or {@link Long#MAX_VALUE} when no later block matches.
+         */
+        public long getNextRow(long rowNumber)
+        {
+            if (rowNumber > blockEnd) {
+                matchingRow = findMatchingRow(rowNumber, domains);
+                blockEnd = matchingRow == Long.MAX_VALUE ? Long.MAX_VALUE : ((matchingRow - 1) / blockRows + 1) * blockRows;
+            }
+            return Math.max(rowNumber, matchingRow);
+        }
+    }
+}
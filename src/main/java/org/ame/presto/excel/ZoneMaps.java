@@ -0,0 +1,75 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.excel;
+
+import org.ame.presto.excel.session.ISession;
+
+import java.util.Optional;
+
+import static org.ame.presto.excel.FileTypeJudge.isCompressedFile;
+import static org.ame.presto.excel.FileTypeJudge.isExcelFile;
+
+/**
+ * Keeps the zone maps of workbooks in hidden files next to them. A zone map is built by a split that reads a whole
+ * sheet without a dynamic filter, and is used while the file keeps its size and modification time.
+ * Compressed files and archive entries have no zone maps.
+ */
+public class ZoneMaps
+{
+    private final SidecarFiles zoneMaps = new SidecarFiles(".zonemap", "zone map");
+    private final boolean enabled;
+    private final int blockRows;
+
+    public ZoneMaps(boolean enabled, int blockRows)
+    {
+        this.enabled = enabled;
+        this.blockRows = blockRows;
+    }
+
+    public boolean isEnabled(String path)
+    {
+        return enabled && isExcelFile(path) && !isCompressedFile(path);
+    }
+
+    /**
+     * Returns the number of rows of a block of a new zone map.
+     */
+    public int getBlockRows()
+    {
+        return blockRows;
+    }
+
+    /**
+     * Returns the zone map of the file, if it was built from the file with this size and modification time,
+     * and with formula values evaluated the same way.
+     */
+    public Optional<ZoneMap> get(ISession session, String schemaName, String path, long fileSize, long modifiedTime, boolean formulasEvaluated)
+    {
+        if (!isEnabled(path)) {
+            return Optional.empty();
+        }
+        return zoneMaps.read(session, schemaName, path, ZoneMap::read, zoneMap -> zoneMap.matches(fileSize, modifiedTime, formulasEvaluated));
+    }
+
+    /**
+     * Writes the zone map next to the file, replacing a zone map of an older version of the file or of fewer columns.
+     */
+    public void put(ISession session, String schemaName, String path, ZoneMap zoneMap)
+    {
+        if (!isEnabled(path)) {
+            return;
+        }
+        zoneMaps.write(session, schemaName, path, zoneMap::write);
+    }
+}
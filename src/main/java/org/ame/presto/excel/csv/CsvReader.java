@@ -0,0 +1,369 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.excel.csv;
+
+import io.airlift.slice.Slice;
+import io.airlift.slice.Slices;
+import org.ame.presto.excel.SplitMemoryLimit;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import static io.airlift.slice.SizeOf.sizeOf;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Splits delimited text into rows and fields without creating intermediate strings.
+ * Delimiters and line feeds are searched eight bytes at a time, quoted fields
+ * (RFC 4180, with doubled quotes as escapes) fall back to a byte by byte scan.
+ */
+public class CsvReader
+        implements Closeable
+{
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+    private static final byte QUOTE = '"';
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+    private static final long LF_PATTERN = ONES * LF;
+
+    private final InputStream inputStream;
+    private final byte delimiter;
+    private final long delimiterPattern;
+    private final int maxBufferSize;
+    private final SplitMemoryLimit memoryLimit;
+    private byte[] buffer;
+    private Slice bufferSlice;
+    // absolute position of buffer[0]
+    private long bufferOffset;
+    private int position;
+    private int limit;
+    private boolean eof;
+    // whether the last read filled the buffer
+    private boolean filled;
+
+    private long rowPosition;
+    private int fieldCount;
+    private int[] fieldStarts = new int[16];
+    private int[] fieldLengths = new int[16];
+    private boolean[] fieldEscaped = new boolean[16];
+
+    /**
+     * @param maxBufferSize the size the buffer grows to while the input stream fills it, rows longer than it still fit
+     */
+    public CsvReader(InputStream inputStream, byte delimiter, long startPosition, int bufferSize, int maxBufferSize, SplitMemoryLimit memoryLimit)
+    {
+        this.inputStream = requireNonNull(inputStream, "inputStream is null");
+        this.delimiter = delimiter;
+        this.delimiterPattern = ONES * (delimiter & 0xFF);
+        this.maxBufferSize = maxBufferSize;
+        this.memoryLimit = requireNonNull(memoryLimit, "memoryLimit is null");
+        this.buffer = new byte[Math.max(bufferSize, INITIAL_BUFFER_SIZE)];
+        this.bufferSlice = Slices.wrappedBuffer(buffer);
+        this.bufferOffset = startPosition;
+    }
+
+    public CsvReader(InputStream inputStream, byte delimiter)
+    {
+        this(inputStream, delimiter, 0, INITIAL_BUFFER_SIZE, INITIAL_BUFFER_SIZE, SplitMemoryLimit.UNLIMITED);
+    }
+
+    /**
+     * Skips the rest of the current line, including its line feed. Quotes are not interpreted,
+     * so files with quoted multi-line fields must not be split into ranges.
+     */
+    public void skipLine()
+            throws IOException
+    {
+        while (true) {
+            int index = find(LF_PATTERN, LF_PATTERN, position, limit);
+            if (index >= 0) {
+                position = index + 1;
+                return;
+            }
+            position = limit;
+            if (eof) {
+                return;
+            }
+            fill();
+        }
+    }
+
+    /**
+     * Advances to the next non-empty row. Returns false at the end of the input.
+     */
+    public boolean next()
+            throws IOException
+    {
+        while (true) {
+            if (position >= limit) {
+                if (eof) {
+                    return false;
+                }
+                fill();
+                continue;
+            }
+            int end = parseRow();
+            if (end < 0) {
+                // the row continues past the buffered bytes
+                fill();
+                continue;
+            }
+            rowPosition = bufferOffset + position;
+            position = end;
+            // skip blank lines
+            if (fieldCount > 1 || fieldLengths[0] > 0) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Returns the memory held by the buffer, which grows to the size of the longest row.
+     */
+    public long getRetainedSizeInBytes()
+    {
+        return sizeOf(buffer) + sizeOf(fieldStarts) + sizeOf(fieldLengths) + sizeOf(fieldEscaped);
+    }
+
+    /**
+     * Returns the position of the first byte of the current row in the input.
+     */
+    public long getRowPosition()
+    {
+        return rowPosition;
+    }
+
+    public int getFieldCount()
+    {
+        return fieldCount;
+    }
+
+    public boolean isEmpty(int field)
+    {
+        return field >= fieldCount || fieldLengths[field] == 0;
+    }
+
+    public int getLength(int field)
+    {
+        unescape(field);
+        return fieldLengths[field];
+    }
+
+    public byte getByte(int field, int index)
+    {
+        return buffer[fieldStarts[field] + index];
+    }
+
+    /**
+     * Returns a view of the field. It is only valid until the reader advances.
+     */
+    public Slice getSlice(int field)
+    {
+        unescape(field);
+        return bufferSlice.slice(fieldStarts[field], fieldLengths[field]);
+    }
+
+    public String getString(int field)
+    {
+        if (field >= fieldCount) {
+            return "";
+        }
+        unescape(field);
+        return new String(buffer, fieldStarts[field], fieldLengths[field], UTF_8);
+    }
+
+    @Override
+    public void close()
+            throws IOException
+    {
+        inputStream.close();
+    }
+
+    /**
+     * Splits the row at the current position into fields. Returns the position after the row,
+     * or -1 if the row is not complete in the buffer and more input is available.
+     */
+    private int parseRow()
+    {
+        fieldCount = 0;
+        int index = position;
+        while (true) {
+            int start = index;
+            int length;
+            boolean escaped = false;
+            if (index < limit && buffer[index] == QUOTE) {
+                // quoted field, which may contain delimiters, line feeds and doubled quotes
+                index++;
+                start = index;
+                while (true) {
+                    if (index >= limit) {
+                        if (!eof) {
+                            return -1;
+                        }
+                        // unterminated quote at the end of the input
+                        addField(start, limit - start, escaped);
+                        return limit;
+                    }
+                    if (buffer[index] == QUOTE) {
+                        if (index + 1 >= limit && !eof) {
+                            return -1;
+                        }
+                        if (index + 1 < limit && buffer[index + 1] == QUOTE) {
+                            escaped = true;
+                            index += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    index++;
+                }
+                length = index - start;
+                // skip the closing quote and anything up to the next separator
+                index = find(delimiterPattern, LF_PATTERN, index + 1, limit);
+            }
+            else {
+                index = find(delimiterPattern, LF_PATTERN, index, limit);
+                length = (index < 0 ? limit : index) - start;
+            }
+            if (index < 0) {
+                if (!eof) {
+                    return -1;
+                }
+                // the last row is not terminated by a line feed
+                addField(start, stripCarriageReturn(start, length, limit), escaped);
+                return limit;
+            }
+            if (buffer[index] == LF) {
+                addField(start, stripCarriageReturn(start, length, index), escaped);
+                return index + 1;
+            }
+            addField(start, length, escaped);
+            index++;
+        }
+    }
+
+    private int stripCarriageReturn(int start, int length, int end)
+    {
+        // only an unquoted field ends right at the line end
+        if (length > 0 && start + length == end && buffer[end - 1] == CR) {
+            return length - 1;
+        }
+        return length;
+    }
+
+    private void addField(int start, int length, boolean escaped)
+    {
+        if (fieldCount == fieldStarts.length) {
+            fieldStarts = Arrays.copyOf(fieldStarts, fieldCount * 2);
+            fieldLengths = Arrays.copyOf(fieldLengths, fieldCount * 2);
+            fieldEscaped = Arrays.copyOf(fieldEscaped, fieldCount * 2);
+        }
+        fieldStarts[fieldCount] = start;
+        fieldLengths[fieldCount] = length;
+        fieldEscaped[fieldCount] = escaped;
+        fieldCount++;
+    }
+
+    private void unescape(int field)
+    {
+        if (!fieldEscaped[field]) {
+            return;
+        }
+        // collapse doubled quotes in place, the row is complete and will not be parsed again
+        int start = fieldStarts[field];
+        int end = start + fieldLengths[field];
+        int target = start;
+        for (int index = start; index < end; index++) {
+            buffer[target++] = buffer[index];
+            if (buffer[index] == QUOTE) {
+                index++;
+            }
+        }
+        fieldLengths[field] = target - start;
+        fieldEscaped[field] = false;
+    }
+
+    /**
+     * Returns the index of the first byte matching either pattern, or -1.
+     */
+    private int find(long firstPattern, long secondPattern, int from, int to)
+    {
+        int index = from;
+        while (index + Long.BYTES <= to) {
+            long word = bufferSlice.getLong(index);
+            long first = word ^ firstPattern;
+            long second = word ^ secondPattern;
+            // the lowest flagged byte is always an exact match
+            long matches = (((first - ONES) & ~first) | ((second - ONES) & ~second)) & HIGH_BITS;
+            if (matches != 0) {
+                return index + (Long.numberOfTrailingZeros(matches) >>> 3);
+            }
+            index += Long.BYTES;
+        }
+        byte firstByte = (byte) firstPattern;
+        byte secondByte = (byte) secondPattern;
+        for (; index < to; index++) {
+            if (buffer[index] == firstByte || buffer[index] == secondByte) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Moves the unconsumed bytes to the front of the buffer and reads more input.
+     * The buffer grows when a single row does not fit, and up to the maximum buffer size
+     * when the last read filled it.
+     */
+    private void fill()
+            throws IOException
+    {
+        int remaining = limit - position;
+        if (position == 0 && remaining == buffer.length) {
+            // a single row is larger than the buffer
+            grow(buffer.length * 2);
+        }
+        else {
+            if (position > 0) {
+                System.arraycopy(buffer, position, buffer, 0, remaining);
+                bufferOffset += position;
+                position = 0;
+                limit = remaining;
+            }
+            if (filled && buffer.length < maxBufferSize) {
+                grow(Math.min(buffer.length * 2, maxBufferSize));
+            }
+        }
+        int requested = buffer.length - limit;
+        int read = inputStream.read(buffer, limit, requested);
+        if (read < 0) {
+            eof = true;
+            return;
+        }
+        filled = read == requested;
+        limit += read;
+    }
+
+    private void grow(int size)
+    {
+        memoryLimit.check(getRetainedSizeInBytes() + size - buffer.length, "Buffering the text file");
+        buffer = Arrays.copyOf(buffer, size);
+        bufferSlice = Slices.wrappedBuffer(buffer);
+    }
+}
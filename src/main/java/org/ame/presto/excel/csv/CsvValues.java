@@ -0,0 +1,174 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.excel.csv;
+
+import com.facebook.presto.common.type.Type;
+
+import java.util.List;
+
+import static com.facebook.presto.common.type.BigintType.BIGINT;
+import static com.facebook.presto.common.type.BooleanType.BOOLEAN;
+import static com.facebook.presto.common.type.DoubleType.DOUBLE;
+import static com.facebook.presto.common.type.VarcharType.VARCHAR;
+
+/**
+ * Parses typed values out of CSV fields. Type inference uses the same rules,
+ * so that every value of a sampled column can be read with the inferred type.
+ */
+public final class CsvValues
+{
+    private CsvValues()
+    {
+        throw new IllegalStateException("Utility class");
+    }
+
+    /**
+     * Infers the narrowest type of a column from its sampled values, empty values are ignored.
+     */
+    public static Type inferType(List<String> values)
+    {
+        boolean isBoolean = true;
+        boolean isBigint = true;
+        boolean isDouble = true;
+        boolean empty = true;
+        for (String value : values) {
+            if (value.isEmpty()) {
+                continue;
+            }
+            empty = false;
+            isBoolean = isBoolean && (value.equalsIgnoreCase("true") || value.equalsIgnoreCase("false"));
+            isBigint = isBigint && isBigint(value);
+            isDouble = isDouble && isDouble(value);
+        }
+        if (empty) {
+            return VARCHAR;
+        }
+        if (isBoolean) {
+            return BOOLEAN;
+        }
+        if (isBigint) {
+            return BIGINT;
+        }
+        if (isDouble) {
+            return DOUBLE;
+        }
+        return VARCHAR;
+    }
+
+    private static boolean isBigint(String value)
+    {
+        try {
+            Long.parseLong(value);
+            return true;
+        }
+        catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static boolean isDouble(String value)
+    {
+        if (!isDecimalText(value)) {
+            return false;
+        }
+        try {
+            Double.parseDouble(value);
+            return true;
+        }
+        catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Rejects the Java literal forms Double.parseDouble accepts on top of plain decimals, like "1d", "NaN" or hex values.
+     */
+    public static boolean isDecimalText(String value)
+    {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (!(c >= '0' && c <= '9') && c != '.' && c != '-' && c != '+' && c != 'e' && c != 'E') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses a signed decimal integer with the rules of Long.parseLong, without creating a string.
+     */
+    public static boolean parseLong(CsvReader reader, int field, long[] result, int index)
+    {
+        int length = reader.getLength(field);
+        if (length == 0) {
+            return false;
+        }
+        int position = 0;
+        boolean negative = false;
+        byte first = reader.getByte(field, 0);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            position++;
+            if (length == 1) {
+                return false;
+            }
+        }
+        // accumulate negatively, so that Long.MIN_VALUE does not overflow
+        long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long multiplyLimit = limit / 10;
+        long value = 0;
+        for (; position < length; position++) {
+            int digit = reader.getByte(field, position) - '0';
+            if (digit < 0 || digit > 9 || value < multiplyLimit) {
+                return false;
+            }
+            value *= 10;
+            if (value < limit + digit) {
+                return false;
+            }
+            value -= digit;
+        }
+        result[index] = negative ? value : -value;
+        return true;
+    }
+
+    public static boolean parseBoolean(CsvReader reader, int field, boolean[] result, int index)
+    {
+        String value = reader.getString(field);
+        if (value.equalsIgnoreCase("true")) {
+            result[index] = true;
+            return true;
+        }
+        if (value.equalsIgnoreCase("false")) {
+            result[index] = false;
+            return true;
+        }
+        return false;
+    }
+
+    public static boolean parseDouble(CsvReader reader, int field, double[] result, int index)
+    {
+        String value = reader.getString(field);
+        if (!isDecimalText(value)) {
+            return false;
+        }
+        try {
+            result[index] = Double.parseDouble(value);
+            return true;
+        }
+        catch (NumberFormatException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.excel.session;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import io.airlift.slice.Slice;
+import io.airlift.slice.Slices;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.requireNonNull;
+import static org.ame.presto.excel.FileTypeJudge.ARCHIVE_ENTRY_SEPARATOR;
+import static org.ame.presto.excel.FileTypeJudge.isArchiveEntry;
+import static org.ame.presto.excel.FileTypeJudge.isCompressedFile;
+import static org.ame.presto.excel.FileTypeJudge.isCsvFile;
+import static org.ame.presto.excel.FileTypeJudge.isExcelFile;
+import static org.ame.presto.excel.FileTypeJudge.isGzipFile;
+import static org.ame.presto.excel.FileTypeJudge.isHiddenFile;
+import static org.ame.presto.excel.FileTypeJudge.isZipFile;
+
+/**
+ * Lists the workbooks inside zip archives as tables of their own and decompresses zip entries
+ * and gzip files while they are read, so compressed files are never staged.
+ * Zip entries are found through the central directory at the end of the archive,
+ * which is read with two ranged reads instead of scanning the whole archive.
+ */
+public class ArchiveSession
+        implements ISession
+{
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int CENTRAL_DIRECTORY_SIGNATURE = 0x02014b50;
+    private static final int CENTRAL_DIRECTORY_HEADER_SIZE = 46;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+
+    private final ISession session;
+
+    public ArchiveSession(ISession session)
+    {
+        this.session = requireNonNull(session, "session is null");
+    }
+
+    @Override
+    public InputStream getInputStream(String schemaName, String tableName)
+            throws Exception
+    {
+        if (isArchiveEntry(tableName)) {
+            return getEntryInputStream(schemaName, tableName);
+        }
+        if (isGzipFile(tableName)) {
+            return new GZIPInputStream(session.getInputStream(schemaName, tableName), BUFFER_SIZE);
+        }
+        return session.getInputStream(schemaName, tableName);
+    }
+
+    @Override
+    public InputStream getInputStream(String schemaName, String path, long offset)
+            throws Exception
+    {
+        if (isCompressedFile(path)) {
+            checkArgument(offset == 0, "Compressed file %s cannot be read from offset %s", path, offset);
+            return getInputStream(schemaName, path);
+        }
+        return session.getInputStream(schemaName, path, offset);
+    }
+
+    @Override
+    public List<String> getSchemas()
+            throws Exception
+    {
+        return session.getSchemas();
+    }
+
+    @Override
+    public List<String> getTables(String schemaName)
+            throws Exception
+    {
+        List<String> tables = new ArrayList<>();
+        for (String table : session.getTables(schemaName)) {
+            if (!isZipFile(table)) {
+                tables.add(table);
+                continue;
+            }
+            for (ArchiveEntry entry : getEntries(schemaName, getArchiveFile(schemaName, table))) {
+                tables.add(entry.getPath());
+            }
+        }
+        return tables;
+    }
+
+    @Override
+    public List<SessionFile> getFiles(String schemaName, String tableName)
+            throws Exception
+    {
+        if (isArchiveEntry(tableName)) {
+            ArchiveEntry entry = getEntry(schemaName, tableName);
+            return ImmutableList.of(entry.toSessionFile());
+        }
+        // the archives of a directory table contribute all of their workbooks
+        List<SessionFile> files = new ArrayList<>();
+        for (SessionFile file : session.getFiles(schemaName, tableName)) {
+            if (!isZipFile(file.getPath())) {
+                files.add(file);
+                continue;
+            }
+            for (ArchiveEntry entry : getEntries(schemaName, file)) {
+                files.add(entry.toSessionFile());
+            }
+        }
+        return files;
+    }
+
+    @Override
+    public void listFiles(String schemaName, String tableName, Consumer<SessionFile> consumer)
+            throws Exception
+    {
+        if (isArchiveEntry(tableName)) {
+            consumer.accept(getEntry(schemaName, tableName).toSessionFile());
+            return;
+        }
+        // the archives are opened once the listing is done, the session cannot read while it lists
+        List<SessionFile> archives = new ArrayList<>();
+        session.listFiles(schemaName, tableName, file -> {
+            if (isZipFile(file.getPath())) {
+                archives.add(file);
+            }
+            else {
+                consumer.accept(file);
+            }
+        });
+        for (SessionFile archive : archives) {
+            for (ArchiveEntry entry : getEntries(schemaName, archive)) {
+                consumer.accept(entry.toSessionFile());
+            }
+        }
+    }
+
+    @Override
+    public Optional<RangeSource> getRangeSource(String schemaName, String path)
+            throws Exception
+    {
+        if (isCompressedFile(path)) {
+            return Optional.empty();
+        }
+        return session.getRangeSource(schemaName, path);
+    }
+
+    @Override
+    public boolean isReadOnly()
+    {
+        return session.isReadOnly();
+    }
+
+    @Override
+    public OutputStream getOutputStream(String schemaName, String path)
+            throws Exception
+    {
+        return session.getOutputStream(schemaName, path);
+    }
+
+    @Override
+    public void createDirectory(String schemaName, String path)
+            throws Exception
+    {
+        session.createDirectory(schemaName, path);
+    }
+
+    @Override
+    public void rename(String schemaName, String source, String target)
+            throws Exception
+    {
+        session.rename(schemaName, source, target);
+    }
+
+    @Override
+    public void delete(String schemaName, String path)
+            throws Exception
+    {
+        session.delete(schemaName, path);
+    }
+
+    @Override
+    public void close()
+    {
+        session.close();
+    }
+
+    private InputStream getEntryInputStream(String schemaName, String path)
+            throws Exception
+    {
+        ArchiveEntry entry = getEntry(schemaName, path);
+        // the stream starts at the local header of the entry, so the first entry read is the wanted one
+        ZipInputStream inputStream = new ZipInputStream(session.getInputStream(schemaName, entry.getArchive(), entry.getOffset()), UTF_8);
+        ZipEntry zipEntry = inputStream.getNextEntry();
+        if (zipEntry == null || !zipEntry.getName().equals(entry.getName())) {
+            inputStream.close();
+            throw new ZipException("Corrupt local header of " + path);
+        }
+        return inputStream;
+    }
+
+    private ArchiveEntry getEntry(String schemaName, String path)
+            throws Exception
+    {
+        String archive = path.substring(0, path.indexOf(ARCHIVE_ENTRY_SEPARATOR));
+        for (ArchiveEntry entry : getEntries(schemaName, getArchiveFile(schemaName, archive))) {
+            if (entry.getPath().equals(path)) {
+                return entry;
+            }
+        }
+        throw new ZipException("No entry " + path);
+    }
+
+    private SessionFile getArchiveFile(String schemaName, String archive)
+            throws Exception
+    {
+        return session.getFiles(schemaName, archive).get(0);
+    }
+
+    private List<ArchiveEntry> getEntries(String schemaName, SessionFile archiveFile)
+            throws Exception
+    {
+        String archive = archiveFile.getPath();
+        long size = archiveFile.getSize();
+        // the end of central directory record is followed by the archive comment only
+        int tailSize = (int) Math.min(size, END_OF_CENTRAL_DIRECTORY_SIZE + MAX_COMMENT_SIZE);
+        Slice tail = read(schemaName, archive, size - tailSize, tailSize);
+        int end = tailSize - END_OF_CENTRAL_DIRECTORY_SIZE;
+        while (end >= 0 && tail.getInt(end) != END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+            end--;
+        }
+        if (end < 0) {
+            throw new ZipException("Not a zip archive: " + archive);
+        }
+        long directorySize = tail.getInt(end + 12) & 0xFFFFFFFFL;
+        long directoryOffset = tail.getInt(end + 16) & 0xFFFFFFFFL;
+        if (directoryOffset == 0xFFFFFFFFL || directorySize == 0xFFFFFFFFL) {
+            throw new ZipException("Zip64 archives are not supported: " + archive);
+        }
+        Slice directory = read(schemaName, archive, directoryOffset, (int) directorySize);
+        List<ArchiveEntry> entries = new ArrayList<>();
+        int position = 0;
+        while (position + CENTRAL_DIRECTORY_HEADER_SIZE <= directory.length() && directory.getInt(position) == CENTRAL_DIRECTORY_SIGNATURE) {
+            long compressedSize = directory.getInt(position + 20) & 0xFFFFFFFFL;
+            int nameLength = directory.getShort(position + 28) & 0xFFFF;
+            int extraLength = directory.getShort(position + 30) & 0xFFFF;
+            int commentLength = directory.getShort(position + 32) & 0xFFFF;
+            long offset = directory.getInt(position + 42) & 0xFFFFFFFFL;
+            String name = directory.toString(position + CENTRAL_DIRECTORY_HEADER_SIZE, nameLength, UTF_8);
+            String fileName = name.substring(name.lastIndexOf('/') + 1);
+            // directories, hidden files and nested archives are skipped
+            if (!isHiddenFile(fileName) && (isExcelFile(fileName) || isCsvFile(fileName))) {
+                // entries keep the modification time of the archive
+                entries.add(new ArchiveEntry(archive, name, compressedSize, offset, archiveFile.getModifiedTime()));
+            }
+            position += CENTRAL_DIRECTORY_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+        return entries;
+    }
+
+    private Slice read(String schemaName, String path, long offset, int length)
+            throws Exception
+    {
+        byte[] bytes = new byte[length];
+        try (InputStream inputStream = session.getInputStream(schemaName, path, offset)) {
+            ByteStreams.readFully(inputStream, bytes);
+        }
+        return Slices.wrappedBuffer(bytes);
+    }
+
+    private static class ArchiveEntry
+    {
+        private final String archive;
+        private final String name;
+        private final long compressedSize;
+        private final long offset;
+        private final long modifiedTime;
+
+        ArchiveEntry(String archive, String name, long compressedSize, long offset, long modifiedTime)
+        {
+            this.archive = archive;
+            this.name = name;
+            this.compressedSize = compressedSize;
+            this.offset = offset;
+            this.modifiedTime = modifiedTime;
+        }
+
+        String getArchive()
+        {
+            return archive;
+        }
+
+        String getName()
+        {
+            return name;
+        }
+
+        String getPath()
+        {
+            return archive + ARCHIVE_ENTRY_SEPARATOR + name;
+        }
+
+        long getOffset()
+        {
+            return offset;
+        }
+
+        SessionFile toSessionFile()
+        {
+            return new SessionFile(getPath(), compressedSize, modifiedTime);
+        }
+    }
+}
@@ -0,0 +1,436 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.excel.session;
+
+import com.facebook.airlift.json.JsonCodec;
+import com.facebook.presto.spi.PrestoException;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.io.ByteStreams;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+import static com.facebook.presto.spi.StandardErrorCode.NOT_SUPPORTED;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.time.format.DateTimeFormatter.RFC_1123_DATE_TIME;
+import static java.util.Comparator.comparing;
+import static org.ame.presto.excel.FileTypeJudge.isHiddenFile;
+import static org.ame.presto.excel.FileTypeJudge.isSupportedFile;
+
+/**
+ * Reads files from an HTTP(S) file server or object store gateway. Directories are listed through an index in the
+ * JSON format of the nginx autoindex module, which is fetched from the index path under the URL of the directory.
+ * Files are read with range requests, large ones in chunks over several connections at the same time, and
+ * connections are kept alive between the requests. The files cannot be written.
+ */
+public class HttpSession
+        implements ISession
+{
+    private static final int TIMEOUT = 10000;
+    private static final int DEFAULT_DOWNLOAD_CHUNK_SIZE = 8 * 1024 * 1024;
+    private static final JsonCodec<List<IndexEntry>> INDEX_CODEC = JsonCodec.listJsonCodec(IndexEntry.class);
+
+    private final String scheme;
+    private final String host;
+    private final int port;
+    private final String base;
+    private final String indexPath;
+    private final String authorization;
+    private final int downloadParallelism;
+    private final int downloadChunkSize;
+
+    public HttpSession(Map<String, String> sessionInfo)
+    {
+        this.scheme = sessionInfo.get("protocol").toLowerCase(Locale.ENGLISH);
+        this.host = sessionInfo.get("host");
+        int port = Integer.parseInt(sessionInfo.get("port"));
+        this.port = port > 0 ? port : -1;
+        String base = sessionInfo.get("base");
+        if (!base.startsWith("/")) {
+            base = "/" + base;
+        }
+        this.base = base.endsWith("/") ? base : base + "/";
+        String indexPath = sessionInfo.get("indexPath");
+        this.indexPath = indexPath == null ? "" : indexPath;
+        String username = sessionInfo.get("username");
+        String password = sessionInfo.get("password");
+        if (username == null) {
+            this.authorization = null;
+        }
+        else {
+            String credentials = username + ":" + (password == null ? "" : password);
+            this.authorization = "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes(UTF_8));
+        }
+        String parallelism = sessionInfo.get("downloadParallelism");
+        String chunkSize = sessionInfo.get("downloadChunkSize");
+        this.downloadParallelism = parallelism == null ? 1 : Integer.parseInt(parallelism);
+        this.downloadChunkSize = chunkSize == null ? DEFAULT_DOWNLOAD_CHUNK_SIZE : Integer.parseInt(chunkSize);
+    }
+
+    @Override
+    public InputStream getInputStream(String schemaName, String tableName)
+            throws Exception
+    {
+        String path = schemaName + "/" + tableName;
+        if (downloadParallelism > 1) {
+            Optional<RangeSource> source = getRangeSource(schemaName, tableName);
+            if (source.isPresent() && source.get().getSize() > downloadChunkSize) {
+                return source.get().getInputStream(0, source.get().getSize());
+            }
+        }
+        HttpURLConnection connection = connect("GET", path, null);
+        checkResponse(connection, HttpURLConnection.HTTP_OK);
+        return connection.getInputStream();
+    }
+
+    @Override
+    public InputStream getInputStream(String schemaName, String path, long offset)
+            throws Exception
+    {
+        if (offset == 0) {
+            return getInputStream(schemaName, path);
+        }
+        HttpURLConnection connection = connect("GET", schemaName + "/" + path, "bytes=" + offset + "-");
+        int responseCode = checkResponse(connection, HttpURLConnection.HTTP_PARTIAL, HttpURLConnection.HTTP_OK);
+        InputStream inputStream = connection.getInputStream();
+        if (responseCode == HttpURLConnection.HTTP_OK) {
+            // the server ignored the range
+            try {
+                ByteStreams.skipFully(inputStream, offset);
+            }
+            catch (IOException e) {
+                inputStream.close();
+                throw e;
+            }
+        }
+        return inputStream;
+    }
+
+    @Override
+    public Optional<RangeSource> getRangeSource(String schemaName, String path)
+            throws Exception
+    {
+        HttpURLConnection connection = connect("HEAD", schemaName + "/" + path, null);
+        checkResponse(connection, HttpURLConnection.HTTP_OK);
+        long size = connection.getContentLengthLong();
+        String acceptRanges = connection.getHeaderField("Accept-Ranges");
+        // the ranges are only read from the same version of the file, which a weak entity tag cannot tell
+        String validator = connection.getHeaderField("ETag");
+        if (validator == null || validator.startsWith("W/")) {
+            validator = connection.getHeaderField("Last-Modified");
+        }
+        connection.getInputStream().close();
+        if (size < 0 || acceptRanges == null || !acceptRanges.toLowerCase(Locale.ENGLISH).contains("bytes") || validator == null) {
+            return Optional.empty();
+        }
+        return Optional.of(new HttpRangeSource(schemaName + "/" + path, size, validator));
+    }
+
+    @Override
+    public List<String> getSchemas()
+            throws Exception
+    {
+        List<String> schemas = new ArrayList<>();
+        for (IndexEntry entry : list("")) {
+            if (entry.isDirectory() && !isHiddenFile(entry.getName())) {
+                schemas.add(entry.getName());
+            }
+        }
+        return schemas;
+    }
+
+    @Override
+    public List<String> getTables(String schemaName)
+            throws Exception
+    {
+        List<String> tables = new ArrayList<>();
+        for (IndexEntry entry : list(schemaName + "/")) {
+            if (!entry.isDirectory() && isSupportedFile(entry.getName())) {
+                tables.add(entry.getName());
+            }
+            if (entry.isDirectory() && !isHiddenFile(entry.getName())) {
+                tables.add(entry.getName());
+            }
+        }
+        return tables;
+    }
+
+    @Override
+    public List<SessionFile> getFiles(String schemaName, String tableName)
+            throws Exception
+    {
+        List<SessionFile> files = new ArrayList<>();
+        listFiles(schemaName, tableName, files::add);
+        files.sort(comparing(SessionFile::getPath));
+        return files;
+    }
+
+    @Override
+    public void listFiles(String schemaName, String tableName, Consumer<SessionFile> consumer)
+            throws Exception
+    {
+        // the entry of the table is found in the index of its directory
+        int separator = tableName.lastIndexOf('/');
+        String directory = schemaName + "/" + tableName.substring(0, separator + 1);
+        String name = tableName.substring(separator + 1);
+        IndexEntry table = list(directory).stream()
+                .filter(entry -> entry.getName().equals(name))
+                .findFirst()
+                .orElseThrow(() -> new FileNotFoundException(schemaName + "/" + tableName));
+        if (!table.isDirectory()) {
+            consumer.accept(new SessionFile(tableName, table.getSize(), table.getModifiedTime()));
+            return;
+        }
+        for (IndexEntry entry : list(schemaName + "/" + tableName + "/")) {
+            if (!entry.isDirectory() && !isHiddenFile(entry.getName()) && isSupportedFile(entry.getName())) {
+                consumer.accept(new SessionFile(tableName + "/" + entry.getName(), entry.getSize(), entry.getModifiedTime()));
+            }
+        }
+    }
+
+    @Override
+    public boolean isReadOnly()
+    {
+        return true;
+    }
+
+    @Override
+    public OutputStream getOutputStream(String schemaName, String path)
+    {
+        throw new PrestoException(NOT_SUPPORTED, "Files cannot be written over HTTP");
+    }
+
+    @Override
+    public void createDirectory(String schemaName, String path)
+    {
+        throw new PrestoException(NOT_SUPPORTED, "Files cannot be written over HTTP");
+    }
+
+    @Override
+    public void rename(String schemaName, String source, String target)
+    {
+        throw new PrestoException(NOT_SUPPORTED, "Files cannot be written over HTTP");
+    }
+
+    @Override
+    public void delete(String schemaName, String path)
+    {
+        throw new PrestoException(NOT_SUPPORTED, "Files cannot be written over HTTP");
+    }
+
+    @Override
+    public void close()
+    {
+        // idle connections are kept alive for other sessions
+    }
+
+    private List<IndexEntry> list(String directory)
+            throws Exception
+    {
+        HttpURLConnection connection = connect("GET", directory + indexPath, null);
+        checkResponse(connection, HttpURLConnection.HTTP_OK);
+        byte[] index;
+        try (InputStream inputStream = connection.getInputStream()) {
+            index = ByteStreams.toByteArray(inputStream);
+        }
+        return INDEX_CODEC.fromJson(index);
+    }
+
+    /**
+     * Reads a range of a file, which fails when the file no longer matches the validator of its range source.
+     */
+    private InputStream getRange(String path, String validator, long offset, long length)
+            throws Exception
+    {
+        if (length == 0) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+        HttpURLConnection connection = connect("GET", path, "bytes=" + offset + "-" + (offset + length - 1));
+        connection.setRequestProperty("If-Range", validator);
+        int responseCode = checkResponse(connection, HttpURLConnection.HTTP_PARTIAL, HttpURLConnection.HTTP_OK);
+        if (responseCode == HttpURLConnection.HTTP_OK) {
+            // the server sends the whole file instead of the range once the file changed
+            connection.disconnect();
+            throw new IOException("File changed while it was read: " + connection.getURL());
+        }
+        return ByteStreams.limit(connection.getInputStream(), length);
+    }
+
+    private HttpURLConnection connect(String method, String path, String range)
+            throws Exception
+    {
+        URL url = new URI(scheme, null, host, port, base + path, null, null).toURL();
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(TIMEOUT);
+        connection.setReadTimeout(TIMEOUT);
+        if (authorization != null) {
+            connection.setRequestProperty("Authorization", authorization);
+        }
+        if (range != null) {
+            connection.setRequestProperty("Range", range);
+        }
+        return connection;
+    }
+
+    /**
+     * Returns the response code when it is one of the expected codes, otherwise reads the error response,
+     * so that the connection can be reused, and throws.
+     */
+    private static int checkResponse(HttpURLConnection connection, int... expectedCodes)
+            throws IOException
+    {
+        int responseCode = connection.getResponseCode();
+        for (int expectedCode : expectedCodes) {
+            if (responseCode == expectedCode) {
+                return responseCode;
+            }
+        }
+        InputStream errorStream = connection.getErrorStream();
+        if (errorStream != null) {
+            try (InputStream inputStream = errorStream) {
+                ByteStreams.exhaust(inputStream);
+            }
+        }
+        if (responseCode == HttpURLConnection.HTTP_NOT_FOUND) {
+            throw new FileNotFoundException(connection.getURL().toString());
+        }
+        throw new IOException("Unexpected response " + responseCode + " for " + connection.getRequestMethod() + " " + connection.getURL());
+    }
+
+    private class HttpRangeSource
+            implements RangeSource
+    {
+        private final String path;
+        private final long size;
+        // the entity tag or the modification time of the file, sent with every range request
+        private final String validator;
+
+        private HttpRangeSource(String path, long size, String validator)
+        {
+            this.path = path;
+            this.size = size;
+            this.validator = validator;
+        }
+
+        @Override
+        public long getSize()
+        {
+            return size;
+        }
+
+        @Override
+        public InputStream getInputStream(long offset, long length)
+                throws Exception
+        {
+            if (downloadParallelism > 1 && length > downloadChunkSize) {
+                // the readers share the connections kept alive by the JDK
+                return new ParallelRangeInputStream(
+                        () -> new HttpRangeReader(path, validator),
+                        "excel-http-download-%s",
+                        offset,
+                        length,
+                        downloadChunkSize,
+                        downloadParallelism);
+            }
+            return getRange(path, validator, offset, length);
+        }
+    }
+
+    private class HttpRangeReader
+            implements ParallelRangeInputStream.RangeReader
+    {
+        private final String path;
+        private final String validator;
+
+        private HttpRangeReader(String path, String validator)
+        {
+            this.path = path;
+            this.validator = validator;
+        }
+
+        @Override
+        public void read(long offset, byte[] buffer)
+                throws Exception
+        {
+            try (InputStream inputStream = getRange(path, validator, offset, buffer.length)) {
+                ByteStreams.readFully(inputStream, buffer);
+            }
+        }
+
+        @Override
+        public void close()
+        {
+        }
+    }
+
+    /**
+     * An entry of a directory index, e.g. {@code {"name": "a.xlsx", "type": "file", "mtime": "Mon, 19 Oct 2026 10:00:00 GMT", "size": 1024}}.
+     */
+    public static class IndexEntry
+    {
+        private final String name;
+        private final boolean directory;
+        private final long size;
+        private final long modifiedTime;
+
+        @JsonCreator
+        public IndexEntry(
+                @JsonProperty("name") String name,
+                @JsonProperty("type") String type,
+                @JsonProperty("mtime") String modifiedTime,
+                @JsonProperty("size") Long size)
+        {
+            this.name = name;
+            this.directory = "directory".equals(type);
+            this.size = size == null ? 0 : size;
+            this.modifiedTime = modifiedTime == null ? 0 : ZonedDateTime.parse(modifiedTime, RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public boolean isDirectory()
+        {
+            return directory;
+        }
+
+        public long getSize()
+        {
+            return size;
+        }
+
+        public long getModifiedTime()
+        {
+            return modifiedTime;
+        }
+    }
+}
@@ -14,18 +14,72 @@
 package org.ame.presto.excel.session;
 
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
 
 public interface ISession
 {
     InputStream getInputStream(String schemaName, String tableName)
             throws Exception;
 
+    InputStream getInputStream(String schemaName, String path, long offset)
+            throws Exception;
+
     List<String> getSchemas()
             throws Exception;
 
     List<String> getTables(String schemaName)
             throws Exception;
 
+    /**
+     * Returns the paths of the files backing a table, relative to the schema directory.
+     * A file table is backed by itself, a directory table by the Excel files inside the directory.
+     */
+    List<SessionFile> getFiles(String schemaName, String tableName)
+            throws Exception;
+
+    /**
+     * Passes the files backing a table to the consumer while the directory is being listed, in no particular order.
+     */
+    default void listFiles(String schemaName, String tableName, Consumer<SessionFile> consumer)
+            throws Exception
+    {
+        getFiles(schemaName, tableName).forEach(consumer);
+    }
+
+    /**
+     * Returns the file as a source of byte ranges, when the session reads ranges more cheaply than the whole file.
+     */
+    default Optional<RangeSource> getRangeSource(String schemaName, String path)
+            throws Exception
+    {
+        return Optional.empty();
+    }
+
+    /**
+     * Returns whether files cannot be written through the session. The methods that write then fail with NOT_SUPPORTED.
+     */
+    default boolean isReadOnly()
+    {
+        return false;
+    }
+
+    OutputStream getOutputStream(String schemaName, String path)
+            throws Exception;
+
+    void createDirectory(String schemaName, String path)
+            throws Exception;
+
+    void rename(String schemaName, String source, String target)
+            throws Exception;
+
+    /**
+     * Deletes a file, or a directory when it is empty.
+     */
+    void delete(String schemaName, String path)
+            throws Exception;
+
     void close();
 }
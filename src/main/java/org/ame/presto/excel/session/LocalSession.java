@@ -16,13 +16,22 @@ package org.ame.presto.excel.session;
 import com.google.common.collect.ImmutableList;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
-import static org.ame.presto.excel.FileTypeJudge.isExcelFile;
+import static java.util.Comparator.comparing;
+import static org.ame.presto.excel.FileTypeJudge.isHiddenFile;
+import static org.ame.presto.excel.FileTypeJudge.isSupportedFile;
 
 public class LocalSession
         implements ISession
@@ -55,6 +64,15 @@ public class LocalSession
         return new File(base + schemaName + "/" + tableName).toPath().toUri().toURL().openStream();
     }
 
+    @Override
+    public InputStream getInputStream(String schemaName, String path, long offset)
+            throws IOException
+    {
+        FileInputStream inputStream = new FileInputStream(getPath(schemaName, path).toFile());
+        inputStream.getChannel().position(offset);
+        return inputStream;
+    }
+
     @Override
     public List<String> getSchemas()
     {
@@ -72,13 +90,81 @@ public class LocalSession
     {
         List<String> tables = new ArrayList<>();
         for (File file : listFiles(new File(base).toPath().resolve(schemaName).toFile())) {
-            if (file.isFile() && isExcelFile(file.getName())) {
+            if (file.isFile() && isSupportedFile(file.getName())) {
+                tables.add(file.getName());
+            }
+            if (file.isDirectory() && !isHiddenFile(file.getName())) {
                 tables.add(file.getName());
             }
         }
         return tables;
     }
 
+    @Override
+    public List<SessionFile> getFiles(String schemaName, String tableName)
+            throws IOException
+    {
+        List<SessionFile> files = new ArrayList<>();
+        listFiles(schemaName, tableName, files::add);
+        files.sort(comparing(SessionFile::getPath));
+        return files;
+    }
+
+    @Override
+    public void listFiles(String schemaName, String tableName, Consumer<SessionFile> consumer)
+            throws IOException
+    {
+        File table = getPath(schemaName, tableName).toFile();
+        if (!table.exists()) {
+            throw new NoSuchFileException(table.getPath());
+        }
+        if (!table.isDirectory()) {
+            consumer.accept(new SessionFile(tableName, table.length(), table.lastModified()));
+            return;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(table.toPath())) {
+            for (Path path : stream) {
+                File file = path.toFile();
+                if (file.isFile() && !isHiddenFile(file.getName()) && isSupportedFile(file.getName())) {
+                    consumer.accept(new SessionFile(tableName + "/" + file.getName(), file.length(), file.lastModified()));
+                }
+            }
+        }
+    }
+
+    @Override
+    public OutputStream getOutputStream(String schemaName, String path)
+            throws IOException
+    {
+        return Files.newOutputStream(getPath(schemaName, path));
+    }
+
+    @Override
+    public void createDirectory(String schemaName, String path)
+            throws IOException
+    {
+        Files.createDirectories(getPath(schemaName, path));
+    }
+
+    @Override
+    public void rename(String schemaName, String source, String target)
+            throws IOException
+    {
+        Files.move(getPath(schemaName, source), getPath(schemaName, target));
+    }
+
+    @Override
+    public void delete(String schemaName, String path)
+            throws IOException
+    {
+        Files.deleteIfExists(getPath(schemaName, path));
+    }
+
+    private Path getPath(String schemaName, String path)
+    {
+        return new File(base).toPath().resolve(schemaName).resolve(path);
+    }
+
     @Override
     public void close()
     {
@@ -0,0 +1,211 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.excel.session;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Reads a range of a remote file as chunks of byte ranges, which several readers download at the same time, and returns them
+ * in order. The readers stay at most two chunks per reader ahead of the stream, which bounds the memory it holds.
+ */
+class ParallelRangeInputStream
+        extends InputStream
+{
+    private final RangeReaderFactory readerFactory;
+    private final long offset;
+    private final long length;
+    private final int chunkSize;
+    private final int chunkCount;
+    private final int window;
+    private final ExecutorService executor;
+    // downloaded chunks that the stream has not reached yet, guarded by this
+    private final Map<Integer, byte[]> chunks = new HashMap<>();
+    private int nextChunk;
+    private int readChunk;
+    private IOException failure;
+    private boolean closed;
+    private byte[] current = new byte[0];
+    private int position;
+
+    /**
+     * @param threadNameFormat the name format of the download threads, e.g. {@code excel-sftp-download-%s}
+     */
+    ParallelRangeInputStream(RangeReaderFactory readerFactory, String threadNameFormat, long offset, long length, int chunkSize, int parallelism)
+    {
+        this.readerFactory = requireNonNull(readerFactory, "readerFactory is null");
+        this.offset = offset;
+        this.length = length;
+        this.chunkSize = chunkSize;
+        this.chunkCount = (int) ((length + chunkSize - 1) / chunkSize);
+        int readers = Math.max(1, Math.min(parallelism, chunkCount));
+        this.window = readers * 2;
+        this.executor = Executors.newFixedThreadPool(
+                readers,
+                new ThreadFactoryBuilder().setNameFormat(threadNameFormat).setDaemon(true).build());
+        for (int i = 0; i < readers; i++) {
+            executor.execute(this::download);
+        }
+        executor.shutdown();
+    }
+
+    @Override
+    public int read()
+            throws IOException
+    {
+        if (!advance()) {
+            return -1;
+        }
+        return current[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length)
+            throws IOException
+    {
+        if (length == 0) {
+            return 0;
+        }
+        if (!advance()) {
+            return -1;
+        }
+        int read = Math.min(length, current.length - position);
+        System.arraycopy(current, position, buffer, offset, read);
+        position += read;
+        return read;
+    }
+
+    @Override
+    public int available()
+    {
+        return current.length - position;
+    }
+
+    @Override
+    public void close()
+    {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            chunks.clear();
+            notifyAll();
+        }
+        // interrupts readers blocked on the network
+        executor.shutdownNow();
+    }
+
+    /**
+     * Moves to the next chunk when the current one was read, waiting for its download.
+     * Returns false at the end of the file.
+     */
+    private boolean advance()
+            throws IOException
+    {
+        if (position < current.length) {
+            return true;
+        }
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("Stream is closed");
+            }
+            if (readChunk == chunkCount) {
+                return false;
+            }
+            while (!chunks.containsKey(readChunk)) {
+                if (failure != null) {
+                    throw new IOException("Failed to download a range of the file", failure);
+                }
+                try {
+                    wait();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for a range of the file");
+                }
+            }
+            current = chunks.remove(readChunk);
+            readChunk++;
+            // a reader may wait for the window to move
+            notifyAll();
+        }
+        position = 0;
+        return true;
+    }
+
+    private void download()
+    {
+        try (RangeReader reader = readerFactory.open()) {
+            while (true) {
+                int chunk;
+                synchronized (this) {
+                    while (!closed && failure == null && nextChunk < chunkCount && nextChunk >= readChunk + window) {
+                        wait();
+                    }
+                    if (closed || failure != null || nextChunk == chunkCount) {
+                        return;
+                    }
+                    chunk = nextChunk++;
+                }
+                long start = (long) chunk * chunkSize;
+                byte[] data = new byte[(int) Math.min(chunkSize, length - start)];
+                reader.read(offset + start, data);
+                synchronized (this) {
+                    if (!closed) {
+                        chunks.put(chunk, data);
+                        notifyAll();
+                    }
+                }
+            }
+        }
+        catch (Exception e) {
+            synchronized (this) {
+                if (failure == null && !closed) {
+                    failure = e instanceof IOException ? (IOException) e : new IOException(e);
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Opens a reader for one of the threads that download the file, e.g. over its own connection or channel.
+     */
+    interface RangeReaderFactory
+    {
+        RangeReader open()
+                throws Exception;
+    }
+
+    interface RangeReader
+            extends Closeable
+    {
+        /**
+         * Reads the bytes of the file at the offset into the whole buffer.
+         */
+        void read(long offset, byte[] buffer)
+                throws Exception;
+    }
+}
@@ -18,7 +18,18 @@ import java.util.Locale;
 public enum ProtocolType
 {
     SFTP,
-    FILE;
+    FILE,
+    HTTP,
+    HTTPS;
+
+    /**
+     * Returns whether files are read from an HTTP or HTTPS server with the protocol.
+     */
+    public static boolean isHttp(String protocol)
+    {
+        String name = protocol.toLowerCase(Locale.ENGLISH);
+        return HTTP.toString().equals(name) || HTTPS.toString().equals(name);
+    }
 
     @Override
     public String toString()
@@ -0,0 +1,28 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.excel.session;
+
+import java.io.InputStream;
+
+/**
+ * A file that can be read at any range without the bytes around it, so that a reader of a zip archive only fetches
+ * its central directory and the entries it opens. The source can be read until its session is closed.
+ */
+public interface RangeSource
+{
+    long getSize();
+
+    InputStream getInputStream(long offset, long length)
+            throws Exception;
+}
@@ -13,23 +13,32 @@
  */
 package org.ame.presto.excel.session;
 
+import com.google.common.io.ByteStreams;
 import com.jcraft.jsch.ChannelSftp;
 import com.jcraft.jsch.JSch;
 import com.jcraft.jsch.Session;
+import com.jcraft.jsch.SftpATTRS;
 
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
-import static org.ame.presto.excel.FileTypeJudge.isExcelFile;
+import static java.util.Comparator.comparing;
+import static org.ame.presto.excel.FileTypeJudge.isHiddenFile;
+import static org.ame.presto.excel.FileTypeJudge.isSupportedFile;
 
 public class SFTPSession
         implements ISession
 {
     private static final Integer TIMEOUT = 10000;
+    private static final int DEFAULT_DOWNLOAD_CHUNK_SIZE = 8 * 1024 * 1024;
     private final Session session;
     private final ChannelSftp channel;
+    private final int downloadParallelism;
+    private final int downloadChunkSize;
     private String base;
 
     public SFTPSession(Map<String, String> sessionInfo)
@@ -43,6 +52,10 @@ public class SFTPSession
         int port = Integer.parseInt(sessionInfo.get("port"));
         String username = sessionInfo.get("username");
         String password = sessionInfo.get("password");
+        String parallelism = sessionInfo.get("downloadParallelism");
+        String chunkSize = sessionInfo.get("downloadChunkSize");
+        this.downloadParallelism = parallelism == null ? 1 : Integer.parseInt(parallelism);
+        this.downloadChunkSize = chunkSize == null ? DEFAULT_DOWNLOAD_CHUNK_SIZE : Integer.parseInt(chunkSize);
         session = new JSch().getSession(username, host, port);
         session.setPassword(password);
         session.setConfig("StrictHostKeyChecking", "no");
@@ -55,7 +68,22 @@ public class SFTPSession
     public InputStream getInputStream(String schemaName, String tableName)
             throws Exception
     {
-        return channel.get(base + schemaName + "/" + tableName);
+        String path = base + schemaName + "/" + tableName;
+        if (downloadParallelism > 1) {
+            // one channel is limited by its window and round trips, a large file is read over several channels
+            long size = channel.stat(path).getSize();
+            if (size > downloadChunkSize) {
+                return new ParallelRangeInputStream(() -> new ChannelRangeReader(path), "excel-sftp-download-%s", 0, size, downloadChunkSize, downloadParallelism);
+            }
+        }
+        return channel.get(path);
+    }
+
+    @Override
+    public InputStream getInputStream(String schemaName, String path, long offset)
+            throws Exception
+    {
+        return channel.get(base + schemaName + "/" + path, null, offset);
     }
 
     @Override
@@ -79,13 +107,79 @@ public class SFTPSession
         List<String> tables = new ArrayList<>();
         List<ChannelSftp.LsEntry> entries = channel.ls(base + schemaName);
         for (ChannelSftp.LsEntry entry : entries) {
-            if (!entry.getAttrs().isDir() && isExcelFile(entry.getFilename())) {
+            if (!entry.getAttrs().isDir() && isSupportedFile(entry.getFilename())) {
+                tables.add(entry.getFilename());
+            }
+            if (entry.getAttrs().isDir() && !isHiddenFile(entry.getFilename())) {
                 tables.add(entry.getFilename());
             }
         }
         return tables;
     }
 
+    @Override
+    public List<SessionFile> getFiles(String schemaName, String tableName)
+            throws Exception
+    {
+        List<SessionFile> files = new ArrayList<>();
+        listFiles(schemaName, tableName, files::add);
+        files.sort(comparing(SessionFile::getPath));
+        return files;
+    }
+
+    @Override
+    public void listFiles(String schemaName, String tableName, Consumer<SessionFile> consumer)
+            throws Exception
+    {
+        String path = base + schemaName + "/" + tableName;
+        SftpATTRS attributes = channel.stat(path);
+        if (!attributes.isDir()) {
+            consumer.accept(new SessionFile(tableName, attributes.getSize(), attributes.getMTime() * 1000L));
+            return;
+        }
+        // the selector sees the entries as the server returns them, instead of after the whole listing
+        channel.ls(path, entry -> {
+            if (!entry.getAttrs().isDir() && !isHiddenFile(entry.getFilename()) && isSupportedFile(entry.getFilename())) {
+                consumer.accept(new SessionFile(tableName + "/" + entry.getFilename(), entry.getAttrs().getSize(), entry.getAttrs().getMTime() * 1000L));
+            }
+            return ChannelSftp.LsEntrySelector.CONTINUE;
+        });
+    }
+
+    @Override
+    public OutputStream getOutputStream(String schemaName, String path)
+            throws Exception
+    {
+        return channel.put(base + schemaName + "/" + path);
+    }
+
+    @Override
+    public void createDirectory(String schemaName, String path)
+            throws Exception
+    {
+        channel.mkdir(base + schemaName + "/" + path);
+    }
+
+    @Override
+    public void rename(String schemaName, String source, String target)
+            throws Exception
+    {
+        channel.rename(base + schemaName + "/" + source, base + schemaName + "/" + target);
+    }
+
+    @Override
+    public void delete(String schemaName, String path)
+            throws Exception
+    {
+        String fullPath = base + schemaName + "/" + path;
+        if (channel.stat(fullPath).isDir()) {
+            channel.rmdir(fullPath);
+        }
+        else {
+            channel.rm(fullPath);
+        }
+    }
+
     @Override
     public void close()
     {
@@ -96,4 +190,37 @@ public class SFTPSession
             session.disconnect();
         }
     }
+
+    /**
+     * Reads ranges of a file over a channel of its own, which is opened on the SSH session of this session.
+     */
+    private class ChannelRangeReader
+            implements ParallelRangeInputStream.RangeReader
+    {
+        private final String path;
+        private final ChannelSftp rangeChannel;
+
+        private ChannelRangeReader(String path)
+                throws Exception
+        {
+            this.path = path;
+            this.rangeChannel = (ChannelSftp) session.openChannel("sftp");
+            rangeChannel.connect(TIMEOUT);
+        }
+
+        @Override
+        public void read(long offset, byte[] buffer)
+                throws Exception
+        {
+            try (InputStream inputStream = rangeChannel.get(path, null, offset)) {
+                ByteStreams.readFully(inputStream, buffer);
+            }
+        }
+
+        @Override
+        public void close()
+        {
+            rangeChannel.disconnect();
+        }
+    }
 }
@@ -0,0 +1,62 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.excel.session;
+
+import static com.google.common.base.MoreObjects.toStringHelper;
+import static java.util.Objects.requireNonNull;
+
+public class SessionFile
+{
+    private final String path;
+    private final long size;
+    private final long modifiedTime;
+
+    public SessionFile(String path, long size, long modifiedTime)
+    {
+        this.path = requireNonNull(path, "path is null");
+        this.size = size;
+        this.modifiedTime = modifiedTime;
+    }
+
+    /**
+     * Returns the path of the file relative to its schema directory.
+     */
+    public String getPath()
+    {
+        return path;
+    }
+
+    public long getSize()
+    {
+        return size;
+    }
+
+    /**
+     * Returns the time of the last modification of the file, in milliseconds since the epoch.
+     */
+    public long getModifiedTime()
+    {
+        return modifiedTime;
+    }
+
+    @Override
+    public String toString()
+    {
+        return toStringHelper(this)
+                .add("path", path)
+                .add("size", size)
+                .add("modifiedTime", modifiedTime)
+                .toString();
+    }
+}
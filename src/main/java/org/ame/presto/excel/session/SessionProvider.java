@@ -33,6 +33,12 @@ public class SessionProvider
                 throw new RuntimeException(e);
             }
         }
+        if (ProtocolType.isHttp(sessionInfo.get("protocol"))) {
+            this.session = new HttpSession(sessionInfo);
+        }
+        if (session != null) {
+            this.session = new ArchiveSession(session);
+        }
     }
 
     public ISession getSession()
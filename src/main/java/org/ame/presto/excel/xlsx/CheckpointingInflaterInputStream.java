@@ -0,0 +1,558 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.excel.xlsx;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.zip.CRC32;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Inflates the raw deflate data of a worksheet part, and records a checkpoint at the first block boundary after
+ * every interval of inflated bytes: the bit offset of the block, the 32KB of output before it and the first row
+ * element after it. The inflater of the JDK does not report block boundaries, so the data is inflated here.
+ * The index is only available once the whole part has been read and its checksum matched.
+ */
+public class CheckpointingInflaterInputStream
+        extends InputStream
+{
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final int INPUT_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_MATCH = 258;
+    private static final int MAX_BITS = 15;
+    // codes up to this length are decoded with one table lookup
+    private static final int FAST_BITS = 10;
+    private static final int ROW = ('r' << 16) | ('o' << 8) | 'w';
+    private static final int PREFIXED_ROW = (':' << 24) | ROW;
+
+    private static final int NO_BLOCK = 0;
+    private static final int STORED_BLOCK = 1;
+    private static final int HUFFMAN_BLOCK = 2;
+
+    private static final int[] LENGTH_BASE = {
+            3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31, 35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258};
+    private static final int[] LENGTH_EXTRA = {
+            0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0};
+    private static final int[] DISTANCE_BASE = {
+            1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193, 257, 385, 513, 769,
+            1025, 1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577};
+    private static final int[] DISTANCE_EXTRA = {
+            0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6, 7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13};
+    private static final int[] CODE_LENGTH_ORDER = {16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15};
+    private static final Huffman FIXED_LITERALS = new Huffman(fixedLiteralLengths());
+    private static final Huffman FIXED_DISTANCES = new Huffman(fixedDistanceLengths());
+
+    private final InputStream input;
+    private final long expectedCrc;
+    private final long compressedSize;
+    private final long interval;
+    private final CRC32 crc = new CRC32();
+
+    private final byte[] inputBuffer = new byte[INPUT_BUFFER_SIZE];
+    private int inputPosition;
+    private int inputLimit;
+    private long inputBytes;
+    private long bitBuffer;
+    private int bitCount;
+    private int paddingBytes;
+
+    // the output keeps at least the last 32KB that were read, the window of the next matches
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private long bufferOffset;
+    private int position;
+    private int limit;
+
+    private int blockType = NO_BLOCK;
+    private boolean lastBlock;
+    private int storedRemaining;
+    private Huffman literals;
+    private Huffman distances;
+    private boolean finished;
+    private boolean complete;
+
+    // row scanner state, kept across chunks of output
+    private boolean inTagName;
+    private int nameLength;
+    private int nameTail;
+    private long tagOffset;
+    private long rowCount;
+
+    private byte[] prefix = new byte[1024];
+    private int prefixLength;
+    private final List<DeflateCheckpointIndex.Checkpoint> checkpoints = new ArrayList<>();
+    private PendingCheckpoint pendingCheckpoint;
+    private long lastCheckpointOffset;
+    private long lastStoredBlockBitOffset = -1;
+
+    /**
+     * @param input the raw deflate data of the part
+     * @param expectedCrc the CRC-32 of the inflated part, from the zip entry
+     * @param compressedSize the size of the raw deflate data
+     * @param interval the number of inflated bytes between checkpoints
+     */
+    public CheckpointingInflaterInputStream(InputStream input, long expectedCrc, long compressedSize, long interval)
+    {
+        this.input = requireNonNull(input, "input is null");
+        this.expectedCrc = expectedCrc;
+        this.compressedSize = compressedSize;
+        this.interval = interval;
+    }
+
+    @Override
+    public int read()
+            throws IOException
+    {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length)
+            throws IOException
+    {
+        if (length == 0) {
+            return 0;
+        }
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        int read = Math.min(length, limit - position);
+        System.arraycopy(buffer, position, bytes, offset, read);
+        position += read;
+        return read;
+    }
+
+    @Override
+    public void close()
+            throws IOException
+    {
+        input.close();
+    }
+
+    /**
+     * Returns the checkpoints of the part, when it has been read to the end.
+     */
+    public Optional<DeflateCheckpointIndex> getIndex(long fileSize, long modifiedTime)
+    {
+        if (!complete) {
+            return Optional.empty();
+        }
+        List<DeflateCheckpointIndex.Checkpoint> usable = new ArrayList<>();
+        for (DeflateCheckpointIndex.Checkpoint checkpoint : checkpoints) {
+            // the inflater restarts an unaligned block on a shifted copy of the data, which misplaces stored blocks
+            if (checkpoint.getBitOffset() % 8 == 0 || checkpoint.getBitOffset() > lastStoredBlockBitOffset) {
+                usable.add(checkpoint);
+            }
+        }
+        return Optional.of(new DeflateCheckpointIndex(
+                fileSize,
+                modifiedTime,
+                expectedCrc,
+                compressedSize,
+                Math.max(rowCount - 1, 0),
+                Arrays.copyOf(prefix, prefixLength),
+                usable));
+    }
+
+    private boolean fill()
+            throws IOException
+    {
+        while (position == limit) {
+            if (finished) {
+                return false;
+            }
+            if (limit > BUFFER_SIZE / 2) {
+                int keep = Math.min(limit, DeflateCheckpointIndex.WINDOW_SIZE);
+                System.arraycopy(buffer, limit - keep, buffer, 0, keep);
+                bufferOffset += limit - keep;
+                position = keep;
+                limit = keep;
+            }
+            int start = limit;
+            inflate();
+            crc.update(buffer, start, limit - start);
+            scanRows(start, limit);
+            if (finished) {
+                if (crc.getValue() != expectedCrc) {
+                    throw new IOException("Checksum mismatch of the inflated worksheet");
+                }
+                complete = true;
+            }
+        }
+        return true;
+    }
+
+    private void inflate()
+            throws IOException
+    {
+        while (limit < BUFFER_SIZE - MAX_MATCH) {
+            if (blockType == NO_BLOCK) {
+                if (lastBlock) {
+                    finished = true;
+                    return;
+                }
+                startBlock();
+            }
+            else if (blockType == STORED_BLOCK) {
+                int length = Math.min(storedRemaining, BUFFER_SIZE - limit);
+                for (int i = 0; i < length; i++) {
+                    buffer[limit++] = (byte) bits(8);
+                }
+                storedRemaining -= length;
+                if (storedRemaining == 0) {
+                    blockType = NO_BLOCK;
+                }
+            }
+            else {
+                int symbol = decode(literals);
+                if (symbol < 256) {
+                    buffer[limit++] = (byte) symbol;
+                }
+                else if (symbol == 256) {
+                    blockType = NO_BLOCK;
+                }
+                else {
+                    copyMatch(symbol - 257);
+                }
+            }
+        }
+    }
+
+    private void startBlock()
+            throws IOException
+    {
+        long bitOffset = inputBytes * 8 - bitCount;
+        long outputOffset = bufferOffset + limit;
+        // a checkpoint needs the document prefix before the first row, and the rows after it
+        if (rowCount > 0 && pendingCheckpoint == null && outputOffset - lastCheckpointOffset >= interval) {
+            int windowLength = (int) Math.min(outputOffset, DeflateCheckpointIndex.WINDOW_SIZE);
+            pendingCheckpoint = new PendingCheckpoint(bitOffset, outputOffset, Arrays.copyOfRange(buffer, limit - windowLength, limit));
+            lastCheckpointOffset = outputOffset;
+        }
+        lastBlock = bits(1) == 1;
+        int type = bits(2);
+        if (type == 0) {
+            lastStoredBlockBitOffset = bitOffset;
+            // stored data starts at the next byte
+            bits(bitCount % 8);
+            int length = bits(16);
+            int complement = bits(16);
+            if (length != (~complement & 0xFFFF)) {
+                throw new IOException("Invalid stored block length");
+            }
+            storedRemaining = length;
+            blockType = length == 0 ? NO_BLOCK : STORED_BLOCK;
+        }
+        else if (type == 1) {
+            literals = FIXED_LITERALS;
+            distances = FIXED_DISTANCES;
+            blockType = HUFFMAN_BLOCK;
+        }
+        else if (type == 2) {
+            readDynamicTables();
+            blockType = HUFFMAN_BLOCK;
+        }
+        else {
+            throw new IOException("Invalid deflate block type");
+        }
+    }
+
+    private void readDynamicTables()
+            throws IOException
+    {
+        int literalCount = bits(5) + 257;
+        int distanceCount = bits(5) + 1;
+        int codeLengthCount = bits(4) + 4;
+        int[] codeLengthLengths = new int[CODE_LENGTH_ORDER.length];
+        for (int i = 0; i < codeLengthCount; i++) {
+            codeLengthLengths[CODE_LENGTH_ORDER[i]] = bits(3);
+        }
+        Huffman codeLengths = new Huffman(codeLengthLengths);
+
+        int[] lengths = new int[literalCount + distanceCount];
+        int index = 0;
+        while (index < lengths.length) {
+            int symbol = decode(codeLengths);
+            if (symbol < 16) {
+                lengths[index++] = symbol;
+                continue;
+            }
+            int value = 0;
+            int repeat;
+            if (symbol == 16) {
+                if (index == 0) {
+                    throw new IOException("Invalid code length repeat");
+                }
+                value = lengths[index - 1];
+                repeat = 3 + bits(2);
+            }
+            else if (symbol == 17) {
+                repeat = 3 + bits(3);
+            }
+            else {
+                repeat = 11 + bits(7);
+            }
+            if (index + repeat > lengths.length) {
+                throw new IOException("Invalid code lengths");
+            }
+            Arrays.fill(lengths, index, index + repeat, value);
+            index += repeat;
+        }
+        literals = new Huffman(Arrays.copyOfRange(lengths, 0, literalCount));
+        distances = new Huffman(Arrays.copyOfRange(lengths, literalCount, lengths.length));
+    }
+
+    private void copyMatch(int lengthCode)
+            throws IOException
+    {
+        if (lengthCode >= LENGTH_BASE.length) {
+            throw new IOException("Invalid length code");
+        }
+        int length = LENGTH_BASE[lengthCode] + bits(LENGTH_EXTRA[lengthCode]);
+        int distanceCode = decode(distances);
+        if (distanceCode >= DISTANCE_BASE.length) {
+            throw new IOException("Invalid distance code");
+        }
+        int distance = DISTANCE_BASE[distanceCode] + bits(DISTANCE_EXTRA[distanceCode]);
+        int source = limit - distance;
+        if (source < 0) {
+            throw new IOException("Invalid distance");
+        }
+        if (distance >= length) {
+            System.arraycopy(buffer, source, buffer, limit, length);
+            limit += length;
+        }
+        else {
+            // the match overlaps the bytes it writes
+            for (int i = 0; i < length; i++) {
+                buffer[limit++] = buffer[source + i];
+            }
+        }
+    }
+
+    private int decode(Huffman huffman)
+            throws IOException
+    {
+        ensureBits(MAX_BITS);
+        int entry = huffman.table[(int) bitBuffer & ((1 << FAST_BITS) - 1)];
+        if (entry != 0) {
+            dropBits(entry & 0xF);
+            return entry >>> 4;
+        }
+        // canonical decoding, one bit at a time
+        int code = 0;
+        int first = 0;
+        int index = 0;
+        for (int length = 1; length <= MAX_BITS; length++) {
+            code |= (int) (bitBuffer >>> (length - 1)) & 1;
+            int count = huffman.counts[length];
+            if (code - count < first) {
+                dropBits(length);
+                return huffman.symbols[index + code - first];
+            }
+            index += count;
+            first = (first + count) << 1;
+            code <<= 1;
+        }
+        throw new IOException("Invalid Huffman code");
+    }
+
+    private int bits(int count)
+            throws IOException
+    {
+        if (count == 0) {
+            return 0;
+        }
+        ensureBits(count);
+        int value = (int) bitBuffer & ((1 << count) - 1);
+        dropBits(count);
+        return value;
+    }
+
+    private void dropBits(int count)
+    {
+        bitBuffer >>>= count;
+        bitCount -= count;
+    }
+
+    private void ensureBits(int count)
+            throws IOException
+    {
+        while (bitCount < count) {
+            if (inputPosition == inputLimit) {
+                inputLimit = Math.max(input.read(inputBuffer), 0);
+                inputPosition = 0;
+                if (inputLimit == 0) {
+                    // codes are looked up with more bits than the last ones have, those are zeros
+                    if (++paddingBytes > 2) {
+                        throw new EOFException("Unexpected end of deflate data");
+                    }
+                    bitCount += 8;
+                    inputBytes++;
+                    continue;
+                }
+            }
+            bitBuffer |= (long) (inputBuffer[inputPosition++] & 0xFF) << bitCount;
+            bitCount += 8;
+            inputBytes++;
+        }
+    }
+
+    private void scanRows(int start, int end)
+    {
+        if (rowCount == 0) {
+            appendPrefix(start, end);
+        }
+        for (int i = start; i < end; i++) {
+            byte b = buffer[i];
+            if (!inTagName) {
+                if (b == '<') {
+                    inTagName = true;
+                    nameLength = 0;
+                    nameTail = 0;
+                    tagOffset = bufferOffset + i;
+                }
+                continue;
+            }
+            if (b == ' ' || b == '>' || b == '/' || b == '\t' || b == '\r' || b == '\n') {
+                inTagName = false;
+                if ((nameLength == 3 && nameTail == ROW) || (nameLength > 3 && nameTail == PREFIXED_ROW)) {
+                    foundRow();
+                }
+                continue;
+            }
+            nameLength++;
+            nameTail = (nameTail << 8) | (b & 0xFF);
+        }
+    }
+
+    private void foundRow()
+    {
+        if (rowCount == 0) {
+            // the prefix is collected from the start of the part, up to the first row
+            prefixLength = (int) tagOffset;
+        }
+        else if (pendingCheckpoint != null && tagOffset >= pendingCheckpoint.outputOffset) {
+            checkpoints.add(pendingCheckpoint.toCheckpoint(tagOffset, rowCount));
+            pendingCheckpoint = null;
+        }
+        rowCount++;
+    }
+
+    private void appendPrefix(int start, int end)
+    {
+        int length = end - start;
+        if (length <= 0) {
+            return;
+        }
+        if (prefixLength + length > prefix.length) {
+            prefix = Arrays.copyOf(prefix, Math.max(prefix.length * 2, prefixLength + length));
+        }
+        System.arraycopy(buffer, start, prefix, prefixLength, length);
+        prefixLength += length;
+    }
+
+    private static int[] fixedLiteralLengths()
+    {
+        int[] lengths = new int[288];
+        Arrays.fill(lengths, 0, 144, 8);
+        Arrays.fill(lengths, 144, 256, 9);
+        Arrays.fill(lengths, 256, 280, 7);
+        Arrays.fill(lengths, 280, 288, 8);
+        return lengths;
+    }
+
+    private static int[] fixedDistanceLengths()
+    {
+        int[] lengths = new int[30];
+        Arrays.fill(lengths, 5);
+        return lengths;
+    }
+
+    private static class PendingCheckpoint
+    {
+        private final long bitOffset;
+        private final long outputOffset;
+        private final byte[] window;
+
+        PendingCheckpoint(long bitOffset, long outputOffset, byte[] window)
+        {
+            this.bitOffset = bitOffset;
+            this.outputOffset = outputOffset;
+            this.window = window;
+        }
+
+        DeflateCheckpointIndex.Checkpoint toCheckpoint(long rowOffset, long rowNumber)
+        {
+            return new DeflateCheckpointIndex.Checkpoint(bitOffset, outputOffset, rowOffset, rowNumber, window);
+        }
+    }
+
+    /**
+     * A canonical Huffman code, with a lookup table of (symbol << 4) | length by the next bits of the input.
+     */
+    private static class Huffman
+    {
+        private final int[] counts = new int[MAX_BITS + 1];
+        private final int[] symbols;
+        private final int[] table = new int[1 << FAST_BITS];
+
+        Huffman(int[] lengths)
+        {
+            symbols = new int[lengths.length];
+            for (int length : lengths) {
+                counts[length]++;
+            }
+            counts[0] = 0;
+            int[] offsets = new int[MAX_BITS + 2];
+            for (int length = 1; length <= MAX_BITS; length++) {
+                offsets[length + 1] = offsets[length] + counts[length];
+            }
+            for (int symbol = 0; symbol < lengths.length; symbol++) {
+                if (lengths[symbol] != 0) {
+                    symbols[offsets[lengths[symbol]]++] = symbol;
+                }
+            }
+
+            int code = 0;
+            int[] nextCode = new int[MAX_BITS + 1];
+            for (int length = 1; length <= MAX_BITS; length++) {
+                code = (code + counts[length - 1]) << 1;
+                nextCode[length] = code;
+            }
+            for (int symbol = 0; symbol < lengths.length; symbol++) {
+                int length = lengths[symbol];
+                if (length == 0 || length > FAST_BITS) {
+                    if (length != 0) {
+                        nextCode[length]++;
+                    }
+                    continue;
+                }
+                // codes are packed starting with their most significant bit
+                int reversed = Integer.reverse(nextCode[length]++) >>> (32 - length);
+                for (int index = reversed; index < table.length; index += 1 << length) {
+                    table[index] = (symbol << 4) | length;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,381 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.excel.xlsx;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Points into the compressed worksheet part of an xlsx file, so that a reader can start inflating it at a row
+ * instead of at the start of the part. A checkpoint holds the bit offset of a deflate block, the 32KB of output
+ * before the block that its matches refer to, and the first row element after it. The index is kept in a hidden
+ * file next to the workbook, and is only used for the same file size, modification time and worksheet checksum.
+ */
+public class DeflateCheckpointIndex
+{
+    static final int WINDOW_SIZE = 32 * 1024;
+    private static final int MAGIC = 0x58434B50;
+    private static final int VERSION = 1;
+
+    private final long fileSize;
+    private final long modifiedTime;
+    private final long crc;
+    private final long compressedSize;
+    private final long rowCount;
+    // the document up to the first row element, which declares the namespaces of the rows
+    private final byte[] prefix;
+    private final List<Checkpoint> checkpoints;
+
+    public DeflateCheckpointIndex(long fileSize, long modifiedTime, long crc, long compressedSize, long rowCount, byte[] prefix, List<Checkpoint> checkpoints)
+    {
+        this.fileSize = fileSize;
+        this.modifiedTime = modifiedTime;
+        this.crc = crc;
+        this.compressedSize = compressedSize;
+        this.rowCount = rowCount;
+        this.prefix = requireNonNull(prefix, "prefix is null");
+        this.checkpoints = ImmutableList.copyOf(requireNonNull(checkpoints, "checkpoints is null"));
+    }
+
+    public boolean matches(long fileSize, long modifiedTime)
+    {
+        return this.fileSize == fileSize && this.modifiedTime == modifiedTime;
+    }
+
+    public boolean matches(long fileSize, long modifiedTime, long crc, long compressedSize)
+    {
+        return matches(fileSize, modifiedTime) && this.crc == crc && this.compressedSize == compressedSize;
+    }
+
+    /**
+     * Returns the number of rows of the sheet, not counting the header.
+     */
+    public long getRowCount()
+    {
+        return rowCount;
+    }
+
+    public List<Checkpoint> getCheckpoints()
+    {
+        return checkpoints;
+    }
+
+    /**
+     * Returns the last checkpoint at or before the row, or null when the row is before the first checkpoint.
+     */
+    public Checkpoint findCheckpoint(long rowNumber)
+    {
+        Checkpoint found = null;
+        for (Checkpoint checkpoint : checkpoints) {
+            if (checkpoint.getRowNumber() > rowNumber) {
+                break;
+            }
+            found = checkpoint;
+        }
+        return found;
+    }
+
+    /**
+     * Opens the worksheet at the row of the checkpoint. The stream starts with the document prefix,
+     * so that it parses like the whole part, with the rows before the checkpoint left out.
+     *
+     * @param dataOffset the offset of the compressed worksheet in the zip file
+     */
+    public InputStream openSheet(File file, long dataOffset, Checkpoint checkpoint, int bufferSize)
+            throws IOException
+    {
+        checkArgument(checkpoints.contains(checkpoint), "checkpoint is not part of the index");
+        InputStream input = new FileInputStream(file);
+        try {
+            ByteStreams.skipFully(input, dataOffset + checkpoint.getBitOffset() / 8);
+            // the inflater may need a byte past the end of the data, which is still part of the zip file
+            input = ByteStreams.limit(new BufferedInputStream(input, bufferSize), compressedSize - checkpoint.getBitOffset() / 8 + 1);
+            int shift = (int) (checkpoint.getBitOffset() % 8);
+            if (shift != 0) {
+                input = new ShiftedInputStream(input, shift);
+            }
+            Inflater inflater = new Inflater(true);
+            inflater.setDictionary(checkpoint.getWindow());
+            InputStream inflated = new InflaterInputStream(input, inflater, bufferSize)
+            {
+                @Override
+                public void close()
+                        throws IOException
+                {
+                    try {
+                        super.close();
+                    }
+                    finally {
+                        inflater.end();
+                    }
+                }
+            };
+            ByteStreams.skipFully(inflated, checkpoint.getRowOffset() - checkpoint.getOutputOffset());
+            return new SequenceInputStream(new ByteArrayInputStream(prefix), inflated);
+        }
+        catch (IOException | RuntimeException e) {
+            input.close();
+            throw e;
+        }
+    }
+
+    public void write(OutputStream outputStream)
+            throws IOException
+    {
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(outputStream));
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeLong(fileSize);
+        output.writeLong(modifiedTime);
+        output.writeLong(crc);
+        output.writeLong(compressedSize);
+        output.writeLong(rowCount);
+        output.writeInt(checkpoints.size());
+        for (Checkpoint checkpoint : checkpoints) {
+            output.writeLong(checkpoint.getBitOffset());
+            output.writeLong(checkpoint.getOutputOffset());
+            output.writeLong(checkpoint.getRowOffset());
+            output.writeLong(checkpoint.getRowNumber());
+        }
+        // the prefix and the windows follow compressed, so that planning splits reads only the positions
+        Deflater deflater = new Deflater();
+        try {
+            DeflaterOutputStream compressed = new DeflaterOutputStream(output, deflater);
+            DataOutputStream data = new DataOutputStream(compressed);
+            data.writeInt(prefix.length);
+            data.write(prefix);
+            for (Checkpoint checkpoint : checkpoints) {
+                data.writeInt(checkpoint.getWindow().length);
+                data.write(checkpoint.getWindow());
+            }
+            compressed.finish();
+            output.flush();
+        }
+        finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Reads an index written by {@link #write}. Without the windows, the checkpoints only tell the row numbers,
+     * which is what planning splits needs, and the sheet cannot be opened at them.
+     */
+    public static DeflateCheckpointIndex read(InputStream inputStream, boolean readWindows)
+            throws IOException
+    {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(inputStream));
+        if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+            throw new IOException("Not a checkpoint index");
+        }
+        long fileSize = input.readLong();
+        long modifiedTime = input.readLong();
+        long crc = input.readLong();
+        long compressedSize = input.readLong();
+        long rowCount = input.readLong();
+        int count = input.readInt();
+        long[] positions = new long[count * 4];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = input.readLong();
+        }
+        byte[] prefix = new byte[0];
+        byte[][] windows = new byte[count][];
+        if (readWindows) {
+            Inflater inflater = new Inflater();
+            try {
+                DataInputStream data = new DataInputStream(new InflaterInputStream(input, inflater));
+                prefix = readBytes(data);
+                for (int i = 0; i < count; i++) {
+                    windows[i] = readBytes(data);
+                }
+            }
+            finally {
+                inflater.end();
+            }
+        }
+        ImmutableList.Builder<Checkpoint> checkpoints = ImmutableList.builder();
+        for (int i = 0; i < count; i++) {
+            checkpoints.add(new Checkpoint(positions[i * 4], positions[i * 4 + 1], positions[i * 4 + 2], positions[i * 4 + 3], windows[i] == null ? new byte[0] : windows[i]));
+        }
+        return new DeflateCheckpointIndex(fileSize, modifiedTime, crc, compressedSize, rowCount, prefix, checkpoints.build());
+    }
+
+    private static byte[] readBytes(DataInputStream input)
+            throws IOException
+    {
+        int length = input.readInt();
+        if (length < 0 || length > Integer.MAX_VALUE / 2) {
+            throw new IOException("Invalid checkpoint index");
+        }
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return bytes;
+    }
+
+    public static class Checkpoint
+    {
+        private final long bitOffset;
+        private final long outputOffset;
+        private final long rowOffset;
+        private final long rowNumber;
+        private final byte[] window;
+
+        public Checkpoint(long bitOffset, long outputOffset, long rowOffset, long rowNumber, byte[] window)
+        {
+            this.bitOffset = bitOffset;
+            this.outputOffset = outputOffset;
+            this.rowOffset = rowOffset;
+            this.rowNumber = rowNumber;
+            this.window = requireNonNull(window, "window is null");
+        }
+
+        /**
+         * Returns the offset of the deflate block in the compressed part, in bits.
+         */
+        public long getBitOffset()
+        {
+            return bitOffset;
+        }
+
+        /**
+         * Returns the offset in the inflated part where the block starts.
+         */
+        public long getOutputOffset()
+        {
+            return outputOffset;
+        }
+
+        /**
+         * Returns the offset in the inflated part of the first row element after the start of the block.
+         */
+        public long getRowOffset()
+        {
+            return rowOffset;
+        }
+
+        /**
+         * Returns the number of that row, counted like {@code $row_number}: the header row is 0.
+         */
+        public long getRowNumber()
+        {
+            return rowNumber;
+        }
+
+        public byte[] getWindow()
+        {
+            return window;
+        }
+    }
+
+    /**
+     * Shifts a stream by a number of bits, so that a deflate block that starts inside a byte starts at a byte.
+     * Deflate packs its bits starting with the least significant bit of each byte.
+     */
+    private static class ShiftedInputStream
+            extends FilterInputStream
+    {
+        private static final int SKIP_BUFFER_SIZE = 8192;
+
+        private final int shift;
+        private int next = -1;
+
+        ShiftedInputStream(InputStream input, int shift)
+        {
+            super(input);
+            this.shift = shift;
+        }
+
+        @Override
+        public int read()
+                throws IOException
+        {
+            byte[] bytes = new byte[1];
+            return read(bytes, 0, 1) < 0 ? -1 : bytes[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length)
+                throws IOException
+        {
+            if (length == 0) {
+                return 0;
+            }
+            if (next < 0) {
+                next = in.read();
+                if (next < 0) {
+                    return -1;
+                }
+            }
+            // every shifted byte needs the byte after it, which is read ahead
+            int read = in.read(bytes, offset, length);
+            if (read <= 0) {
+                bytes[offset] = (byte) (next >>> shift);
+                next = -1;
+                return 1;
+            }
+            for (int i = offset; i < offset + read; i++) {
+                int current = next;
+                next = bytes[i] & 0xFF;
+                bytes[i] = (byte) ((current >>> shift) | (next << (8 - shift)));
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long count)
+                throws IOException
+        {
+            // every byte depends on the one after it, so skipped bytes are shifted like read ones
+            if (count <= 0) {
+                return 0;
+            }
+            byte[] buffer = new byte[(int) Math.min(count, SKIP_BUFFER_SIZE)];
+            long skipped = 0;
+            while (skipped < count) {
+                int read = read(buffer, 0, (int) Math.min(buffer.length, count - skipped));
+                if (read < 0) {
+                    break;
+                }
+                skipped += read;
+            }
+            return skipped;
+        }
+
+        @Override
+        public int available()
+        {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.excel.xlsx;
+
+import org.ame.presto.excel.session.RangeSource;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Fetches the parts of a zip archive from a range source into a sparse local copy of the archive, at their offsets,
+ * so that the copy can be read as a zip file once the parts it reads were fetched. Parts are fetched concurrently,
+ * e.g. the shared strings and the sheet, and a part that is being fetched is waited for instead of fetched again.
+ */
+final class RemoteParts
+        implements Closeable
+{
+    private final RangeSource source;
+    private final RandomAccessFile output;
+    // the local header offset of each part, and the offset after its data
+    private final Map<String, long[]> extents;
+    private final int bufferSize;
+    // the fetches of the parts that were fetched or are being fetched, guarded by this
+    private final Map<String, CompletableFuture<Void>> fetches = new HashMap<>();
+    private long bytesRead;
+
+    RemoteParts(RangeSource source, File file, Map<String, long[]> extents, int bufferSize)
+            throws IOException
+    {
+        this.source = requireNonNull(source, "source is null");
+        this.extents = requireNonNull(extents, "extents is null");
+        this.bufferSize = Math.max(bufferSize, 64 * 1024);
+        this.output = new RandomAccessFile(file, "rw");
+        try {
+            output.setLength(source.getSize());
+        }
+        catch (IOException e) {
+            output.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes bytes already fetched from the source, e.g. the central directory.
+     */
+    synchronized void write(long offset, byte[] bytes, int length)
+            throws IOException
+    {
+        output.seek(offset);
+        output.write(bytes, 0, length);
+        bytesRead += length;
+    }
+
+    /**
+     * Fetches the part unless it was fetched before, or waits for the fetch of another thread.
+     * Names that are not in the archive are ignored.
+     */
+    void fetch(String name)
+            throws IOException
+    {
+        long[] extent = extents.get(name);
+        if (extent == null) {
+            return;
+        }
+        CompletableFuture<Void> fetch;
+        boolean owner = false;
+        synchronized (this) {
+            fetch = fetches.get(name);
+            if (fetch == null) {
+                fetch = new CompletableFuture<>();
+                fetches.put(name, fetch);
+                owner = true;
+            }
+        }
+        if (!owner) {
+            await(name, fetch);
+            return;
+        }
+        try {
+            download(name, extent[0], extent[1] - extent[0]);
+            fetch.complete(null);
+        }
+        catch (Exception e) {
+            // a failed part is fetched again by the next reader
+            synchronized (this) {
+                fetches.remove(name);
+            }
+            fetch.completeExceptionally(e);
+            if (e instanceof IOException) {
+                throw (IOException) e;
+            }
+            if (e instanceof RuntimeException) {
+                throw (RuntimeException) e;
+            }
+            throw new IOException("Failed to fetch workbook part " + name, e);
+        }
+    }
+
+    synchronized long getBytesRead()
+    {
+        return bytesRead;
+    }
+
+    @Override
+    public synchronized void close()
+            throws IOException
+    {
+        output.close();
+    }
+
+    private void download(String name, long offset, long length)
+            throws Exception
+    {
+        byte[] buffer = new byte[bufferSize];
+        try (InputStream inputStream = source.getInputStream(offset, length)) {
+            long position = offset;
+            long remaining = length;
+            while (remaining > 0) {
+                int read = inputStream.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    throw new EOFException("Workbook part " + name + " ended early");
+                }
+                write(position, buffer, read);
+                position += read;
+                remaining -= read;
+            }
+        }
+    }
+
+    private static void await(String name, CompletableFuture<Void> fetch)
+            throws IOException
+    {
+        try {
+            fetch.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for workbook part " + name);
+        }
+        catch (ExecutionException e) {
+            throw new IOException("Failed to fetch workbook part " + name, e.getCause());
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.excel.xlsx;
+
+import com.facebook.presto.common.block.Block;
+import com.facebook.presto.common.block.VariableWidthBlock;
+import io.airlift.slice.Slice;
+import io.airlift.slice.Slices;
+
+import java.util.Arrays;
+import java.util.Optional;
+
+import static com.facebook.presto.common.type.VarcharType.VARCHAR;
+import static io.airlift.slice.SizeOf.sizeOf;
+
+/**
+ * The shared strings of a workbook, UTF-8 encoded into one buffer. The table can be filled by one thread while
+ * others read it: a string can be read as soon as it was added, and a reader of a string that was not added yet
+ * waits for it. When the table is finished, a null entry follows the last string, so that blank cells can refer to it.
+ */
+final class SharedStringTable
+{
+    // waiting readers are woken up after every batch of strings
+    private static final int NOTIFY_INTERVAL = 1024;
+
+    // replaced when they grow, and only appended to otherwise; the count publishes what was appended
+    private volatile byte[] bytes = new byte[4096];
+    private volatile int[] offsets = new int[1025];
+    private volatile boolean[] nulls = new boolean[1024];
+    private volatile int count;
+    private volatile long retainedSizeInBytes;
+    private volatile Block block;
+    private volatile RuntimeException failure;
+    private int size;
+
+    /**
+     * Adds the next string, or null for an empty one. Only called by the thread that fills the table.
+     */
+    void add(Slice value)
+    {
+        int index = count;
+        int length = value == null ? 0 : value.length();
+        if (size + length > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + length));
+        }
+        if (index == nulls.length) {
+            offsets = Arrays.copyOf(offsets, index * 2 + 1);
+            nulls = Arrays.copyOf(nulls, index * 2);
+        }
+        if (value != null) {
+            value.getBytes(0, bytes, size, length);
+        }
+        size += length;
+        nulls[index] = value == null;
+        offsets[index + 1] = size;
+        count = index + 1;
+        if (count % NOTIFY_INTERVAL == 0) {
+            retainedSizeInBytes = sizeOf(bytes) + sizeOf(offsets) + sizeOf(nulls);
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Adds the null entry after the last string, and wakes up the waiting readers.
+     */
+    void finish()
+    {
+        add(null);
+        Block finished = new VariableWidthBlock(count, Slices.wrappedBuffer(bytes, 0, size), offsets, Optional.of(nulls));
+        retainedSizeInBytes = finished.getRetainedSizeInBytes();
+        synchronized (this) {
+            block = finished;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Records why the table could not be filled, which readers of the missing strings get.
+     */
+    void fail(RuntimeException failure)
+    {
+        synchronized (this) {
+            this.failure = failure;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Returns the number of strings added so far, without waiting.
+     */
+    int getAddedCount()
+    {
+        return count;
+    }
+
+    boolean isFinished()
+    {
+        return block != null;
+    }
+
+    long getRetainedSizeInBytes()
+    {
+        return retainedSizeInBytes;
+    }
+
+    /**
+     * Returns the number of shared strings, after waiting for the table to be finished.
+     */
+    int getCount()
+    {
+        return getBlock().getPositionCount() - 1;
+    }
+
+    /**
+     * Returns the table as a varchar block, after waiting for it to be finished.
+     */
+    Block getBlock()
+    {
+        await(Integer.MAX_VALUE);
+        return block;
+    }
+
+    /**
+     * Returns the string, or null for an empty string or the entry after the last string. Waits for the string
+     * when it was not added yet.
+     */
+    Slice get(int index)
+    {
+        Block finished = block;
+        if (finished == null && index >= count) {
+            await(index + 1);
+            finished = block;
+        }
+        if (finished != null) {
+            return finished.isNull(index) ? null : VARCHAR.getSlice(finished, index);
+        }
+        // the count was read before the buffers, which hold at least that many strings
+        boolean[] nulls = this.nulls;
+        if (nulls[index]) {
+            return null;
+        }
+        int[] offsets = this.offsets;
+        return Slices.wrappedBuffer(bytes, offsets[index], offsets[index + 1] - offsets[index]);
+    }
+
+    private void await(int count)
+    {
+        if (block != null) {
+            return;
+        }
+        synchronized (this) {
+            while (this.count < count && block == null) {
+                if (failure != null) {
+                    throw failure;
+                }
+                try {
+                    wait();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while waiting for the shared strings", e);
+                }
+            }
+        }
+    }
+}
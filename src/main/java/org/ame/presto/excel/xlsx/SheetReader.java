@@ -0,0 +1,72 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.excel.xlsx;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Reads the rows of a worksheet as raw cells. Cells of columns that are not projected are skipped.
+ */
+public interface SheetReader
+        extends Closeable
+{
+    byte BLANK = 0;
+    byte NUMBER = 1;
+    byte SHARED_STRING = 2;
+    byte STRING = 3;
+    byte BOOLEAN = 4;
+    byte ERROR = 5;
+
+    /**
+     * Advances to the next row of the sheet. Returns false at the end of the sheet data.
+     */
+    boolean nextRow()
+            throws IOException;
+
+    /**
+     * Advances past the next row of the sheet without reading its cells. Returns false at the end of the sheet data.
+     */
+    boolean skipRow()
+            throws IOException;
+
+    int getCellCount();
+
+    int getColumn(int cell);
+
+    byte getType(int cell);
+
+    int getStyle(int cell);
+
+    /**
+     * Returns the raw value of the cell: the text of a number or string, the index of a shared string, or 0/1 for a boolean.
+     */
+    String getValue(int cell);
+
+    /**
+     * Returns the value of a number cell.
+     */
+    default double getNumber(int cell)
+    {
+        return Double.parseDouble(getValue(cell));
+    }
+
+    /**
+     * Returns the index of a shared string cell in the shared string table.
+     */
+    default int getSharedStringIndex(int cell)
+    {
+        return Integer.parseInt(getValue(cell));
+    }
+}
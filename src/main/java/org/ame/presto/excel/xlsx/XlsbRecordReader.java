@@ -0,0 +1,142 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.excel.xlsx;
+
+import io.airlift.slice.Slice;
+import io.airlift.slice.Slices;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_16LE;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Reads the records of a binary (BIFF12) workbook part. Record types and sizes are stored
+ * as variable length integers of seven bits per byte, followed by the little endian record data.
+ */
+final class XlsbRecordReader
+        implements Closeable
+{
+    private final InputStream inputStream;
+    private byte[] data = new byte[256];
+    private Slice slice = Slices.wrappedBuffer(data);
+    private int type;
+    private int length;
+
+    XlsbRecordReader(InputStream inputStream)
+    {
+        // records are read a few bytes at a time
+        this.inputStream = new BufferedInputStream(requireNonNull(inputStream, "inputStream is null"), 64 * 1024);
+    }
+
+    /**
+     * Reads the next record. Returns false at the end of the part.
+     */
+    boolean next()
+            throws IOException
+    {
+        int first = inputStream.read();
+        if (first < 0) {
+            return false;
+        }
+        type = first & 0x7F;
+        if ((first & 0x80) != 0) {
+            type |= (readByte() & 0x7F) << 7;
+        }
+        length = 0;
+        for (int shift = 0; shift < 28; shift += 7) {
+            int b = readByte();
+            length |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        if (length > data.length) {
+            data = new byte[Math.max(length, data.length * 2)];
+            slice = Slices.wrappedBuffer(data);
+        }
+        int offset = 0;
+        while (offset < length) {
+            int read = inputStream.read(data, offset, length - offset);
+            if (read < 0) {
+                throw new EOFException("Truncated record " + type);
+            }
+            offset += read;
+        }
+        return true;
+    }
+
+    int getType()
+    {
+        return type;
+    }
+
+    int getLength()
+    {
+        return length;
+    }
+
+    byte getByte(int offset)
+    {
+        return data[offset];
+    }
+
+    int getShort(int offset)
+    {
+        return slice.getShort(offset) & 0xFFFF;
+    }
+
+    int getInt(int offset)
+    {
+        return slice.getInt(offset);
+    }
+
+    double getDouble(int offset)
+    {
+        return slice.getDouble(offset);
+    }
+
+    /**
+     * Returns the string at the offset, stored as a character count and UTF-16 characters, or null for a null string.
+     */
+    String getWideString(int offset)
+    {
+        int count = getInt(offset);
+        if (count == -1) {
+            return null;
+        }
+        return new String(data, offset + 4, count * 2, UTF_16LE);
+    }
+
+    @Override
+    public void close()
+            throws IOException
+    {
+        inputStream.close();
+    }
+
+    private int readByte()
+            throws IOException
+    {
+        int b = inputStream.read();
+        if (b < 0) {
+            throw new EOFException("Truncated record header");
+        }
+        return b;
+    }
+}
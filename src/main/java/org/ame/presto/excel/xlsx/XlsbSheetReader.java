@@ -0,0 +1,229 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.excel.xlsx;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Reads the rows of a binary (xlsb) worksheet part as raw cells. The cell records carry their
+ * values in binary form, so no XML is parsed; numbers are returned as text like in xlsx files.
+ */
+public class XlsbSheetReader
+        implements SheetReader
+{
+    private static final int ROW_HEADER = 0;
+    private static final int CELL_BLANK = 1;
+    private static final int CELL_RK = 2;
+    private static final int CELL_ERROR = 3;
+    private static final int CELL_BOOLEAN = 4;
+    private static final int CELL_REAL = 5;
+    private static final int CELL_STRING = 6;
+    private static final int CELL_SHARED_STRING = 7;
+    private static final int FORMULA_STRING = 8;
+    private static final int FORMULA_NUMBER = 9;
+    private static final int FORMULA_BOOLEAN = 10;
+    private static final int FORMULA_ERROR = 11;
+    private static final int END_SHEET_DATA = 146;
+
+    private final XlsbRecordReader reader;
+    private final boolean[] projected;
+    // the row header of the next row was already read with the last cell of the current row
+    private boolean rowPending;
+    private boolean finished;
+
+    // cells of the current row
+    private int cellCount;
+    private int[] columns = new int[16];
+    private byte[] types = new byte[16];
+    private int[] styles = new int[16];
+    private String[] values = new String[16];
+
+    public XlsbSheetReader(InputStream inputStream, boolean[] projected)
+    {
+        this.reader = new XlsbRecordReader(inputStream);
+        this.projected = requireNonNull(projected, "projected is null");
+    }
+
+    @Override
+    public boolean nextRow()
+            throws IOException
+    {
+        return advance(true);
+    }
+
+    @Override
+    public boolean skipRow()
+            throws IOException
+    {
+        return advance(false);
+    }
+
+    @Override
+    public int getCellCount()
+    {
+        return cellCount;
+    }
+
+    @Override
+    public int getColumn(int cell)
+    {
+        return columns[cell];
+    }
+
+    @Override
+    public byte getType(int cell)
+    {
+        return types[cell];
+    }
+
+    @Override
+    public int getStyle(int cell)
+    {
+        return styles[cell];
+    }
+
+    @Override
+    public String getValue(int cell)
+    {
+        return values[cell];
+    }
+
+    @Override
+    public void close()
+            throws IOException
+    {
+        reader.close();
+    }
+
+    private boolean advance(boolean readCells)
+            throws IOException
+    {
+        cellCount = 0;
+        if (!rowPending && !skipToRow()) {
+            return false;
+        }
+        rowPending = false;
+        while (reader.next()) {
+            int type = reader.getType();
+            if (type == ROW_HEADER) {
+                rowPending = true;
+                return true;
+            }
+            if (type == END_SHEET_DATA) {
+                finished = true;
+                return true;
+            }
+            if (readCells && type <= FORMULA_ERROR) {
+                readCell(type);
+            }
+        }
+        finished = true;
+        return true;
+    }
+
+    private boolean skipToRow()
+            throws IOException
+    {
+        while (!finished && reader.next()) {
+            if (reader.getType() == ROW_HEADER) {
+                return true;
+            }
+            if (reader.getType() == END_SHEET_DATA) {
+                break;
+            }
+        }
+        finished = true;
+        return false;
+    }
+
+    private void readCell(int recordType)
+    {
+        // every cell record starts with the column and the style index in the lower 24 bits
+        int column = reader.getInt(0);
+        if (column < 0 || column >= projected.length || !projected[column]) {
+            return;
+        }
+        int style = reader.getInt(4) & 0xFFFFFF;
+        byte type;
+        String value;
+        switch (recordType) {
+            case CELL_RK:
+                type = NUMBER;
+                value = decodeRk(reader.getInt(8));
+                break;
+            case CELL_REAL:
+            case FORMULA_NUMBER:
+                type = NUMBER;
+                value = Double.toString(reader.getDouble(8));
+                break;
+            case CELL_STRING:
+            case FORMULA_STRING:
+                type = STRING;
+                value = reader.getWideString(8);
+                break;
+            case CELL_SHARED_STRING:
+                type = SHARED_STRING;
+                value = Integer.toString(reader.getInt(8));
+                break;
+            case CELL_BOOLEAN:
+            case FORMULA_BOOLEAN:
+                type = BOOLEAN;
+                value = reader.getByte(8) == 0 ? "0" : "1";
+                break;
+            case CELL_ERROR:
+            case FORMULA_ERROR:
+                type = ERROR;
+                value = "";
+                break;
+            case CELL_BLANK:
+            default:
+                // blank cells only carry a style
+                type = BLANK;
+                value = null;
+        }
+        if (cellCount == columns.length) {
+            int capacity = cellCount * 2;
+            columns = Arrays.copyOf(columns, capacity);
+            types = Arrays.copyOf(types, capacity);
+            styles = Arrays.copyOf(styles, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        columns[cellCount] = column;
+        types[cellCount] = value == null ? BLANK : type;
+        styles[cellCount] = style;
+        values[cellCount] = value;
+        cellCount++;
+    }
+
+    /**
+     * Decodes a compressed number: either a 30 bit integer or the upper 30 bits of a double, optionally divided by 100.
+     */
+    private static String decodeRk(int rk)
+    {
+        boolean divide = (rk & 0x01) != 0;
+        if ((rk & 0x02) != 0) {
+            int value = rk >> 2;
+            if (!divide) {
+                return Integer.toString(value);
+            }
+            return Double.toString(value / 100.0);
+        }
+        double value = Double.longBitsToDouble(((long) (rk & 0xFFFFFFFC)) << 32);
+        return Double.toString(divide ? value / 100 : value);
+    }
+}
@@ -0,0 +1,940 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.excel.xlsx;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Locale;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Reads the rows of a worksheet part like {@link XlsxSheetReader}, but scans the UTF-8 bytes of the part for the
+ * elements of the sheet data instead of parsing it into XML events. Cell references are decoded to column indexes,
+ * and numbers and shared string indexes are decoded from the bytes, so that only the values of string, boolean
+ * and error cells become Strings. Parts in other encodings are read by the StAX reader, see {@link #isUtf8}.
+ */
+public class XlsxByteSheetReader
+        implements SheetReader
+{
+    // enough for a byte order mark and an XML declaration
+    public static final int HEAD_SIZE = 256;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int EOF = -1;
+    private static final int START_TAG = 1;
+    private static final int END_TAG = 2;
+    private static final byte[] ROW = bytes("row");
+    private static final byte[] CELL = bytes("c");
+    private static final byte[] VALUE = bytes("v");
+    private static final byte[] INLINE_STRING = bytes("is");
+    private static final byte[] TEXT = bytes("t");
+    private static final byte[] PHONETIC_RUN = bytes("rPh");
+    // mantissas up to 2^53 and powers of ten up to 10^22 are exact doubles, so their product or quotient is rounded once
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    private final InputStream inputStream;
+    private final boolean[] projected;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private int limit;
+
+    // local name of the last tag
+    private byte[] name = new byte[16];
+    private int nameLength;
+    // value of the last attribute
+    private byte[] attribute = new byte[16];
+    private int attributeLength;
+    // text of the last value element
+    private byte[] text = new byte[64];
+    private int textLength;
+
+    // cells of the current row
+    private int cellCount;
+    private int[] columns = new int[16];
+    private byte[] types = new byte[16];
+    private int[] styles = new int[16];
+    private double[] numbers = new double[16];
+    private int[] indexes = new int[16];
+    private String[] values = new String[16];
+    // the texts of number and shared string cells, which are only decoded on request
+    private byte[] rowText = new byte[256];
+    private int rowTextLength;
+    private int[] textOffsets = new int[16];
+    private int[] textLengths = new int[16];
+
+    public XlsxByteSheetReader(InputStream inputStream, boolean[] projected)
+    {
+        this.inputStream = requireNonNull(inputStream, "inputStream is null");
+        this.projected = requireNonNull(projected, "projected is null");
+    }
+
+    /**
+     * Returns whether a part that starts with these bytes is encoded in UTF-8, or in ASCII. SpreadsheetML parts are
+     * UTF-8 unless they start with a UTF-16 byte order mark or declare another encoding.
+     */
+    public static boolean isUtf8(byte[] head, int length)
+    {
+        if (length >= 2 && (head[0] == 0 || head[1] == 0 || (head[0] & 0xFF) >= 0xFE)) {
+            return false;
+        }
+        String declaration = new String(head, 0, length, ISO_8859_1);
+        if (declaration.startsWith("\u00EF\u00BB\u00BF")) {
+            declaration = declaration.substring(3);
+        }
+        if (!declaration.startsWith("<?xml")) {
+            return true;
+        }
+        int end = declaration.indexOf("?>");
+        int encoding = declaration.indexOf("encoding");
+        if (end < 0 || encoding < 0 || encoding > end) {
+            return end >= 0;
+        }
+        String value = declaration.substring(encoding + "encoding".length(), end).replaceAll("[\\s=\"']+", " ").trim();
+        value = value.split(" ")[0].toLowerCase(Locale.ENGLISH);
+        return value.equals("utf-8") || value.equals("utf8") || value.equals("us-ascii") || value.equals("ascii");
+    }
+
+    @Override
+    public boolean nextRow()
+            throws IOException
+    {
+        cellCount = 0;
+        rowTextLength = 0;
+        while (true) {
+            int tag = nextTag();
+            if (tag == EOF) {
+                return false;
+            }
+            // attribute values cannot hold a '<', so the attributes of other tags are passed over by the next scan
+            if (tag == START_TAG && isName(ROW)) {
+                if (!skipAttributes()) {
+                    readRow();
+                }
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public boolean skipRow()
+            throws IOException
+    {
+        cellCount = 0;
+        rowTextLength = 0;
+        while (true) {
+            int tag = nextTag();
+            if (tag == EOF) {
+                return false;
+            }
+            if (tag == START_TAG && isName(ROW)) {
+                if (!skipAttributes()) {
+                    skipToEndTag(ROW);
+                }
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public int getCellCount()
+    {
+        return cellCount;
+    }
+
+    @Override
+    public int getColumn(int cell)
+    {
+        return columns[cell];
+    }
+
+    @Override
+    public byte getType(int cell)
+    {
+        return types[cell];
+    }
+
+    @Override
+    public int getStyle(int cell)
+    {
+        return styles[cell];
+    }
+
+    @Override
+    public String getValue(int cell)
+    {
+        if (values[cell] == null && (types[cell] == NUMBER || types[cell] == SHARED_STRING)) {
+            values[cell] = new String(rowText, textOffsets[cell], textLengths[cell], UTF_8);
+        }
+        return values[cell];
+    }
+
+    @Override
+    public double getNumber(int cell)
+    {
+        return numbers[cell];
+    }
+
+    @Override
+    public int getSharedStringIndex(int cell)
+    {
+        return indexes[cell];
+    }
+
+    @Override
+    public void close()
+            throws IOException
+    {
+        inputStream.close();
+    }
+
+    private void readRow()
+            throws IOException
+    {
+        int nextColumn = 0;
+        while (true) {
+            int tag = nextTag();
+            if (tag == EOF) {
+                throw new IOException("Unexpected end of sheet in a row");
+            }
+            if (tag == END_TAG) {
+                if (isName(ROW)) {
+                    return;
+                }
+                continue;
+            }
+            if (!isName(CELL)) {
+                continue;
+            }
+            int column = -1;
+            byte type = NUMBER;
+            int style = 0;
+            boolean empty;
+            // the reference, type and style attributes of the cell
+            while (true) {
+                int b = nextNonWhitespace();
+                if (b == '>' || b == '/') {
+                    empty = b == '/';
+                    if (empty) {
+                        expect('>');
+                    }
+                    break;
+                }
+                int attributeName = readAttribute(b);
+                if (attributeName == 'r') {
+                    column = getColumnIndex();
+                }
+                else if (attributeName == 't') {
+                    type = getCellType();
+                }
+                else if (attributeName == 's') {
+                    style = parseInt(attribute, attributeLength);
+                }
+            }
+            if (column < 0) {
+                column = nextColumn;
+            }
+            nextColumn = column + 1;
+            if (column < projected.length && projected[column]) {
+                readCell(column, type, style, empty);
+            }
+            else if (!empty) {
+                skipToEndTag(CELL);
+            }
+        }
+    }
+
+    private void readCell(int column, byte type, int style, boolean empty)
+            throws IOException
+    {
+        boolean hasValue = false;
+        while (!empty) {
+            int tag = nextTag();
+            if (tag == EOF) {
+                throw new IOException("Unexpected end of sheet in a cell");
+            }
+            if (tag == END_TAG) {
+                if (isName(CELL)) {
+                    break;
+                }
+                continue;
+            }
+            if (isName(VALUE)) {
+                textLength = 0;
+                if (!skipAttributes()) {
+                    readText();
+                }
+                hasValue = true;
+            }
+            else if (isName(INLINE_STRING)) {
+                textLength = 0;
+                if (!skipAttributes()) {
+                    readRichText();
+                }
+                hasValue = true;
+            }
+            else if (!skipAttributes()) {
+                // formulas are not evaluated, the cached result is in the value element
+                skipElement();
+            }
+        }
+        if (cellCount == columns.length) {
+            int capacity = cellCount * 2;
+            columns = Arrays.copyOf(columns, capacity);
+            types = Arrays.copyOf(types, capacity);
+            styles = Arrays.copyOf(styles, capacity);
+            numbers = Arrays.copyOf(numbers, capacity);
+            indexes = Arrays.copyOf(indexes, capacity);
+            values = Arrays.copyOf(values, capacity);
+            textOffsets = Arrays.copyOf(textOffsets, capacity);
+            textLengths = Arrays.copyOf(textLengths, capacity);
+        }
+        columns[cellCount] = column;
+        styles[cellCount] = style;
+        values[cellCount] = null;
+        if (!hasValue || (textLength == 0 && (type == NUMBER || type == SHARED_STRING))) {
+            types[cellCount] = BLANK;
+        }
+        else if (type == NUMBER || type == SHARED_STRING) {
+            types[cellCount] = type;
+            if (type == NUMBER) {
+                numbers[cellCount] = parseDouble(text, textLength);
+            }
+            else {
+                indexes[cellCount] = parseInt(text, textLength);
+            }
+            if (rowTextLength + textLength > rowText.length) {
+                rowText = Arrays.copyOf(rowText, Math.max(rowText.length * 2, rowTextLength + textLength));
+            }
+            System.arraycopy(text, 0, rowText, rowTextLength, textLength);
+            textOffsets[cellCount] = rowTextLength;
+            textLengths[cellCount] = textLength;
+            rowTextLength += textLength;
+        }
+        else {
+            types[cellCount] = type;
+            values[cellCount] = type == BOOLEAN && textLength == 1 && (text[0] == '0' || text[0] == '1')
+                    ? (text[0] == '1' ? "1" : "0")
+                    : new String(text, 0, textLength, UTF_8);
+        }
+        cellCount++;
+    }
+
+    /**
+     * Appends the text runs of an inline string to the text, leaving out phonetic runs.
+     */
+    private void readRichText()
+            throws IOException
+    {
+        while (true) {
+            int tag = nextTag();
+            if (tag == EOF) {
+                throw new IOException("Unexpected end of sheet in an inline string");
+            }
+            if (tag == END_TAG) {
+                if (isName(INLINE_STRING)) {
+                    return;
+                }
+                continue;
+            }
+            if (isName(TEXT)) {
+                if (!skipAttributes()) {
+                    readText();
+                }
+            }
+            else if (isName(PHONETIC_RUN) && !skipAttributes()) {
+                skipElement();
+            }
+        }
+    }
+
+    /**
+     * Appends the text of the element up to its end tag to the text, with the entities and line breaks
+     * resolved like an XML parser does.
+     */
+    private void readText()
+            throws IOException
+    {
+        while (true) {
+            if (position == limit && !fill()) {
+                throw new IOException("Unexpected end of sheet in a text");
+            }
+            byte b = buffer[position++];
+            if (b == '<') {
+                int next = read();
+                if (next == '/') {
+                    skipPast('>');
+                    return;
+                }
+                if (next == '!') {
+                    readMarkupDeclaration(true);
+                }
+                else if (next == '?') {
+                    skipPast('?', '>');
+                }
+                else {
+                    // an element inside the text is not part of the value
+                    readName(next);
+                    if (!skipAttributes()) {
+                        skipElement();
+                    }
+                }
+            }
+            else if (b == '&') {
+                readReference();
+            }
+            else if (b == '\r') {
+                appendText((byte) '\n');
+                if (peek() == '\n') {
+                    position++;
+                }
+            }
+            else {
+                appendText(b);
+            }
+        }
+    }
+
+    /**
+     * Scans to the next tag and reads its local name. The attributes of a start tag are left to the caller,
+     * an end tag is read to its end. Comments, processing instructions and CDATA sections between tags are skipped.
+     */
+    private int nextTag()
+            throws IOException
+    {
+        while (true) {
+            if (!skipTo((byte) '<')) {
+                return EOF;
+            }
+            int b = read();
+            if (b == '/') {
+                readName(read());
+                skipPast('>');
+                return END_TAG;
+            }
+            if (b == '?') {
+                skipPast('?', '>');
+            }
+            else if (b == '!') {
+                readMarkupDeclaration(false);
+            }
+            else if (b == EOF) {
+                return EOF;
+            }
+            else {
+                readName(b);
+                return START_TAG;
+            }
+        }
+    }
+
+    /**
+     * Reads a tag name that starts with the byte, keeping only its local part.
+     */
+    private void readName(int first)
+            throws IOException
+    {
+        nameLength = 0;
+        int b = first;
+        while (b != EOF && b != '>' && b != '/' && !isWhitespace(b)) {
+            if (b == ':') {
+                nameLength = 0;
+            }
+            else {
+                if (nameLength == name.length) {
+                    name = Arrays.copyOf(name, nameLength * 2);
+                }
+                name[nameLength++] = (byte) b;
+            }
+            b = peek();
+            if (b != EOF && b != '>' && b != '/' && !isWhitespace(b)) {
+                position++;
+            }
+            else {
+                return;
+            }
+        }
+    }
+
+    private boolean isName(byte[] expected)
+    {
+        if (nameLength != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < nameLength; i++) {
+            if (name[i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads an attribute whose name starts with the byte into the attribute value. Returns the name when it is
+     * a single character without a prefix, or 0.
+     */
+    private int readAttribute(int first)
+            throws IOException
+    {
+        int length = 1;
+        int b = read();
+        while (b != '=' && !isWhitespace(b)) {
+            if (b == EOF || b == '>') {
+                throw new IOException("Malformed attribute in sheet");
+            }
+            length++;
+            b = read();
+        }
+        if (b != '=' && nextNonWhitespace() != '=') {
+            throw new IOException("Malformed attribute in sheet");
+        }
+        int quote = nextNonWhitespace();
+        if (quote != '"' && quote != '\'') {
+            throw new IOException("Malformed attribute in sheet");
+        }
+        attributeLength = 0;
+        for (b = read(); b != quote; b = read()) {
+            if (b == EOF) {
+                throw new IOException("Unexpected end of sheet in an attribute");
+            }
+            if (attributeLength == attribute.length) {
+                attribute = Arrays.copyOf(attribute, attributeLength * 2);
+            }
+            attribute[attributeLength++] = (byte) b;
+        }
+        return length == 1 ? first : 0;
+    }
+
+    /**
+     * Reads the attributes of the current start tag to its end. Returns whether the element is empty.
+     */
+    private boolean skipAttributes()
+            throws IOException
+    {
+        while (true) {
+            int b = read();
+            switch (b) {
+                case '>':
+                    return false;
+                case '/':
+                    expect('>');
+                    return true;
+                case '"':
+                case '\'':
+                    skipPast((byte) b);
+                    break;
+                case EOF:
+                    throw new IOException("Unexpected end of sheet in a tag");
+                default:
+            }
+        }
+    }
+
+    /**
+     * Skips the content of the current element, whose start tag was read.
+     */
+    private void skipElement()
+            throws IOException
+    {
+        int depth = 1;
+        while (depth > 0) {
+            int tag = nextTag();
+            if (tag == EOF) {
+                throw new IOException("Unexpected end of sheet in an element");
+            }
+            if (tag == END_TAG) {
+                depth--;
+            }
+            else if (!skipAttributes()) {
+                depth++;
+            }
+        }
+    }
+
+    private void skipToEndTag(byte[] expected)
+            throws IOException
+    {
+        while (true) {
+            int tag = nextTag();
+            if (tag == EOF) {
+                throw new IOException("Unexpected end of sheet in an element");
+            }
+            if (tag == END_TAG && isName(expected)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reads the markup after {@code <!}: a comment, a CDATA section, whose content is appended to the text
+     * when it is part of a text, or a document type declaration.
+     */
+    private void readMarkupDeclaration(boolean inText)
+            throws IOException
+    {
+        int b = read();
+        if (b == '-') {
+            expect('-');
+            skipPast('-', '-', '>');
+        }
+        else if (b == '[') {
+            for (char c : "CDATA[".toCharArray()) {
+                expect(c);
+            }
+            int matched = 0;
+            while (matched < 3) {
+                b = read();
+                if (b == EOF) {
+                    throw new IOException("Unexpected end of sheet in a CDATA section");
+                }
+                if (b == ']') {
+                    // a third bracket is content, the last two may still end the section
+                    if (matched == 2 && inText) {
+                        appendText((byte) ']');
+                    }
+                    matched = Math.min(matched + 1, 2);
+                    continue;
+                }
+                if (b == '>' && matched == 2) {
+                    matched = 3;
+                    continue;
+                }
+                if (inText) {
+                    for (int i = 0; i < matched; i++) {
+                        appendText((byte) ']');
+                    }
+                    appendText((byte) b);
+                }
+                matched = 0;
+            }
+        }
+        else {
+            skipPast('>');
+        }
+    }
+
+    /**
+     * Appends the character of an entity or character reference after its {@code &} to the text.
+     */
+    private void readReference()
+            throws IOException
+    {
+        StringBuilder reference = new StringBuilder();
+        for (int b = read(); b != ';'; b = read()) {
+            if (b == EOF || reference.length() > 10) {
+                throw new IOException("Malformed reference in sheet");
+            }
+            reference.append((char) b);
+        }
+        String value = reference.toString();
+        int codePoint;
+        switch (value) {
+            case "amp":
+                codePoint = '&';
+                break;
+            case "lt":
+                codePoint = '<';
+                break;
+            case "gt":
+                codePoint = '>';
+                break;
+            case "quot":
+                codePoint = '"';
+                break;
+            case "apos":
+                codePoint = '\'';
+                break;
+            default:
+                try {
+                    if (value.startsWith("#x")) {
+                        codePoint = Integer.parseInt(value.substring(2), 16);
+                    }
+                    else if (value.startsWith("#")) {
+                        codePoint = Integer.parseInt(value.substring(1));
+                    }
+                    else {
+                        throw new IOException("Undeclared entity in sheet: " + value);
+                    }
+                }
+                catch (NumberFormatException e) {
+                    throw new IOException("Malformed reference in sheet: " + value, e);
+                }
+                if (!Character.isValidCodePoint(codePoint)) {
+                    throw new IOException("Malformed reference in sheet: " + value);
+                }
+        }
+        if (codePoint < 0x80) {
+            appendText((byte) codePoint);
+        }
+        else {
+            for (byte b : new String(Character.toChars(codePoint)).getBytes(UTF_8)) {
+                appendText(b);
+            }
+        }
+    }
+
+    private void appendText(byte b)
+    {
+        if (textLength == text.length) {
+            text = Arrays.copyOf(text, textLength * 2);
+        }
+        text[textLength++] = b;
+    }
+
+    private int getColumnIndex()
+    {
+        int column = 0;
+        for (int i = 0; i < attributeLength; i++) {
+            byte c = attribute[i];
+            if (c < 'A' || c > 'Z') {
+                break;
+            }
+            column = column * 26 + (c - 'A' + 1);
+        }
+        return column - 1;
+    }
+
+    private byte getCellType()
+    {
+        if (attributeLength == 1) {
+            switch (attribute[0]) {
+                case 'n':
+                    return NUMBER;
+                case 's':
+                    return SHARED_STRING;
+                case 'b':
+                    return BOOLEAN;
+                case 'e':
+                    return ERROR;
+                default:
+            }
+        }
+        // str, inlineStr and ISO 8601 dates are read as text
+        return STRING;
+    }
+
+    /**
+     * Parses a decimal number. Numbers whose digits and exponent give an exact double are computed with a single
+     * rounding, which is the result of {@link Double#parseDouble}; other numbers are left to it.
+     */
+    static double parseDouble(byte[] bytes, int length)
+    {
+        int i = 0;
+        boolean negative = false;
+        if (i < length && (bytes[i] == '-' || bytes[i] == '+')) {
+            negative = bytes[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int exponent = 0;
+        boolean digits = false;
+        boolean exact = true;
+        boolean fraction = false;
+        for (; i < length; i++) {
+            byte b = bytes[i];
+            if (b >= '0' && b <= '9') {
+                digits = true;
+                if (mantissa > (MAX_EXACT_MANTISSA - 9) / 10) {
+                    exact = false;
+                    break;
+                }
+                mantissa = mantissa * 10 + (b - '0');
+                if (fraction) {
+                    exponent--;
+                }
+            }
+            else if (b == '.' && !fraction) {
+                fraction = true;
+            }
+            else {
+                break;
+            }
+        }
+        if (exact && i < length && (bytes[i] == 'e' || bytes[i] == 'E') && digits) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < length && (bytes[i] == '-' || bytes[i] == '+')) {
+                negativeExponent = bytes[i] == '-';
+                i++;
+            }
+            int value = 0;
+            int start = i;
+            for (; i < length && bytes[i] >= '0' && bytes[i] <= '9' && value < 1000; i++) {
+                value = value * 10 + (bytes[i] - '0');
+            }
+            exact = i > start;
+            exponent += negativeExponent ? -value : value;
+        }
+        if (!exact || !digits || i != length || exponent < -22 || exponent > 22) {
+            return Double.parseDouble(new String(bytes, 0, length, UTF_8));
+        }
+        double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses a non-negative decimal integer, leaving other texts to {@link Integer#parseInt}.
+     */
+    static int parseInt(byte[] bytes, int length)
+    {
+        long value = 0;
+        for (int i = 0; i < length; i++) {
+            byte b = bytes[i];
+            if (b < '0' || b > '9' || value > Integer.MAX_VALUE / 10) {
+                return Integer.parseInt(new String(bytes, 0, length, UTF_8));
+            }
+            value = value * 10 + (b - '0');
+        }
+        if (length == 0 || value > Integer.MAX_VALUE) {
+            return Integer.parseInt(new String(bytes, 0, length, UTF_8));
+        }
+        return (int) value;
+    }
+
+    /**
+     * Moves past the next occurrence of the byte. Returns false at the end of the part.
+     */
+    private boolean skipTo(byte target)
+            throws IOException
+    {
+        while (true) {
+            for (int i = position; i < limit; i++) {
+                if (buffer[i] == target) {
+                    position = i + 1;
+                    return true;
+                }
+            }
+            position = limit;
+            if (!fill()) {
+                return false;
+            }
+        }
+    }
+
+    private void skipPast(byte target)
+            throws IOException
+    {
+        if (!skipTo(target)) {
+            throw new IOException("Unexpected end of sheet");
+        }
+    }
+
+    /**
+     * Moves past the next occurrence of the characters, which end with the only occurrence of the last one.
+     */
+    private void skipPast(char... terminator)
+            throws IOException
+    {
+        byte last = (byte) terminator[terminator.length - 1];
+        while (true) {
+            skipPast(last);
+            if (endsWith(terminator)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns whether the bytes before the position, in this buffer or the lookback kept by {@link #fill}, are the characters.
+     */
+    private boolean endsWith(char[] characters)
+    {
+        if (position < characters.length) {
+            return false;
+        }
+        for (int i = 0; i < characters.length; i++) {
+            if (buffer[position - characters.length + i] != characters[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void expect(char expected)
+            throws IOException
+    {
+        if (read() != expected) {
+            throw new IOException("Malformed sheet, expected " + expected);
+        }
+    }
+
+    private int nextNonWhitespace()
+            throws IOException
+    {
+        int b = read();
+        while (isWhitespace(b)) {
+            b = read();
+        }
+        if (b == EOF) {
+            throw new IOException("Unexpected end of sheet in a tag");
+        }
+        return b;
+    }
+
+    private int read()
+            throws IOException
+    {
+        if (position == limit && !fill()) {
+            return EOF;
+        }
+        return buffer[position++] & 0xFF;
+    }
+
+    private int peek()
+            throws IOException
+    {
+        if (position == limit && !fill()) {
+            return EOF;
+        }
+        return buffer[position] & 0xFF;
+    }
+
+    /**
+     * Reads the next bytes of the part into the buffer, after the last few bytes of the buffer, so that the end
+     * of a terminator that spans two reads can still be matched.
+     */
+    private boolean fill()
+            throws IOException
+    {
+        int keep = Math.min(limit, 2);
+        System.arraycopy(buffer, limit - keep, buffer, 0, keep);
+        position = keep;
+        limit = keep;
+        while (true) {
+            int read = inputStream.read(buffer, keep, buffer.length - keep);
+            if (read < 0) {
+                return false;
+            }
+            if (read > 0) {
+                limit = keep + read;
+                return true;
+            }
+        }
+    }
+
+    private static boolean isWhitespace(int b)
+    {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+
+    private static byte[] bytes(String value)
+    {
+        return value.getBytes(ISO_8859_1);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.excel.xlsx;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Counts the row elements of a worksheet part with a byte scan of the tag names, without parsing
+ * the XML or the cells. Used when a query reads no column of the sheet, like {@code count(*)}.
+ */
+public class XlsxRowCounter
+        implements Closeable
+{
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int ROW = ('r' << 16) | ('o' << 8) | 'w';
+    private static final int PREFIXED_ROW = (':' << 24) | ROW;
+
+    private final InputStream inputStream;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int skipRows;
+    // scanner state, kept across buffers
+    private boolean inTagName;
+    private int nameLength;
+    private int nameTail;
+
+    public XlsxRowCounter(InputStream inputStream, int skipRows)
+    {
+        this.inputStream = requireNonNull(inputStream, "inputStream is null");
+        this.skipRows = skipRows;
+    }
+
+    /**
+     * Returns the number of rows in the next chunk of the sheet, or -1 at the end of the sheet.
+     */
+    public int next()
+            throws IOException
+    {
+        int read = inputStream.read(buffer);
+        if (read < 0) {
+            return -1;
+        }
+        int rows = 0;
+        for (int i = 0; i < read; i++) {
+            byte b = buffer[i];
+            if (!inTagName) {
+                if (b == '<') {
+                    inTagName = true;
+                    nameLength = 0;
+                    nameTail = 0;
+                }
+                continue;
+            }
+            if (b == ' ' || b == '>' || b == '/' || b == '\t' || b == '\r' || b == '\n') {
+                // a slash right after the bracket starts an end tag
+                inTagName = false;
+                if ((nameLength == 3 && nameTail == ROW) || (nameLength > 3 && nameTail == PREFIXED_ROW)) {
+                    rows++;
+                }
+                continue;
+            }
+            nameLength++;
+            nameTail = (nameTail << 8) | (b & 0xFF);
+        }
+        int skipped = Math.min(rows, skipRows);
+        skipRows -= skipped;
+        return rows - skipped;
+    }
+
+    @Override
+    public void close()
+            throws IOException
+    {
+        inputStream.close();
+    }
+}
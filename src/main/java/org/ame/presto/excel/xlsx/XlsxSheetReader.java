@@ -0,0 +1,232 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.excel.xlsx;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import static java.util.Objects.requireNonNull;
+import static javax.xml.stream.XMLStreamConstants.END_ELEMENT;
+import static javax.xml.stream.XMLStreamConstants.START_ELEMENT;
+
+/**
+ * Reads the rows of a worksheet part as raw cells, without resolving shared strings or formatting numbers.
+ * Cells of columns that are not projected are skipped without reading their values.
+ */
+public class XlsxSheetReader
+        implements SheetReader
+{
+    private final InputStream inputStream;
+    private final XMLStreamReader reader;
+    private final boolean[] projected;
+
+    // cells of the current row
+    private int cellCount;
+    private int[] columns = new int[16];
+    private byte[] types = new byte[16];
+    private int[] styles = new int[16];
+    private String[] values = new String[16];
+
+    public XlsxSheetReader(InputStream inputStream, boolean[] projected)
+            throws XMLStreamException
+    {
+        this.inputStream = requireNonNull(inputStream, "inputStream is null");
+        this.reader = XlsxXml.createReader(inputStream);
+        this.projected = requireNonNull(projected, "projected is null");
+    }
+
+    @Override
+    public boolean nextRow()
+            throws IOException
+    {
+        cellCount = 0;
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() == START_ELEMENT && "row".equals(reader.getLocalName())) {
+                    readRow();
+                    return true;
+                }
+            }
+            return false;
+        }
+        catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public boolean skipRow()
+            throws IOException
+    {
+        cellCount = 0;
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() == START_ELEMENT && "row".equals(reader.getLocalName())) {
+                    XlsxXml.skipElement(reader);
+                    return true;
+                }
+            }
+            return false;
+        }
+        catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public int getCellCount()
+    {
+        return cellCount;
+    }
+
+    @Override
+    public int getColumn(int cell)
+    {
+        return columns[cell];
+    }
+
+    @Override
+    public byte getType(int cell)
+    {
+        return types[cell];
+    }
+
+    @Override
+    public int getStyle(int cell)
+    {
+        return styles[cell];
+    }
+
+    @Override
+    public String getValue(int cell)
+    {
+        return values[cell];
+    }
+
+    @Override
+    public void close()
+            throws IOException
+    {
+        try {
+            reader.close();
+        }
+        catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+        finally {
+            inputStream.close();
+        }
+    }
+
+    private void readRow()
+            throws XMLStreamException
+    {
+        int nextColumn = 0;
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == END_ELEMENT && "row".equals(reader.getLocalName())) {
+                return;
+            }
+            if (event != START_ELEMENT || !"c".equals(reader.getLocalName())) {
+                continue;
+            }
+            String reference = reader.getAttributeValue(null, "r");
+            int column = reference == null ? nextColumn : getColumnIndex(reference);
+            nextColumn = column + 1;
+            if (column < projected.length && projected[column]) {
+                readCell(column);
+            }
+            else {
+                XlsxXml.skipElement(reader);
+            }
+        }
+    }
+
+    private void readCell(int column)
+            throws XMLStreamException
+    {
+        byte type = getCellType(reader.getAttributeValue(null, "t"));
+        String style = reader.getAttributeValue(null, "s");
+        String value = null;
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == END_ELEMENT && "c".equals(reader.getLocalName())) {
+                break;
+            }
+            if (event != START_ELEMENT) {
+                continue;
+            }
+            String name = reader.getLocalName();
+            if ("v".equals(name)) {
+                value = reader.getElementText();
+            }
+            else if ("is".equals(name)) {
+                value = XlsxXml.readRichText(reader);
+            }
+            else {
+                // formulas are not evaluated, the cached result is in the value element
+                XlsxXml.skipElement(reader);
+            }
+        }
+        if (cellCount == columns.length) {
+            int capacity = cellCount * 2;
+            columns = Arrays.copyOf(columns, capacity);
+            types = Arrays.copyOf(types, capacity);
+            styles = Arrays.copyOf(styles, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        columns[cellCount] = column;
+        // numbers and shared string indexes without text are blank, like in the byte parser
+        boolean blank = value == null || (value.isEmpty() && (type == NUMBER || type == SHARED_STRING));
+        types[cellCount] = blank ? BLANK : type;
+        styles[cellCount] = style == null ? 0 : Integer.parseInt(style);
+        values[cellCount] = blank ? null : value;
+        cellCount++;
+    }
+
+    private static byte getCellType(String type)
+    {
+        if (type == null || "n".equals(type)) {
+            return NUMBER;
+        }
+        switch (type) {
+            case "s":
+                return SHARED_STRING;
+            case "b":
+                return BOOLEAN;
+            case "e":
+                return ERROR;
+            default:
+                // str, inlineStr and ISO 8601 dates are read as text
+                return STRING;
+        }
+    }
+
+    private static int getColumnIndex(String reference)
+    {
+        int column = 0;
+        for (int i = 0; i < reference.length(); i++) {
+            char c = reference.charAt(i);
+            if (c < 'A' || c > 'Z') {
+                break;
+            }
+            column = column * 26 + (c - 'A' + 1);
+        }
+        return column - 1;
+    }
+}
@@ -0,0 +1,860 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.excel.xlsx;
+
+import com.facebook.airlift.log.Logger;
+import com.facebook.presto.common.block.Block;
+import com.google.common.io.ByteStreams;
+import io.airlift.slice.Slice;
+import org.ame.presto.excel.SplitMemoryLimit;
+import org.ame.presto.excel.session.RangeSource;
+import org.apache.poi.poifs.crypt.Decryptor;
+import org.apache.poi.poifs.crypt.EncryptionInfo;
+import org.apache.poi.poifs.filesystem.FileMagic;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+import org.apache.poi.ss.usermodel.BuiltinFormats;
+import org.apache.poi.ss.usermodel.DateUtil;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static io.airlift.slice.SizeOf.sizeOf;
+import static io.airlift.slice.Slices.utf8Slice;
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.requireNonNull;
+import static javax.xml.stream.XMLStreamConstants.END_ELEMENT;
+import static javax.xml.stream.XMLStreamConstants.START_ELEMENT;
+
+/**
+ * The parts of an xlsx or xlsb file needed to read the raw cells of its first sheet: the shared strings,
+ * the cell styles with a date format and the date system. The file is spooled to a local temporary
+ * file first, because the parts of the zip archive can be stored in any order.
+ */
+public class XlsxWorkbook
+        implements Closeable
+{
+    private static final String ROOT_RELATIONSHIPS = "_rels/.rels";
+    private static final String DEFAULT_WORKBOOK = "xl/workbook.xml";
+    private static final String OFFICE_DOCUMENT = "/officeDocument";
+    private static final String WORKSHEET = "/worksheet";
+    private static final String SHARED_STRINGS = "/sharedStrings";
+    private static final String STYLES = "/styles";
+    private static final int XLSB_SHARED_STRING = 19;
+    private static final int XLSB_FORMAT = 44;
+    private static final int XLSB_CELL_FORMAT = 47;
+    private static final int XLSB_WORKBOOK_PROPERTIES = 153;
+    private static final int XLSB_SHEET = 156;
+    private static final int XLSB_BEGIN_CELL_FORMATS = 617;
+    private static final int XLSB_END_CELL_FORMATS = 618;
+    // reads are never smaller than those of ByteStreams.copy
+    private static final int MIN_COPY_BUFFER_SIZE = 8192;
+    // the memory limit is checked after every batch of shared strings
+    private static final int SHARED_STRINGS_CHECK_INTERVAL = 1024;
+    private static final int ZIP_END_RECORD_SIGNATURE = 0x06054b50;
+    private static final int ZIP_END_RECORD_SIZE = 22;
+    private static final int ZIP_CENTRAL_RECORD_SIGNATURE = 0x02014b50;
+    private static final int ZIP_LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int ZIP_LOCAL_HEADER_SIZE = 30;
+    private static final String RELATIONSHIPS_NAMESPACE = "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+
+    private final Logger logger = Logger.get(XlsxWorkbook.class);
+    private final File file;
+    private final long size;
+    private final ZipFile zipFile;
+    private final String sheetPart;
+    private final boolean binary;
+    private final boolean encrypted;
+    private final SplitMemoryLimit memoryLimit;
+    // set when the parts are fetched from a range source when they are opened
+    private final RemoteParts remoteParts;
+    private boolean date1904;
+    private String sheetName;
+    // UTF-8 encoded once, followed by a null entry for blank cells
+    private final SharedStringTable sharedStrings = new SharedStringTable();
+    private final boolean[] dateStyles;
+    // stops the reading of the shared strings on another thread
+    private volatile boolean closed;
+
+    private XlsxWorkbook(
+            File file,
+            long size,
+            boolean encrypted,
+            boolean readCellValues,
+            SplitMemoryLimit memoryLimit,
+            Executor sharedStringsExecutor,
+            RemoteParts remoteParts)
+            throws IOException, XMLStreamException
+    {
+        this.file = requireNonNull(file, "file is null");
+        this.size = size;
+        this.encrypted = encrypted;
+        this.memoryLimit = requireNonNull(memoryLimit, "memoryLimit is null");
+        this.remoteParts = remoteParts;
+        this.zipFile = new ZipFile(file);
+        try {
+            String workbookPart = findPart(ROOT_RELATIONSHIPS, "", OFFICE_DOCUMENT, null);
+            if (workbookPart == null) {
+                workbookPart = DEFAULT_WORKBOOK;
+            }
+            String directory = workbookPart.substring(0, workbookPart.lastIndexOf('/') + 1);
+            String relationships = directory + "_rels/" + workbookPart.substring(directory.length()) + ".rels";
+
+            // xlsb files keep the same package structure with binary parts
+            this.binary = workbookPart.endsWith(".bin");
+            String sheetId = binary ? readBinaryWorkbook(workbookPart) : readWorkbook(workbookPart);
+            this.sheetPart = findPart(relationships, directory, WORKSHEET, sheetId);
+            if (sheetPart == null) {
+                throw new IOException("Workbook has no worksheet");
+            }
+            // counting rows needs neither the shared strings nor the styles
+            String sharedStringsPart = readCellValues ? findPart(relationships, directory, SHARED_STRINGS, null) : null;
+            if (sharedStringsPart == null || sharedStringsExecutor == null) {
+                readSharedStrings(sharedStringsPart);
+            }
+            else {
+                sharedStringsExecutor.execute(() -> readSharedStringsConcurrently(sharedStringsPart));
+            }
+            String stylesPart = readCellValues ? findPart(relationships, directory, STYLES, null) : null;
+            if (stylesPart == null) {
+                this.dateStyles = new boolean[0];
+            }
+            else {
+                this.dateStyles = binary ? readBinaryDateStyles(stylesPart) : readDateStyles(stylesPart);
+            }
+            memoryLimit.check(getRetainedSizeInBytes(), "Reading the shared strings and styles of the workbook");
+        }
+        catch (IOException | XMLStreamException | RuntimeException e) {
+            closed = true;
+            zipFile.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Copies the input stream to a temporary file, which is deleted when the workbook is closed.
+     * An encrypted workbook is decrypted chunk by chunk into a second temporary file.
+     *
+     * @param maxBufferSize the size the copy buffer grows to while the input stream fills it
+     * @param password the password of the workbook, or null when it is not encrypted
+     * @param memoryLimit the limit of the memory held by the shared strings and styles
+     * @param sharedStringsExecutor the executor that reads the shared strings while the sheet is read,
+     * or null to read them before the workbook is returned
+     */
+    public static XlsxWorkbook open(
+            InputStream inputStream,
+            int bufferSize,
+            int maxBufferSize,
+            boolean readCellValues,
+            String password,
+            SplitMemoryLimit memoryLimit,
+            Executor sharedStringsExecutor)
+            throws IOException, XMLStreamException
+    {
+        File file = File.createTempFile("presto-excel-", ".xlsx");
+        try {
+            long size = copy(inputStream, file, bufferSize, maxBufferSize);
+            boolean encrypted = FileMagic.valueOf(file) == FileMagic.OLE2;
+            if (encrypted) {
+                File decrypted = decrypt(file, password, bufferSize, maxBufferSize);
+                file.delete();
+                file = decrypted;
+            }
+            return new XlsxWorkbook(file, size, encrypted, readCellValues, memoryLimit, sharedStringsExecutor, null);
+        }
+        catch (IOException | XMLStreamException | RuntimeException e) {
+            file.delete();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens the workbook from a source of byte ranges. Only the central directory of the zip archive is fetched
+     * into a sparse temporary file of the size of the workbook, and a part is fetched when it is first opened, so the
+     * other sheets and the media of the workbook are never read. A workbook that is not a plain zip archive,
+     * e.g. an encrypted or a zip64 one, is fetched whole.
+     */
+    public static XlsxWorkbook open(
+            RangeSource source,
+            int bufferSize,
+            int maxBufferSize,
+            boolean readCellValues,
+            String password,
+            SplitMemoryLimit memoryLimit,
+            Executor sharedStringsExecutor)
+            throws Exception
+    {
+        long size = source.getSize();
+        // the end record is followed by a comment of up to 64KB
+        int tailLength = (int) Math.min(size, ZIP_END_RECORD_SIZE + 0xFFFF);
+        ByteBuffer tail = fetch(source, size - tailLength, tailLength);
+        int end = tailLength - ZIP_END_RECORD_SIZE;
+        while (end >= 0 && tail.getInt(end) != ZIP_END_RECORD_SIGNATURE) {
+            end--;
+        }
+        int entryCount = end < 0 ? 0 : tail.getShort(end + 10) & 0xFFFF;
+        long directorySize = end < 0 ? 0 : tail.getInt(end + 12) & 0xFFFFFFFFL;
+        long directoryOffset = end < 0 ? 0 : tail.getInt(end + 16) & 0xFFFFFFFFL;
+        if (end < 0 || entryCount == 0xFFFF || directoryOffset == 0xFFFFFFFFL || directoryOffset + directorySize > size) {
+            return open(source.getInputStream(0, size), bufferSize, maxBufferSize, readCellValues, password, memoryLimit, sharedStringsExecutor);
+        }
+        ByteBuffer directory;
+        if (directoryOffset >= size - tailLength) {
+            directory = ByteBuffer.wrap(tail.array(), (int) (directoryOffset - (size - tailLength)), (int) directorySize).slice().order(LITTLE_ENDIAN);
+        }
+        else {
+            directory = fetch(source, directoryOffset, (int) directorySize);
+        }
+
+        // the parts span from their local headers to the next part or the central directory
+        Map<String, Long> offsets = new HashMap<>();
+        List<Long> starts = new ArrayList<>();
+        int position = 0;
+        for (int i = 0; i < entryCount && position + 46 <= directory.limit() && directory.getInt(position) == ZIP_CENTRAL_RECORD_SIGNATURE; i++) {
+            int nameLength = directory.getShort(position + 28) & 0xFFFF;
+            int extraLength = directory.getShort(position + 30) & 0xFFFF;
+            int commentLength = directory.getShort(position + 32) & 0xFFFF;
+            long localOffset = directory.getInt(position + 42) & 0xFFFFFFFFL;
+            byte[] name = new byte[nameLength];
+            directory.position(position + 46);
+            directory.get(name);
+            offsets.put(new String(name, UTF_8), localOffset);
+            starts.add(localOffset);
+            position += 46 + nameLength + extraLength + commentLength;
+        }
+        starts.add(directoryOffset);
+        starts.sort(null);
+        Map<String, long[]> extents = new HashMap<>();
+        for (Map.Entry<String, Long> entry : offsets.entrySet()) {
+            long start = entry.getValue();
+            long next = starts.get(Math.min(starts.size() - 1, Collections.binarySearch(starts, start) + 1));
+            extents.put(entry.getKey(), new long[] {start, Math.max(start, next)});
+        }
+
+        File file = File.createTempFile("presto-excel-", ".xlsx");
+        RemoteParts remoteParts = null;
+        try {
+            remoteParts = new RemoteParts(source, file, extents, bufferSize);
+            remoteParts.write(size - tailLength, tail.array(), tailLength);
+            if (directoryOffset < size - tailLength) {
+                remoteParts.write(directoryOffset, directory.array(), (int) directorySize);
+            }
+            return new XlsxWorkbook(file, size, false, readCellValues, memoryLimit, sharedStringsExecutor, remoteParts);
+        }
+        catch (IOException | XMLStreamException | RuntimeException e) {
+            if (remoteParts != null) {
+                remoteParts.close();
+            }
+            file.delete();
+            throw e;
+        }
+    }
+
+    private static ByteBuffer fetch(RangeSource source, long offset, int length)
+            throws Exception
+    {
+        byte[] bytes = new byte[length];
+        try (InputStream inputStream = source.getInputStream(offset, length)) {
+            ByteStreams.readFully(inputStream, bytes);
+        }
+        return ByteBuffer.wrap(bytes).order(LITTLE_ENDIAN);
+    }
+
+    private static File decrypt(File file, String password, int bufferSize, int maxBufferSize)
+            throws IOException
+    {
+        if (password == null) {
+            throw new IOException("Workbook is encrypted and no password is configured");
+        }
+        File decrypted = File.createTempFile("presto-excel-", ".xlsx");
+        try (POIFSFileSystem fileSystem = new POIFSFileSystem(file, true)) {
+            Decryptor decryptor = Decryptor.getInstance(new EncryptionInfo(fileSystem));
+            if (!decryptor.verifyPassword(password)) {
+                throw new IOException("Invalid workbook password");
+            }
+            copy(decryptor.getDataStream(fileSystem), decrypted, bufferSize, maxBufferSize);
+            return decrypted;
+        }
+        catch (GeneralSecurityException | IOException | RuntimeException e) {
+            decrypted.delete();
+            throw e instanceof IOException ? (IOException) e : new IOException("Failed to decrypt workbook", e);
+        }
+    }
+
+    /**
+     * Copies the input stream to the file. The read buffer doubles, up to maxBufferSize, whenever a read fills it,
+     * so a source that keeps up is read in fewer and larger calls.
+     */
+    private static long copy(InputStream inputStream, File file, int bufferSize, int maxBufferSize)
+            throws IOException
+    {
+        try (InputStream input = inputStream;
+                OutputStream output = new BufferedOutputStream(new FileOutputStream(file), bufferSize)) {
+            byte[] buffer = new byte[Math.max(bufferSize, MIN_COPY_BUFFER_SIZE)];
+            long size = 0;
+            while (true) {
+                int read = input.read(buffer);
+                if (read < 0) {
+                    return size;
+                }
+                output.write(buffer, 0, read);
+                size += read;
+                if (read == buffer.length && buffer.length < maxBufferSize) {
+                    buffer = new byte[Math.min(buffer.length * 2, maxBufferSize)];
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the size of the file of the workbook.
+     */
+    public long getSize()
+    {
+        return size;
+    }
+
+    /**
+     * Returns the number of bytes read from the source of the workbook, which are only a part of the file
+     * when the parts are fetched from a range source.
+     */
+    public long getBytesRead()
+    {
+        return remoteParts == null ? size : remoteParts.getBytesRead();
+    }
+
+    /**
+     * Returns the memory held by the shared strings and the date styles, which are kept while the sheet is read.
+     */
+    public long getRetainedSizeInBytes()
+    {
+        return sharedStrings.getRetainedSizeInBytes() + sizeOf(dateStyles);
+    }
+
+    public boolean isDate1904()
+    {
+        return date1904;
+    }
+
+    public String getSheetName()
+    {
+        return sheetName;
+    }
+
+    /**
+     * Returns whether all shared strings were read, so that the methods reading them do not wait.
+     */
+    public boolean areSharedStringsLoaded()
+    {
+        return sharedStrings.isFinished();
+    }
+
+    public int getSharedStringCount()
+    {
+        return sharedStrings.getCount();
+    }
+
+    /**
+     * Returns the shared strings as a varchar block. Empty strings are null, and the position
+     * after the last shared string is null, so that blank cells can refer to it.
+     */
+    public Block getSharedStrings()
+    {
+        return sharedStrings.getBlock();
+    }
+
+    /**
+     * Returns the shared string, waiting for it while the shared strings are read on another thread.
+     */
+    public Slice getSharedString(int index)
+    {
+        return sharedStrings.get(index);
+    }
+
+    public boolean isDateStyle(int style)
+    {
+        return style >= 0 && style < dateStyles.length && dateStyles[style];
+    }
+
+    public boolean isBinary()
+    {
+        return binary;
+    }
+
+    public InputStream openSheet()
+            throws IOException
+    {
+        return zipFile.getInputStream(getEntry(sheetPart));
+    }
+
+    /**
+     * Opens a reader of the rows of the worksheet. The cells of xlsx sheets are parsed with StAX,
+     * or scanned from the bytes of the part with the byte parser.
+     */
+    public SheetReader openSheetReader(boolean[] projected, boolean byteParser)
+            throws IOException, XMLStreamException
+    {
+        if (binary) {
+            return new XlsbSheetReader(openSheet(), projected);
+        }
+        return openSheetReader(openSheet(), projected, byteParser);
+    }
+
+    /**
+     * Reads the rows of a worksheet stream opened by {@link #openIndexingSheet} or {@link #openSheetAt}.
+     */
+    public SheetReader openSheetReader(InputStream sheet, boolean[] projected, boolean byteParser)
+            throws IOException, XMLStreamException
+    {
+        if (!byteParser) {
+            return new XlsxSheetReader(sheet, projected);
+        }
+        // the byte parser only reads UTF-8, the head of the part is put back for the reader
+        PushbackInputStream input = new PushbackInputStream(sheet, XlsxByteSheetReader.HEAD_SIZE);
+        try {
+            byte[] head = new byte[XlsxByteSheetReader.HEAD_SIZE];
+            int length = ByteStreams.read(input, head, 0, head.length);
+            input.unread(head, 0, length);
+            if (XlsxByteSheetReader.isUtf8(head, length)) {
+                return new XlsxByteSheetReader(input, projected);
+            }
+            return new XlsxSheetReader(input, projected);
+        }
+        catch (IOException | XMLStreamException | RuntimeException e) {
+            input.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens the worksheet with an inflater that builds a checkpoint index while the sheet is read, or returns null
+     * when the sheet cannot be indexed: xlsb and encrypted workbooks, and sheets that are not deflated.
+     * An encrypted workbook is left out because the windows of the index would hold its data unencrypted.
+     */
+    public CheckpointingInflaterInputStream openIndexingSheet(long interval, int bufferSize)
+            throws IOException
+    {
+        ZipEntry entry = getEntry(sheetPart);
+        if (binary || encrypted || entry.getMethod() != ZipEntry.DEFLATED) {
+            return null;
+        }
+        long dataOffset = findDataOffset(sheetPart);
+        if (dataOffset < 0) {
+            return null;
+        }
+        InputStream input = new FileInputStream(file);
+        try {
+            ByteStreams.skipFully(input, dataOffset);
+        }
+        catch (IOException e) {
+            input.close();
+            throw e;
+        }
+        return new CheckpointingInflaterInputStream(
+                ByteStreams.limit(new BufferedInputStream(input, bufferSize), entry.getCompressedSize()),
+                entry.getCrc(),
+                entry.getCompressedSize(),
+                interval);
+    }
+
+    /**
+     * Returns whether the index was built from this version of the workbook.
+     */
+    public boolean isIndexed(DeflateCheckpointIndex index, long modifiedTime)
+    {
+        // the central directory tells, without fetching the sheet
+        ZipEntry entry = zipFile.getEntry(sheetPart);
+        return !binary && !encrypted && index.matches(size, modifiedTime, entry.getCrc(), entry.getCompressedSize());
+    }
+
+    /**
+     * Opens the worksheet at a checkpoint of an index that {@link #isIndexed} matches.
+     */
+    public InputStream openSheetAt(DeflateCheckpointIndex index, DeflateCheckpointIndex.Checkpoint checkpoint, int bufferSize)
+            throws IOException
+    {
+        // fetches the sheet when the parts come from a range source
+        getEntry(sheetPart);
+        long dataOffset = findDataOffset(sheetPart);
+        if (dataOffset < 0) {
+            throw new IOException("Worksheet data not found");
+        }
+        return index.openSheet(file, dataOffset, checkpoint, bufferSize);
+    }
+
+    @Override
+    public void close()
+            throws IOException
+    {
+        closed = true;
+        try {
+            zipFile.close();
+        }
+        finally {
+            try {
+                if (remoteParts != null) {
+                    remoteParts.close();
+                }
+            }
+            finally {
+                file.delete();
+            }
+        }
+    }
+
+    private ZipEntry getEntry(String name)
+            throws IOException
+    {
+        if (remoteParts != null) {
+            remoteParts.fetch(name);
+        }
+        return zipFile.getEntry(name);
+    }
+
+    /**
+     * Returns the offset of the data of a zip entry, after the local header that its central directory record
+     * points to, or -1 when the entry is not found or the archive uses zip64 records.
+     */
+    private long findDataOffset(String name)
+            throws IOException
+    {
+        try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+            // the end record is followed by a comment of up to 64KB
+            int tailLength = (int) Math.min(input.length(), ZIP_END_RECORD_SIZE + 0xFFFF);
+            ByteBuffer tail = readFully(input, input.length() - tailLength, tailLength);
+            int end = tailLength - ZIP_END_RECORD_SIZE;
+            while (end >= 0 && tail.getInt(end) != ZIP_END_RECORD_SIGNATURE) {
+                end--;
+            }
+            if (end < 0) {
+                return -1;
+            }
+            int entryCount = tail.getShort(end + 10) & 0xFFFF;
+            long directorySize = tail.getInt(end + 12) & 0xFFFFFFFFL;
+            long directoryOffset = tail.getInt(end + 16) & 0xFFFFFFFFL;
+            if (entryCount == 0xFFFF || directoryOffset == 0xFFFFFFFFL || directorySize > Integer.MAX_VALUE) {
+                return -1;
+            }
+            ByteBuffer directory = readFully(input, directoryOffset, (int) directorySize);
+            int position = 0;
+            for (int i = 0; i < entryCount && position + 46 <= directory.limit() && directory.getInt(position) == ZIP_CENTRAL_RECORD_SIGNATURE; i++) {
+                int nameLength = directory.getShort(position + 28) & 0xFFFF;
+                int extraLength = directory.getShort(position + 30) & 0xFFFF;
+                int commentLength = directory.getShort(position + 32) & 0xFFFF;
+                long localOffset = directory.getInt(position + 42) & 0xFFFFFFFFL;
+                if (name.equals(new String(directory.array(), position + 46, nameLength, UTF_8))) {
+                    if (localOffset == 0xFFFFFFFFL) {
+                        return -1;
+                    }
+                    ByteBuffer local = readFully(input, localOffset, ZIP_LOCAL_HEADER_SIZE);
+                    if (local.getInt(0) != ZIP_LOCAL_HEADER_SIGNATURE) {
+                        return -1;
+                    }
+                    return localOffset + ZIP_LOCAL_HEADER_SIZE + (local.getShort(26) & 0xFFFF) + (local.getShort(28) & 0xFFFF);
+                }
+                position += 46 + nameLength + extraLength + commentLength;
+            }
+            return -1;
+        }
+    }
+
+    private static ByteBuffer readFully(RandomAccessFile input, long offset, int length)
+            throws IOException
+    {
+        byte[] bytes = new byte[length];
+        input.seek(offset);
+        input.readFully(bytes);
+        return ByteBuffer.wrap(bytes).order(LITTLE_ENDIAN);
+    }
+
+    private XMLStreamReader openPart(String part)
+            throws IOException, XMLStreamException
+    {
+        ZipEntry entry = getEntry(part);
+        if (entry == null) {
+            throw new IOException("Workbook part not found: " + part);
+        }
+        return XlsxXml.createReader(zipFile.getInputStream(entry));
+    }
+
+    /**
+     * Returns the target of the first relationship with the type suffix, or with the id when it is given.
+     */
+    private String findPart(String relationships, String directory, String typeSuffix, String id)
+            throws IOException, XMLStreamException
+    {
+        if (getEntry(relationships) == null) {
+            return null;
+        }
+        XMLStreamReader reader = openPart(relationships);
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() != START_ELEMENT || !"Relationship".equals(reader.getLocalName())) {
+                    continue;
+                }
+                String type = reader.getAttributeValue(null, "Type");
+                if (type == null || !type.endsWith(typeSuffix)) {
+                    continue;
+                }
+                if (id != null && !id.equals(reader.getAttributeValue(null, "Id"))) {
+                    continue;
+                }
+                String target = reader.getAttributeValue(null, "Target");
+                // targets are relative to the directory of the source part, unless absolute
+                return target.startsWith("/") ? target.substring(1) : directory + target;
+            }
+            return null;
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Reads the date system and the name of the first sheet, and returns the relationship id of the sheet.
+     */
+    private String readWorkbook(String part)
+            throws IOException, XMLStreamException
+    {
+        XMLStreamReader reader = openPart(part);
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() != START_ELEMENT) {
+                    continue;
+                }
+                if ("workbookPr".equals(reader.getLocalName())) {
+                    String value = reader.getAttributeValue(null, "date1904");
+                    date1904 = "1".equals(value) || "true".equals(value);
+                }
+                else if ("sheet".equals(reader.getLocalName())) {
+                    sheetName = reader.getAttributeValue(null, "name");
+                    return reader.getAttributeValue(RELATIONSHIPS_NAMESPACE, "id");
+                }
+            }
+            return null;
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    private String readBinaryWorkbook(String part)
+            throws IOException
+    {
+        try (XlsbRecordReader reader = openBinaryPart(part)) {
+            while (reader.next()) {
+                if (reader.getType() == XLSB_WORKBOOK_PROPERTIES) {
+                    date1904 = (reader.getInt(0) & 0x01) != 0;
+                }
+                else if (reader.getType() == XLSB_SHEET) {
+                    // sheet state and tab id, followed by the relationship id and the name
+                    String relationshipId = reader.getWideString(8);
+                    sheetName = reader.getWideString(12 + (relationshipId == null ? 0 : relationshipId.length() * 2));
+                    return relationshipId;
+                }
+            }
+            return null;
+        }
+    }
+
+    private void readSharedStringsConcurrently(String part)
+    {
+        try {
+            readSharedStrings(part);
+        }
+        catch (IOException | XMLStreamException e) {
+            if (!closed) {
+                logger.debug(e, "Failed to read the shared strings");
+            }
+            sharedStrings.fail(new UncheckedIOException(e instanceof IOException ? (IOException) e : new IOException(e)));
+        }
+        catch (RuntimeException e) {
+            sharedStrings.fail(e);
+        }
+    }
+
+    private void readSharedStrings(String part)
+            throws IOException, XMLStreamException
+    {
+        if (part != null) {
+            if (binary) {
+                readBinarySharedStrings(part);
+            }
+            else {
+                readXmlSharedStrings(part);
+            }
+        }
+        if (closed) {
+            throw new IOException("Workbook was closed while its shared strings were read");
+        }
+        sharedStrings.finish();
+    }
+
+    private void readXmlSharedStrings(String part)
+            throws IOException, XMLStreamException
+    {
+        XMLStreamReader reader = openPart(part);
+        try {
+            while (reader.hasNext() && !closed) {
+                if (reader.next() == START_ELEMENT && "si".equals(reader.getLocalName())) {
+                    String value = XlsxXml.readRichText(reader);
+                    addSharedString(value.isEmpty() ? null : utf8Slice(value));
+                }
+            }
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    private void readBinarySharedStrings(String part)
+            throws IOException
+    {
+        try (XlsbRecordReader reader = openBinaryPart(part)) {
+            while (reader.next() && !closed) {
+                if (reader.getType() != XLSB_SHARED_STRING) {
+                    continue;
+                }
+                // a flags byte precedes the text, formatting runs follow it
+                String value = reader.getWideString(1);
+                addSharedString(value == null || value.isEmpty() ? null : utf8Slice(value));
+            }
+        }
+    }
+
+    private void addSharedString(Slice value)
+    {
+        sharedStrings.add(value);
+        if (sharedStrings.getAddedCount() % SHARED_STRINGS_CHECK_INTERVAL == 0) {
+            memoryLimit.check(sharedStrings.getRetainedSizeInBytes(), "Reading the shared strings of the workbook");
+        }
+    }
+
+    private boolean[] readBinaryDateStyles(String part)
+            throws IOException
+    {
+        Map<Integer, String> customFormats = new HashMap<>();
+        List<Boolean> dateStyles = new ArrayList<>();
+        boolean inCellFormats = false;
+        try (XlsbRecordReader reader = openBinaryPart(part)) {
+            while (reader.next()) {
+                switch (reader.getType()) {
+                    case XLSB_FORMAT:
+                        customFormats.put(reader.getShort(0), reader.getWideString(2));
+                        break;
+                    case XLSB_BEGIN_CELL_FORMATS:
+                        inCellFormats = true;
+                        break;
+                    case XLSB_END_CELL_FORMATS:
+                        inCellFormats = false;
+                        break;
+                    case XLSB_CELL_FORMAT:
+                        if (inCellFormats) {
+                            // parent index, followed by the number format index
+                            dateStyles.add(isDateFormat(reader.getShort(2), customFormats));
+                        }
+                        break;
+                    default:
+                }
+            }
+        }
+        return toArray(dateStyles);
+    }
+
+    private static boolean isDateFormat(int formatIndex, Map<Integer, String> customFormats)
+    {
+        String format = customFormats.get(formatIndex);
+        if (format == null) {
+            format = BuiltinFormats.getBuiltinFormat(formatIndex);
+        }
+        return format != null && DateUtil.isADateFormat(formatIndex, format);
+    }
+
+    private static boolean[] toArray(List<Boolean> values)
+    {
+        boolean[] result = new boolean[values.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = values.get(i);
+        }
+        return result;
+    }
+
+    private XlsbRecordReader openBinaryPart(String part)
+            throws IOException
+    {
+        ZipEntry entry = getEntry(part);
+        if (entry == null) {
+            throw new IOException("Workbook part not found: " + part);
+        }
+        return new XlsbRecordReader(zipFile.getInputStream(entry));
+    }
+
+    private boolean[] readDateStyles(String part)
+            throws IOException, XMLStreamException
+    {
+        Map<Integer, String> customFormats = new HashMap<>();
+        List<Boolean> dateStyles = new ArrayList<>();
+        boolean inCellFormats = false;
+        XMLStreamReader reader = openPart(part);
+        try {
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == END_ELEMENT && "cellXfs".equals(reader.getLocalName())) {
+                    inCellFormats = false;
+                }
+                if (event != START_ELEMENT) {
+                    continue;
+                }
+                String name = reader.getLocalName();
+                if ("numFmt".equals(name)) {
+                    customFormats.put(Integer.parseInt(reader.getAttributeValue(null, "numFmtId")), reader.getAttributeValue(null, "formatCode"));
+                }
+                else if ("cellXfs".equals(name)) {
+                    inCellFormats = true;
+                }
+                else if ("xf".equals(name) && inCellFormats) {
+                    String value = reader.getAttributeValue(null, "numFmtId");
+                    dateStyles.add(isDateFormat(value == null ? 0 : Integer.parseInt(value), customFormats));
+                }
+            }
+        }
+        finally {
+            reader.close();
+        }
+        return toArray(dateStyles);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.excel.xlsx;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import java.io.InputStream;
+
+import static javax.xml.stream.XMLStreamConstants.END_ELEMENT;
+import static javax.xml.stream.XMLStreamConstants.START_ELEMENT;
+
+final class XlsxXml
+{
+    private static final XMLInputFactory FACTORY = createFactory();
+
+    private XlsxXml() {}
+
+    static XMLStreamReader createReader(InputStream inputStream)
+            throws XMLStreamException
+    {
+        return FACTORY.createXMLStreamReader(inputStream);
+    }
+
+    /**
+     * Skips the element the reader is positioned on, including its children.
+     */
+    static void skipElement(XMLStreamReader reader)
+            throws XMLStreamException
+    {
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            int event = reader.next();
+            if (event == START_ELEMENT) {
+                depth++;
+            }
+            else if (event == END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    /**
+     * Concatenates the text runs of a rich text element ({@code si} or {@code is}), leaving out phonetic runs.
+     */
+    static String readRichText(XMLStreamReader reader)
+            throws XMLStreamException
+    {
+        StringBuilder builder = new StringBuilder();
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            int event = reader.next();
+            if (event == START_ELEMENT) {
+                if ("t".equals(reader.getLocalName())) {
+                    builder.append(reader.getElementText());
+                }
+                else if ("rPh".equals(reader.getLocalName())) {
+                    skipElement(reader);
+                }
+                else {
+                    depth++;
+                }
+            }
+            else if (event == END_ELEMENT) {
+                depth--;
+            }
+        }
+        return builder.toString();
+    }
+
+    private static XMLInputFactory createFactory()
+    {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        // workbook parts never need a DTD, and resolving one would read arbitrary files
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return factory;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.excel;
+
+import org.ame.presto.excel.BenchmarkWorkbooks.Content;
+import org.ame.presto.excel.BenchmarkWorkbooks.Shape;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.VerboseMode;
+
+import static com.facebook.airlift.json.JsonCodec.listJsonCodec;
+import static com.facebook.airlift.json.JsonCodec.mapJsonCodec;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.ame.presto.excel.BenchmarkWorkbooks.SCHEMA;
+import static org.ame.presto.excel.BenchmarkWorkbooks.getBaseDirectory;
+import static org.ame.presto.excel.BenchmarkWorkbooks.getWorkbook;
+
+/**
+ * Probes the header of a workbook through ExcelClient.getTable, which is what planning a query on the table costs.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+public class BenchmarkExcelClientHeader
+{
+    @Benchmark
+    public ExcelTable getTable(BenchmarkData data)
+    {
+        return data.client.getTable(SCHEMA, data.table, false)
+                .orElseThrow(() -> new IllegalStateException("No header read from " + data.table));
+    }
+
+    @State(Scope.Thread)
+    public static class BenchmarkData
+    {
+        @Param({"xlsx", "xls"})
+        private String fileType = "xlsx";
+
+        @Param({"NARROW", "WIDE"})
+        private Shape shape = Shape.NARROW;
+
+        @Param({"NUMERIC", "STRING"})
+        private Content content = Content.STRING;
+
+        @Param({"10000", "1000000"})
+        private int rows = 10000;
+
+        private String table;
+        private ExcelClient client;
+
+        @Setup(Level.Trial)
+        public void setup()
+                throws Exception
+        {
+            table = getWorkbook(fileType, shape, content, rows);
+            ExcelConfig config = new ExcelConfig()
+                    .setProtocol("file")
+                    .setBase(getBaseDirectory().getPath())
+                    .setPort(0);
+            client = new ExcelClient(config, new ExcelStats(), mapJsonCodec(String.class, listJsonCodec(ExcelTable.class)));
+        }
+    }
+
+    public static void main(String[] args)
+            throws Exception
+    {
+        Options options = new OptionsBuilder()
+                .verbosity(VerboseMode.NORMAL)
+                .include(".*" + BenchmarkExcelClientHeader.class.getSimpleName() + ".*")
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
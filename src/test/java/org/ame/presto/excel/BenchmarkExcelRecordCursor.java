@@ -0,0 +1,165 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.excel;
+
+import com.facebook.presto.common.predicate.TupleDomain;
+import com.facebook.presto.spi.RecordCursor;
+import com.google.common.collect.ImmutableMap;
+import org.ame.presto.excel.BenchmarkWorkbooks.Content;
+import org.ame.presto.excel.BenchmarkWorkbooks.Shape;
+import org.ame.presto.excel.session.LocalSession;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.VerboseMode;
+
+import java.io.File;
+import java.util.List;
+
+import static com.facebook.presto.common.type.DoubleType.DOUBLE;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.ame.presto.excel.BenchmarkWorkbooks.SCHEMA;
+import static org.ame.presto.excel.BenchmarkWorkbooks.getBaseDirectory;
+import static org.ame.presto.excel.BenchmarkWorkbooks.getColumnHandles;
+import static org.ame.presto.excel.BenchmarkWorkbooks.getWorkbook;
+
+/**
+ * Reads whole workbooks through ExcelRecordCursor, calling the getter of every column of every row. The rows counter
+ * reports rows/sec, and the GC profiler the allocation rate.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(SECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.Throughput)
+public class BenchmarkExcelRecordCursor
+{
+    @Benchmark
+    public double readCursor(BenchmarkData data, RowCounter counter)
+            throws Exception
+    {
+        double checksum = 0;
+        try (RecordCursor cursor = data.createCursor()) {
+            while (cursor.advanceNextPosition()) {
+                for (int field = 0; field < data.columnHandles.size(); field++) {
+                    if (cursor.isNull(field)) {
+                        continue;
+                    }
+                    if (data.numeric) {
+                        checksum += cursor.getDouble(field);
+                    }
+                    else {
+                        checksum += cursor.getSlice(field).length();
+                    }
+                }
+                counter.rows++;
+            }
+        }
+        return checksum;
+    }
+
+    @State(Scope.Thread)
+    public static class BenchmarkData
+    {
+        @Param({"xlsx", "xls"})
+        private String fileType = "xlsx";
+
+        @Param({"NARROW", "WIDE"})
+        private Shape shape = Shape.NARROW;
+
+        @Param({"NUMERIC", "STRING"})
+        private Content content = Content.NUMERIC;
+
+        @Param({"10000", "100000", "1000000"})
+        private int rows = 10000;
+
+        private String path;
+        private long fileSize;
+        private List<ExcelColumnHandle> columnHandles;
+        private boolean numeric;
+
+        @Setup(Level.Trial)
+        public void setup()
+                throws Exception
+        {
+            path = getWorkbook(fileType, shape, content, rows);
+            fileSize = new File(new File(getBaseDirectory(), SCHEMA), path).length();
+            columnHandles = getColumnHandles(shape, content);
+            numeric = content.getType().equals(DOUBLE);
+        }
+
+        private RecordCursor createCursor()
+                throws Exception
+        {
+            return new ExcelRecordCursor(
+                    columnHandles,
+                    SCHEMA,
+                    path,
+                    0,
+                    fileSize,
+                    1,
+                    Long.MAX_VALUE,
+                    TupleDomain.all(),
+                    new LocalSession(ImmutableMap.of("base", getBaseDirectory().getPath())),
+                    100,
+                    4096,
+                    false,
+                    0,
+                    null,
+                    SplitMemoryLimit.UNLIMITED,
+                    new ZoneMaps(false, 1),
+                    "file",
+                    new ExcelStats());
+        }
+    }
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class RowCounter
+    {
+        public long rows;
+
+        @Setup(Level.Iteration)
+        public void reset()
+        {
+            rows = 0;
+        }
+    }
+
+    public static void main(String[] args)
+            throws Exception
+    {
+        Options options = new OptionsBuilder()
+                .verbosity(VerboseMode.NORMAL)
+                .include(".*" + BenchmarkExcelRecordCursor.class.getSimpleName() + ".*")
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.excel;
+
+import com.facebook.presto.common.type.Type;
+import com.google.common.collect.ImmutableList;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Locale;
+
+import static com.facebook.presto.common.type.DoubleType.DOUBLE;
+import static com.facebook.presto.common.type.VarcharType.VARCHAR;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+
+/**
+ * Synthetic workbooks for the benchmarks. A workbook has a header row and columns that are either all numeric or
+ * all strings, and is generated once into a directory shared by the benchmark forks.
+ */
+public final class BenchmarkWorkbooks
+{
+    public static final String SCHEMA = "benchmark";
+    // the header takes one of the rows of an xls sheet
+    public static final int MAX_XLS_ROWS = SpreadsheetVersion.EXCEL97.getMaxRows() - 1;
+    private static final int DISTINCT_STRINGS = 10_000;
+
+    private BenchmarkWorkbooks() {}
+
+    public enum Shape
+    {
+        NARROW(4),
+        WIDE(48);
+
+        private final int columns;
+
+        Shape(int columns)
+        {
+            this.columns = columns;
+        }
+
+        public int getColumns()
+        {
+            return columns;
+        }
+    }
+
+    public enum Content
+    {
+        NUMERIC(DOUBLE),
+        STRING(VARCHAR);
+
+        private final Type type;
+
+        Content(Type type)
+        {
+            this.type = type;
+        }
+
+        public Type getType()
+        {
+            return type;
+        }
+    }
+
+    public static File getBaseDirectory()
+    {
+        return new File(System.getProperty("java.io.tmpdir"), "presto-excel-benchmark");
+    }
+
+    /**
+     * Returns the number of data rows of the workbook, which for xls files is capped by the size of a sheet.
+     */
+    public static int getRows(String extension, int rows)
+    {
+        return extension.equals("xls") ? Math.min(rows, MAX_XLS_ROWS) : rows;
+    }
+
+    public static List<ExcelColumnHandle> getColumnHandles(Shape shape, Content content)
+    {
+        ImmutableList.Builder<ExcelColumnHandle> columnHandles = ImmutableList.builder();
+        for (int column = 0; column < shape.getColumns(); column++) {
+            columnHandles.add(new ExcelColumnHandle("column_" + column, content.getType(), column));
+        }
+        return columnHandles.build();
+    }
+
+    /**
+     * Returns the name of the workbook in the benchmark schema, generating it unless an earlier run did.
+     */
+    public static String getWorkbook(String extension, Shape shape, Content content, int rows)
+            throws IOException
+    {
+        rows = getRows(extension, rows);
+        String name = String.format("%s_%s_%s.%s", shape, content, rows, extension).toLowerCase(Locale.ENGLISH);
+        File file = new File(new File(getBaseDirectory(), SCHEMA), name);
+        if (file.exists()) {
+            return name;
+        }
+        Files.createDirectories(file.getParentFile().toPath());
+        File temporary = File.createTempFile(name, ".tmp", file.getParentFile());
+        try (Workbook workbook = extension.equals("xls") ? new HSSFWorkbook() : new SXSSFWorkbook(100);
+                OutputStream outputStream = new FileOutputStream(temporary)) {
+            writeSheet(workbook.createSheet("benchmark"), shape, content, rows);
+            workbook.write(outputStream);
+            if (workbook instanceof SXSSFWorkbook) {
+                ((SXSSFWorkbook) workbook).dispose();
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            temporary.delete();
+            throw e;
+        }
+        Files.move(temporary.toPath(), file.toPath(), ATOMIC_MOVE);
+        return name;
+    }
+
+    private static void writeSheet(Sheet sheet, Shape shape, Content content, int rows)
+    {
+        Row header = sheet.createRow(0);
+        for (int column = 0; column < shape.getColumns(); column++) {
+            header.createCell(column).setCellValue("column_" + column);
+        }
+        for (int row = 1; row <= rows; row++) {
+            Row cells = sheet.createRow(row);
+            for (int column = 0; column < shape.getColumns(); column++) {
+                long value = (long) row * shape.getColumns() + column;
+                if (content == Content.NUMERIC) {
+                    cells.createCell(column).setCellValue(value * 1.25);
+                }
+                else {
+                    cells.createCell(column).setCellValue("value " + (value * 31 % DISTINCT_STRINGS));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.excel;
+
+import com.facebook.presto.spi.ColumnHandle;
+import com.facebook.presto.spi.ColumnMetadata;
+import com.facebook.presto.spi.ConnectorSession;
+import com.facebook.presto.spi.ConnectorTableMetadata;
+import com.facebook.presto.spi.PrestoException;
+import com.facebook.presto.spi.SchemaTableName;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.MoreFiles;
+import org.ame.presto.excel.session.TestingHttpServer;
+import org.testng.Assert.ThrowingRunnable;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Optional;
+
+import static com.facebook.airlift.json.JsonCodec.listJsonCodec;
+import static com.facebook.airlift.json.JsonCodec.mapJsonCodec;
+import static com.facebook.presto.common.type.BigintType.BIGINT;
+import static com.facebook.presto.spi.StandardErrorCode.NOT_SUPPORTED;
+import static com.google.common.io.RecursiveDeleteOption.ALLOW_INSECURE;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.ame.presto.excel.ExcelColumnHandle.FILE_PATH_COLUMN_NAME;
+import static org.ame.presto.excel.ExcelColumnHandle.ROW_NUMBER_COLUMN_NAME;
+import static org.ame.presto.excel.ExcelColumnHandle.SHEET_COLUMN_NAME;
+import static org.ame.presto.excel.ExcelColumnHandle.rowNumberColumnHandle;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
+
+public class TestExcelMetadata
+{
+    private static final String SCHEMA = "schema";
+
+    private Path base;
+    private ExcelMetadata metadata;
+    private ConnectorSession session;
+
+    @BeforeClass
+    public void setUp()
+            throws Exception
+    {
+        base = Files.createTempDirectory("excel-metadata");
+        Path schema = Files.createDirectories(base.resolve(SCHEMA));
+        Files.write(schema.resolve("plain.csv"), "id,name\n1,one\n".getBytes(UTF_8));
+        Files.write(schema.resolve("colliding.csv"), ("id,$row_number,$sheet\n1,10,first\n").getBytes(UTF_8));
+
+        ExcelConfig config = new ExcelConfig()
+                .setProtocol("file")
+                .setBase(base.toString())
+                .setPort(0);
+        metadata = new ExcelMetadata(new ExcelClient(config, new ExcelStats(), mapJsonCodec(String.class, listJsonCodec(ExcelTable.class))), config);
+        session = new TestingConnectorSession("query", new ExcelSessionProperties(config).getSessionProperties());
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void tearDown()
+            throws Exception
+    {
+        MoreFiles.deleteRecursively(base, ALLOW_INSECURE);
+    }
+
+    @Test
+    public void testHiddenColumns()
+    {
+        Map<String, ColumnHandle> columnHandles = getColumnHandles("plain.csv");
+        assertEquals(columnHandles.size(), 6);
+        assertEquals(columnHandles.get(ROW_NUMBER_COLUMN_NAME), rowNumberColumnHandle());
+        assertTrue(((ExcelColumnHandle) columnHandles.get(FILE_PATH_COLUMN_NAME)).isHidden());
+    }
+
+    @Test
+    public void testSheetColumnsHideHiddenColumns()
+    {
+        Map<String, ColumnHandle> columnHandles = getColumnHandles("colliding.csv");
+        // the three columns of the file, and the two hidden columns it does not have
+        assertEquals(columnHandles.size(), 5);
+        for (String name : new String[] {ROW_NUMBER_COLUMN_NAME, SHEET_COLUMN_NAME}) {
+            ExcelColumnHandle column = (ExcelColumnHandle) columnHandles.get(name);
+            assertFalse(column.isHidden(), name);
+        }
+        assertEquals(((ExcelColumnHandle) columnHandles.get(ROW_NUMBER_COLUMN_NAME)).getOrdinalPosition(), 1);
+        assertTrue(((ExcelColumnHandle) columnHandles.get(FILE_PATH_COLUMN_NAME)).isHidden());
+    }
+
+    @Test
+    public void testWritesRejectedOverHttp()
+            throws Exception
+    {
+        try (TestingHttpServer server = new TestingHttpServer(base, true)) {
+            ExcelConfig config = new ExcelConfig()
+                    .setProtocol("http")
+                    .setBase("/")
+                    .setHost("127.0.0.1")
+                    .setPort(server.getPort());
+            ExcelMetadata httpMetadata = new ExcelMetadata(new ExcelClient(config, new ExcelStats(), mapJsonCodec(String.class, listJsonCodec(ExcelTable.class))), config);
+            ConnectorTableMetadata tableMetadata = new ConnectorTableMetadata(new SchemaTableName(SCHEMA, "created"), ImmutableList.of(new ColumnMetadata("id", BIGINT)));
+            assertNotSupported(() -> httpMetadata.beginCreateTable(session, tableMetadata, Optional.empty()));
+            assertNotSupported(() -> httpMetadata.beginInsert(session, new ExcelTableHandle(SCHEMA, "plain.csv")));
+        }
+    }
+
+    private static void assertNotSupported(ThrowingRunnable runnable)
+    {
+        PrestoException exception = expectThrows(PrestoException.class, runnable);
+        assertEquals(exception.getErrorCode(), NOT_SUPPORTED.toErrorCode());
+    }
+
+    private Map<String, ColumnHandle> getColumnHandles(String table)
+    {
+        return metadata.getColumnHandles(session, new ExcelTableHandle(SCHEMA, table));
+    }
+}
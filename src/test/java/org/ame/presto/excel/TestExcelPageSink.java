@@ -0,0 +1,134 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.excel;
+
+import com.facebook.presto.common.Page;
+import com.facebook.presto.common.block.BlockBuilder;
+import com.facebook.presto.spi.PrestoException;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.MoreFiles;
+import io.airlift.slice.Slice;
+import org.ame.presto.excel.session.LocalSession;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+
+import static com.facebook.presto.common.type.BigintType.BIGINT;
+import static com.facebook.presto.common.type.VarcharType.VARCHAR;
+import static com.facebook.presto.spi.StandardErrorCode.NOT_SUPPORTED;
+import static com.google.common.collect.Iterables.getOnlyElement;
+import static com.google.common.io.RecursiveDeleteOption.ALLOW_INSECURE;
+import static org.apache.poi.ss.usermodel.CellType.NUMERIC;
+import static org.apache.poi.ss.usermodel.CellType.STRING;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.fail;
+
+public class TestExcelPageSink
+{
+    private Path base;
+
+    @BeforeClass
+    public void setUp()
+            throws Exception
+    {
+        base = Files.createTempDirectory("excel-page-sink");
+        Files.createDirectories(base.resolve("schema").resolve("table"));
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void tearDown()
+            throws Exception
+    {
+        MoreFiles.deleteRecursively(base, ALLOW_INSECURE);
+    }
+
+    @Test
+    public void testTextTooLong()
+    {
+        BlockBuilder blockBuilder = VARCHAR.createBlockBuilder(null, 1);
+        VARCHAR.writeString(blockBuilder, Strings.repeat("x", 32768));
+        ExcelOutputTableHandle handle = new ExcelOutputTableHandle("schema", "table", "table", ImmutableList.of("value"), ImmutableList.of(VARCHAR), "long");
+        ExcelPageSink pageSink = new ExcelPageSink(handle, new LocalSession(ImmutableMap.of("base", base.toString())), 100);
+        try {
+            pageSink.appendPage(new Page(blockBuilder.build()));
+            fail("expected the value to be rejected");
+        }
+        catch (PrestoException e) {
+            assertEquals(e.getErrorCode(), NOT_SUPPORTED.toErrorCode());
+        }
+        finally {
+            pageSink.abort();
+        }
+    }
+
+    @Test
+    public void testAbortRemovesNewTable()
+            throws Exception
+    {
+        Files.createDirectories(base.resolve("schema").resolve(".created_query"));
+        BlockBuilder blockBuilder = BIGINT.createBlockBuilder(null, 1);
+        BIGINT.writeLong(blockBuilder, 42);
+        ExcelOutputTableHandle handle = new ExcelOutputTableHandle("schema", "created", ".created_query", ImmutableList.of("value"), ImmutableList.of(BIGINT), "query");
+        ExcelPageSink pageSink = new ExcelPageSink(handle, new LocalSession(ImmutableMap.of("base", base.toString())), 100);
+        pageSink.appendPage(new Page(blockBuilder.build()));
+        pageSink.abort();
+        assertFalse(Files.exists(base.resolve("schema").resolve(".created_query")));
+        assertFalse(Files.exists(base.resolve("schema").resolve("created")));
+    }
+
+    @Test
+    public void testBigintBeyondDoublePrecision()
+            throws Exception
+    {
+        long[] values = {0, -42, 1L << 53, -(1L << 53), (1L << 53) + 1, -(1L << 53) - 1, Long.MAX_VALUE, Long.MIN_VALUE};
+        BlockBuilder blockBuilder = BIGINT.createBlockBuilder(null, values.length);
+        for (long value : values) {
+            BIGINT.writeLong(blockBuilder, value);
+        }
+        ExcelOutputTableHandle handle = new ExcelOutputTableHandle("schema", "table", "table", ImmutableList.of("value"), ImmutableList.of(BIGINT), "test");
+        ExcelPageSink pageSink = new ExcelPageSink(handle, new LocalSession(ImmutableMap.of("base", base.toString())), 100);
+        pageSink.appendPage(new Page(blockBuilder.build()));
+        Collection<Slice> fragments = pageSink.finish().get();
+
+        File file = base.resolve("schema").resolve(getOnlyElement(fragments).toStringUtf8()).toFile();
+        try (InputStream inputStream = Files.newInputStream(file.toPath());
+                XSSFWorkbook workbook = new XSSFWorkbook(inputStream)) {
+            Sheet sheet = workbook.getSheetAt(0);
+            for (int i = 0; i < values.length; i++) {
+                Cell cell = sheet.getRow(i + 1).getCell(0);
+                if (values[i] >= -(1L << 53) && values[i] <= 1L << 53) {
+                    assertEquals(cell.getCellType(), NUMERIC);
+                    assertEquals((long) cell.getNumericCellValue(), values[i]);
+                }
+                else {
+                    // written as text, so that no digits are lost
+                    assertEquals(cell.getCellType(), STRING);
+                    assertEquals(Long.parseLong(cell.getStringCellValue()), values[i]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.excel;
+
+import com.facebook.presto.common.predicate.TupleDomain;
+import com.facebook.presto.spi.ConnectorSplit;
+import com.facebook.presto.spi.ConnectorSplitSource;
+import com.facebook.presto.spi.connector.ConnectorSplitManager.SplitSchedulingContext;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Ordering;
+import com.google.common.io.MoreFiles;
+import io.airlift.units.DataSize;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static com.facebook.airlift.json.JsonCodec.listJsonCodec;
+import static com.facebook.airlift.json.JsonCodec.mapJsonCodec;
+import static com.facebook.presto.spi.WarningCollector.NOOP;
+import static com.facebook.presto.spi.connector.ConnectorSplitManager.SplitSchedulingStrategy.UNGROUPED_SCHEDULING;
+import static com.facebook.presto.spi.connector.NotPartitionedPartitionHandle.NOT_PARTITIONED;
+import static com.google.common.io.RecursiveDeleteOption.ALLOW_INSECURE;
+import static io.airlift.units.DataSize.Unit.KILOBYTE;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestExcelSplitManager
+{
+    private static final String SCHEMA = "schema";
+
+    private Path base;
+    private ExcelSplitManager splitManager;
+    private ExcelSplitManager defaultSplitManager;
+
+    @BeforeClass
+    public void setUp()
+            throws Exception
+    {
+        base = Files.createTempDirectory("excel-split-manager");
+        Path schema = Files.createDirectories(base.resolve(SCHEMA));
+        StringBuilder plain = new StringBuilder("id,name\n");
+        StringBuilder quoted = new StringBuilder("id,name\n");
+        for (int i = 0; i < 1000; i++) {
+            plain.append(i).append(",name ").append(i).append('\n');
+            quoted.append(i).append(",\"first line\nsecond line ").append(i).append("\"\n");
+        }
+        Files.write(schema.resolve("plain.csv"), plain.toString().getBytes(UTF_8));
+        Files.write(schema.resolve("quoted.csv"), quoted.toString().getBytes(UTF_8));
+
+        splitManager = createSplitManager(true);
+        defaultSplitManager = createSplitManager(false);
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void tearDown()
+            throws Exception
+    {
+        splitManager.shutdown();
+        defaultSplitManager.shutdown();
+        MoreFiles.deleteRecursively(base, ALLOW_INSECURE);
+    }
+
+    @Test
+    public void testTextFileSplitIntoRanges()
+            throws Exception
+    {
+        List<ConnectorSplit> splits = getSplits(splitManager, "plain.csv", false);
+        assertTrue(splits.size() > 1);
+        // the ranges cover the file without gaps or overlaps
+        long position = 0;
+        for (ExcelSplit split : Ordering.natural().onResultOf(ExcelSplit::getStart).sortedCopy(Iterables.filter(splits, ExcelSplit.class))) {
+            assertEquals(split.getStart(), position);
+            position += split.getLength();
+        }
+        assertEquals(position, Files.size(base.resolve(SCHEMA).resolve("plain.csv")));
+    }
+
+    @Test
+    public void testSplittingDisabledByDefault()
+            throws Exception
+    {
+        assertSingleSplit(getSplits(defaultSplitManager, "plain.csv", false), "plain.csv");
+        assertSingleSplit(getSplits(defaultSplitManager, "quoted.csv", false), "quoted.csv");
+    }
+
+    @Test
+    public void testRowNumbersReadAsOneSplit()
+            throws Exception
+    {
+        assertSingleSplit(getSplits(splitManager, "plain.csv", true), "plain.csv");
+    }
+
+    private void assertSingleSplit(List<ConnectorSplit> splits, String file)
+            throws Exception
+    {
+        assertEquals(splits.size(), 1);
+        ExcelSplit split = (ExcelSplit) splits.get(0);
+        assertEquals(split.getStart(), 0);
+        assertEquals(split.getLength(), Files.size(base.resolve(SCHEMA).resolve(file)));
+    }
+
+    private ExcelSplitManager createSplitManager(boolean csvSplitEnabled)
+    {
+        ExcelConfig config = new ExcelConfig()
+                .setProtocol("file")
+                .setBase(base.toString())
+                .setPort(0)
+                .setCsvSplitEnabled(csvSplitEnabled)
+                .setCsvSplitSize(new DataSize(1, KILOBYTE));
+        return new ExcelSplitManager(new ExcelClient(config, new ExcelStats(), mapJsonCodec(String.class, listJsonCodec(ExcelTable.class))));
+    }
+
+    private List<ConnectorSplit> getSplits(ExcelSplitManager splitManager, String table, boolean rowNumbersNeeded)
+            throws Exception
+    {
+        ExcelTableLayoutHandle layout = new ExcelTableLayoutHandle(
+                new ExcelTableHandle(SCHEMA, table),
+                1,
+                Long.MAX_VALUE,
+                rowNumbersNeeded,
+                TupleDomain.all(),
+                TupleDomain.all());
+        ImmutableList.Builder<ConnectorSplit> splits = ImmutableList.builder();
+        try (ConnectorSplitSource splitSource = splitManager.getSplits(null, null, layout, new SplitSchedulingContext(UNGROUPED_SCHEDULING, false, NOOP))) {
+            while (!splitSource.isFinished()) {
+                splits.addAll(splitSource.getNextBatch(NOT_PARTITIONED, 1000).get().getSplits());
+            }
+        }
+        return splits.build();
+    }
+}
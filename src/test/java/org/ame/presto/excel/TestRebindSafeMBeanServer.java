@@ -0,0 +1,38 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.excel;
+
+import org.testng.annotations.Test;
+import org.weakref.jmx.MBeanExporter;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import static org.testng.Assert.assertEquals;
+
+public class TestRebindSafeMBeanServer
+{
+    @Test
+    public void testExportTwice()
+            throws Exception
+    {
+        MBeanServer mbeanServer = MBeanServerFactory.newMBeanServer();
+        String name = "org.ame.presto.excel:name=ExcelStats";
+        // a second catalog exports its stats under the same name
+        new MBeanExporter(new RebindSafeMBeanServer(mbeanServer)).export(name, new ExcelStats());
+        new MBeanExporter(new RebindSafeMBeanServer(mbeanServer)).export(name, new ExcelStats());
+        assertEquals(mbeanServer.queryNames(new ObjectName(name), null).size(), 1);
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.excel;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.MoreFiles;
+import org.ame.presto.excel.session.ISession;
+import org.ame.presto.excel.session.LocalSession;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.function.Predicate;
+
+import static com.google.common.io.RecursiveDeleteOption.ALLOW_INSECURE;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+
+public class TestSidecarFiles
+{
+    private static final String SCHEMA = "schema";
+
+    private final SidecarFiles sidecarFiles = new SidecarFiles(".test", "test sidecar");
+    private Path base;
+    private ISession session;
+
+    @BeforeClass
+    public void setUp()
+            throws Exception
+    {
+        base = Files.createTempDirectory("excel-sidecar-files");
+        Files.createDirectories(base.resolve(SCHEMA).resolve("table"));
+        session = new LocalSession(ImmutableMap.of("base", base.toString()));
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void tearDown()
+            throws Exception
+    {
+        session.close();
+        MoreFiles.deleteRecursively(base, ALLOW_INSECURE);
+    }
+
+    @Test
+    public void testPath()
+    {
+        assertEquals(sidecarFiles.getPath("book.xlsx"), ".book.xlsx.test");
+        assertEquals(sidecarFiles.getPath("table/book.xlsx"), "table/.book.xlsx.test");
+    }
+
+    @Test
+    public void testReplace()
+    {
+        String path = "table/replaced.xlsx";
+        assertEquals(read(path, contents -> true), Optional.empty());
+        write(path, "first");
+        assertEquals(read(path, contents -> true), Optional.of("first"));
+        write(path, "second");
+        assertEquals(read(path, contents -> true), Optional.of("second"));
+        // no temporary file is left behind
+        File[] files = base.resolve(SCHEMA).resolve("table").toFile().listFiles((directory, name) -> name.startsWith(".replaced.xlsx"));
+        assertEquals(files.length, 1);
+    }
+
+    @Test
+    public void testMismatch()
+    {
+        String path = "table/outdated.xlsx";
+        write(path, "outdated");
+        assertFalse(read(path, "current"::equals).isPresent());
+    }
+
+    private Optional<String> read(String path, Predicate<String> matches)
+    {
+        return sidecarFiles.read(session, SCHEMA, path, inputStream -> new String(ByteStreams.toByteArray(inputStream), UTF_8), matches);
+    }
+
+    private void write(String path, String contents)
+    {
+        sidecarFiles.write(session, SCHEMA, path, outputStream -> outputStream.write(contents.getBytes(UTF_8)));
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.excel;
+
+import com.facebook.presto.common.predicate.Domain;
+import com.facebook.presto.common.predicate.Range;
+import com.facebook.presto.common.predicate.TupleDomain;
+import com.facebook.presto.common.predicate.ValueSet;
+import com.facebook.presto.spi.ColumnHandle;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+
+import static com.facebook.presto.common.type.BigintType.BIGINT;
+import static com.facebook.presto.common.type.DoubleType.DOUBLE;
+import static com.facebook.presto.common.type.VarcharType.VARCHAR;
+import static io.airlift.slice.Slices.utf8Slice;
+import static org.testng.Assert.assertEquals;
+
+public class TestZoneMap
+{
+    private static final int BLOCK_ROWS = 10;
+    private static final int ROWS = 50;
+    private static final ExcelColumnHandle ID = new ExcelColumnHandle("id", BIGINT, 0);
+    private static final ExcelColumnHandle SCORE = new ExcelColumnHandle("score", DOUBLE, 1);
+    private static final ExcelColumnHandle NAME = new ExcelColumnHandle("name", VARCHAR, 2);
+    private static final ExcelColumnHandle PARENT = new ExcelColumnHandle("parent", BIGINT, 3);
+    private static final List<ExcelColumnHandle> COLUMNS = ImmutableList.of(ID, SCORE, NAME, PARENT);
+
+    @Test
+    public void testNoneAndAll()
+            throws Exception
+    {
+        for (ZoneMap zoneMap : createZoneMaps()) {
+            assertEquals(zoneMap.createFilter(TupleDomain.none()).getNextRow(1), Long.MAX_VALUE);
+            ZoneMap.BlockFilter filter = zoneMap.createFilter(TupleDomain.all());
+            for (long row = 1; row <= ROWS; row++) {
+                assertEquals(filter.getNextRow(row), row);
+            }
+        }
+    }
+
+    @Test
+    public void testRanges()
+            throws Exception
+    {
+        for (ZoneMap zoneMap : createZoneMaps()) {
+            ZoneMap.BlockFilter filter = zoneMap.createFilter(constraint(ID, Domain.singleValue(BIGINT, 25L)));
+            assertEquals(filter.getNextRow(1), 21);
+            assertEquals(filter.getNextRow(22), 22);
+            assertEquals(filter.getNextRow(31), Long.MAX_VALUE);
+            // a domain on a column that is not in the map matches every block
+            filter = zoneMap.createFilter(constraint(new ExcelColumnHandle("other", BIGINT, 9), Domain.singleValue(BIGINT, 25L)));
+            assertEquals(filter.getNextRow(1), 1);
+        }
+    }
+
+    @Test
+    public void testNaN()
+            throws Exception
+    {
+        // the scores are below 1, except in the third block, which has a NaN and no range
+        for (ZoneMap zoneMap : createZoneMaps()) {
+            ZoneMap.BlockFilter filter = zoneMap.createFilter(constraint(SCORE, Domain.create(ValueSet.ofRanges(Range.greaterThan(DOUBLE, 1000.0)), false)));
+            assertEquals(filter.getNextRow(1), 21);
+            assertEquals(filter.getNextRow(30), 30);
+            assertEquals(filter.getNextRow(31), Long.MAX_VALUE);
+        }
+    }
+
+    @Test
+    public void testLongVarchar()
+            throws Exception
+    {
+        // the fourth block has a name longer than a range keeps
+        for (ZoneMap zoneMap : createZoneMaps()) {
+            ZoneMap.BlockFilter filter = zoneMap.createFilter(constraint(NAME, Domain.singleValue(VARCHAR, utf8Slice("zzz"))));
+            assertEquals(filter.getNextRow(1), 31);
+            assertEquals(filter.getNextRow(41), Long.MAX_VALUE);
+            filter = zoneMap.createFilter(constraint(NAME, Domain.singleValue(VARCHAR, utf8Slice("name 7"))));
+            assertEquals(filter.getNextRow(1), 1);
+            assertEquals(filter.getNextRow(11), 31);
+        }
+    }
+
+    @Test
+    public void testNulls()
+            throws Exception
+    {
+        // the parent is null in the last block only
+        for (ZoneMap zoneMap : createZoneMaps()) {
+            assertEquals(zoneMap.createFilter(constraint(PARENT, Domain.onlyNull(BIGINT))).getNextRow(1), 41);
+            assertEquals(zoneMap.createFilter(constraint(PARENT, Domain.notNull(BIGINT))).getNextRow(41), Long.MAX_VALUE);
+        }
+    }
+
+    private static TupleDomain<ColumnHandle> constraint(ExcelColumnHandle column, Domain domain)
+    {
+        return TupleDomain.withColumnDomains(ImmutableMap.of(column, domain));
+    }
+
+    /**
+     * Returns the zone map of the rows, and the same map after it was written and read back.
+     */
+    private static List<ZoneMap> createZoneMaps()
+            throws Exception
+    {
+        ZoneMap.Builder builder = new ZoneMap.Builder(1000, 0, false, BLOCK_ROWS, COLUMNS);
+        for (long row = 1; row <= ROWS; row++) {
+            builder.add(0, row, row);
+            builder.add(1, row, row == 25 ? Double.NaN : row / 100.0);
+            builder.add(2, row, utf8Slice(row == 35 ? Strings.repeat("x", ZoneMap.MAX_STRING_LENGTH + 1) : "name " + row));
+            builder.add(3, row, row > 40 ? null : row - 1);
+        }
+        ZoneMap zoneMap = builder.build();
+        assertEquals(zoneMap.getRowCount(), ROWS);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        zoneMap.write(output);
+        return ImmutableList.of(zoneMap, ZoneMap.read(new ByteArrayInputStream(output.toByteArray())));
+    }
+}
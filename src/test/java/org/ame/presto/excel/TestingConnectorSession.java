@@ -0,0 +1,131 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.excel;
+
+import com.facebook.presto.common.function.SqlFunctionProperties;
+import com.facebook.presto.spi.ConnectorSession;
+import com.facebook.presto.spi.WarningCollector;
+import com.facebook.presto.spi.function.SqlFunctionId;
+import com.facebook.presto.spi.function.SqlInvokedFunction;
+import com.facebook.presto.spi.security.ConnectorIdentity;
+import com.facebook.presto.spi.session.PropertyMetadata;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A session of a query with the default values of the session properties of the connector.
+ */
+public class TestingConnectorSession
+        implements ConnectorSession
+{
+    private final String queryId;
+    private final Map<String, PropertyMetadata<?>> properties;
+
+    public TestingConnectorSession(String queryId, List<PropertyMetadata<?>> properties)
+    {
+        this.queryId = requireNonNull(queryId, "queryId is null");
+        this.properties = requireNonNull(properties, "properties is null").stream()
+                .collect(ImmutableMap.toImmutableMap(PropertyMetadata::getName, property -> property));
+    }
+
+    @Override
+    public String getQueryId()
+    {
+        return queryId;
+    }
+
+    @Override
+    public Optional<String> getSource()
+    {
+        return Optional.empty();
+    }
+
+    @Override
+    public ConnectorIdentity getIdentity()
+    {
+        return new ConnectorIdentity("user", Optional.empty(), Optional.empty());
+    }
+
+    @Override
+    public Locale getLocale()
+    {
+        return Locale.ENGLISH;
+    }
+
+    @Override
+    public Optional<String> getTraceToken()
+    {
+        return Optional.empty();
+    }
+
+    @Override
+    public Optional<String> getClientInfo()
+    {
+        return Optional.empty();
+    }
+
+    @Override
+    public Set<String> getClientTags()
+    {
+        return ImmutableSet.of();
+    }
+
+    @Override
+    public long getStartTime()
+    {
+        return 0;
+    }
+
+    @Override
+    public SqlFunctionProperties getSqlFunctionProperties()
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Map<SqlFunctionId, SqlInvokedFunction> getSessionFunctions()
+    {
+        return ImmutableMap.of();
+    }
+
+    @Override
+    public <T> T getProperty(String name, Class<T> type)
+    {
+        PropertyMetadata<?> property = properties.get(name);
+        if (property == null) {
+            throw new IllegalArgumentException("Unknown session property " + name);
+        }
+        return type.cast(property.getDefaultValue());
+    }
+
+    @Override
+    public Optional<String> getSchema()
+    {
+        return Optional.empty();
+    }
+
+    @Override
+    public WarningCollector getWarningCollector()
+    {
+        return WarningCollector.NOOP;
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.excel.session;
+
+import com.google.common.collect.ImmutableMap;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.VerboseMode;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Random;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.ame.presto.excel.BenchmarkWorkbooks.SCHEMA;
+import static org.ame.presto.excel.BenchmarkWorkbooks.getBaseDirectory;
+
+/**
+ * Reads a file through the input stream of a session, from the local disk or from an SFTP server on a local port,
+ * over one channel or several that download chunks of the file at the same time.
+ * The bytes counter reports bytes/sec, and the GC profiler the allocation rate.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(SECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.Throughput)
+public class BenchmarkSessionRead
+{
+    @Benchmark
+    public long readStream(BenchmarkData data, ByteCounter counter)
+            throws Exception
+    {
+        long checksum = 0;
+        try (InputStream inputStream = data.session.getInputStream(SCHEMA, data.file)) {
+            while (true) {
+                int read = inputStream.read(data.buffer);
+                if (read < 0) {
+                    break;
+                }
+                checksum += data.buffer[0];
+                counter.bytes += read;
+            }
+        }
+        return checksum;
+    }
+
+    @State(Scope.Thread)
+    public static class BenchmarkData
+    {
+        @Param({"file", "sftp"})
+        private String protocol = "file";
+
+        @Param({"16", "128"})
+        private int megabytes = 16;
+
+        // channels that download an SFTP file at the same time, local files are always read by one stream
+        @Param({"1", "4"})
+        private int downloadParallelism = 1;
+
+        private final byte[] buffer = new byte[64 * 1024];
+        private String file;
+        private TestingSftpServer server;
+        private ISession session;
+
+        @Setup(Level.Trial)
+        public void setup()
+                throws Exception
+        {
+            file = getFile(megabytes);
+            if (protocol.equals("sftp")) {
+                server = new TestingSftpServer(getBaseDirectory().toPath());
+                Map<String, String> sessionInfo = server.getSessionInfo();
+                sessionInfo.put("downloadParallelism", String.valueOf(downloadParallelism));
+                session = new SFTPSession(sessionInfo);
+            }
+            else {
+                session = new LocalSession(ImmutableMap.of("base", getBaseDirectory().getPath()));
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown()
+                throws Exception
+        {
+            session.close();
+            if (server != null) {
+                server.close();
+            }
+        }
+
+        /**
+         * Returns the name of a file of random bytes in the benchmark schema, generating it unless an earlier run did.
+         */
+        private static String getFile(int megabytes)
+                throws IOException
+        {
+            String name = "random_" + megabytes + "mb.bin";
+            File file = new File(new File(getBaseDirectory(), SCHEMA), name);
+            if (file.exists()) {
+                return name;
+            }
+            Files.createDirectories(file.getParentFile().toPath());
+            File temporary = File.createTempFile(name, ".tmp", file.getParentFile());
+            byte[] chunk = new byte[1024 * 1024];
+            Random random = new Random(megabytes);
+            try (OutputStream outputStream = new FileOutputStream(temporary)) {
+                for (int i = 0; i < megabytes; i++) {
+                    random.nextBytes(chunk);
+                    outputStream.write(chunk);
+                }
+            }
+            Files.move(temporary.toPath(), file.toPath(), ATOMIC_MOVE);
+            return name;
+        }
+    }
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class ByteCounter
+    {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset()
+        {
+            bytes = 0;
+        }
+    }
+
+    public static void main(String[] args)
+            throws Exception
+    {
+        Options options = new OptionsBuilder()
+                .verbosity(VerboseMode.NORMAL)
+                .include(".*" + BenchmarkSessionRead.class.getSimpleName() + ".*")
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.excel.session;
+
+import com.facebook.presto.spi.PrestoException;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.MoreFiles;
+import org.ame.presto.excel.SplitMemoryLimit;
+import org.ame.presto.excel.xlsx.XlsxWorkbook;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+
+import static com.facebook.presto.spi.StandardErrorCode.NOT_SUPPORTED;
+import static com.google.common.io.RecursiveDeleteOption.ALLOW_INSECURE;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
+
+public class TestHttpSession
+{
+    private static final String SCHEMA = "schema";
+    private static final String WORKBOOK = "book.xlsx";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private Path base;
+    private byte[] workbookBytes;
+    private byte[] sheetBytes;
+    private TestingHttpServer rangeServer;
+    private TestingHttpServer plainServer;
+
+    @BeforeClass
+    public void setUp()
+            throws Exception
+    {
+        base = Files.createTempDirectory("excel-http-session");
+        Path workbook = Files.createDirectories(base.resolve(SCHEMA)).resolve(WORKBOOK);
+        // the first sheet is small, the second one makes up most of the file and is never read
+        try (SXSSFWorkbook writer = new SXSSFWorkbook(100);
+                OutputStream outputStream = Files.newOutputStream(workbook)) {
+            Sheet small = writer.createSheet("small");
+            for (int i = 0; i < 100; i++) {
+                Row row = small.createRow(i);
+                row.createCell(0).setCellValue(i);
+                row.createCell(1).setCellValue("row " + i);
+            }
+            Sheet large = writer.createSheet("large");
+            Random random = new Random(42);
+            for (int i = 0; i < 50_000; i++) {
+                Row row = large.createRow(i);
+                for (int column = 0; column < 8; column++) {
+                    row.createCell(column).setCellValue(random.nextDouble());
+                }
+            }
+            writer.write(outputStream);
+            writer.dispose();
+        }
+        workbookBytes = Files.readAllBytes(workbook);
+        try (InputStream inputStream = Files.newInputStream(workbook)) {
+            sheetBytes = readFirstSheet(XlsxWorkbook.open(inputStream, BUFFER_SIZE, BUFFER_SIZE, true, null, SplitMemoryLimit.UNLIMITED, null));
+        }
+        rangeServer = new TestingHttpServer(base, true);
+        plainServer = new TestingHttpServer(base, false);
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void tearDown()
+            throws Exception
+    {
+        if (rangeServer != null) {
+            rangeServer.close();
+        }
+        if (plainServer != null) {
+            plainServer.close();
+        }
+        MoreFiles.deleteRecursively(base, ALLOW_INSECURE);
+    }
+
+    @Test
+    public void testWorkbookPartsFetchedByRange()
+            throws Exception
+    {
+        ISession session = new HttpSession(rangeServer.getSessionInfo());
+        Optional<RangeSource> source = session.getRangeSource(SCHEMA, WORKBOOK);
+        assertTrue(source.isPresent());
+        assertEquals(source.get().getSize(), workbookBytes.length);
+
+        rangeServer.resetBytesServed();
+        XlsxWorkbook workbook = XlsxWorkbook.open(source.get(), BUFFER_SIZE, BUFFER_SIZE, true, null, SplitMemoryLimit.UNLIMITED, null);
+        assertEquals(readFirstSheet(workbook), sheetBytes);
+        // the central directory, the workbook, styles and shared strings parts, and the first sheet
+        long served = rangeServer.getBytesServed();
+        assertEquals(served, workbook.getBytesRead());
+        assertTrue(served < workbookBytes.length / 10, "served " + served + " of " + workbookBytes.length + " bytes");
+    }
+
+    @Test
+    public void testFileChangedBetweenRanges()
+            throws Exception
+    {
+        Path file = base.resolve(SCHEMA).resolve("changed.xlsx");
+        Files.write(file, workbookBytes);
+        ISession session = new HttpSession(rangeServer.getSessionInfo());
+        RangeSource source = session.getRangeSource(SCHEMA, "changed.xlsx").get();
+        try (InputStream inputStream = source.getInputStream(0, 1000)) {
+            assertEquals(ByteStreams.toByteArray(inputStream), Arrays.copyOf(workbookBytes, 1000));
+        }
+
+        // the server answers the range with the whole new file, which must not be mixed with the old one
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() - 60_000));
+        expectThrows(IOException.class, () -> source.getInputStream(1000, 1000).close());
+    }
+
+    @Test
+    public void testServerWithoutRanges()
+            throws Exception
+    {
+        ISession session = new HttpSession(plainServer.getSessionInfo());
+        assertFalse(session.getRangeSource(SCHEMA, WORKBOOK).isPresent());
+
+        // the workbook is downloaded whole, as for any other session
+        plainServer.resetBytesServed();
+        try (InputStream inputStream = session.getInputStream(SCHEMA, WORKBOOK)) {
+            assertEquals(readFirstSheet(XlsxWorkbook.open(inputStream, BUFFER_SIZE, BUFFER_SIZE, true, null, SplitMemoryLimit.UNLIMITED, null)), sheetBytes);
+        }
+        assertEquals(plainServer.getBytesServed(), workbookBytes.length);
+
+        // a read from an offset skips the bytes before it when the server sends the whole file
+        try (InputStream inputStream = session.getInputStream(SCHEMA, WORKBOOK, 1000)) {
+            assertEquals(ByteStreams.toByteArray(inputStream), Arrays.copyOfRange(workbookBytes, 1000, workbookBytes.length));
+        }
+    }
+
+    @Test
+    public void testParallelDownload()
+            throws Exception
+    {
+        for (TestingHttpServer server : new TestingHttpServer[] {rangeServer, plainServer}) {
+            Map<String, String> sessionInfo = server.getSessionInfo();
+            sessionInfo.put("downloadParallelism", "4");
+            sessionInfo.put("downloadChunkSize", String.valueOf(64 * 1024));
+            ISession session = new HttpSession(sessionInfo);
+            try (InputStream inputStream = session.getInputStream(SCHEMA, WORKBOOK)) {
+                assertEquals(ByteStreams.toByteArray(inputStream), workbookBytes);
+            }
+        }
+    }
+
+    @Test
+    public void testReadOnly()
+    {
+        ISession session = new HttpSession(rangeServer.getSessionInfo());
+        assertTrue(session.isReadOnly());
+        PrestoException exception = expectThrows(PrestoException.class, () -> session.getOutputStream(SCHEMA, "written.xlsx"));
+        assertEquals(exception.getErrorCode(), NOT_SUPPORTED.toErrorCode());
+    }
+
+    private static byte[] readFirstSheet(XlsxWorkbook workbook)
+            throws Exception
+    {
+        try (XlsxWorkbook opened = workbook;
+                InputStream sheet = opened.openSheet()) {
+            return ByteStreams.toByteArray(sheet);
+        }
+    }
+}
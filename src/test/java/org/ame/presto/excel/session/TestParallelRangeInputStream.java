@@ -0,0 +1,164 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.excel.session;
+
+import com.google.common.io.ByteStreams;
+import org.ame.presto.excel.session.ParallelRangeInputStream.RangeReader;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class TestParallelRangeInputStream
+{
+    private static final String THREAD_NAME_FORMAT = "test-download-%s";
+
+    @Test
+    public void testOutOfOrderChunks()
+            throws Exception
+    {
+        byte[] file = createFile(10_000);
+        int chunkSize = 1000;
+        // the first chunk is only returned after the other readers finished a chunk each
+        CountDownLatch othersDone = new CountDownLatch(3);
+        List<Long> completed = new CopyOnWriteArrayList<>();
+        RangeReader reader = new FileRangeReader(file)
+        {
+            @Override
+            public void read(long offset, byte[] buffer)
+                    throws Exception
+            {
+                if (offset == 0) {
+                    assertTrue(othersDone.await(10, SECONDS));
+                }
+                super.read(offset, buffer);
+                completed.add(offset);
+                if (offset != 0) {
+                    othersDone.countDown();
+                }
+            }
+        };
+        try (InputStream inputStream = new ParallelRangeInputStream(() -> reader, THREAD_NAME_FORMAT, 0, file.length, chunkSize, 4)) {
+            assertEquals(ByteStreams.toByteArray(inputStream), file);
+        }
+        assertNotEquals(completed.get(0), 0L);
+        assertEquals(completed.size(), 10);
+    }
+
+    @Test
+    public void testOffset()
+            throws Exception
+    {
+        byte[] file = createFile(10_000);
+        try (InputStream inputStream = new ParallelRangeInputStream(() -> new FileRangeReader(file), THREAD_NAME_FORMAT, 1234, 5000, 700, 3)) {
+            byte[] expected = new byte[5000];
+            System.arraycopy(file, 1234, expected, 0, expected.length);
+            assertEquals(ByteStreams.toByteArray(inputStream), expected);
+        }
+    }
+
+    @Test
+    public void testReaderFailure()
+            throws Exception
+    {
+        byte[] file = createFile(10_000);
+        // the reader given the chunk in the middle of the file loses its channel
+        RangeReader reader = new FileRangeReader(file)
+        {
+            @Override
+            public void read(long offset, byte[] buffer)
+                    throws Exception
+            {
+                if (offset == 5000) {
+                    throw new IOException("channel is broken");
+                }
+                super.read(offset, buffer);
+            }
+        };
+        try (InputStream inputStream = new ParallelRangeInputStream(
+                () -> reader,
+                THREAD_NAME_FORMAT,
+                0,
+                file.length,
+                100,
+                2)) {
+            ByteStreams.toByteArray(inputStream);
+            fail("expected the failure of the reader");
+        }
+        catch (IOException e) {
+            assertEquals(e.getCause().getMessage(), "channel is broken");
+        }
+    }
+
+    @Test
+    public void testOpenFailure()
+    {
+        try (InputStream inputStream = new ParallelRangeInputStream(
+                () -> {
+                    throw new IOException("cannot open a channel");
+                },
+                THREAD_NAME_FORMAT,
+                0,
+                1000,
+                100,
+                2)) {
+            inputStream.read();
+            fail("expected the failure to open a reader");
+        }
+        catch (IOException e) {
+            assertEquals(e.getCause().getMessage(), "cannot open a channel");
+        }
+    }
+
+    private static byte[] createFile(int size)
+    {
+        byte[] file = new byte[size];
+        for (int i = 0; i < size; i++) {
+            file[i] = (byte) (i * 31 + i / 256);
+        }
+        return file;
+    }
+
+    private static class FileRangeReader
+            implements RangeReader
+    {
+        private final byte[] file;
+
+        FileRangeReader(byte[] file)
+        {
+            this.file = file;
+        }
+
+        @Override
+        public void read(long offset, byte[] buffer)
+                throws Exception
+        {
+            System.arraycopy(file, (int) offset, buffer, 0, buffer.length);
+        }
+
+        @Override
+        public void close()
+        {
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.excel.session;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.MoreFiles;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Random;
+
+import static com.google.common.io.RecursiveDeleteOption.ALLOW_INSECURE;
+import static org.testng.Assert.assertEquals;
+
+public class TestSFTPSession
+{
+    private static final String SCHEMA = "schema";
+    private static final String FILE = "random.bin";
+
+    private Path base;
+    private byte[] contents;
+    private TestingSftpServer server;
+
+    @BeforeClass
+    public void setUp()
+            throws Exception
+    {
+        base = Files.createTempDirectory("excel-sftp-session");
+        contents = new byte[3 * 1024 * 1024 + 123];
+        new Random(42).nextBytes(contents);
+        Files.write(Files.createDirectories(base.resolve(SCHEMA)).resolve(FILE), contents);
+        server = new TestingSftpServer(base);
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void tearDown()
+            throws Exception
+    {
+        if (server != null) {
+            server.close();
+        }
+        MoreFiles.deleteRecursively(base, ALLOW_INSECURE);
+    }
+
+    @Test
+    public void testSequentialDownload()
+            throws Exception
+    {
+        assertEquals(read(1), contents);
+    }
+
+    @Test
+    public void testParallelDownload()
+            throws Exception
+    {
+        assertEquals(read(4), contents);
+    }
+
+    private byte[] read(int parallelism)
+            throws Exception
+    {
+        Map<String, String> sessionInfo = server.getSessionInfo();
+        sessionInfo.put("downloadParallelism", String.valueOf(parallelism));
+        // several chunks per channel, and a last chunk that is not full
+        sessionInfo.put("downloadChunkSize", String.valueOf(256 * 1024));
+        ISession session = new SFTPSession(sessionInfo);
+        try (InputStream inputStream = session.getInputStream(SCHEMA, FILE)) {
+            return ByteStreams.toByteArray(inputStream);
+        }
+        finally {
+            session.close();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.excel.session;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.time.format.DateTimeFormatter.RFC_1123_DATE_TIME;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * An HTTP server on a local port that serves the files of a directory, for HttpSession to connect to.
+ * It answers range requests unless ranges are disabled, in which case it always sends whole files,
+ * and counts the bytes of the file bodies it sends. Files carry an entity tag and a modification time,
+ * and a range whose If-Range no longer matches them is answered with the whole file.
+ */
+public class TestingHttpServer
+        implements Closeable
+{
+    private final Path root;
+    private final boolean rangesSupported;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("testing-http-server-%s").setDaemon(true).build());
+    private final AtomicLong bytesServed = new AtomicLong();
+
+    public TestingHttpServer(Path root, boolean rangesSupported)
+            throws IOException
+    {
+        this.root = requireNonNull(root, "root is null");
+        this.rangesSupported = rangesSupported;
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public int getPort()
+    {
+        return server.getAddress().getPort();
+    }
+
+    public long getBytesServed()
+    {
+        return bytesServed.get();
+    }
+
+    public void resetBytesServed()
+    {
+        bytesServed.set(0);
+    }
+
+    /**
+     * Returns the settings of a session on the served directory, as ExcelClient builds them.
+     */
+    public Map<String, String> getSessionInfo()
+    {
+        Map<String, String> sessionInfo = new HashMap<>();
+        sessionInfo.put("base", "/");
+        sessionInfo.put("protocol", "http");
+        sessionInfo.put("host", "127.0.0.1");
+        sessionInfo.put("port", String.valueOf(getPort()));
+        return sessionInfo;
+    }
+
+    @Override
+    public void close()
+    {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange)
+            throws IOException
+    {
+        try (InputStream requestBody = exchange.getRequestBody()) {
+            ByteStreams.exhaust(requestBody);
+            Path file = root.resolve(exchange.getRequestURI().getPath().substring(1));
+            if (!Files.isRegularFile(file)) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            long size = Files.size(file);
+            long start = 0;
+            long end = size - 1;
+            int responseCode = 200;
+            Headers headers = exchange.getResponseHeaders();
+            long modified = Files.getLastModifiedTime(file).toMillis();
+            String entityTag = "\"" + size + "-" + modified + "\"";
+            String lastModified = RFC_1123_DATE_TIME.format(ZonedDateTime.ofInstant(Instant.ofEpochMilli(modified), ZoneOffset.UTC));
+            headers.set("ETag", entityTag);
+            headers.set("Last-Modified", lastModified);
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+            if (rangesSupported) {
+                headers.set("Accept-Ranges", "bytes");
+                if (range != null && (ifRange == null || ifRange.equals(entityTag) || ifRange.equals(lastModified))) {
+                    // only single ranges, e.g. bytes=100-199 or bytes=100-
+                    String[] bounds = range.substring("bytes=".length()).split("-", -1);
+                    start = Long.parseLong(bounds[0]);
+                    end = bounds[1].isEmpty() ? size - 1 : Math.min(Long.parseLong(bounds[1]), size - 1);
+                    responseCode = 206;
+                    headers.set("Content-Range", "bytes " + start + "-" + end + "/" + size);
+                }
+            }
+            long length = end - start + 1;
+            if (exchange.getRequestMethod().equals("HEAD")) {
+                headers.set("Content-Length", String.valueOf(length));
+                exchange.sendResponseHeaders(responseCode, -1);
+                return;
+            }
+            // counted before the body is sent, so that a client that read the body also sees the count
+            bytesServed.addAndGet(length);
+            exchange.sendResponseHeaders(responseCode, length);
+            try (RandomAccessFile input = new RandomAccessFile(file.toFile(), "r");
+                    OutputStream output = exchange.getResponseBody()) {
+                input.seek(start);
+                ByteStreams.copy(ByteStreams.limit(Channels.newInputStream(input.getChannel()), length), output);
+            }
+        }
+        finally {
+            exchange.close();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.excel.session;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.sshd.common.file.virtualfs.VirtualFileSystemFactory;
+import org.apache.sshd.server.SshServer;
+import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
+import org.apache.sshd.sftp.server.SftpSubsystemFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * An SFTP server on a local port that serves a directory, for SFTPSession to connect to.
+ */
+public class TestingSftpServer
+        implements Closeable
+{
+    private static final String USERNAME = "presto";
+    private static final String PASSWORD = "presto";
+
+    private final SshServer server;
+
+    public TestingSftpServer(Path root)
+            throws IOException
+    {
+        requireNonNull(root, "root is null");
+        server = SshServer.setUpDefaultServer();
+        server.setHost("127.0.0.1");
+        server.setPort(0);
+        // the host key is generated in memory
+        server.setKeyPairProvider(new SimpleGeneratorHostKeyProvider());
+        server.setPasswordAuthenticator((username, password, session) -> USERNAME.equals(username) && PASSWORD.equals(password));
+        server.setSubsystemFactories(ImmutableList.of(new SftpSubsystemFactory()));
+        server.setFileSystemFactory(new VirtualFileSystemFactory(root));
+        server.start();
+    }
+
+    public int getPort()
+    {
+        return server.getPort();
+    }
+
+    /**
+     * Returns the settings of a session on the served directory, as ExcelClient builds them.
+     */
+    public Map<String, String> getSessionInfo()
+    {
+        Map<String, String> sessionInfo = new HashMap<>();
+        sessionInfo.put("base", "/");
+        sessionInfo.put("protocol", "sftp");
+        sessionInfo.put("host", "127.0.0.1");
+        sessionInfo.put("port", String.valueOf(getPort()));
+        sessionInfo.put("username", USERNAME);
+        sessionInfo.put("password", PASSWORD);
+        return sessionInfo;
+    }
+
+    @Override
+    public void close()
+            throws IOException
+    {
+        server.stop(true);
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.excel.xlsx;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.MoreFiles;
+import com.google.common.primitives.Bytes;
+import org.ame.presto.excel.SplitMemoryLimit;
+import org.ame.presto.excel.xlsx.DeflateCheckpointIndex.Checkpoint;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.Random;
+
+import static com.google.common.io.RecursiveDeleteOption.ALLOW_INSECURE;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestDeflateCheckpointIndex
+{
+    private static final int BUFFER_SIZE = 8192;
+    private static final long INTERVAL = 64 * 1024;
+    private static final int ROWS = 20_000;
+
+    private Path base;
+    private Path workbookPath;
+    private byte[] sheet;
+
+    @BeforeClass
+    public void setUp()
+            throws Exception
+    {
+        base = Files.createTempDirectory("excel-deflate-checkpoints");
+        workbookPath = base.resolve("book.xlsx");
+        try (SXSSFWorkbook writer = new SXSSFWorkbook(100);
+                OutputStream outputStream = Files.newOutputStream(workbookPath)) {
+            Sheet data = writer.createSheet("data");
+            Random random = new Random(42);
+            for (int i = 0; i < ROWS; i++) {
+                Row row = data.createRow(i);
+                row.createCell(0).setCellValue(i);
+                row.createCell(1).setCellValue(random.nextDouble());
+                row.createCell(2).setCellValue("text " + random.nextInt(1000));
+            }
+            writer.write(outputStream);
+            writer.dispose();
+        }
+        try (XlsxWorkbook workbook = openWorkbook();
+                InputStream inputStream = workbook.openSheet()) {
+            sheet = ByteStreams.toByteArray(inputStream);
+        }
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void tearDown()
+            throws Exception
+    {
+        MoreFiles.deleteRecursively(base, ALLOW_INSECURE);
+    }
+
+    @Test
+    public void testResumeAtCheckpoints()
+            throws Exception
+    {
+        DeflateCheckpointIndex index = buildIndex();
+        assertEquals(index.getRowCount(), ROWS - 1);
+        assertTrue(index.getCheckpoints().size() > 5, "checkpoints: " + index.getCheckpoints().size());
+        // blocks of deflated data rarely start at a byte, so most checkpoints inflate a shifted copy of the data
+        assertTrue(index.getCheckpoints().stream().anyMatch(checkpoint -> checkpoint.getBitOffset() % 8 != 0));
+        // the document up to the first row, which a resumed stream starts with
+        byte[] prefix = Arrays.copyOf(sheet, Bytes.indexOf(sheet, "<row".getBytes(UTF_8)));
+        try (XlsxWorkbook workbook = openWorkbook()) {
+            assertTrue(workbook.isIndexed(index, 0));
+            for (Checkpoint checkpoint : index.getCheckpoints()) {
+                byte[] expected = Bytes.concat(prefix, Arrays.copyOfRange(sheet, (int) checkpoint.getRowOffset(), sheet.length));
+                try (InputStream inputStream = workbook.openSheetAt(index, checkpoint, BUFFER_SIZE)) {
+                    assertEquals(ByteStreams.toByteArray(inputStream), expected, "checkpoint at bit " + checkpoint.getBitOffset());
+                }
+                // the checkpoint is at the start of the row with its number
+                String row = new String(sheet, (int) checkpoint.getRowOffset(), 32, UTF_8);
+                assertTrue(row.startsWith("<row r=\"" + (checkpoint.getRowNumber() + 1) + "\""), row);
+            }
+        }
+    }
+
+    @Test
+    public void testIndexRoundTrip()
+            throws Exception
+    {
+        DeflateCheckpointIndex index = buildIndex();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        index.write(output);
+        DeflateCheckpointIndex read = DeflateCheckpointIndex.read(new ByteArrayInputStream(output.toByteArray()), true);
+        assertEquals(read.getRowCount(), index.getRowCount());
+        assertEquals(read.getCheckpoints().size(), index.getCheckpoints().size());
+        try (XlsxWorkbook workbook = openWorkbook()) {
+            Checkpoint checkpoint = read.getCheckpoints().get(read.getCheckpoints().size() / 2);
+            try (InputStream inputStream = workbook.openSheetAt(read, checkpoint, BUFFER_SIZE)) {
+                byte[] resumed = ByteStreams.toByteArray(inputStream);
+                byte[] suffix = Arrays.copyOfRange(sheet, (int) checkpoint.getRowOffset(), sheet.length);
+                assertEquals(Arrays.copyOfRange(resumed, resumed.length - suffix.length, resumed.length), suffix);
+            }
+        }
+    }
+
+    private DeflateCheckpointIndex buildIndex()
+            throws Exception
+    {
+        try (XlsxWorkbook workbook = openWorkbook();
+                CheckpointingInflaterInputStream inputStream = workbook.openIndexingSheet(INTERVAL, BUFFER_SIZE)) {
+            // the indexing inflater returns the same output as the inflater of the zip file
+            assertEquals(ByteStreams.toByteArray(inputStream), sheet);
+            Optional<DeflateCheckpointIndex> index = inputStream.getIndex(Files.size(workbookPath), 0);
+            assertTrue(index.isPresent());
+            return index.get();
+        }
+    }
+
+    private XlsxWorkbook openWorkbook()
+            throws Exception
+    {
+        return XlsxWorkbook.open(Files.newInputStream(workbookPath), BUFFER_SIZE, BUFFER_SIZE, true, null, SplitMemoryLimit.UNLIMITED, null);
+    }
+}
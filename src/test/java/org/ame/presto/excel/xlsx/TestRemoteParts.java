@@ -0,0 +1,134 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.excel.xlsx;
+
+import com.google.common.collect.ImmutableMap;
+import org.ame.presto.excel.session.RangeSource;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertThrows;
+import static org.testng.Assert.assertTrue;
+
+public class TestRemoteParts
+{
+    private static final int SIZE = 1024 * 1024;
+
+    @Test(timeOut = 30_000)
+    public void testConcurrentFetches()
+            throws Exception
+    {
+        byte[] bytes = new byte[SIZE];
+        new Random(42).nextBytes(bytes);
+        // the fetch of the sheet is held until the shared strings were fetched
+        CountDownLatch sheetStarted = new CountDownLatch(1);
+        CountDownLatch sharedStringsFetched = new CountDownLatch(1);
+        AtomicInteger sheetFetches = new AtomicInteger();
+        RangeSource source = new RangeSource()
+        {
+            @Override
+            public long getSize()
+            {
+                return SIZE;
+            }
+
+            @Override
+            public InputStream getInputStream(long offset, long length)
+                    throws Exception
+            {
+                if (offset == 0) {
+                    sheetFetches.incrementAndGet();
+                    sheetStarted.countDown();
+                    assertTrue(sharedStringsFetched.await(10, TimeUnit.SECONDS));
+                }
+                return new ByteArrayInputStream(bytes, (int) offset, (int) length);
+            }
+        };
+        File file = File.createTempFile("remote-parts", ".xlsx");
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try (RemoteParts parts = new RemoteParts(source, file, ImmutableMap.of("sheet", new long[] {0, SIZE / 2}, "strings", new long[] {SIZE / 2, SIZE}), 4096)) {
+            Future<?> first = executor.submit(() -> {
+                parts.fetch("sheet");
+                return null;
+            });
+            assertTrue(sheetStarted.await(10, TimeUnit.SECONDS));
+            // a second reader of the sheet waits for the first fetch instead of fetching it again
+            Future<?> second = executor.submit(() -> {
+                parts.fetch("sheet");
+                return null;
+            });
+            // another part is fetched while the sheet is being fetched
+            parts.fetch("strings");
+            sharedStringsFetched.countDown();
+            first.get();
+            second.get();
+            parts.fetch("sheet");
+            assertEquals(sheetFetches.get(), 1);
+            assertEquals(parts.getBytesRead(), SIZE);
+            assertEquals(Files.readAllBytes(file.toPath()), bytes);
+        }
+        finally {
+            executor.shutdownNow();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testFailedFetchIsRetried()
+            throws Exception
+    {
+        byte[] bytes = new byte[SIZE];
+        new Random(7).nextBytes(bytes);
+        AtomicInteger fetches = new AtomicInteger();
+        RangeSource source = new RangeSource()
+        {
+            @Override
+            public long getSize()
+            {
+                return SIZE;
+            }
+
+            @Override
+            public InputStream getInputStream(long offset, long length)
+            {
+                // the first fetch ends early
+                int available = fetches.getAndIncrement() == 0 ? (int) length / 2 : (int) length;
+                return new ByteArrayInputStream(bytes, (int) offset, available);
+            }
+        };
+        File file = File.createTempFile("remote-parts", ".xlsx");
+        try (RemoteParts parts = new RemoteParts(source, file, ImmutableMap.of("sheet", new long[] {0, SIZE}), 4096)) {
+            assertThrows(EOFException.class, () -> parts.fetch("sheet"));
+            parts.fetch("sheet");
+            assertEquals(fetches.get(), 2);
+            assertEquals(Files.readAllBytes(file.toPath()), bytes);
+        }
+        finally {
+            file.delete();
+        }
+    }
+}
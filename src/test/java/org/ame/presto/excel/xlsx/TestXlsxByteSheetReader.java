@@ -0,0 +1,165 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ame.presto.excel.xlsx;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.ame.presto.excel.xlsx.SheetReader.NUMBER;
+import static org.ame.presto.excel.xlsx.SheetReader.SHARED_STRING;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestXlsxByteSheetReader
+{
+    private static final String SHEET = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+            + "<worksheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\" "
+            + "xmlns:r=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships\">"
+            + "<sheetPr><pageSetUpPr fitToPage=\"1\"/></sheetPr><dimension ref=\"A1:AA7\"/>"
+            + "<sheetData>"
+            + "<row r=\"1\" spans=\"1:3\"><c r=\"A1\" t=\"s\"><v>0</v></c><c r=\"B1\" t=\"s\"><v>1</v></c>"
+            + "<c r=\"C1\" t=\"inlineStr\"><is><t>header</t></is></c></row>"
+            // entities and character references, a formula with a cached result, booleans and errors
+            + "<row r=\"2\"><c r=\"A2\" s=\"1\"><v>42</v></c><c r=\"B2\"><v>-1.5E-3</v></c>"
+            + "<c r=\"C2\" t=\"str\"><f>A2&amp;\"x\"</f><v>a &amp; b &lt;c&gt; &quot;&apos; &#65;&#x42;</v></c>"
+            + "<c r=\"D2\" t=\"b\"><v>1</v></c><c r=\"E2\" t=\"e\"><v>#DIV/0!</v></c></row>"
+            // rich text runs with a phonetic run, CDATA, and a number beyond the exact mantissas
+            + "<row r=\"3\"><c r=\"A3\" t=\"inlineStr\"><is><r><rPr><b/></rPr><t xml:space=\"preserve\">rich </t></r>"
+            + "<r><t>text</t></r><rPh sb=\"0\" eb=\"1\"><t>phonetic</t></rPh></is></c>"
+            + "<c r=\"B3\" t=\"str\"><v><![CDATA[<cdata> & ]]>more</v></c><c r=\"F3\"><v>12345678901234567890</v></c></row>"
+            + "<row r=\"4\"/>"
+            // cells without references, a blank styled cell and an empty shared string index
+            + "<row r=\"5\"><c><v>1</v></c><c><v>2</v></c><c s=\"2\"/><c r=\"E5\" t=\"s\"><v></v></c></row>"
+            + "<row r=\"6\"><!-- comment --><c r=\"B6\" t=\"str\"><v>caf&#233; 日本</v></c>"
+            + "<c r=\"AA6\"><v>3.14159</v></c></row>"
+            + "<row r=\"7\" customHeight=\"1\" ht=\"20\"><c r=\"A7\" t=\"n\"><v>1e22</v></c>"
+            + "<c r=\"B7\" t=\"inlineStr\"><is><t>x &gt; y</t></is></c></row>"
+            + "</sheetData><mergeCells count=\"1\"><mergeCell ref=\"A1:B1\"/></mergeCells>"
+            + "</worksheet>";
+
+    @Test
+    public void testReadersAgree()
+            throws Exception
+    {
+        boolean[] all = new boolean[30];
+        Arrays.fill(all, true);
+        boolean[] some = new boolean[30];
+        some[1] = true;
+        some[2] = true;
+        some[26] = true;
+        for (boolean[] projected : new boolean[][] {all, some, new boolean[0]}) {
+            assertReadersAgree(projected, -1);
+            assertReadersAgree(projected, 2);
+        }
+    }
+
+    @Test
+    public void testValues()
+            throws Exception
+    {
+        boolean[] projected = new boolean[30];
+        Arrays.fill(projected, true);
+        try (SheetReader reader = new XlsxByteSheetReader(new ByteArrayInputStream(SHEET.getBytes(UTF_8)), projected)) {
+            assertTrue(reader.nextRow());
+            assertTrue(reader.nextRow());
+            assertEquals(reader.getValue(2), "a & b <c> \"' AB");
+            assertTrue(reader.nextRow());
+            assertEquals(reader.getValue(0), "rich text");
+            assertEquals(reader.getValue(1), "<cdata> & more");
+            assertEquals(reader.getColumn(2), 5);
+        }
+    }
+
+    @Test
+    public void testParseDouble()
+    {
+        String[] texts = {
+                "0", "-0", "+0", "1", "-1", "0.1", ".5", "5.", "1e22", "1e23", "1e-22", "1e-23", "123.456e-5", "1E+10",
+                "9007199254740992", "9007199254740993", "12345678901234567890", "0.30000000000000004", "4.9e-324",
+                "1.7976931348623157e308", "2.2250738585072014E-308", "100000000000000000000000", "-3.14159", "00012.50"};
+        for (String text : texts) {
+            assertParseDouble(text);
+        }
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            assertParseDouble(Double.toString(Double.longBitsToDouble(random.nextLong())).replace("Infinity", "1").replace("NaN", "2"));
+            // decimals of up to 17 digits with a point and an exponent, as spreadsheets write them
+            StringBuilder text = new StringBuilder();
+            if (random.nextBoolean()) {
+                text.append('-');
+            }
+            int digits = 1 + random.nextInt(17);
+            int point = random.nextInt(digits + 1);
+            for (int digit = 0; digit < digits; digit++) {
+                if (digit == point && digit > 0) {
+                    text.append('.');
+                }
+                text.append((char) ('0' + random.nextInt(10)));
+            }
+            if (random.nextInt(4) == 0) {
+                text.append('E').append(random.nextInt(61) - 30);
+            }
+            assertParseDouble(text.toString());
+        }
+    }
+
+    private static void assertParseDouble(String text)
+    {
+        byte[] bytes = text.getBytes(UTF_8);
+        double expected = Double.parseDouble(text);
+        double actual = XlsxByteSheetReader.parseDouble(bytes, bytes.length);
+        assertEquals(Double.doubleToRawLongBits(actual), Double.doubleToRawLongBits(expected), text);
+    }
+
+    /**
+     * Reads the sheet with both readers, skipping the row with the index unless it is negative.
+     */
+    private static void assertReadersAgree(boolean[] projected, int skippedRow)
+            throws Exception
+    {
+        try (SheetReader expected = new XlsxSheetReader(new ByteArrayInputStream(SHEET.getBytes(UTF_8)), projected);
+                SheetReader actual = new XlsxByteSheetReader(new ByteArrayInputStream(SHEET.getBytes(UTF_8)), projected)) {
+            int rows = 0;
+            while (true) {
+                boolean more = rows == skippedRow ? expected.skipRow() : expected.nextRow();
+                assertEquals(rows == skippedRow ? actual.skipRow() : actual.nextRow(), more, "row " + rows);
+                if (!more) {
+                    break;
+                }
+                assertEquals(actual.getCellCount(), expected.getCellCount(), "row " + rows);
+                for (int cell = 0; cell < expected.getCellCount(); cell++) {
+                    String position = "row " + rows + ", cell " + cell;
+                    assertEquals(actual.getColumn(cell), expected.getColumn(cell), position);
+                    assertEquals(actual.getType(cell), expected.getType(cell), position);
+                    assertEquals(actual.getStyle(cell), expected.getStyle(cell), position);
+                    assertEquals(actual.getValue(cell), expected.getValue(cell), position);
+                    if (expected.getType(cell) == NUMBER) {
+                        assertEquals(Double.doubleToRawLongBits(actual.getNumber(cell)), Double.doubleToRawLongBits(expected.getNumber(cell)), position);
+                    }
+                    if (expected.getType(cell) == SHARED_STRING) {
+                        assertEquals(actual.getSharedStringIndex(cell), expected.getSharedStringIndex(cell), position);
+                    }
+                }
+                rows++;
+            }
+            assertEquals(rows, 7);
+            assertFalse(actual.nextRow());
+        }
+    }
+}